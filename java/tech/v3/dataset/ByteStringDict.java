@@ -0,0 +1,353 @@
+package tech.v3.dataset;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Function;
+
+
+/**
+ * String dictionary that stores the UTF-8 bytes of each distinct string in off-heap
+ * (direct) memory.  The java heap only holds a primitive offsets array, a primitive
+ * per-entry hash array and a primitive open-addressing index so a dictionary of tens of
+ * millions of strings is a handful of objects as far as the garbage collector is
+ * concerned.  Strings are only materialized on get.
+ *
+ * The dictionary is a List of its strings - add appends a new entry - and strToInt
+ * returns a Map view of the reverse lookup so it can be used as the int->str and str->int
+ * members of a string table.  Adding is not thread safe.
+ *
+ * Byte storage is a list of direct buffers.  The first chunk is small and each new chunk
+ * is twice the size of the last until the maximum chunk size is reached so the many
+ * small dictionaries of a parse do not each reserve a large block of direct memory.
+ */
+public class ByteStringDict extends AbstractList<String> implements RandomAccess {
+  public static final int DEFAULT_INITIAL_CHUNK_SIZE = 1 << 16;
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+  //Chunk sizes are powers of two - chunk k holds initialChunkSize << k bytes until
+  //that reaches chunkSize.
+  final int initialChunkSize;
+  final int chunkSize;
+  //Number of growing chunks and the bytes they hold together.
+  final int nGrowthChunks;
+  final long growthBytes;
+  ByteBuffer[] chunks = new ByteBuffer[0];
+  //Absolute byte position of the end of the written data.
+  long nBytes = 0;
+  //offsets[i] is the start of entry i, offsets[size] is nBytes.
+  long[] offsets = new long[17];
+  int[] hashes = new int[16];
+  int size = 0;
+  //Open addressing table of entry index + 1, 0 means empty.
+  int[] slots = new int[32];
+  int mask = 31;
+  final StrToInt strToInt = new StrToInt();
+
+  static int powerOfTwo(int v) {
+    if (v <= 1)
+      return 1;
+    final int rv = Integer.highestOneBit(v);
+    return rv == v ? v : rv << 1;
+  }
+
+  public ByteStringDict(int _initialChunkSize, int _chunkSize) {
+    chunkSize = powerOfTwo(_chunkSize);
+    initialChunkSize = Math.min(powerOfTwo(_initialChunkSize), chunkSize);
+    nGrowthChunks = Integer.numberOfTrailingZeros(chunkSize / initialChunkSize);
+    growthBytes = (long)initialChunkSize * ((1L << nGrowthChunks) - 1);
+  }
+  public ByteStringDict(int _chunkSize) {
+    this(DEFAULT_INITIAL_CHUNK_SIZE, _chunkSize);
+  }
+  public ByteStringDict() { this(DEFAULT_INITIAL_CHUNK_SIZE, DEFAULT_CHUNK_SIZE); }
+
+  long chunkStart(int cidx) {
+    return cidx < nGrowthChunks
+      ? (long)initialChunkSize * ((1L << cidx) - 1)
+      : growthBytes + (long)(cidx - nGrowthChunks) * chunkSize;
+  }
+  int chunkLength(int cidx) {
+    return cidx < nGrowthChunks ? initialChunkSize << cidx : chunkSize;
+  }
+  int chunkIndex(long pos) {
+    if (pos < growthBytes)
+      return 63 - Long.numberOfLeadingZeros(pos / initialChunkSize + 1);
+    return nGrowthChunks + (int)((pos - growthBytes) / chunkSize);
+  }
+
+  /** Hash of a run of utf-8 bytes (32 bit FNV-1a with a final avalanche). */
+  public static int hashBytes(byte[] data, int off, int len) {
+    int h = 0x811c9dc5;
+    for (int idx = 0; idx < len; ++idx) {
+      h ^= data[off + idx];
+      h *= 0x01000193;
+    }
+    return mix(h);
+  }
+  static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  byte byteAt(long pos) {
+    final int cidx = chunkIndex(pos);
+    return chunks[cidx].get((int)(pos - chunkStart(cidx)));
+  }
+
+  void writeBytes(byte[] data) {
+    int off = 0;
+    int remaining = data.length;
+    final long needed = nBytes + remaining;
+    while (chunkStart(chunks.length) < needed) {
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = ByteBuffer.allocateDirect(chunkLength(chunks.length - 1));
+    }
+    while (remaining > 0) {
+      final int cidx = chunkIndex(nBytes);
+      final ByteBuffer chunk = chunks[cidx].duplicate();
+      final int chunkOff = (int)(nBytes - chunkStart(cidx));
+      final int amt = Math.min(remaining, chunkLength(cidx) - chunkOff);
+      chunk.position(chunkOff);
+      chunk.put(data, off, amt);
+      off += amt;
+      remaining -= amt;
+      nBytes += amt;
+    }
+  }
+
+  /** Copy the utf-8 bytes of an entry onto the heap. */
+  public byte[] getBytes(int idx) {
+    if (idx < 0 || idx >= size)
+      throw new IndexOutOfBoundsException("Index " + idx + " out of range " + size);
+    final long start = offsets[idx];
+    final byte[] rv = new byte[(int)(offsets[idx+1] - start)];
+    int off = 0;
+    long pos = start;
+    while (off < rv.length) {
+      final int cidx = chunkIndex(pos);
+      final ByteBuffer chunk = chunks[cidx].duplicate();
+      final int chunkOff = (int)(pos - chunkStart(cidx));
+      final int amt = Math.min(rv.length - off, chunkLength(cidx) - chunkOff);
+      chunk.position(chunkOff);
+      chunk.get(rv, off, amt);
+      off += amt;
+      pos += amt;
+    }
+    return rv;
+  }
+
+  public int byteLength(int idx) { return (int)(offsets[idx+1] - offsets[idx]); }
+  /** Hash of the utf-8 bytes of an entry.  Equal strings have equal byteHash across
+   * dictionaries. */
+  public int byteHash(int idx) { return hashes[idx]; }
+
+  boolean bytesEqual(int idx, byte[] data) {
+    if (byteLength(idx) != data.length)
+      return false;
+    final long start = offsets[idx];
+    for (int bidx = 0; bidx < data.length; ++bidx)
+      if (byteAt(start + bidx) != data[bidx])
+	return false;
+    return true;
+  }
+
+  /** Byte-level equality of an entry with an entry of another (or the same) dictionary
+   * without materializing either string. */
+  public boolean bytesEqual(int idx, ByteStringDict other, int otherIdx) {
+    final int len = byteLength(idx);
+    if (hashes[idx] != other.hashes[otherIdx] || len != other.byteLength(otherIdx))
+      return false;
+    final long start = offsets[idx];
+    final long otherStart = other.offsets[otherIdx];
+    for (int bidx = 0; bidx < len; ++bidx)
+      if (byteAt(start + bidx) != other.byteAt(otherStart + bidx))
+	return false;
+    return true;
+  }
+
+  int findSlot(byte[] data, int hash) {
+    int slot = hash & mask;
+    while (true) {
+      final int entry = slots[slot];
+      if (entry == 0)
+	return slot;
+      final int idx = entry - 1;
+      if (hashes[idx] == hash && bytesEqual(idx, data))
+	return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  void rehash() {
+    slots = new int[slots.length * 2];
+    mask = slots.length - 1;
+    for (int idx = 0; idx < size; ++idx) {
+      int slot = hashes[idx] & mask;
+      while (slots[slot] != 0)
+	slot = (slot + 1) & mask;
+      slots[slot] = idx + 1;
+    }
+  }
+
+  int append(byte[] data, int hash) {
+    if (size == Integer.MAX_VALUE - 1)
+      throw new RuntimeException("Dictionary is full");
+    if (size == hashes.length) {
+      hashes = Arrays.copyOf(hashes, hashes.length * 2);
+      offsets = Arrays.copyOf(offsets, hashes.length + 1);
+    }
+    writeBytes(data);
+    hashes[size] = hash;
+    ++size;
+    offsets[size] = nBytes;
+    return size - 1;
+  }
+
+  static byte[] utf8(Object s) {
+    return (s == null ? "" : s.toString()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Index of the string or -1 if it is not in the dictionary. */
+  public int indexOfBytes(byte[] data) {
+    final int entry = slots[findSlot(data, hashBytes(data, 0, data.length))];
+    return entry - 1;
+  }
+
+  @Override
+  public int indexOf(Object s) {
+    if (!(s instanceof String))
+      return -1;
+    return indexOfBytes(utf8(s));
+  }
+
+  /** Return the index of the string adding it if it is not already present. */
+  public int intern(Object s) {
+    final byte[] data = utf8(s);
+    final int hash = hashBytes(data, 0, data.length);
+    final int slot = findSlot(data, hash);
+    if (slots[slot] != 0)
+      return slots[slot] - 1;
+    final int idx = append(data, hash);
+    slots[slot] = idx + 1;
+    if ((long)size * 2 > slots.length)
+      rehash();
+    return idx;
+  }
+
+  @Override
+  public int size() { return size; }
+
+  @Override
+  public String get(int idx) {
+    return new String(getBytes(idx), StandardCharsets.UTF_8);
+  }
+
+  /** Append a new entry.  If the string is already present the entry is still appended
+   * but lookups continue to return the first index. */
+  @Override
+  public boolean add(String s) {
+    final byte[] data = utf8(s);
+    final int hash = hashBytes(data, 0, data.length);
+    final int slot = findSlot(data, hash);
+    final int idx = append(data, hash);
+    if (slots[slot] == 0) {
+      slots[slot] = idx + 1;
+      if ((long)size * 2 > slots.length)
+	rehash();
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    chunks = new ByteBuffer[0];
+    nBytes = 0;
+    offsets = new long[17];
+    hashes = new int[16];
+    size = 0;
+    slots = new int[32];
+    mask = 31;
+  }
+
+  /** Number of off-heap bytes holding string data. */
+  public long offHeapBytes() { return nBytes; }
+  /** Number of off-heap bytes allocated including unused chunk capacity. */
+  public long offHeapCapacity() { return chunkStart(chunks.length); }
+
+  /** Map view from string to index. */
+  public Map<String,Integer> strToInt() { return strToInt; }
+
+  public class StrToInt extends AbstractMap<String,Integer> {
+    @Override
+    public int size() { return size; }
+    @Override
+    public boolean containsKey(Object k) { return indexOf(k) != -1; }
+    @Override
+    public Integer get(Object k) {
+      final int idx = indexOf(k);
+      return idx == -1 ? null : idx;
+    }
+    /**
+     * Put is only supported for mappings consistent with the dictionary - either the
+     * key is present at that index or the value is the next index.
+     */
+    @Override
+    public Integer put(String k, Integer v) {
+      final int idx = indexOf(k);
+      if (idx != -1 && idx == v)
+	return v;
+      if (idx == -1 && v == size) {
+	ByteStringDict.this.add(k);
+	return null;
+      }
+      throw new UnsupportedOperationException("Inconsistent put into dictionary");
+    }
+    @Override
+    public Integer computeIfAbsent(String k, Function<? super String, ? extends Integer> fn) {
+      final int idx = indexOf(k);
+      if (idx != -1)
+	return idx;
+      final Integer rv = fn.apply(k);
+      //fn is expected to append the key to the dictionary.
+      if (indexOf(k) == -1)
+	put(k, rv);
+      return rv;
+    }
+    @Override
+    public void clear() { ByteStringDict.this.clear(); }
+    @Override
+    public Set<Map.Entry<String,Integer>> entrySet() {
+      return new AbstractSet<Map.Entry<String,Integer>>() {
+	public int size() { return size; }
+	public Iterator<Map.Entry<String,Integer>> iterator() {
+	  return new Iterator<Map.Entry<String,Integer>>() {
+	    int idx = 0;
+	    public boolean hasNext() {
+	      //Skip appended duplicates so each key is seen once.
+	      while (idx < size && slots[findSlot(getBytes(idx), hashes[idx])] - 1 != idx)
+		++idx;
+	      return idx < size;
+	    }
+	    public Map.Entry<String,Integer> next() {
+	      if (!hasNext())
+		throw new NoSuchElementException();
+	      final int entryIdx = idx++;
+	      return new AbstractMap.SimpleImmutableEntry<String,Integer>(ByteStringDict.this.get(entryIdx),
+									   entryIdx);
+	    }
+	  };
+	}
+      };
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package tech.v3.dataset;
+
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Support for splitting a single csv file into byte ranges that can be parsed
+ * independently.  A range boundary has to be a newline that is not inside a quoted
+ * field.  Whether a newline is quoted depends on the parity of the number of quote
+ * characters before it so each range is scanned once to produce its quote count along
+ * with the first newline found after an even and after an odd number of quotes.  Given
+ * the quote parity at the start of the range - the sum of the quote counts of all
+ * previous ranges - the first record boundary in the range is then known exactly.
+ */
+public class CsvChunks {
+  public static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Scan [start, end) of the channel.  Returns a long array of
+   * [n-quotes, first-even-newline, first-odd-newline] where the newline positions are
+   * absolute file offsets or -1 if no such newline exists in the range.
+   */
+  public static long[] scan(FileChannel channel, long start, long end, byte quote)
+    throws IOException {
+    final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+    final byte[] data = buf.array();
+    long nQuotes = 0;
+    long evenNewline = -1;
+    long oddNewline = -1;
+    long pos = start;
+    while(pos < end) {
+      buf.clear();
+      buf.limit((int)Math.min(BUFFER_SIZE, end - pos));
+      final int nRead = channel.read(buf, pos);
+      if(nRead <= 0)
+	break;
+      for(int idx = 0; idx < nRead; ++idx) {
+	final byte b = data[idx];
+	if(b == quote) {
+	  ++nQuotes;
+	} else if (b == '\n') {
+	  if((nQuotes & 1) == 0) {
+	    if(evenNewline == -1)
+	      evenNewline = pos + idx;
+	  } else if (oddNewline == -1) {
+	    oddNewline = pos + idx;
+	  }
+	}
+      }
+      pos += nRead;
+    }
+    return new long[] {nQuotes, evenNewline, oddNewline};
+  }
+
+  /**
+   * Input stream of the bytes in [start, end) of a file channel.  Reads are positional
+   * so many range streams can share one channel.  Closing the stream does not close the
+   * channel.
+   */
+  public static class RangeInputStream extends InputStream {
+    final FileChannel channel;
+    long pos;
+    final long end;
+    public RangeInputStream(FileChannel _channel, long start, long _end) {
+      channel = _channel;
+      pos = start;
+      end = _end;
+    }
+    public int available() { return (int)Math.min(Integer.MAX_VALUE, end - pos); }
+    public int read() throws IOException {
+      final byte[] data = new byte[1];
+      return read(data, 0, 1) == -1 ? -1 : (data[0] & 0xFF);
+    }
+    public int read(byte[] data, int off, int len) throws IOException {
+      if(pos >= end)
+	return -1;
+      if(len == 0)
+	return 0;
+      final ByteBuffer buf = ByteBuffer.wrap(data, off, (int)Math.min(len, end - pos));
+      final int nRead = channel.read(buf, pos);
+      if(nRead <= 0)
+	return -1;
+      pos += nRead;
+      return nRead;
+    }
+    public long skip(long n) {
+      final long nSkip = Math.max(0, Math.min(n, end - pos));
+      pos += nSkip;
+      return nSkip;
+    }
+  }
+
+  public static InputStream rangeInputStream(FileChannel channel, long start, long end) {
+    return new RangeInputStream(channel, start, end);
+  }
+}
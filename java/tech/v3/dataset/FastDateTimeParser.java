@@ -0,0 +1,297 @@
+package tech.v3.dataset;
+
+import ham_fisted.IMutList;
+
+
+/**
+ * Allocation free parsing of the common date and time shapes straight into their packed
+ * representations - epoch days for local dates and epoch microseconds for instants.
+ * Anything that does not match one of the shapes below returns MISS and callers fall
+ * back to the general DateTimeFormatter pathway so behavior only changes in speed.
+ *
+ * Dates:
+ *  - yyyy-M-d with '-', '/' or '.' as the separator (ISO when month and day are 2 digits).
+ *  - yyyyMMdd
+ *  - M/d/yyyy with '/', '-' or '.' as the separator.
+ *
+ * Times are H:mm, H:mm:ss or H:mm:ss.fraction with up to 9 fraction digits.  Date times
+ * are a date and a time separated by 'T' or a space and instants are a date time
+ * followed by 'Z' or a +HH:mm/-HH:mm offset.
+ *
+ * Instances remember the date shape that matched last and try it first so a column only
+ * pays for shape detection on its first value.  Instances are not thread safe.
+ */
+public class FastDateTimeParser implements PrimitiveParser {
+  public static final long MISS = Long.MIN_VALUE;
+
+  public static final int DATE_ISO = 0;
+  public static final int DATE_BASIC = 1;
+  public static final int DATE_US = 2;
+  static final int N_DATE_SHAPES = 3;
+
+  public static final int MODE_EPOCH_DAYS = 0;
+  public static final int MODE_EPOCH_MICROS = 1;
+
+  static final long NANOS_PER_SECOND = 1000000000L;
+  static final long SECONDS_PER_DAY = 86400L;
+
+  final int mode;
+  int dateShape = DATE_ISO;
+  long lastValue = MISS;
+
+  public FastDateTimeParser(int mode) {
+    this.mode = mode;
+  }
+
+  /** Parse into the packed representation of this parser's mode or return MISS. */
+  public long parse(CharSequence s) {
+    return mode == MODE_EPOCH_DAYS ? localDate(s) : instantMicros(s);
+  }
+
+  public boolean tryParse(String s) {
+    lastValue = parse(s);
+    return lastValue != MISS;
+  }
+
+  public void addParsed(IMutList container) {
+    container.addLong(lastValue);
+  }
+
+  static int digit(CharSequence s, int idx) {
+    final int d = s.charAt(idx) - '0';
+    return d >= 0 && d <= 9 ? d : -1;
+  }
+
+  /** Non-negative integer of [start, end) or -1. */
+  static int digits(CharSequence s, int start, int end) {
+    if (start >= end)
+      return -1;
+    int rv = 0;
+    for (int idx = start; idx < end; ++idx) {
+      final int d = digit(s, idx);
+      if (d < 0)
+	return -1;
+      rv = rv * 10 + d;
+    }
+    return rv;
+  }
+
+  static boolean dateSeparator(char c) {
+    return c == '-' || c == '/' || c == '.';
+  }
+
+  static boolean leapYear(long year) {
+    return (year & 3) == 0 && ((year % 100) != 0 || (year % 400) == 0);
+  }
+
+  static int daysInMonth(long year, int month) {
+    switch (month) {
+    case 2: return leapYear(year) ? 29 : 28;
+    case 4: case 6: case 9: case 11: return 30;
+    default: return 31;
+    }
+  }
+
+  /** Days since 1970-01-01 of a proleptic gregorian date or MISS if it is not valid. */
+  public static long epochDay(long year, int month, int day) {
+    if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+      return MISS;
+    //Same computation as java.time.LocalDate.toEpochDay
+    long total = 365 * year;
+    if (year >= 0)
+      total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+    else
+      total -= year / -4 - year / -100 + year / -400;
+    total += (367 * month - 362) / 12;
+    total += day - 1;
+    if (month > 2) {
+      --total;
+      if (!leapYear(year))
+	--total;
+    }
+    return total - 719528;
+  }
+
+  /** Epoch day of the date in [start, end) of the given shape or MISS. */
+  public static long parseDate(CharSequence s, int start, int end, int shape) {
+    final int len = end - start;
+    switch (shape) {
+    case DATE_BASIC: {
+      if (len != 8)
+	return MISS;
+      final int y = digits(s, start, start + 4);
+      final int m = digits(s, start + 4, start + 6);
+      final int d = digits(s, start + 6, end);
+      return (y < 0 || m < 0 || d < 0) ? MISS : epochDay(y, m, d);
+    }
+    case DATE_ISO: {
+      if (len < 8 || len > 10 || !dateSeparator(s.charAt(start + 4)))
+	return MISS;
+      final char sep = s.charAt(start + 4);
+      int sep2 = -1;
+      for (int idx = start + 6; idx < Math.min(end, start + 8); ++idx)
+	if (s.charAt(idx) == sep) {
+	  sep2 = idx;
+	  break;
+	}
+      if (sep2 < 0 || end - sep2 - 1 > 2)
+	return MISS;
+      final int y = digits(s, start, start + 4);
+      final int m = digits(s, start + 5, sep2);
+      final int d = digits(s, sep2 + 1, end);
+      return (y < 0 || m < 0 || d < 0) ? MISS : epochDay(y, m, d);
+    }
+    case DATE_US: {
+      if (len < 8 || len > 10 || !dateSeparator(s.charAt(end - 5)))
+	return MISS;
+      final char sep = s.charAt(end - 5);
+      int sep1 = -1;
+      for (int idx = start + 1; idx < Math.min(end - 5, start + 3); ++idx)
+	if (s.charAt(idx) == sep) {
+	  sep1 = idx;
+	  break;
+	}
+      if (sep1 < 0 || end - 5 - sep1 - 1 > 2)
+	return MISS;
+      final int m = digits(s, start, sep1);
+      final int d = digits(s, sep1 + 1, end - 5);
+      final int y = digits(s, end - 4, end);
+      return (y < 0 || m < 0 || d < 0) ? MISS : epochDay(y, m, d);
+    }
+    default:
+      return MISS;
+    }
+  }
+
+  /** Epoch day of a date in any of the supported shapes or MISS. */
+  public static long parseLocalDate(CharSequence s) {
+    for (int shape = 0; shape < N_DATE_SHAPES; ++shape) {
+      final long rv = parseDate(s, 0, s.length(), shape);
+      if (rv != MISS)
+	return rv;
+    }
+    return MISS;
+  }
+
+  long learnedDate(CharSequence s, int start, int end) {
+    long rv = parseDate(s, start, end, dateShape);
+    if (rv != MISS)
+      return rv;
+    for (int shape = 0; shape < N_DATE_SHAPES; ++shape) {
+      if (shape == dateShape)
+	continue;
+      rv = parseDate(s, start, end, shape);
+      if (rv != MISS) {
+	dateShape = shape;
+	return rv;
+      }
+    }
+    return MISS;
+  }
+
+  /** Epoch day using the learned date shape first or MISS. */
+  public long localDate(CharSequence s) {
+    return learnedDate(s, 0, s.length());
+  }
+
+  /** Nanosecond of the day of the time in [start, end) or MISS. */
+  public static long parseTime(CharSequence s, int start, int end) {
+    int colon = -1;
+    for (int idx = start + 1; idx < Math.min(end, start + 3); ++idx)
+      if (s.charAt(idx) == ':') {
+	colon = idx;
+	break;
+      }
+    if (colon < 0 || end - colon < 3)
+      return MISS;
+    final int h = digits(s, start, colon);
+    final int m = digits(s, colon + 1, colon + 3);
+    if (h < 0 || h > 23 || m < 0 || m > 59)
+      return MISS;
+    int sec = 0;
+    long nanos = 0;
+    int pos = colon + 3;
+    if (pos < end) {
+      if (s.charAt(pos) != ':' || end - pos < 3)
+	return MISS;
+      sec = digits(s, pos + 1, pos + 3);
+      if (sec < 0 || sec > 59)
+	return MISS;
+      pos += 3;
+      if (pos < end) {
+	final int nFrac = end - pos - 1;
+	if (s.charAt(pos) != '.' || nFrac < 1 || nFrac > 9)
+	  return MISS;
+	final int frac = digits(s, pos + 1, end);
+	if (frac < 0)
+	  return MISS;
+	nanos = frac;
+	for (int idx = nFrac; idx < 9; ++idx)
+	  nanos *= 10;
+      }
+    }
+    return ((h * 60L + m) * 60L + sec) * NANOS_PER_SECOND + nanos;
+  }
+
+  /** Nanosecond of the day or MISS. */
+  public static long parseLocalTime(CharSequence s) {
+    return parseTime(s, 0, s.length());
+  }
+
+  static int dateTimeSeparator(CharSequence s, int end) {
+    for (int idx = 8; idx < Math.min(end, 11); ++idx) {
+      final char c = s.charAt(idx);
+      if (c == 'T' || c == ' ')
+	return idx;
+    }
+    return -1;
+  }
+
+  /** Nanoseconds since 1970-01-01T00:00 of a local date time or MISS.  Dates outside
+   * of the range of long nanoseconds (1677-2262) are a MISS. */
+  public long localDateTimeNanos(CharSequence s, int end) {
+    final int sep = dateTimeSeparator(s, end);
+    if (sep < 0)
+      return MISS;
+    final long day = learnedDate(s, 0, sep);
+    if (day == MISS || day < -106751 || day > 106750)
+      return MISS;
+    final long nanos = parseTime(s, sep + 1, end);
+    if (nanos == MISS)
+      return MISS;
+    return day * SECONDS_PER_DAY * NANOS_PER_SECOND + nanos;
+  }
+
+  public static long parseLocalDateTimeNanos(CharSequence s) {
+    return new FastDateTimeParser(MODE_EPOCH_DAYS).localDateTimeNanos(s, s.length());
+  }
+
+  /** Microseconds since the epoch of an instant - a date time followed by Z or a
+   * +HH:mm/-HH:mm offset - or MISS. */
+  public long instantMicros(CharSequence s) {
+    final int len = s.length();
+    if (len < 10)
+      return MISS;
+    int end;
+    long offsetSeconds = 0;
+    if (s.charAt(len - 1) == 'Z') {
+      end = len - 1;
+    } else if (len > 6 && (s.charAt(len - 6) == '+' || s.charAt(len - 6) == '-')
+	       && s.charAt(len - 3) == ':') {
+      final int oh = digits(s, len - 5, len - 3);
+      final int om = digits(s, len - 2, len);
+      if (oh < 0 || oh > 18 || om < 0 || om > 59)
+	return MISS;
+      offsetSeconds = (oh * 60L + om) * 60L;
+      if (s.charAt(len - 6) == '-')
+	offsetSeconds = -offsetSeconds;
+      end = len - 6;
+    } else {
+      return MISS;
+    }
+    final long nanos = localDateTimeNanos(s, end);
+    if (nanos == MISS)
+      return MISS;
+    return Math.floorDiv(nanos, 1000L) - offsetSeconds * 1000000L;
+  }
+}
@@ -0,0 +1,139 @@
+package tech.v3.dataset;
+
+import java.util.Arrays;
+
+
+/**
+ * Open addressing hash table that maps primitive long keys to dense group ids.  Ids
+ * are assigned in insertion order starting at 0 so callers can keep per-group state
+ * in plain lists indexed by id.  Missing keys get their own id via idOfMissing.
+ *
+ * This class is not threadsafe - the intended usage is one table per partition.
+ */
+public final class LongGroupTable {
+  static final int EMPTY = -1;
+  long[] keys;
+  int[] slots;
+  long[] idKeys;
+  int mask;
+  int size;
+  int missingId;
+
+  public LongGroupTable(int initCapacity) {
+    int cap = 16;
+    final int target = Math.max(16, initCapacity);
+    while(cap < target)
+      cap <<= 1;
+    //Load factor of 0.5
+    cap <<= 1;
+    keys = new long[cap];
+    slots = new int[cap];
+    Arrays.fill(slots, EMPTY);
+    idKeys = new long[Math.max(16, initCapacity)];
+    mask = cap - 1;
+    size = 0;
+    missingId = EMPTY;
+  }
+  public LongGroupTable() { this(1024); }
+
+  public static int hash(long k) {
+    //murmur3 fmix64
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return (int)k;
+  }
+
+  /** Number of distinct keys including the missing key if it has been seen. */
+  public int size() { return size; }
+
+  int nextId(long key) {
+    final int id = size++;
+    if(id == idKeys.length)
+      idKeys = Arrays.copyOf(idKeys, idKeys.length * 2);
+    idKeys[id] = key;
+    return id;
+  }
+
+  void rehash() {
+    final int newCap = keys.length * 2;
+    final long[] newKeys = new long[newCap];
+    final int[] newSlots = new int[newCap];
+    Arrays.fill(newSlots, EMPTY);
+    final int newMask = newCap - 1;
+    final int[] oldSlots = slots;
+    final long[] oldKeys = keys;
+    final int oldCap = oldKeys.length;
+    for(int idx = 0; idx < oldCap; ++idx) {
+      final int slot = oldSlots[idx];
+      if(slot != EMPTY) {
+	final long k = oldKeys[idx];
+	int pos = hash(k) & newMask;
+	while(newSlots[pos] != EMPTY)
+	  pos = (pos + 1) & newMask;
+	newKeys[pos] = k;
+	newSlots[pos] = slot;
+      }
+    }
+    keys = newKeys;
+    slots = newSlots;
+    mask = newMask;
+  }
+
+  /**
+   * Return the id of key, inserting the key if it has not been seen.  A newly
+   * inserted key always receives id == size() - 1.
+   */
+  public int idOf(long key) {
+    int pos = hash(key) & mask;
+    final long[] ks = keys;
+    final int[] ss = slots;
+    while(true) {
+      final int slot = ss[pos];
+      if(slot == EMPTY) {
+	final int id = nextId(key);
+	ks[pos] = key;
+	ss[pos] = id;
+	//Keep load factor at or below 0.5 ignoring the missing id.
+	if((size * 2) > ks.length)
+	  rehash();
+	return id;
+      }
+      if(ks[pos] == key)
+	return slot;
+      pos = (pos + 1) & mask;
+    }
+  }
+
+  /** Return the id of key or -1 if the key has not been seen. */
+  public int find(long key) {
+    int pos = hash(key) & mask;
+    final long[] ks = keys;
+    final int[] ss = slots;
+    while(true) {
+      final int slot = ss[pos];
+      if(slot == EMPTY)
+	return EMPTY;
+      if(ks[pos] == key)
+	return slot;
+      pos = (pos + 1) & mask;
+    }
+  }
+
+  /** Return the id reserved for missing keys, allocating it on first use. */
+  public int idOfMissing() {
+    if(missingId == EMPTY)
+      missingId = nextId(0);
+    return missingId;
+  }
+
+  /** Return the id reserved for missing keys or -1 if no missing key has been seen. */
+  public int findMissing() { return missingId; }
+
+  public boolean isMissingId(int id) { return id == missingId; }
+
+  /** Key for a given id.  Undefined for the missing id. */
+  public long keyAt(int id) { return idKeys[id]; }
+}
@@ -0,0 +1,147 @@
+package tech.v3.dataset;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+
+/**
+ * Parquet InputFile backed by read-only memory mapped segments of a local file.  The
+ * file is mapped once and every stream returned from newStream reads directly out of
+ * the mapping with its own position so any number of ParquetFileReaders - one per
+ * thread - can share a single mapping.  Reads never make a syscall.
+ */
+public class MMapInputFile implements InputFile {
+  public static final long SEGMENT_SIZE = 1L << 30;
+  final long length;
+  final MappedByteBuffer[] segments;
+
+  public MMapInputFile(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      length = channel.size();
+      final int nSegments = (int)((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+      segments = new MappedByteBuffer[nSegments];
+      for (int idx = 0; idx < nSegments; ++idx) {
+	final long start = idx * SEGMENT_SIZE;
+	segments[idx] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				    Math.min(SEGMENT_SIZE, length - start));
+      }
+    }
+  }
+
+  @Override
+  public long getLength() { return length; }
+
+  @Override
+  public SeekableInputStream newStream() { return new MMapStream(); }
+
+  public class MMapStream extends SeekableInputStream {
+    long pos = 0;
+    long markPos = 0;
+
+    /** Copy up to len bytes at the current position into dst, returns the number copied. */
+    int copy(ByteBuffer dst, int len) {
+      final int n = (int)Math.min(len, length - pos);
+      int remaining = n;
+      while (remaining > 0) {
+	final ByteBuffer seg = segments[(int)(pos / SEGMENT_SIZE)].duplicate();
+	final int segOff = (int)(pos % SEGMENT_SIZE);
+	final int amt = Math.min(remaining, seg.limit() - segOff);
+	seg.position(segOff);
+	seg.limit(segOff + amt);
+	dst.put(seg);
+	pos += amt;
+	remaining -= amt;
+      }
+      return n;
+    }
+
+    @Override
+    public int read() {
+      if (pos >= length)
+	return -1;
+      final int rv = segments[(int)(pos / SEGMENT_SIZE)].get((int)(pos % SEGMENT_SIZE)) & 0xFF;
+      ++pos;
+      return rv;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0)
+	return 0;
+      if (pos >= length)
+	return -1;
+      return copy(ByteBuffer.wrap(b, off, len), len);
+    }
+
+    @Override
+    public long skip(long n) {
+      final long amt = Math.max(0, Math.min(n, length - pos));
+      pos += amt;
+      return amt;
+    }
+
+    @Override
+    public int available() { return (int)Math.min(Integer.MAX_VALUE, length - pos); }
+
+    @Override
+    public synchronized void mark(int readlimit) { markPos = pos; }
+
+    @Override
+    public synchronized void reset() { pos = markPos; }
+
+    @Override
+    public boolean markSupported() { return true; }
+
+    @Override
+    public long getPos() { return pos; }
+
+    @Override
+    public void seek(long newPos) throws IOException {
+      if (newPos < 0 || newPos > length)
+	throw new EOFException("Seek position " + newPos + " outside of file of length "
+			       + length);
+      pos = newPos;
+    }
+
+    @Override
+    public void readFully(byte[] bytes) throws IOException {
+      readFully(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int off, int len) throws IOException {
+      if (length - pos < len)
+	throw new EOFException("Reached the end of stream with " + (len - (length - pos))
+			       + " bytes left to read");
+      copy(ByteBuffer.wrap(bytes, off, len), len);
+    }
+
+    @Override
+    public int read(ByteBuffer byteBuffer) {
+      if (!byteBuffer.hasRemaining())
+	return 0;
+      if (pos >= length)
+	return -1;
+      return copy(byteBuffer, byteBuffer.remaining());
+    }
+
+    @Override
+    public void readFully(ByteBuffer byteBuffer) throws IOException {
+      if (length - pos < byteBuffer.remaining())
+	throw new EOFException("Reached the end of stream with "
+			       + (byteBuffer.remaining() - (length - pos))
+			       + " bytes left to read");
+      copy(byteBuffer, byteBuffer.remaining());
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,116 @@
+package tech.v3.dataset;
+
+
+/**
+ * Cache blocked dense matrix kernels on double arrays for when a native blas is not
+ * available.  Kernels operate on a caller supplied range of their output so callers can
+ * split the work across threads - ranges are disjoint so no synchronization is
+ * required.
+ *
+ * gemm uses the i-k-j loop order over blocks of the inner and column dimensions so the
+ * innermost loop is a contiguous axpy the JIT vectorizes and the block of the right hand
+ * side being read stays in cache across rows.  syrkTile computes a tile of the gram
+ * matrix of a set of columns in chunks of rows so the chunk of each column in the tile
+ * is read from cache by every dot product of the tile.
+ */
+public class MatrixKernels {
+  static final int INNER_BLOCK = 128;
+  static final int COL_BLOCK = 256;
+  static final int ROW_CHUNK = 512;
+
+  /**
+   * Compute rows [rowStart, rowEnd) of c = a * b where a is a row major m x k matrix,
+   * b is a row major k x n matrix and c is a zeroed row major m x n matrix.
+   */
+  public static void gemm(double[] a, double[] b, double[] c, int k, int n,
+			  int rowStart, int rowEnd) {
+    for (int p0 = 0; p0 < k; p0 += INNER_BLOCK) {
+      final int pe = Math.min(k, p0 + INNER_BLOCK);
+      for (int j0 = 0; j0 < n; j0 += COL_BLOCK) {
+	final int je = Math.min(n, j0 + COL_BLOCK);
+	for (int i = rowStart; i < rowEnd; ++i) {
+	  final int aOff = i * k;
+	  final int cOff = i * n;
+	  for (int p = p0; p < pe; ++p) {
+	    final double av = a[aOff + p];
+	    final int bOff = p * n;
+	    for (int j = j0; j < je; ++j)
+	      c[cOff + j] += av * b[bOff + j];
+	  }
+	}
+      }
+    }
+  }
+
+  /** Mean of each column. */
+  public static double[] columnMeans(double[][] cols) {
+    final double[] rv = new double[cols.length];
+    for (int cidx = 0; cidx < cols.length; ++cidx) {
+      final double[] col = cols[cidx];
+      double sum = 0.0;
+      for (int ridx = 0; ridx < col.length; ++ridx)
+	sum += col[ridx];
+      rv[cidx] = col.length == 0 ? Double.NaN : sum / col.length;
+    }
+    return rv;
+  }
+
+  static void fillChunk(double[][] cols, double[] means, int colStart, int colEnd,
+			int rowStart, int len, double[] chunk) {
+    for (int cidx = colStart; cidx < colEnd; ++cidx) {
+      final double[] col = cols[cidx];
+      final double mean = means == null ? 0.0 : means[cidx];
+      final int off = (cidx - colStart) * ROW_CHUNK;
+      for (int ridx = 0; ridx < len; ++ridx)
+	chunk[off + ridx] = col[rowStart + ridx] - mean;
+    }
+  }
+
+  static double dot(double[] lhs, int lOff, double[] rhs, int rOff, int len) {
+    //Independent accumulators so the adds are not one serial dependency chain.
+    double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+    int idx = 0;
+    for (; idx + 4 <= len; idx += 4) {
+      s0 += lhs[lOff + idx] * rhs[rOff + idx];
+      s1 += lhs[lOff + idx + 1] * rhs[rOff + idx + 1];
+      s2 += lhs[lOff + idx + 2] * rhs[rOff + idx + 2];
+      s3 += lhs[lOff + idx + 3] * rhs[rOff + idx + 3];
+    }
+    for (; idx < len; ++idx)
+      s0 += lhs[lOff + idx] * rhs[rOff + idx];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Compute the [iStart, iEnd) x [jStart, jEnd) tile of the gram matrix X^T X of the
+   * columns after subtracting means (which may be null) and write it along with its
+   * mirror into out, a row major n x n matrix where n is the number of columns.  When
+   * the tile is on the diagonal (iStart == jStart) only its upper triangle is computed.
+   */
+  public static void syrkTile(double[][] cols, double[] means, double[] out,
+			      int iStart, int iEnd, int jStart, int jEnd) {
+    final int n = cols.length;
+    final int nRows = n == 0 ? 0 : cols[0].length;
+    final int ni = iEnd - iStart;
+    final int nj = jEnd - jStart;
+    final boolean diagonal = iStart == jStart;
+    final double[] acc = new double[ni * nj];
+    final double[] iChunk = new double[ni * ROW_CHUNK];
+    final double[] jChunk = diagonal ? iChunk : new double[nj * ROW_CHUNK];
+    for (int r0 = 0; r0 < nRows; r0 += ROW_CHUNK) {
+      final int len = Math.min(ROW_CHUNK, nRows - r0);
+      fillChunk(cols, means, iStart, iEnd, r0, len, iChunk);
+      if (!diagonal)
+	fillChunk(cols, means, jStart, jEnd, r0, len, jChunk);
+      for (int a = 0; a < ni; ++a)
+	for (int b = diagonal ? a : 0; b < nj; ++b)
+	  acc[a * nj + b] += dot(iChunk, a * ROW_CHUNK, jChunk, b * ROW_CHUNK, len);
+    }
+    for (int a = 0; a < ni; ++a)
+      for (int b = diagonal ? a : 0; b < nj; ++b) {
+	final double v = acc[a * nj + b];
+	out[(iStart + a) * n + jStart + b] = v;
+	out[(jStart + b) * n + iStart + a] = v;
+      }
+  }
+}
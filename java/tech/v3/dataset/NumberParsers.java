@@ -0,0 +1,152 @@
+package tech.v3.dataset;
+
+import ham_fisted.IMutList;
+
+
+/**
+ * Integer and double parsing from character data without an intermediate boxed number.
+ * Only plain decimal shapes are handled - an optional sign, digits and for doubles a
+ * fraction and exponent.  Anything else (hex, Infinity, NaN, trailing type suffixes,
+ * integers of 19 or more digits, etc.) is reported as unhandled so the caller can use
+ * the general parse pathway and results never differ from Long/parseLong or
+ * Double/parseDouble.
+ */
+public class NumberParsers {
+  public static final long MISS = Long.MIN_VALUE;
+  static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /** Long value of s or MISS if s is not an optionally signed run of 1-18 digits. */
+  public static long parseLong(CharSequence s) {
+    final int len = s.length();
+    int pos = 0;
+    boolean neg = false;
+    if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+      neg = s.charAt(0) == '-';
+      pos = 1;
+    }
+    final int nDigits = len - pos;
+    if (nDigits < 1 || nDigits > 18)
+      return MISS;
+    long rv = 0;
+    for (; pos < len; ++pos) {
+      final int d = s.charAt(pos) - '0';
+      if (d < 0 || d > 9)
+	return MISS;
+      rv = rv * 10 + d;
+    }
+    return neg ? -rv : rv;
+  }
+
+  /**
+   * Double value of s or NaN if s is not a plain decimal number.  Values with at most 15
+   * significant digits and a small decimal exponent are computed exactly with a single
+   * multiply or divide (Clinger's fast path); other valid decimals use
+   * Double/parseDouble.
+   */
+  public static double parseDouble(CharSequence s) {
+    final int len = s.length();
+    int pos = 0;
+    boolean neg = false;
+    if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+      neg = s.charAt(0) == '-';
+      pos = 1;
+    }
+    long mantissa = 0;
+    int nSig = 0;
+    int nDigits = 0;
+    int exp10 = 0;
+    boolean dot = false;
+    for (; pos < len; ++pos) {
+      final char c = s.charAt(pos);
+      if (c >= '0' && c <= '9') {
+	++nDigits;
+	if (nSig < 18) {
+	  if (nSig > 0 || c != '0') {
+	    mantissa = mantissa * 10 + (c - '0');
+	    ++nSig;
+	  }
+	  if (dot)
+	    --exp10;
+	} else if (!dot) {
+	  ++exp10;
+	}
+      } else if (c == '.' && !dot) {
+	dot = true;
+      } else {
+	break;
+      }
+    }
+    if (nDigits == 0)
+      return Double.NaN;
+    if (pos < len) {
+      final char c = s.charAt(pos);
+      if (c != 'e' && c != 'E')
+	return Double.NaN;
+      ++pos;
+      boolean expNeg = false;
+      if (pos < len && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+	expNeg = s.charAt(pos) == '-';
+	++pos;
+      }
+      final int nExp = len - pos;
+      if (nExp < 1 || nExp > 4)
+	return Double.NaN;
+      int exp = 0;
+      for (; pos < len; ++pos) {
+	final int d = s.charAt(pos) - '0';
+	if (d < 0 || d > 9)
+	  return Double.NaN;
+	exp = exp * 10 + d;
+      }
+      exp10 += expNeg ? -exp : exp;
+    }
+    double rv;
+    if (mantissa == 0) {
+      rv = 0.0;
+    } else if (nSig <= 15 && exp10 >= -22 && exp10 <= 22) {
+      rv = exp10 >= 0 ? mantissa * POW10[exp10] : mantissa / POW10[-exp10];
+    } else {
+      //Valid decimal that needs correct rounding beyond the fast path.
+      return Double.parseDouble(s.toString());
+    }
+    return neg ? -rv : rv;
+  }
+
+  /** Integers within [min, max] - the range of the container datatype. */
+  public static class IntegerParser implements PrimitiveParser {
+    final long min;
+    final long max;
+    long lastValue;
+    public IntegerParser(long min, long max) {
+      this.min = min;
+      this.max = max;
+    }
+    public boolean tryParse(String s) {
+      final long v = parseLong(s);
+      if (v == MISS || v < min || v > max)
+	return false;
+      lastValue = v;
+      return true;
+    }
+    public void addParsed(IMutList container) {
+      container.addLong(lastValue);
+    }
+  }
+
+  public static class DoubleParser implements PrimitiveParser {
+    double lastValue;
+    public boolean tryParse(String s) {
+      final double v = parseDouble(s);
+      //NaN is unhandled - the general pathway maps NaN strings to missing.
+      if (Double.isNaN(v))
+	return false;
+      lastValue = v;
+      return true;
+    }
+    public void addParsed(IMutList container) {
+      container.addDouble(lastValue);
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package tech.v3.dataset;
+
+import java.util.Arrays;
+
+
+/**
+ * Frame-of-reference bit packing of long data in fixed size blocks.  Each block stores its
+ * minimum and the bit width of (value - minimum) and a block directory of word offsets
+ * gives random access to any element.  The delta and delta-of-delta encodings reuse the
+ * blocks to store their residuals along with one anchor value (and anchor delta) per
+ * block so random access only ever decodes within a single block.  Sequential access
+ * should go through decode or a BlockReader which decode each block once with a running
+ * sum instead of summing from the anchor for every element.
+ */
+public class PackedLongBlocks {
+  public static final int BLOCK_SIZE = 128;
+  public static final int BLOCK_SHIFT = 7;
+  public static final int ORDER_NONE = 0;
+  public static final int ORDER_DELTA = 1;
+  public static final int ORDER_DELTA_OF_DELTA = 2;
+
+  public final long nElems;
+  public final int order;
+  public final long[] mins;
+  public final byte[] widths;
+  public final long[] wordOffsets;
+  public final long[] words;
+  //Per block first value for the delta orders, null otherwise.
+  public final long[] anchors;
+  //Per block first delta for delta-of-delta, null otherwise.
+  public final long[] anchorDeltas;
+
+  public PackedLongBlocks(long nElems, int order, long[] mins, byte[] widths,
+			  long[] wordOffsets, long[] words, long[] anchors,
+			  long[] anchorDeltas) {
+    this.nElems = nElems;
+    this.order = order;
+    this.mins = mins;
+    this.widths = widths;
+    this.wordOffsets = wordOffsets;
+    this.words = words;
+    this.anchors = anchors;
+    this.anchorDeltas = anchorDeltas;
+  }
+
+  public static int nBlocks(long nElems) {
+    return (int)((nElems + BLOCK_SIZE - 1) >> BLOCK_SHIFT);
+  }
+
+  static int bitWidth(long range) {
+    return 64 - Long.numberOfLeadingZeros(range);
+  }
+
+  /**
+   * Residuals of the data for the given order.  The residual at the start of each block
+   * (and the second element of each block for delta-of-delta) is zero as those values
+   * are stored as anchors.
+   */
+  public static long[] residuals(long[] data, int order) {
+    if (order == ORDER_NONE)
+      return data;
+    final int n = data.length;
+    final long[] rv = new long[n];
+    for (int idx = 0; idx < n; ++idx) {
+      final int blockOff = idx & (BLOCK_SIZE - 1);
+      if (blockOff == 0)
+	continue;
+      final long delta = data[idx] - data[idx-1];
+      if (order == ORDER_DELTA) {
+	rv[idx] = delta;
+      } else if (blockOff > 1) {
+	rv[idx] = delta - (data[idx-1] - data[idx-2]);
+      }
+    }
+    return rv;
+  }
+
+  /** Bytes required to encode data with the given order. */
+  public static long encodedBytes(long[] data, int order) {
+    final long[] res = residuals(data, order);
+    final int nBlocks = nBlocks(res.length);
+    long bits = 0;
+    for (int bidx = 0; bidx < nBlocks; ++bidx) {
+      final int start = bidx << BLOCK_SHIFT;
+      final int end = Math.min(res.length, start + BLOCK_SIZE);
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (int idx = start; idx < end; ++idx) {
+	min = Math.min(min, res[idx]);
+	max = Math.max(max, res[idx]);
+      }
+      bits += (long)bitWidth(max - min) * (end - start);
+    }
+    //min, width, word offset and anchors per block
+    final long perBlock = 17 + (order == ORDER_NONE ? 0 : 8) + (order == ORDER_DELTA_OF_DELTA ? 8 : 0);
+    return (bits + 63) / 64 * 8 + perBlock * nBlocks;
+  }
+
+  public static PackedLongBlocks encode(long[] data, int order) {
+    final long[] res = residuals(data, order);
+    final int n = res.length;
+    final int nBlocks = nBlocks(n);
+    final long[] mins = new long[nBlocks];
+    final byte[] widths = new byte[nBlocks];
+    final long[] wordOffsets = new long[nBlocks + 1];
+    final long[] anchors = order == ORDER_NONE ? null : new long[nBlocks];
+    final long[] anchorDeltas = order == ORDER_DELTA_OF_DELTA ? new long[nBlocks] : null;
+    long nWords = 0;
+    for (int bidx = 0; bidx < nBlocks; ++bidx) {
+      final int start = bidx << BLOCK_SHIFT;
+      final int end = Math.min(n, start + BLOCK_SIZE);
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (int idx = start; idx < end; ++idx) {
+	min = Math.min(min, res[idx]);
+	max = Math.max(max, res[idx]);
+      }
+      mins[bidx] = min;
+      widths[bidx] = (byte)bitWidth(max - min);
+      wordOffsets[bidx] = nWords;
+      nWords += ((long)widths[bidx] * (end - start) + 63) / 64;
+      if (anchors != null)
+	anchors[bidx] = data[start];
+      if (anchorDeltas != null && end - start > 1)
+	anchorDeltas[bidx] = data[start+1] - data[start];
+    }
+    wordOffsets[nBlocks] = nWords;
+    final long[] words = new long[(int)nWords];
+    for (int bidx = 0; bidx < nBlocks; ++bidx) {
+      final int start = bidx << BLOCK_SHIFT;
+      final int end = Math.min(n, start + BLOCK_SIZE);
+      final int width = widths[bidx];
+      if (width == 0)
+	continue;
+      final long base = wordOffsets[bidx] * 64;
+      for (int idx = start; idx < end; ++idx) {
+	final long v = res[idx] - mins[bidx];
+	final long bitPos = base + (long)(idx - start) * width;
+	final int word = (int)(bitPos >>> 6);
+	final int shift = (int)(bitPos & 63);
+	words[word] |= v << shift;
+	if (shift + width > 64)
+	  words[word+1] |= v >>> (64 - shift);
+      }
+    }
+    return new PackedLongBlocks(n, order, mins, widths, wordOffsets, words, anchors,
+				anchorDeltas);
+  }
+
+  /** Residual at the index. */
+  public long residual(long idx) {
+    final int bidx = (int)(idx >> BLOCK_SHIFT);
+    final int width = widths[bidx];
+    if (width == 0)
+      return mins[bidx];
+    final long bitPos = wordOffsets[bidx] * 64 + (idx & (BLOCK_SIZE - 1)) * width;
+    final int word = (int)(bitPos >>> 6);
+    final int shift = (int)(bitPos & 63);
+    long v = words[word] >>> shift;
+    if (shift + width > 64)
+      v |= words[word+1] << (64 - shift);
+    if (width < 64)
+      v &= (1L << width) - 1;
+    return mins[bidx] + v;
+  }
+
+  public long get(long idx) {
+    if (idx < 0 || idx >= nElems)
+      throw new IndexOutOfBoundsException("Index " + idx + " out of range " + nElems);
+    if (order == ORDER_NONE)
+      return residual(idx);
+    final int bidx = (int)(idx >> BLOCK_SHIFT);
+    final long start = ((long)bidx) << BLOCK_SHIFT;
+    long v = anchors[bidx];
+    if (order == ORDER_DELTA) {
+      for (long ridx = start + 1; ridx <= idx; ++ridx)
+	v += residual(ridx);
+    } else {
+      long delta = anchorDeltas[bidx];
+      for (long ridx = start + 1; ridx <= idx; ++ridx) {
+	if (ridx > start + 1)
+	  delta += residual(ridx);
+	v += delta;
+      }
+    }
+    return v;
+  }
+
+  /**
+   * Decode block bidx into dst starting at dstOff.  Residuals are unpacked with a running
+   * bit position and the delta orders are then resolved with a running sum.  Returns the
+   * number of elements decoded.
+   */
+  public int decodeBlock(int bidx, long[] dst, int dstOff) {
+    final long start = ((long)bidx) << BLOCK_SHIFT;
+    final int len = (int)Math.min(BLOCK_SIZE, nElems - start);
+    final int width = widths[bidx];
+    final long min = mins[bidx];
+    if (width == 0) {
+      Arrays.fill(dst, dstOff, dstOff + len, min);
+    } else {
+      final long mask = width == 64 ? -1L : (1L << width) - 1;
+      long bitPos = wordOffsets[bidx] * 64;
+      for (int idx = 0; idx < len; ++idx, bitPos += width) {
+	final int word = (int)(bitPos >>> 6);
+	final int shift = (int)(bitPos & 63);
+	long v = words[word] >>> shift;
+	if (shift + width > 64)
+	  v |= words[word+1] << (64 - shift);
+	dst[dstOff + idx] = min + (v & mask);
+      }
+    }
+    if (order == ORDER_DELTA) {
+      long v = anchors[bidx];
+      dst[dstOff] = v;
+      for (int idx = 1; idx < len; ++idx) {
+	v += dst[dstOff + idx];
+	dst[dstOff + idx] = v;
+      }
+    } else if (order == ORDER_DELTA_OF_DELTA) {
+      long v = anchors[bidx];
+      dst[dstOff] = v;
+      if (len > 1) {
+	long delta = anchorDeltas[bidx];
+	v += delta;
+	dst[dstOff + 1] = v;
+	for (int idx = 2; idx < len; ++idx) {
+	  delta += dst[dstOff + idx];
+	  v += delta;
+	  dst[dstOff + idx] = v;
+	}
+      }
+    }
+    return len;
+  }
+
+  /** Decode [sidx, eidx) into dst starting at dst offset 0. */
+  public void decode(long sidx, long eidx, long[] dst) {
+    if (sidx < 0 || eidx > nElems || sidx > eidx)
+      throw new IndexOutOfBoundsException("Range [" + sidx + "," + eidx + ") out of range "
+					  + nElems);
+    long[] scratch = null;
+    long idx = sidx;
+    while (idx < eidx) {
+      final int bidx = (int)(idx >> BLOCK_SHIFT);
+      final long bstart = ((long)bidx) << BLOCK_SHIFT;
+      final long bend = Math.min(nElems, bstart + BLOCK_SIZE);
+      final long end = Math.min(eidx, bend);
+      final int dstOff = (int)(idx - sidx);
+      if (idx == bstart && end == bend) {
+	decodeBlock(bidx, dst, dstOff);
+      } else {
+	if (scratch == null)
+	  scratch = new long[BLOCK_SIZE];
+	decodeBlock(bidx, scratch, 0);
+	System.arraycopy(scratch, (int)(idx - bstart), dst, dstOff, (int)(end - idx));
+      }
+      idx = end;
+    }
+  }
+
+  /**
+   * Single element reads that keep the last decoded block so sequential reads decode each
+   * block once.  Safe to share across threads as a published block is never mutated;
+   * threads reading different blocks simply decode again.
+   */
+  public static final class BlockReader {
+    static final class Block {
+      final int bidx;
+      final long[] data;
+      Block(int bidx, long[] data) {
+	this.bidx = bidx;
+	this.data = data;
+      }
+    }
+    final PackedLongBlocks blocks;
+    volatile Block last;
+    public BlockReader(PackedLongBlocks blocks) {
+      this.blocks = blocks;
+    }
+    public long get(long idx) {
+      //Frame of reference reads are already constant time.
+      if (blocks.order == ORDER_NONE)
+	return blocks.get(idx);
+      if (idx < 0 || idx >= blocks.nElems)
+	throw new IndexOutOfBoundsException("Index " + idx + " out of range " + blocks.nElems);
+      final int bidx = (int)(idx >> BLOCK_SHIFT);
+      Block b = last;
+      if (b == null || b.bidx != bidx) {
+	final long[] data = new long[BLOCK_SIZE];
+	blocks.decodeBlock(bidx, data, 0);
+	b = new Block(bidx, data);
+	last = b;
+      }
+      return b.data[(int)(idx & (BLOCK_SIZE - 1))];
+    }
+  }
+
+  /** Encoded size in bytes. */
+  public long nBytes() {
+    return words.length * 8L + mins.length * 17L
+      + (anchors == null ? 0 : anchors.length * 8L)
+      + (anchorDeltas == null ? 0 : anchorDeltas.length * 8L);
+  }
+
+  /** Number of runs of equal values in the data. */
+  public static long countRuns(long[] data) {
+    if (data.length == 0)
+      return 0;
+    long runs = 1;
+    for (int idx = 1; idx < data.length; ++idx)
+      if (data[idx] != data[idx-1])
+	++runs;
+    return runs;
+  }
+
+  /** Run length encoding as [run-ends, run-values]; run-ends are exclusive. */
+  public static long[][] runLengthEncode(long[] data) {
+    final int nRuns = (int)countRuns(data);
+    final long[] ends = new long[nRuns];
+    final long[] values = new long[nRuns];
+    int run = -1;
+    for (int idx = 0; idx < data.length; ++idx) {
+      if (idx == 0 || data[idx] != data[idx-1]) {
+	++run;
+	values[run] = data[idx];
+      }
+      ends[run] = idx + 1;
+    }
+    return new long[][] {ends, values};
+  }
+
+  /** Index of the run containing idx given exclusive run ends. */
+  public static int findRun(long[] runEnds, long idx) {
+    final int pos = Arrays.binarySearch(runEnds, idx);
+    //An exact hit means idx is the first element of the next run
+    return pos >= 0 ? pos + 1 : -(pos + 1);
+  }
+}
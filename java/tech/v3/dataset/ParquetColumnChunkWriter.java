@@ -0,0 +1,106 @@
+package tech.v3.dataset;
+
+import org.apache.parquet.column.ColumnWriter;
+import org.apache.parquet.column.ColumnWriteStore;
+import org.apache.parquet.io.api.Binary;
+import org.roaringbitmap.RoaringBitmap;
+import tech.v3.datatype.Buffer;
+
+
+/**
+ * Bulk writers that push a range of a column into a parquet ColumnWriter.  Each
+ * ColumnWriteStore is expected to contain only the column being written so that
+ * independent columns can be written from independent threads.
+ */
+public class ParquetColumnChunkWriter {
+  public static void checkMissing(Object colname, RoaringBitmap missing, int maxDef) {
+    if(maxDef == 0 && !missing.isEmpty())
+      throw new RuntimeException("Column " + String.valueOf(colname)
+				 + " has missing values but is marked as required in the parquet schema");
+  }
+  static boolean isMissing(RoaringBitmap missing, boolean anyMissing, long idx) {
+    return anyMissing && missing.contains((int)idx);
+  }
+  public static void writeBoolean(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				  RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write(data.readBoolean(idx), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  public static void writeInt32(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write((int)data.readLong(idx), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  public static void writeInt64(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write(data.readLong(idx), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  public static void writeFloat(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write((float)data.readDouble(idx), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  public static void writeDouble(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				 RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write(data.readDouble(idx), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  public static void writeString(ColumnWriter w, ColumnWriteStore s, Buffer data,
+				 RoaringBitmap missing, int maxDef, long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write(Binary.fromString(String.valueOf(data.readObject(idx))), 0, maxDef);
+      s.endRecord();
+    }
+  }
+  /**
+   * Write a string column from its string table indexes.  Each distinct string is
+   * converted to a Binary once.
+   */
+  public static void writeStringTable(ColumnWriter w, ColumnWriteStore s, Buffer indexes,
+				      Binary[] dict, RoaringBitmap missing, int maxDef,
+				      long sidx, long eidx) {
+    final boolean anyMissing = !missing.isEmpty();
+    for(long idx = sidx; idx < eidx; ++idx) {
+      if(isMissing(missing, anyMissing, idx))
+	w.writeNull(0, 0);
+      else
+	w.write(dict[(int)indexes.readLong(idx)], 0, maxDef);
+      s.endRecord();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package tech.v3.dataset;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+import org.roaringbitmap.RoaringBitmap;
+import tech.v3.datatype.Buffer;
+
+
+/**
+ * Primitive loops for the leaves of a predicate.  Each kernel scans the [sidx, eidx)
+ * range of a buffer and returns the matching rows as a bitmap.  The comparison operation
+ * is fixed per call so the branch inside each loop is loop invariant.  Missing values are
+ * not considered here - callers remove the missing rows of the column from the result.
+ */
+public class PredicateKernels {
+  public static final int EQ = 0;
+  public static final int NE = 1;
+  public static final int LT = 2;
+  public static final int LE = 3;
+  public static final int GT = 4;
+  public static final int GE = 5;
+
+  public static RoaringBitmap compareLong(Buffer data, long sidx, long eidx, int op, long v) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    switch (op) {
+    case EQ:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) == v) rv.add((int)idx);
+      break;
+    case NE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) != v) rv.add((int)idx);
+      break;
+    case LT:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) < v) rv.add((int)idx);
+      break;
+    case LE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) <= v) rv.add((int)idx);
+      break;
+    case GT:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) > v) rv.add((int)idx);
+      break;
+    case GE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readLong(idx) >= v) rv.add((int)idx);
+      break;
+    default:
+      throw new IllegalArgumentException("Unrecognized comparison: " + op);
+    }
+    return rv;
+  }
+
+  public static RoaringBitmap compareDouble(Buffer data, long sidx, long eidx, int op, double v) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    switch (op) {
+    case EQ:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) == v) rv.add((int)idx);
+      break;
+    case NE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) != v) rv.add((int)idx);
+      break;
+    case LT:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) < v) rv.add((int)idx);
+      break;
+    case LE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) <= v) rv.add((int)idx);
+      break;
+    case GT:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) > v) rv.add((int)idx);
+      break;
+    case GE:
+      for (long idx = sidx; idx < eidx; ++idx) if (data.readDouble(idx) >= v) rv.add((int)idx);
+      break;
+    default:
+      throw new IllegalArgumentException("Unrecognized comparison: " + op);
+    }
+    return rv;
+  }
+
+  /** Inclusive on both ends. */
+  public static RoaringBitmap betweenLong(Buffer data, long sidx, long eidx, long lo, long hi) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx) {
+      final long v = data.readLong(idx);
+      if (v >= lo && v <= hi)
+	rv.add((int)idx);
+    }
+    return rv;
+  }
+
+  /** Inclusive on both ends. */
+  public static RoaringBitmap betweenDouble(Buffer data, long sidx, long eidx, double lo,
+					    double hi) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx) {
+      final double v = data.readDouble(idx);
+      if (v >= lo && v <= hi)
+	rv.add((int)idx);
+    }
+    return rv;
+  }
+
+  /** values must be sorted. */
+  public static RoaringBitmap inLong(Buffer data, long sidx, long eidx, long[] values) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx)
+      if (Arrays.binarySearch(values, data.readLong(idx)) >= 0)
+	rv.add((int)idx);
+    return rv;
+  }
+
+  /** values must be sorted. */
+  public static RoaringBitmap inDouble(Buffer data, long sidx, long eidx, double[] values) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx)
+      if (Arrays.binarySearch(values, data.readDouble(idx)) >= 0)
+	rv.add((int)idx);
+    return rv;
+  }
+
+  /** Rows whose integer code passes - for dictionary encoded data where the predicate
+   * has been evaluated once per dictionary entry. */
+  public static RoaringBitmap codes(Buffer codes, long sidx, long eidx, boolean[] pass) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx)
+      if (pass[(int)codes.readLong(idx)])
+	rv.add((int)idx);
+    return rv;
+  }
+
+  public static RoaringBitmap objects(Buffer data, long sidx, long eidx,
+				      Predicate<Object> pred) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for (long idx = sidx; idx < eidx; ++idx)
+      if (pred.test(data.readObject(idx)))
+	rv.add((int)idx);
+    return rv;
+  }
+}
@@ -0,0 +1,18 @@
+package tech.v3.dataset;
+
+import ham_fisted.IMutList;
+
+
+/**
+ * Parses strings directly into the primitive representation of a column container so
+ * the common values of a column never produce a boxed intermediate.  Parsers hold the
+ * last parsed value and so are per-column and not thread safe.  A string that is not in
+ * a shape the parser handles returns false from tryParse and callers fall back to the
+ * general (boxed) parse pathway.
+ */
+public interface PrimitiveParser {
+  /** Parse s returning false if it is not in a shape handled by this parser. */
+  boolean tryParse(String s);
+  /** Add the last successfully parsed value to the container. */
+  void addParsed(IMutList container);
+}
@@ -0,0 +1,209 @@
+package tech.v3.dataset;
+
+import java.util.Arrays;
+
+
+/**
+ * Incremental rolling window kernels.  Windows are described by a start and end (exclusive)
+ * per output row and both starts and ends must be non-decreasing - which is the case for
+ * fixed, variable and expanding windows - so each kernel is a single pass where every
+ * source element enters and leaves the window state exactly once.  Window positions may
+ * lie outside of the data in which case they are resolved by the edge mode; either
+ * clamped to the first/last value or treated as zero.
+ *
+ * sum, mean and variance are O(1) per step, min and max use a monotonic deque (amortized
+ * O(1)) and quantiles use a fenwick tree over the ranks of the data (O(log n)).
+ */
+public class RollingKernels {
+  public static final int EDGE_CLAMP = 0;
+  public static final int EDGE_ZERO = 1;
+
+  static double value(double[] data, long idx, int edgeMode) {
+    final int n = data.length;
+    if (idx >= 0 && idx < n)
+      return data[(int)idx];
+    if (edgeMode == EDGE_ZERO || n == 0)
+      return 0.0;
+    return idx < 0 ? data[0] : data[n-1];
+  }
+
+  /** True if starts and ends are non-decreasing and every window is well formed. */
+  public static boolean monotonic(long[] starts, long[] ends) {
+    for (int idx = 0; idx < starts.length; ++idx) {
+      if (ends[idx] < starts[idx])
+	return false;
+      if (idx > 0 && (starts[idx] < starts[idx-1] || ends[idx] < ends[idx-1]))
+	return false;
+    }
+    return true;
+  }
+
+  /** Kahan compensated running sum. */
+  static final class KahanSum {
+    double sum = 0.0;
+    double comp = 0.0;
+    void add(double v) {
+      final double y = v - comp;
+      final double t = sum + y;
+      comp = (t - sum) - y;
+      sum = t;
+    }
+  }
+
+  public static double[] sum(double[] data, long[] starts, long[] ends, int edgeMode,
+			     boolean mean) {
+    final int nWin = starts.length;
+    final double[] rv = new double[nWin];
+    final KahanSum acc = new KahanSum();
+    long s = nWin == 0 ? 0 : starts[0];
+    long e = s;
+    for (int widx = 0; widx < nWin; ++widx) {
+      for (; e < ends[widx]; ++e)
+	acc.add(value(data, e, edgeMode));
+      for (; s < starts[widx]; ++s)
+	acc.add(-value(data, s, edgeMode));
+      final long n = e - s;
+      rv[widx] = mean ? (n == 0 ? Double.NaN : acc.sum / n) : acc.sum;
+    }
+    return rv;
+  }
+
+  /** Sample variance via welford's algorithm with removal. */
+  public static double[] variance(double[] data, long[] starts, long[] ends, int edgeMode,
+				  boolean stddev) {
+    final int nWin = starts.length;
+    final double[] rv = new double[nWin];
+    long n = 0;
+    double mean = 0.0;
+    double m2 = 0.0;
+    long s = nWin == 0 ? 0 : starts[0];
+    long e = s;
+    for (int widx = 0; widx < nWin; ++widx) {
+      for (; e < ends[widx]; ++e) {
+	final double v = value(data, e, edgeMode);
+	++n;
+	final double delta = v - mean;
+	mean += delta / n;
+	m2 += delta * (v - mean);
+      }
+      for (; s < starts[widx]; ++s) {
+	final double v = value(data, s, edgeMode);
+	--n;
+	if (n == 0) {
+	  mean = 0.0;
+	  m2 = 0.0;
+	} else {
+	  final double delta = v - mean;
+	  mean -= delta / n;
+	  m2 -= delta * (v - mean);
+	}
+      }
+      final double var = n < 2 ? Double.NaN : Math.max(0.0, m2) / (n - 1);
+      rv[widx] = stddev ? Math.sqrt(var) : var;
+    }
+    return rv;
+  }
+
+  /** Rolling min or max using a monotonic deque of window positions. */
+  public static double[] minmax(double[] data, long[] starts, long[] ends, int edgeMode,
+				boolean max) {
+    final int nWin = starts.length;
+    final double[] rv = new double[nWin];
+    long[] deque = new long[16];
+    int head = 0;
+    int tail = 0;
+    long s = nWin == 0 ? 0 : starts[0];
+    long e = s;
+    for (int widx = 0; widx < nWin; ++widx) {
+      for (; e < ends[widx]; ++e) {
+	final double v = value(data, e, edgeMode);
+	while (tail > head) {
+	  final double last = value(data, deque[tail-1], edgeMode);
+	  if (max ? last <= v : last >= v)
+	    --tail;
+	  else
+	    break;
+	}
+	if (tail == deque.length) {
+	  //compact or grow
+	  final int len = tail - head;
+	  if (head > deque.length / 2) {
+	    System.arraycopy(deque, head, deque, 0, len);
+	  } else {
+	    deque = Arrays.copyOfRange(deque, head, deque.length * 2);
+	  }
+	  head = 0;
+	  tail = len;
+	}
+	deque[tail++] = e;
+      }
+      s = starts[widx];
+      while (tail > head && deque[head] < s)
+	++head;
+      rv[widx] = tail > head ? value(data, deque[head], edgeMode) : Double.NaN;
+    }
+    return rv;
+  }
+
+  /**
+   * Rolling quantile.  The data (and the zero edge value) are sorted once to assign
+   * ranks and a fenwick tree of rank counts is the order statistic structure.  The
+   * estimate matches the default (legacy) estimation of commons-math Percentile.
+   */
+  public static double[] quantile(double[] data, long[] starts, long[] ends, int edgeMode,
+				  double q) {
+    final int nWin = starts.length;
+    final double[] rv = new double[nWin];
+    final double[] sorted = Arrays.copyOf(data, data.length + 1);
+    //Zero is always included so the zero edge mode has a rank.
+    sorted[data.length] = 0.0;
+    Arrays.sort(sorted);
+    final int nRanks = sorted.length;
+    final long[] tree = new long[nRanks + 1];
+    int highBit = Integer.highestOneBit(nRanks);
+    long s = nWin == 0 ? 0 : starts[0];
+    long e = s;
+    for (int widx = 0; widx < nWin; ++widx) {
+      for (; e < ends[widx]; ++e) {
+	final int rank = Arrays.binarySearch(sorted, value(data, e, edgeMode));
+	for (int i = rank + 1; i <= nRanks; i += i & -i)
+	  ++tree[i];
+      }
+      for (; s < starts[widx]; ++s) {
+	final int rank = Arrays.binarySearch(sorted, value(data, s, edgeMode));
+	for (int i = rank + 1; i <= nRanks; i += i & -i)
+	  --tree[i];
+      }
+      final long n = e - s;
+      if (n == 0) {
+	rv[widx] = Double.NaN;
+	continue;
+      }
+      final double pos = q * (n + 1);
+      if (pos < 1) {
+	rv[widx] = kth(tree, sorted, highBit, 1);
+      } else if (pos >= n) {
+	rv[widx] = kth(tree, sorted, highBit, n);
+      } else {
+	final long fpos = (long)Math.floor(pos);
+	final double lower = kth(tree, sorted, highBit, fpos);
+	final double upper = kth(tree, sorted, highBit, fpos + 1);
+	rv[widx] = lower + (pos - fpos) * (upper - lower);
+      }
+    }
+    return rv;
+  }
+
+  /** The k-th (1 based) smallest value in the tree. */
+  static double kth(long[] tree, double[] sorted, int highBit, long k) {
+    int pos = 0;
+    for (int step = highBit; step > 0; step >>= 1) {
+      final int next = pos + step;
+      if (next < tree.length && tree[next] < k) {
+	pos = next;
+	k -= tree[next];
+      }
+    }
+    return sorted[pos];
+  }
+}
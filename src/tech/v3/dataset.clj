@@ -83,8 +83,15 @@
     tech.v3.resource stack context is opened the file will be deleted when the context
     closes else it will be deleted when the gc cleans up the dataset.  A shutdown hook is
     added as a last resort to ensure the file is cleaned up.
+  - `:string-table-storage` - When `:off-heap`, string columns keep the utf-8 bytes of
+    their distinct values in off-heap memory rather than as java strings, which greatly
+    reduces gc pressure for high-cardinality columns.  Strings are created on read.
   - `:n-initial-skip-rows` - Skip N rows initially.  This currently may include the
      header row.  Works across both csv and spreadsheet datasets.
+  - `:csv-parallel?` - When true, local uncompressed csv/tsv files are split into byte
+     ranges parsed on multiple cores.  See
+     [[tech.v3.dataset.io.csv/csv->dataset-parallel]].  Ignored when
+     `:n-initial-skip-rows` or `:n-records` is provided.
   - `:parser-type` - Default parser to use if no parser-fn is specified for that column.
      For csv files, the default parser type is `:string` which indicates a promotional
      string parser.  For sequences of maps, the default parser type is :object.  It can
@@ -622,7 +629,11 @@ null [6 3]:
 
 (defn filter
   "dataset->dataset transformation.  Predicate is passed a map of
-  colname->column-value."
+  colname->column-value.
+
+  If predicate is a vector it is a predicate expression such as
+  `[:and [:> :price 100] [:in :symbol #{\"AAPL\" \"GOOG\"}]]` which is evaluated a column
+  at a time without reading rows - see `tech.v3.dataset.predicate`."
   ([dataset predicate]
   (tech.v3.dataset.base/filter dataset predicate)))
 
@@ -632,6 +643,9 @@ null [6 3]:
   If predicate is *not* an instance of Ifn it is treated as a value and will
   be used as if the predicate is #(= value %).
 
+  If predicate is a vector it is a predicate expression with the column left out -
+  `[:> 100]`, `[:or [:< 0] [:missing]]` - see `tech.v3.dataset.predicate`.
+
   The 2-arity form of this function reads the column as a boolean reader so for
   instance numeric 0 values are false in that case as are Double/NaN, Float/NaN.  Objects are
   only false if nil?.
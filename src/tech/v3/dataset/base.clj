@@ -22,6 +22,8 @@
             [tech.v3.dataset.protocols :as ds-proto]
             [tech.v3.dataset.impl.dataset :as ds-impl]
             [tech.v3.dataset.string-table :as str-table]
+            [tech.v3.dataset.compress :as compress]
+            [tech.v3.dataset.predicate :as ds-pred]
             [tech.v3.dataset.readers :as ds-readers]
             [tech.v3.dataset.dynamic-int-list :as dyn-int-list]
             [ham-fisted.api :as hamf]
@@ -463,12 +465,19 @@
 
 (defn filter
   "dataset->dataset transformation.  Predicate is passed a map of
-  colname->column-value."
+  colname->column-value.
+
+  If predicate is a vector it is a predicate expression such as
+  `[:and [:> :price 100] [:in :symbol #{\"AAPL\" \"GOOG\"}]]` which is evaluated a column
+  at a time without reading rows - see `tech.v3.dataset.predicate`."
   [dataset predicate]
-  (some->> dataset
-           ds-readers/mapseq-reader
-           (argops/argfilter predicate)
-           (select-rows dataset)))
+  (if (vector? predicate)
+    (when dataset
+      (select-rows dataset (ds-pred/predicate->bitmap dataset predicate)))
+    (some->> dataset
+             ds-readers/mapseq-reader
+             (argops/argfilter predicate)
+             (select-rows dataset))))
 
 
 (defn filter-column
@@ -476,13 +485,19 @@
   If predicate is *not* an instance of Ifn it is treated as a value and will
   be used as if the predicate is #(= value %).
 
+  If predicate is a vector it is a predicate expression with the column left out -
+  `[:> 100]`, `[:or [:< 0] [:missing]]` - see `tech.v3.dataset.predicate`.
+
   The 2-arity form of this function reads the column as a boolean reader so for
   instance numeric 0 values are false in that case as are Double/NaN, Float/NaN.  Objects are
   only false if nil?.
 
   Returns a dataset."
   ([dataset colname predicate]
-   (when dataset
+   (cond
+     (nil? dataset) nil
+     (vector? predicate) (filter dataset (ds-pred/bind-column colname predicate))
+     :else
      (let [predicate (if (instance? IFn predicate)
                        predicate
                        (let [pred-dtype (dtype/get-datatype predicate)]
@@ -495,9 +510,17 @@
                              (fn [^double arg] (== arg predicate)))
                            :else
                            #(= predicate %))))]
-       (->> (column dataset colname)
-            (argops/argfilter predicate)
-            (select dataset :all)))))
+       (let [col (column dataset colname)]
+         ;;Dictionary encoded columns evaluate the predicate once per distinct value.
+         ;;Missing rows of object columns are read as nil so the predicate decides
+         ;;them - missing numeric rows never pass.
+         (if-let [passing (compress/filter-indexes
+                           col predicate
+                           {:probe-missing? (not (casting/numeric-type?
+                                                  (dtype/elemwise-datatype col)))})]
+           (select dataset :all passing)
+           (->> (argops/argfilter predicate col)
+                (select dataset :all)))))))
   ([dataset colname]
    (some->> (column dataset colname)
             unary-pred/bool-reader->indexes
@@ -547,7 +570,16 @@
 
   Options are passed into dtype's arggroup method."
   ([dataset colname options]
-   (when dataset (argops/arggroup options (column dataset colname))))
+   (when dataset
+     (let [col (column dataset colname)]
+       ;;Dictionary and constant encoded columns group on their integer codes
+       (if-let [groups (compress/group-indexes col)]
+         (do
+           (when (get options :skip-finalize?)
+             (doseq [^Map$Entry e groups]
+               (.setValue e (delay (.getValue e)))))
+           groups)
+         (argops/arggroup options col)))))
   ([dataset colname]
    (group-by-column->indexes dataset colname nil)))
 
@@ -735,8 +767,17 @@
                        (remove nil?)
                        seq)
          n-rows (long (reduce + (map row-count datasets)))]
-     (do-concat #(coalesce-blocks! (dtype/make-container :jvm-heap %1 n-rows)
-                                   %2)
+     (do-concat (fn [dtype columns]
+                  ;;String columns that are all string tables - for instance the
+                  ;;per-thread results of pmap-ds - merge their dictionaries instead of
+                  ;;re-hashing every string into a new table.
+                  (if (and (identical? :string dtype)
+                           (every? #(instance? StringTable (ds-proto/column-data %))
+                                   columns))
+                    (apply str-table/merge-string-tables
+                           (map ds-proto/column-data columns))
+                    (coalesce-blocks! (dtype/make-container :jvm-heap dtype n-rows)
+                                      columns)))
                 (first datasets) (rest datasets))))
   ([] nil))
 
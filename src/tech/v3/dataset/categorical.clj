@@ -9,17 +9,25 @@
             [tech.v3.dataset.impl.dataset :as ds-impl]
             [tech.v3.dataset.impl.column :as col-impl]
             [tech.v3.dataset.impl.column-base :as col-base]
+            [tech.v3.dataset.impl.sparse-column :as sparse-col]
             [tech.v3.datatype :as dtype]
             [tech.v3.datatype.protocols :as dtype-proto]
             [tech.v3.datatype.casting :as casting]
             [tech.v3.datatype.errors :as errors]
-            [tech.v3.datatype.bitmap :as bitmap]
-            [ham-fisted.lazy-noncaching :as lznc]
+            [ham-fisted.api :as hamf]
             [ham-fisted.set :as set]
             [ham-fisted.defprotocol :refer [extend-type]])
+  (:import [tech.v3.dataset.string_table StringTable]
+           [tech.v3.datatype Buffer]
+           [ham_fisted IMutList ArrayLists]
+           [org.roaringbitmap RoaringBitmap]
+           [java.util List Arrays])
   (:refer-clojure :exclude [extend-type]))
 
 
+(set! *warn-on-reflection* true)
+
+
 (defn- indiscrete-mapping
   [[k v]]
   (let [v (double v)
@@ -110,6 +118,84 @@ Non integers found: " (vec bad-mappings)))))
 
 
 
+(def ^:private ^:const missing-code -1)
+(def ^:private ^:const unmapped-code -2)
+
+
+(defn- sorted-numeric-keys
+  "Sorted array of the keys of categories usable in the column's numeric space along with
+  the category index of each sorted key."
+  [categories op-space]
+  (let [entries (->> (map-indexed vector categories)
+                     (filter (fn [[_ k]] (if (identical? :int64 op-space)
+                                           (integer? k)
+                                           (number? k))))
+                     (sort-by (fn [[_ k]] (if (identical? :int64 op-space)
+                                            (long k)
+                                            (double k)))))]
+    [(if (identical? :int64 op-space)
+       (long-array (map (comp long second) entries))
+       (double-array (map (comp double second) entries)))
+     (int-array (map first entries))]))
+
+
+(defn- column-codes
+  "Single parallel pass over column producing, per row, the index of the row's value in
+  the categories vector.  Missing rows are -1 and values that are not categories are -2.
+  String table columns look up each distinct string once and numeric columns binary
+  search the sorted category values so only object columns box values per row."
+  ^ints [column categories]
+  (let [n-rows (dtype/ecount column)
+        codes (int-array n-rows)
+        col-buf (ds-proto/column-buffer column)
+        op-space (casting/simple-operation-space
+                  (dtype-proto/operational-elemwise-datatype column))
+        cat-idx (zipmap categories (range))
+        kernel
+        (cond
+          (instance? StringTable col-buf)
+          (let [^List int->str (.-int->str ^StringTable col-buf)
+                str-codes (int-array (.size int->str))
+                ^Buffer data (dtype/->buffer (.-data ^StringTable col-buf))]
+            (dotimes [idx (alength str-codes)]
+              (aset str-codes idx (unchecked-int (get cat-idx (.get int->str idx) unmapped-code))))
+            (fn [^long sidx ^long eidx]
+              (loop [idx sidx]
+                (when (< idx eidx)
+                  (aset codes idx (aget str-codes (.readLong data idx)))
+                  (recur (unchecked-inc idx))))))
+          (identical? :int64 op-space)
+          (let [[^longs ks ^ints kcodes] (sorted-numeric-keys categories op-space)
+                ^Buffer data (dtype/->reader column :int64)]
+            (fn [^long sidx ^long eidx]
+              (loop [idx sidx]
+                (when (< idx eidx)
+                  (let [kidx (Arrays/binarySearch ks (.readLong data idx))]
+                    (aset codes idx (if (>= kidx 0) (aget kcodes kidx) (unchecked-int unmapped-code))))
+                  (recur (unchecked-inc idx))))))
+          (identical? :float64 op-space)
+          (let [[^doubles ks ^ints kcodes] (sorted-numeric-keys categories op-space)
+                ^Buffer data (dtype/->reader column :float64)]
+            (fn [^long sidx ^long eidx]
+              (loop [idx sidx]
+                (when (< idx eidx)
+                  (let [kidx (Arrays/binarySearch ks (.readDouble data idx))]
+                    (aset codes idx (if (>= kidx 0) (aget kcodes kidx) (unchecked-int unmapped-code))))
+                  (recur (unchecked-inc idx))))))
+          :else
+          (let [^Buffer data (dtype/->reader column)]
+            (fn [^long sidx ^long eidx]
+              (loop [idx sidx]
+                (when (< idx eidx)
+                  (aset codes idx (unchecked-int (get cat-idx (.readObject data idx) unmapped-code)))
+                  (recur (unchecked-inc idx)))))))]
+    (dorun (hamf/pgroups n-rows kernel))
+    (let [^RoaringBitmap missing (ds-proto/missing column)]
+      (.forEach missing (reify org.roaringbitmap.IntConsumer
+                          (accept [_ idx] (aset codes idx (unchecked-int missing-code))))))
+    codes))
+
+
 (defn transform-categorical-map
   "Apply a categorical mapping transformation fit with fit-categorical-map."
   [dataset fit-data]
@@ -119,21 +205,40 @@ Non integers found: " (vec bad-mappings)))))
         column (ds-base/column dataset colname)
         missing (ds-proto/missing column)
         col-meta (meta column)
-        missing-value (col-base/datatype->missing-value result-datatype)]
+        missing-value (col-base/datatype->missing-value result-datatype)
+        categories (vec (keys lookup-table))
+        mapping (long-array (map #(long (get lookup-table %)) categories))
+        codes (column-codes column categories)
+        n-rows (alength codes)
+        _ (dotimes [idx n-rows]
+            (errors/when-not-errorf
+             (not (== unmapped-code (aget codes idx)))
+             "Failed to find label entry for column value %s"
+             (column idx)))
+        result (dtype/make-container :jvm-heap result-datatype n-rows)
+        ^Buffer out (dtype/->buffer result)]
+    (dorun
+     (hamf/pgroups
+      n-rows
+      (if (identical? :float64 (casting/simple-operation-space result-datatype))
+        (let [missing-value (double missing-value)]
+          (fn [^long sidx ^long eidx]
+            (loop [idx sidx]
+              (when (< idx eidx)
+                (let [code (aget codes idx)]
+                  (.writeDouble out idx (if (neg? code) missing-value (double (aget mapping code)))))
+                (recur (unchecked-inc idx))))))
+        (let [missing-value (long missing-value)]
+          (fn [^long sidx ^long eidx]
+            (loop [idx sidx]
+              (when (< idx eidx)
+                (let [code (aget codes idx)]
+                  (.writeLong out idx (if (neg? code) missing-value (aget mapping code))))
+                (recur (unchecked-inc idx)))))))))
     (assoc dataset colname
            (col-impl/new-column
             (:name col-meta)
-            (dtype/emap (fn [col-val]
-                          (if-not (nil? col-val)
-                            (let [numeric (get lookup-table col-val)]
-                              (errors/when-not-errorf
-                               numeric
-                               "Failed to find label entry for column value %s"
-                               col-val)
-                              numeric)
-                            missing-value))
-                        result-datatype
-                        column)
+            result
             (assoc col-meta :categorical-map fit-data)
             missing))))
 
@@ -223,51 +328,74 @@ user> (ds-cat/dataset->categorical-maps catds)
       :result-datatype result-datatype})))
 
 
+(defn- one-hot-columns
+  "Dense int8 columns filled in one pass over the codes."
+  [categories colnames ^ints codes col-meta missing]
+  (let [n-rows (alength codes)
+        n-cats (count categories)
+        ^objects data (object-array (repeatedly n-cats #(byte-array n-rows)))]
+    (dorun
+     (hamf/pgroups
+      n-rows
+      (fn [^long sidx ^long eidx]
+        (loop [idx sidx]
+          (when (< idx eidx)
+            (let [code (aget codes idx)]
+              (when (>= code 0)
+                (aset ^bytes (aget data code) idx (unchecked-byte 1))))
+            (recur (unchecked-inc idx)))))))
+    (map-indexed (fn [cidx colname]
+                   (col-impl/new-column colname (aget data cidx) col-meta missing))
+                 colnames)))
+
+
+(defn- sparse-one-hot-columns
+  "Sparse int8 columns holding only the rows that match each category."
+  [categories colnames ^ints codes col-meta]
+  (let [n-rows (alength codes)
+        ^objects indexes (object-array (repeatedly (count categories) hamf/int-array-list))]
+    (dotimes [idx n-rows]
+      (let [code (aget codes idx)]
+        (when (>= code 0)
+          (.addLong ^IMutList (aget indexes code) idx))))
+    (map-indexed (fn [cidx colname]
+                   (let [^IMutList idx-list (aget indexes cidx)
+                         ones (doto (byte-array (.size idx-list))
+                                (Arrays/fill (unchecked-byte 1)))]
+                     (sparse-col/construct-sparse-col
+                      idx-list (ArrayLists/toList ones) n-rows
+                      (-> (dissoc col-meta :datatype :n-elems)
+                          (assoc :name colname)))))
+                 colnames)))
+
+
 (defn transform-one-hot
-  "Apply a one-hot transformation to a dataset"
-  [dataset one-hot-fit-data]
-  (let [{:keys [one-hot-table src-column result-datatype]}
-        one-hot-fit-data
-        column (ds-base/column dataset src-column)
-        missing (ds-proto/missing column)
-        dataset (dissoc dataset src-column)
-        n-elems (dtype/ecount column)
-        op-space (casting/simple-operation-space (dtype-proto/operational-elemwise-datatype column))]
-    (merge dataset
-           (->> one-hot-table
-                (lznc/map
-                 (fn [[k v]]
-                   (col-impl/new-column
-                    v
-                    (case op-space
-                      :int64
-                      (let [buf (dtype/->reader column :int64)
-                            k (long k)]
-                        (reify tech.v3.datatype.LongBuffer
-                          (elemwiseDatatype [this] :int8)
-                          (lsize [this] n-elems)
-                          (readLong [this idx]
-                            (if (== k (.readLong buf idx))
-                              1 0))))
-                      :float64
-                      (let [buf (dtype/->reader column :float64)
-                            k (double k)]
-                        (reify tech.v3.datatype.LongBuffer
-                          (elemwiseDatatype [this] :int8)
-                          (lsize [this] n-elems)
-                          (readLong [this idx]
-                            (if (== k (.readDouble buf idx))
-                              1 0))))
-                      (dtype/emap
-                       #(if (= % k)
-                          1
-                          0)
-                       :int8
-                       column))
-                    (assoc (meta column)
-                           :one-hot-map one-hot-fit-data)
-                    missing)))
-                (ds-impl/new-dataset)))))
+  "Apply a one-hot transformation to a dataset.  The source column is scanned once -
+  each row is mapped to the index of its category and the one-hot columns are filled
+  from those indexes.
+
+  Options:
+
+  * `:sparse?` - produce `tech.v3.dataset.impl.sparse-column` columns that only store
+    the rows matching each category.  Rows that do not match a category read as missing
+    in that category's column so use `tech.v3.dataset.protocols/valid-rows` to get the
+    indexes of the 1 values.  This saves memory for high cardinality columns."
+  ([dataset one-hot-fit-data options]
+   (let [{:keys [one-hot-table src-column]} one-hot-fit-data
+         column (ds-base/column dataset src-column)
+         missing (ds-proto/missing column)
+         dataset (dissoc dataset src-column)
+         categories (vec (keys one-hot-table))
+         colnames (mapv one-hot-table categories)
+         codes (column-codes column categories)
+         col-meta (assoc (meta column) :one-hot-map one-hot-fit-data)]
+     (merge dataset
+            (ds-impl/new-dataset
+             (if (get options :sparse?)
+               (sparse-one-hot-columns categories colnames codes col-meta)
+               (one-hot-columns categories colnames codes col-meta missing))))))
+  ([dataset one-hot-fit-data]
+   (transform-one-hot dataset one-hot-fit-data nil)))
 
 
 (extend-type OneHotMap
@@ -295,13 +423,16 @@ user> (ds-cat/dataset->categorical-maps catds)
         one-hot-ds (ds-base/select-columns dataset colnames)
         rev-mapped-cols (->> invert-map
                              (map (fn [[colname colval]]
-                                    (dtype/emap #(if (cast-fn %)
+                                    (dtype/emap #(if (and (some? %) (cast-fn %))
                                                    colval
                                                    nil)
                                                 :object
                                                 (ds-base/column one-hot-ds colname)))))
         dataset (apply dissoc dataset colnames)
-        missing (bitmap/reduce-union (map ds-proto/missing (vals one-hot-ds)))
+        ;;Rows are missing when they are missing in every one-hot column - sparse one-hot
+        ;;columns are missing wherever the row is not their category.
+        missing (reduce #(RoaringBitmap/and %1 %2)
+                        (map ds-proto/missing (vals one-hot-ds)))
         res-dtype (reduce casting/widest-datatype
                           (map dtype/datatype (keys one-hot-table)))]
     (assoc dataset
@@ -9,7 +9,10 @@
             [ham-fisted.print :refer [implement-tostring-print]])
   (:import [ham_fisted IMutList ArrayLists]
            [tech.v3.datatype LongBuffer DoubleBuffer ObjectBuffer Buffer]
-           [java.util Map Set]))
+           [tech.v3.dataset PackedLongBlocks PackedLongBlocks$BlockReader]
+           [org.roaringbitmap RoaringBitmap]
+           [java.util Map Set List]
+           [java.util.function LongUnaryOperator]))
 
 (set! *warn-on-reflection* true)
 (set! *unchecked-math* :warn-on-boxed)
@@ -81,7 +84,7 @@
   dt-proto/PSubBuffer (sub-buffer [_ off len]
                         (let [off (long off) len (long len)]
                           (ham_fisted.ChunkedList/sublistCheck off (+ off len) n-elems)
-                          (ConstBuffer. (- len off) dtype v)))
+                          (ConstBuffer. len dtype v)))
   ToMap
   (toMap [_] {:compressed-buffer-type :const-buffer :n-elems n-elems :dtype dtype :v v})
   dt-proto/PToBuffer
@@ -143,10 +146,117 @@
 
 (defn dict-buffer [dict dtype n-elems indexes] (DictBuffer. dict dtype n-elems indexes))
 (defn map->DictBuffer [m] (DictBuffer. (hamf/object-array (:dict m)) (:dtype m) (:n-elems m)
-                                       (make-int-buffer (:index-dtype m) (:indexes m))))
+                                       (make-int-buffer (:indexes m) (:index-dtype m))))
 
 (defn dict-buffer? [m] (instance? DictBuffer m))
 
+(defn- long-data-reader
+  "Reader of dtype over long data read with read-fn.  Packed datatypes are unpacked."
+  [dtype ^long n-elems ^LongUnaryOperator read-fn]
+  (let [rv (if (casting/integer-type? dtype)
+             (reify LongBuffer
+               (elemwiseDatatype [_] dtype)
+               (lsize [_] n-elems)
+               (readLong [_ idx] (.applyAsLong read-fn idx))
+               (readObject [t idx] (casting/cast (.readLong t idx) dtype)))
+             (reify LongBuffer
+               (elemwiseDatatype [_] dtype)
+               (lsize [_] n-elems)
+               (readLong [_ idx] (.applyAsLong read-fn idx))
+               (readObject [t idx] (.readLong t idx))))]
+    (if (packing/packed-datatype? dtype)
+      (packing/unpack rv)
+      rv)))
+
+(deftype RleBuffer [dtype ^long n-elems ^longs run-ends values]
+  dt-proto/PECount (ecount [_] n-elems)
+  dt-proto/PElemwiseDatatype (elemwise-datatype [_] dtype)
+  dt-proto/PSubBuffer (sub-buffer [t off len]
+                        (dt/sub-buffer (dt/->reader t) off len))
+  dt-proto/PToBuffer
+  (convertible-to-buffer? [_] true)
+  (->buffer [_]
+    (if (instance? (Class/forName "[J") values)
+      (let [^longs values values]
+        (long-data-reader dtype n-elems
+                          (reify LongUnaryOperator
+                            (applyAsLong [_ idx]
+                              (aget values (PackedLongBlocks/findRun run-ends idx))))))
+      (let [^objects values values]
+        (reify ObjectBuffer
+          (lsize [_] n-elems)
+          (elemwiseDatatype [_] dtype)
+          (readObject [_ idx] (aget values (PackedLongBlocks/findRun run-ends idx)))))))
+  ToMap
+  (toMap [_] {:compressed-buffer-type :rle-buffer :dtype dtype :n-elems n-elems
+              :run-ends run-ends :values values})
+  Object
+  (toString [t] (.toString ^Object (dt/->reader t)))
+  (hashCode [t] (.hashCode ^Object (dt/->reader t)))
+  (equals [t o] (.equals ^Object (dt/->reader t) o)))
+
+(implement-tostring-print RleBuffer)
+
+(defn rle-buffer [dtype n-elems run-ends values] (RleBuffer. dtype n-elems run-ends values))
+(defn map->RleBuffer [m] (RleBuffer. (:dtype m) (:n-elems m) (hamf/long-array (:run-ends m))
+                                     (if (casting/integer-type? (casting/simple-operation-space
+                                                                 (:dtype m)))
+                                       (hamf/long-array (:values m))
+                                       (hamf/object-array (:values m)))))
+
+(defn rle-buffer? [b] (instance? RleBuffer b))
+
+(def ^:private packed-orders
+  {:frame-of-reference PackedLongBlocks/ORDER_NONE
+   :delta PackedLongBlocks/ORDER_DELTA
+   :delta-of-delta PackedLongBlocks/ORDER_DELTA_OF_DELTA})
+
+(def ^:private packed-encodings (into {} (map (fn [[k v]] [v k])) packed-orders))
+
+(deftype PackedBuffer [dtype ^PackedLongBlocks blocks]
+  dt-proto/PECount (ecount [_] (.-nElems blocks))
+  dt-proto/PElemwiseDatatype (elemwise-datatype [_] dtype)
+  dt-proto/PSubBuffer (sub-buffer [t off len]
+                        (dt/sub-buffer (dt/->reader t) off len))
+  dt-proto/PToBuffer
+  (convertible-to-buffer? [_] true)
+  (->buffer [_]
+    ;;Sequential reads - reductions, copies and sub-buffers - decode each block once.
+    (let [rdr (PackedLongBlocks$BlockReader. blocks)]
+      (long-data-reader dtype (.-nElems blocks)
+                        (reify LongUnaryOperator
+                          (applyAsLong [_ idx] (.get rdr idx))))))
+  ToMap
+  (toMap [_] {:compressed-buffer-type :packed-buffer :dtype dtype :n-elems (.-nElems blocks)
+              :encoding (packed-encodings (.-order blocks))
+              :mins (.-mins blocks) :widths (.-widths blocks)
+              :word-offsets (.-wordOffsets blocks) :words (.-words blocks)
+              :anchors (.-anchors blocks) :anchor-deltas (.-anchorDeltas blocks)})
+  Object
+  (toString [t] (.toString ^Object (dt/->reader t)))
+  (hashCode [t] (.hashCode ^Object (dt/->reader t)))
+  (equals [t o] (.equals ^Object (dt/->reader t) o)))
+
+(implement-tostring-print PackedBuffer)
+
+(defn packed-buffer
+  "Bit packed frame-of-reference buffer of long data.  Encoding is one of
+  `:frame-of-reference`, `:delta` or `:delta-of-delta`."
+  [dtype encoding ^longs data]
+  (PackedBuffer. dtype (PackedLongBlocks/encode data (int (packed-orders encoding)))))
+(defn map->PackedBuffer [m]
+  (PackedBuffer. (:dtype m)
+                 (PackedLongBlocks. (long (:n-elems m))
+                                    (int (packed-orders (:encoding m)))
+                                    (hamf/long-array (:mins m))
+                                    (hamf/byte-array (:widths m))
+                                    (hamf/long-array (:word-offsets m))
+                                    (hamf/long-array (:words m))
+                                    (some-> (:anchors m) hamf/long-array)
+                                    (some-> (:anchor-deltas m) hamf/long-array))))
+
+(defn packed-buffer? [b] (instance? PackedBuffer b))
+
 (defn compressed-buffer->map
   [bb]
   (.toMap ^ToMap bb))
@@ -156,11 +266,14 @@
   (case (:compressed-buffer-type m)
     :offset-buffer (map->OffsetBuffer m)
     :const-buffer (map->ConstBuffer m)
-    :dict-buffer (map->DictBuffer m)))
+    :dict-buffer (map->DictBuffer m)
+    :rle-buffer (map->RleBuffer m)
+    :packed-buffer (map->PackedBuffer m)))
 
 (defn compressed-buffer?
   [m]
-  (or (offset-buffer? m) (const-buffer? m) (dict-buffer? m)))
+  (or (offset-buffer? m) (const-buffer? m) (dict-buffer? m)
+      (rle-buffer? m) (packed-buffer? m)))
 
 (defn reader->byte-array [^long offset ^Buffer rdr]
   (let [rv (byte-array (.size rdr))]
@@ -180,18 +293,93 @@
       (aset rv idx (unchecked-int (- (.readLong rdr idx) offset))))
     rv))
 
+(defn- filled-long-array
+  "Long data of the reader with missing rows replaced by the previous valid value so they
+  do not disturb runs, deltas or frame widths.  Missing rows remain masked by the column's
+  missing set."
+  ^longs [^Buffer rdr ^RoaringBitmap missing]
+  (let [n-elems (.lsize rdr)
+        rv (long-array n-elems)
+        any-missing? (and missing (not (.isEmpty missing)))]
+    (loop [idx 0
+           prev 0]
+      (when (< idx n-elems)
+        (let [v (if (and any-missing? (.contains missing (unchecked-int idx)))
+                  prev
+                  (.readLong rdr idx))]
+          (aset rv idx v)
+          (recur (unchecked-inc idx) v))))
+    rv))
+
+(def ^:private sample-slice-size 2048)
+(def ^:private n-sample-slices 32)
+
+(defn- sample-longs
+  "Contiguous block-aligned slices spread across the data.  Runs and deltas are local so
+  encoding sizes measured on the sample extrapolate to the full data."
+  ^longs [^longs data]
+  (let [n-elems (alength data)
+        sample-size (* (long sample-slice-size) (long n-sample-slices))]
+    (if (<= n-elems sample-size)
+      data
+      (let [rv (long-array sample-size)
+            stride (bit-and (quot (- n-elems (long sample-slice-size))
+                                  (dec (long n-sample-slices)))
+                            (bit-not (dec PackedLongBlocks/BLOCK_SIZE)))]
+        (dotimes [slice n-sample-slices]
+          (System/arraycopy data (* slice stride) rv (* slice (long sample-slice-size))
+                            sample-slice-size))
+        rv))))
+
+(defn- raw-byte-width
+  ^long [dtype]
+  (if (casting/numeric-type? dtype)
+    (long (casting/numeric-byte-width dtype))
+    8))
+
+(defn- smallest-long-encoding
+  "Estimated smallest encoding as [encoding n-bytes].  Sizes are measured on a sample."
+  [^longs data]
+  (let [sample (sample-longs data)
+        scale (/ (double (alength data)) (double (alength sample)))]
+    (->> [[:rle (* 16.0 (PackedLongBlocks/countRuns sample))]
+          [:frame-of-reference (PackedLongBlocks/encodedBytes sample PackedLongBlocks/ORDER_NONE)]
+          [:delta (PackedLongBlocks/encodedBytes sample PackedLongBlocks/ORDER_DELTA)]
+          [:delta-of-delta (PackedLongBlocks/encodedBytes sample
+                                                          PackedLongBlocks/ORDER_DELTA_OF_DELTA)]]
+         (map (fn [[k n-bytes]] [k (* scale (double n-bytes))]))
+         (apply min-key second))))
+
 (defn compress-integer-buffer
-  [n-elems dtype ocbuf cbuf]
-  (let [{:keys [^long max ^long min]} (hamf/lsummary cbuf)
-        mdiff (- max min)]
-    (cond
-      (== max min) (const-buffer n-elems dtype (casting/cast min dtype))
-      (and (<= mdiff 127) (not (or (identical? dtype :int8) (identical? dtype :uint8))))
-      (offset-buffer min dtype n-elems (reader->byte-array min ocbuf))
-      (and (<= mdiff 32767) (not (or (identical? dtype :int16) (identical? dtype :uint16))))
-      (offset-buffer min dtype n-elems (reader->short-array min ocbuf))
-      (and (<= mdiff 2147483647) (not (or (identical? dtype :int32) (identical? dtype :uint32))))
-      (offset-buffer min dtype n-elems (reader->int-array min ocbuf)))))
+  "Compress integer data choosing the smallest of a constant, offset (narrowing) buffer,
+  run-length, bit-packed frame-of-reference, delta and delta-of-delta encodings."
+  ([n-elems dtype ocbuf cbuf missing]
+   (let [{:keys [^long max ^long min]} (hamf/lsummary cbuf)
+         mdiff (- max min)
+         n-elems (long n-elems)
+         [offset-bytes offset-fn]
+         (cond
+           (and (<= mdiff 127) (not (or (identical? dtype :int8) (identical? dtype :uint8))))
+           [n-elems #(offset-buffer min dtype n-elems (reader->byte-array min ocbuf))]
+           (and (<= mdiff 32767) (not (or (identical? dtype :int16) (identical? dtype :uint16))))
+           [(* 2 n-elems) #(offset-buffer min dtype n-elems (reader->short-array min ocbuf))]
+           (and (<= mdiff 2147483647) (not (or (identical? dtype :int32) (identical? dtype :uint32))))
+           [(* 4 n-elems) #(offset-buffer min dtype n-elems (reader->int-array min ocbuf))])]
+     (if (== max min)
+       (const-buffer n-elems dtype (casting/cast min dtype))
+       (let [data (filled-long-array ocbuf missing)
+             [encoding ^double n-bytes] (smallest-long-encoding data)
+             baseline (long (or offset-bytes (* n-elems (raw-byte-width dtype))))]
+         (cond
+           (< n-bytes baseline)
+           (if (identical? encoding :rle)
+             (let [[run-ends values] (PackedLongBlocks/runLengthEncode data)]
+               (rle-buffer dtype n-elems run-ends values))
+             (packed-buffer dtype encoding data))
+           offset-fn
+           (offset-fn))))))
+  ([n-elems dtype ocbuf cbuf]
+   (compress-integer-buffer n-elems dtype ocbuf cbuf nil)))
 
 (defn compress-double-buffer
   [n-elems dtype cbuf]
@@ -202,8 +390,8 @@
 (defn compress-object-buffer
   [n-elems dtype ocbuf & {:as opts}]
   (let [hs (hamf/mut-map {nil 0})
-        dict (hamf/object-array-list)
-        indexes (hamf/long-array-list)
+        ^IMutList dict (hamf/object-array-list)
+        ^IMutList indexes (hamf/long-array-list)
         max-dict-ratio (double (get opts :max-dict-ratio 0.50))
         use-dict? (reduce (fn [_ vv]
                             (let [idx (.size dict)
@@ -217,9 +405,23 @@
                                 true)))
                           true ocbuf)]
     (when (and (not (.isEmpty dict))  use-dict?)
-      (if (== 1 (.size dict))
-        (const-buffer n-elems dtype (.get dict 0))
-        (let [n-dict (.size dict)]
+      (let [n-dict (.size dict)
+            index-width (long (cond (<= n-dict 127) 1
+                                    (<= n-dict 32767) 2
+                                    :else 4))
+            n-runs (long (PackedLongBlocks/countRuns (.toLongArray indexes)))]
+        (cond
+          (== 1 n-dict)
+          (const-buffer n-elems dtype (.get dict 0))
+          ;;long runs of the same value - sorted or clustered categoricals
+          (< (* 16 n-runs) (* index-width (long n-elems)))
+          (let [[run-ends run-idx] (PackedLongBlocks/runLengthEncode (.toLongArray indexes))
+                ^longs run-idx run-idx
+                run-values (object-array (alength run-idx))]
+            (dotimes [idx (alength run-idx)]
+              (aset run-values idx (.get dict (aget run-idx idx))))
+            (rle-buffer dtype n-elems run-ends run-values))
+          :else
           (dict-buffer (.toArray dict) dtype n-elems
                        (cond (<= n-dict 127)
                              (hamf/byte-array indexes)
@@ -241,7 +443,8 @@
         ocbuf (dt/->reader col)
         dtype (dt/elemwise-datatype col)]
     (case (casting/simple-operation-space dtype)
-      :int64 (compress-integer-buffer n-elems dtype ocbuf (nonmissing-buffer col ocbuf))
+      :int64 (compress-integer-buffer n-elems dtype ocbuf (nonmissing-buffer col ocbuf)
+                                      (ds-proto/missing col))
       :float64 (compress-double-buffer n-elems dtype (nonmissing-buffer col ocbuf))
       (compress-object-buffer n-elems dtype ocbuf opts))))
 
@@ -261,6 +464,223 @@
                    (assoc ds (ds-proto/column-name col) col))
                  ds))))
 
+;;Compressed-domain execution.  These work directly on the encoded representation of
+;;a column and return nil when the column's buffer is not encoded in a way they support
+;;so callers can fall back to the generic pathway.
+
+(defn group-codes
+  "For dictionary and constant encoded columns return a buffer of integer codes where
+  equal codes mean equal values.  Missing rows are not reflected in the codes.  Returns
+  nil for all other columns."
+  ^Buffer [col]
+  (let [b (ds-proto/column-buffer col)]
+    (cond
+      (dict-buffer? b) (dt/->buffer (.-indexes ^DictBuffer b))
+      (const-buffer? b) (dt/->buffer (dt/const-reader 0 (dt/ecount b))))))
+
+(defn- n-codes
+  ^long [col]
+  (let [b (ds-proto/column-buffer col)]
+    (if (dict-buffer? b)
+      (long (dt/ecount (.-dict ^DictBuffer b)))
+      1)))
+
+(defn- code-counts
+  "Count of rows per code with the count of missing rows in the last slot."
+  ^longs [^Buffer codes ^RoaringBitmap missing ^long n-codes]
+  (let [counts (long-array (inc n-codes))
+        n-rows (.lsize codes)
+        any-missing? (not (.isEmpty missing))]
+    (dotimes [idx n-rows]
+      (let [code (if (and any-missing? (.contains missing (unchecked-int idx)))
+                   n-codes
+                   (.readLong codes idx))]
+        (aset counts code (unchecked-inc (aget counts code)))))
+    counts))
+
+(defn group-indexes
+  "Group the rows of a dictionary or constant encoded column by value using the integer
+  codes.  Returns a map of value->int32 index list in the order the values first appear
+  with missing rows grouped under nil, or nil for all other columns."
+  ^Map [col]
+  (when-let [codes (group-codes col)]
+    (let [n-codes (n-codes col)
+          missing (ds-proto/missing col)
+          any-missing? (not (.isEmpty missing))
+          counts (code-counts codes missing n-codes)
+          groups (object-array (inc n-codes))
+          fill (int-array (inc n-codes))
+          first-rows (long-array (inc n-codes))
+          n-rows (.lsize codes)
+          rdr (dt/->reader col)
+          rv (java.util.LinkedHashMap.)]
+      (dotimes [code (inc n-codes)]
+        (when (pos? (aget counts code))
+          (aset groups code (int-array (aget counts code)))))
+      (dotimes [idx n-rows]
+        (let [code (if (and any-missing? (.contains missing (unchecked-int idx)))
+                     n-codes
+                     (.readLong codes idx))
+              ^ints group (aget groups code)
+              fill-idx (aget fill code)]
+          (when (== 0 fill-idx)
+            (aset first-rows code idx))
+          (aset group fill-idx (unchecked-int idx))
+          (aset fill code (unchecked-inc fill-idx))))
+      (->> (range (inc n-codes))
+           (filter #(pos? (aget counts (long %))))
+           (sort-by #(aget first-rows (long %)))
+           (run! (fn [code]
+                   (let [code (long code)]
+                     (.put rv
+                           (when-not (== code n-codes)
+                             (.readObject rdr (aget first-rows code)))
+                           (ArrayLists/toList ^ints (aget groups code)))))))
+      rv)))
+
+(defn value-frequencies
+  "Map of value->count for a dictionary or constant encoded column computed from the
+  integer codes.  Missing rows are counted under nil.  Returns nil for all other
+  columns."
+  [col]
+  (when-let [codes (group-codes col)]
+    (let [n-codes (n-codes col)
+          b (ds-proto/column-buffer col)
+          dict (when (dict-buffer? b) (ArrayLists/toList (.-dict ^DictBuffer b)))
+          rdr (dt/->reader col)
+          missing (ds-proto/missing col)
+          counts (code-counts codes missing n-codes)
+          ;;constant columns read their value through the column reader so packed
+          ;;datatypes are unpacked.
+          const-val (when-not dict
+                      (when-let [first-valid (first (ds-proto/valid-rows col))]
+                        (.readObject rdr (long first-valid))))]
+      (persistent!
+       (reduce (fn [acc code]
+                 (let [code (long code)
+                       cnt (aget counts code)]
+                   (if (pos? cnt)
+                     (assoc! acc (cond
+                                   (== code n-codes) nil
+                                   dict (.get ^List dict code)
+                                   :else const-val)
+                             cnt)
+                     acc)))
+               (transient {})
+               (range (inc n-codes)))))))
+
+(defn filter-indexes
+  "Rows of a dictionary, constant or run-length encoded column for which predicate is
+  truthy.  The predicate is evaluated once per dictionary entry, constant or run.  Missing
+  rows do not pass unless `:probe-missing?` is true in which case the predicate is also
+  evaluated once with nil and missing rows pass if it returns truthy - predicates on
+  primitive arguments throw on nil.  Returns a RoaringBitmap or nil for all other
+  columns."
+  (^RoaringBitmap [col predicate {:keys [probe-missing?]}]
+   (let [b (ds-proto/column-buffer col)
+         missing (ds-proto/missing col)
+         n-rows (long (dt/ecount col))
+         any-missing? (not (.isEmpty missing))
+         missing-pass? (and any-missing? probe-missing? (boolean (predicate nil)))
+         finish (fn [^RoaringBitmap rv]
+                  (when any-missing?
+                    (.andNot rv missing)
+                    (when missing-pass?
+                      (.or rv missing)))
+                  rv)]
+     (cond
+       (dict-buffer? b)
+       (let [dict (ArrayLists/toList (.-dict ^DictBuffer b))
+             n-dict (.size dict)
+             pass (boolean-array n-dict)
+             codes (dt/->buffer (.-indexes ^DictBuffer b))
+             rv (RoaringBitmap.)]
+         (dotimes [idx n-dict]
+           (aset pass idx (boolean (predicate (.get dict idx)))))
+         (dotimes [idx n-rows]
+           (when (aget pass (.readLong codes idx))
+             (.add rv (unchecked-int idx))))
+         (finish rv))
+       (const-buffer? b)
+       (let [rdr (dt/->reader col)
+             rv (RoaringBitmap.)]
+         (when-let [first-valid (first (ds-proto/valid-rows col))]
+           (when (predicate (.readObject rdr (long first-valid)))
+             (.add rv 0 n-rows)))
+         (finish rv))
+       (rle-buffer? b)
+       (let [^longs run-ends (.-run-ends ^RleBuffer b)
+             ;;read run values through the buffer reader so they are cast and unpacked
+             ;;exactly as the column's values are.
+             rdr (dt/->reader b)
+             rv (RoaringBitmap.)]
+         (loop [run 0
+                start 0]
+           (when (< run (alength run-ends))
+             (let [end (aget run-ends run)]
+               (when (predicate (.readObject rdr start))
+                 (.add rv start end))
+               (recur (unchecked-inc run) end))))
+         (finish rv)))))
+  (^RoaringBitmap [col predicate]
+   (filter-indexes col predicate nil)))
+
+(defn numeric-summary
+  "Closed form `{:min :max :sum :n-values}` over the valid rows of a constant, offset or
+  integer run-length encoded column without decoding the column.  Returns nil for all
+  other columns."
+  [col]
+  (let [b (ds-proto/column-buffer col)
+        ^RoaringBitmap missing (ds-proto/missing col)
+        any-missing? (not (.isEmpty missing))
+        n-rows (long (dt/ecount col))
+        dtype (dt/elemwise-datatype col)]
+    (when (and (casting/numeric-type? dtype)
+               (not (packing/packed-datatype? dtype)))
+      (cond
+        (const-buffer? b)
+        (let [n-valid (- n-rows (.getCardinality missing))
+              v (double (.-v ^ConstBuffer b))]
+          (when (pos? n-valid)
+            {:min v :max v :sum (* v n-valid) :n-values n-valid}))
+        (offset-buffer? b)
+        (let [offset (.-offset ^OffsetBuffer b)
+              data (ArrayLists/toList (.-data ^OffsetBuffer b))]
+          (loop [idx 0
+                 n-valid 0
+                 sum 0
+                 mn Long/MAX_VALUE
+                 mx Long/MIN_VALUE]
+            (if (< idx n-rows)
+              (if (and any-missing? (.contains missing (unchecked-int idx)))
+                (recur (unchecked-inc idx) n-valid sum mn mx)
+                (let [v (.getLong data idx)]
+                  (recur (unchecked-inc idx) (unchecked-inc n-valid) (+ sum v)
+                         (Math/min mn v) (Math/max mx v))))
+              (when (pos? n-valid)
+                {:min (double (+ offset mn)) :max (double (+ offset mx))
+                 :sum (double (+ sum (* offset n-valid))) :n-values n-valid}))))
+        (and (rle-buffer? b) (instance? (Class/forName "[J") (.-values ^RleBuffer b)))
+        (let [^longs run-ends (.-run-ends ^RleBuffer b)
+              ^longs values (.-values ^RleBuffer b)]
+          (loop [run 0
+                 start 0
+                 n-valid 0
+                 sum 0.0
+                 mn Double/MAX_VALUE
+                 mx (- Double/MAX_VALUE)]
+            (if (< run (alength run-ends))
+              (let [end (aget run-ends run)
+                    n-run (- end start
+                             (if any-missing? (.rangeCardinality missing start end) 0))
+                    v (double (aget values run))]
+                (if (pos? n-run)
+                  (recur (unchecked-inc run) end (+ n-valid n-run) (+ sum (* v n-run))
+                         (Math/min mn v) (Math/max mx v))
+                  (recur (unchecked-inc run) end n-valid sum mn mx)))
+              (when (pos? n-valid)
+                {:min mn :max mx :sum sum :n-values n-valid}))))))))
+
 (comment
   (require '[tech.v3.dataset :as ds])
 
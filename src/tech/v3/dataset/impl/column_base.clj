@@ -76,7 +76,9 @@
    (if-let [rv (get-in options [:datatype-parsers dtype])]
      (rv dtype options)
      (case dtype
-       :string (str-table/fast-string-container)
+       :string (if (identical? :off-heap (get options :string-table-storage))
+                 (str-table/off-heap-string-container)
+                 (str-table/fast-string-container))
        :text
        (let [^IMutList list-data
              (try
@@ -184,8 +184,15 @@
     tech.v3.resource stack context is opened the file will be deleted when the context
     closes else it will be deleted when the gc cleans up the dataset.  A shutdown hook is
     added as a last resort to ensure the file is cleaned up.
+  - `:string-table-storage` - When `:off-heap`, string columns keep the utf-8 bytes of
+    their distinct values in off-heap memory rather than as java strings, which greatly
+    reduces gc pressure for high-cardinality columns.  Strings are created on read.
   - `:n-initial-skip-rows` - Skip N rows initially.  This currently may include the
      header row.  Works across both csv and spreadsheet datasets.
+  - `:csv-parallel?` - When true, local uncompressed csv/tsv files are split into byte
+     ranges parsed on multiple cores.  See
+     [[tech.v3.dataset.io.csv/csv->dataset-parallel]].  Ignored when
+     `:n-initial-skip-rows` or `:n-records` is provided.
   - `:parser-type` - Default parser to use if no parser-fn is specified for that column.
      For csv files, the default parser type is `:string` which indicates a promotional
      string parser.  For sequences of maps, the default parser type is :object.  It can
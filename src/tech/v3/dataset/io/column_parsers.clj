@@ -13,7 +13,8 @@
             [tech.v3.datatype.protocols :as dtype-proto]
             [ham-fisted.api :as hamf])
   (:import [java.util UUID List]
-           [tech.v3.dataset Text]
+           [tech.v3.dataset Text FastDateTimeParser PrimitiveParser NumberParsers$IntegerParser
+            NumberParsers$DoubleParser]
            [tech.v3.datatype Buffer]
            [ham_fisted IMutList Casts]
            [org.roaringbitmap RoaringBitmap]
@@ -190,6 +191,21 @@
                       (.equalsIgnoreCase ^String value "na")))))))
 
 
+(defn- primitive-parser
+  "Parser that adds the common string shapes of a datatype directly to its container
+  without boxing - integers and doubles from their digits and packed dates and instants
+  as epoch days and epoch microseconds.  nil for other datatypes."
+  ^PrimitiveParser [dtype]
+  (case dtype
+    :int16 (NumberParsers$IntegerParser. Short/MIN_VALUE Short/MAX_VALUE)
+    :int32 (NumberParsers$IntegerParser. Integer/MIN_VALUE Integer/MAX_VALUE)
+    :int64 (NumberParsers$IntegerParser. Long/MIN_VALUE Long/MAX_VALUE)
+    :float64 (NumberParsers$DoubleParser.)
+    :packed-local-date (FastDateTimeParser. FastDateTimeParser/MODE_EPOCH_DAYS)
+    :packed-instant (FastDateTimeParser. FastDateTimeParser/MODE_EPOCH_MICROS)
+    nil))
+
+
 (deftype FixedTypeParser [^IMutList container
                           container-dtype
                           missing-value parse-fn
@@ -198,7 +214,8 @@
                           ^RoaringBitmap failed-indexes
                           column-name
                           ^:unsynchronized-mutable ^long max-idx
-                          disable-na-as-missing?]
+                          disable-na-as-missing?
+                          ^PrimitiveParser prim-parser]
   dtype-proto/PECount
   (ecount [_this] (inc max-idx))
   Indexed
@@ -213,33 +230,37 @@
   (addValue [_this idx value]
     (let [idx (unchecked-long idx)]
       (set! max-idx (max idx max-idx))
-      ;;First pass is to potentially parse the value.  It could already
-      ;;be in the space of the container or it could require the parse-fn
-      ;;to make it.
-      (let [parsed-value (cond
-                           (missing-value? value disable-na-as-missing?)
-                           :tech.v3.dataset/missing
-                           (and (identical? (dtype/datatype value) container-dtype)
-                                (not (instance? String value)))
-                           value
-                           :else
-                           (parse-fn value))]
-        (cond
-          ;;ignore it; we will add missing when we see the first valid value
-          (identical? :tech.v3.dataset/missing parsed-value)
-          nil
-          ;;Record the original incoming value if we are parsing in relaxed mode.
-          (identical? :tech.v3.dataset/parse-failure parsed-value)
-          (if failed-values
+      (if (and prim-parser (instance? String value) (.tryParse prim-parser value))
+        (do
+          (add-missing-values! container missing missing-value idx)
+          (.addParsed prim-parser container))
+        ;;First pass is to potentially parse the value.  It could already
+        ;;be in the space of the container or it could require the parse-fn
+        ;;to make it.
+        (let [parsed-value (cond
+                             (missing-value? value disable-na-as-missing?)
+                             :tech.v3.dataset/missing
+                             (and (identical? (dtype/datatype value) container-dtype)
+                                  (not (instance? String value)))
+                             value
+                             :else
+                             (parse-fn value))]
+          (cond
+            ;;ignore it; we will add missing when we see the first valid value
+            (identical? :tech.v3.dataset/missing parsed-value)
+            nil
+            ;;Record the original incoming value if we are parsing in relaxed mode.
+            (identical? :tech.v3.dataset/parse-failure parsed-value)
+            (if failed-values
+              (do
+                (.add failed-values value)
+                (.add failed-indexes (unchecked-int idx)))
+              (errors/throwf "Failed to parse value %s as datatype %s on row %d"
+                             value container-dtype idx))
+            :else
             (do
-              (.add failed-values value)
-              (.add failed-indexes (unchecked-int idx)))
-            (errors/throwf "Failed to parse value %s as datatype %s on row %d"
-                           value container-dtype idx))
-          :else
-          (do
-            (add-missing-values! container missing missing-value idx)
-            (.add container parsed-value))))))
+              (add-missing-values! container missing missing-value idx)
+              (.add container parsed-value)))))))
   (finalize [_p rowcount]
     (finalize-parser-data! container missing failed-values failed-indexes
                            missing-value rowcount)))
@@ -301,7 +322,10 @@
     (FixedTypeParser. container dtype missing-value parse-fn
                       missing failed-values failed-indexes
                       cname -1
-                      (get options :disable-na-as-missing?))))
+                      (get options :disable-na-as-missing?)
+                      ;;Only the default parsers can be replaced by the fast pathway.
+                      (when (keyword? parser-kwd)
+                        (primitive-parser dtype)))))
 
 (defn parser-kwd-list->parser-tuples
   [kwd-list]
@@ -386,7 +410,9 @@
                                   column-name
                                   ^:unsynchronized-mutable ^long last-idx
                                   options
-                                  disable-na-as-missing?]
+                                  disable-na-as-missing?
+                                  ^{:unsynchronized-mutable true
+                                    :tag PrimitiveParser} prim-parser]
   dtype-proto/PECount
   (ecount [_this] (inc last-idx))
   Indexed
@@ -401,6 +427,9 @@
   (addValue [_p idx value]
     (let [parsed-value
           (cond
+            (and prim-parser (instance? String value) (.tryParse prim-parser value))
+            :tech.v3.dataset/primitive
+
             (missing-value? value disable-na-as-missing?)
             :tech.v3.dataset/missing
 
@@ -432,6 +461,7 @@
                   (set! container-dtype parser-datatype)
                   (set! missing-value new-missing-value)
                   (set! parse-fn new-parser-fn)
+                  (set! prim-parser (primitive-parser parser-datatype))
                   parsed-value)))
             ;;Else, nothing to parse with, just return string value
             :else
@@ -442,6 +472,12 @@
         (errors/throwf "Parse failure detected in promotional parser - Please file issue.")
         (identical? :tech.v3.dataset/missing parsed-value)
         nil ;;Skip, will add missing on next valid value
+        (identical? :tech.v3.dataset/primitive parsed-value)
+        (do
+          (when (> (- idx last-idx) 1)
+            (add-missing-values! container missing missing-value idx))
+          (set! last-idx idx)
+          (.addParsed prim-parser container))
         :else
         (do
           (when (> (- idx last-idx) 1)
@@ -474,7 +510,8 @@
                                column-name
                                -1
                                options
-                               (get options :disable-na-as-missing?))))
+                               (get options :disable-na-as-missing?)
+                               (primitive-parser first-dtype))))
   (^PParser [column-name options]
    (promotional-string-parser column-name default-parser-datatype-sequence options)))
 
@@ -8,6 +8,11 @@
             [tech.v3.datatype :as dtype]
             [tech.v3.io :as io]
             [tech.v3.datatype.errors :as errors]
+            [tech.v3.datatype.casting :as casting]
+            [tech.v3.datatype.packing :as packing]
+            [tech.v3.dataset.base :as ds-base]
+            [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.impl.column-base :as col-base]
             [tech.v3.dataset.io.column-parsers :as column-parsers]
             [tech.v3.dataset.io.context :as parse-context]
             [tech.v3.dataset.impl.dataset :as ds-impl]
@@ -16,8 +21,11 @@
             [ham-fisted.reduce :as hamf-rf]
             [ham-fisted.lazy-noncaching :as lznc])
   (:import [tech.v3.datatype ArrayHelpers]
+           [tech.v3.dataset CsvChunks]
            [clojure.lang IReduceInit]
            [java.lang AutoCloseable]
+           [java.io File RandomAccessFile]
+           [java.nio.channels FileChannel]
            [java.util Iterator]))
 
 
@@ -139,11 +147,180 @@
     retval))
 
 
+(defn- csv-chunk-ranges
+  "Split a file into byte ranges that each start at a record boundary.  Ranges are
+  scanned in parallel for quotes and newlines - see CsvChunks."
+  [^FileChannel channel n-chunks quote]
+  (let [n-bytes (.size channel)
+        n-chunks (max 1 (min (long n-chunks) (quot n-bytes (* 1024 1024))))
+        chunk-size (quot (+ n-bytes (dec n-chunks)) n-chunks)
+        quote (unchecked-byte (int quote))
+        scans (->> (range n-chunks)
+                   (hamf/pmap (fn [^long cidx]
+                                (CsvChunks/scan channel
+                                                (* cidx chunk-size)
+                                                (min n-bytes (* (inc cidx) chunk-size))
+                                                quote)))
+                   (vec))
+        ;;The first record boundary at or after each chunk's start offset.
+        starts (loop [cidx 1
+                      n-quotes (aget ^longs (scans 0) 0)
+                      starts [0]]
+                 (if (< cidx n-chunks)
+                   (let [^longs scan (scans cidx)
+                         nl (if (even? n-quotes) (aget scan 1) (aget scan 2))]
+                     (recur (unchecked-inc cidx)
+                            (+ n-quotes (aget scan 0))
+                            (if (== -1 nl)
+                              starts
+                              (conj starts (inc nl)))))
+                   (conj starts n-bytes)))]
+    (->> (partition 2 1 (distinct starts))
+         (filter (fn [[^long s ^long e]] (< s e)))
+         (vec))))
+
+
+(defn- reconcile-column-datatypes
+  "Chunks may have promoted a column to different datatypes.  When every chunk produced a
+  numeric or boolean column cast the columns that differ to the widest numeric type as a
+  single pass of the promotional parser would have.  Chunks where the column is entirely
+  missing do not participate.
+
+  Returns nil when a column mixes strings with other datatypes.  A single pass
+  stringifies the values it parsed before the first string at the width it had reached
+  by then and keeps the raw text of the rest - the chunks no longer have that text so
+  the caller must parse serially."
+  [datasets]
+  (let [cnames (->> (mapcat ds-base/column-names datasets) (distinct))
+        non-empty? #(> (dtype/ecount %) (dtype/ecount (ds-proto/missing %)))
+        col-dtype #(packing/unpack-datatype (dtype/elemwise-datatype %))
+        targets
+        (->> cnames
+             (keep (fn [cname]
+                     (let [dtypes (->> datasets
+                                       (keep #(get % cname))
+                                       (filter non-empty?)
+                                       (map col-dtype)
+                                       (distinct))]
+                       (when (> (count dtypes) 1)
+                         [cname
+                          (when (every? #(or (casting/numeric-type? %)
+                                             (identical? :boolean %))
+                                        dtypes)
+                            (reduce casting/widest-datatype
+                                    (or (seq (remove #{:boolean} dtypes)) dtypes)))]))))
+             (into {}))]
+    (cond
+      (empty? targets)
+      datasets
+      (some nil? (vals targets))
+      nil
+      :else
+      (mapv
+       (fn [ds]
+         (reduce-kv
+          (fn [ds cname target]
+            (let [col (get ds cname)]
+              (if (and col (not (identical? target (col-dtype col))))
+                (let [mv (col-base/datatype->missing-value target)]
+                  (assoc ds cname
+                         (ds-col/new-column
+                          #:tech.v3.dataset{:name cname
+                                            :data (dtype/make-container
+                                                   :jvm-heap target
+                                                   (dtype/emap #(if (nil? %)
+                                                                  mv
+                                                                  (casting/cast % target))
+                                                               target col))
+                                            :missing (ds-proto/missing col)
+                                            :force-datatype? true})))
+                ds)))
+          ds targets))
+       datasets))))
+
+
+(defn csv->dataset-parallel
+  "Read a local, uncompressed csv file into a dataset using multiple cores.  The file is
+  split into byte ranges that start on record boundaries (newlines inside quoted fields
+  are accounted for) and each range is tokenized and parsed independently with the same
+  promotional column parsers as [[csv->dataset]].  Numeric columns that were promoted to
+  different datatypes in different ranges are widened before the ranges are concatenated.
+  When a column was promoted to string in some ranges but not in others the file is
+  parsed again serially so the result matches [[csv->dataset]].
+
+  Quoting must follow RFC-4180 - the range boundary detection counts quote characters.
+  Options are the same as [[csv->dataset]] aside from `:n-initial-skip-rows` and
+  `:n-records`, with the addition of:
+
+  * `:csv-n-chunks` - Number of byte ranges.  Defaults to twice the number of available
+    processors.  Ranges are at least 1MB."
+  [input & [options]]
+  (let [options (merge {:profile :mutable} options)
+        header-row? (get options :header-row? true)
+        n-chunks (get options :csv-n-chunks
+                      (* 2 (.availableProcessors (Runtime/getRuntime))))]
+    (with-open [raf (RandomAccessFile. (if (instance? File input) ^File input (File. (str input)))
+                                      "r")]
+      (let [channel (.getChannel raf)
+            ranges (csv-chunk-ranges channel n-chunks (get options :quote \"))
+            read-range (fn [[^long sidx ^long eidx]]
+                         (charred/read-csv-supplier
+                          (CsvChunks/rangeInputStream channel sidx eidx)
+                          options))
+            header (when (and header-row? (seq ranges))
+                     (with-open [^AutoCloseable s (read-range (first ranges))]
+                       (let [iter (coerce/->iterator s)]
+                         (when (.hasNext iter) (vec (.next iter))))))
+            load-fn (rows->dataset-fn options)
+            datasets
+            (->> ranges
+                 (map-indexed vector)
+                 (hamf/pmap
+                  (fn [[cidx range]]
+                    (let [s (read-range range)]
+                      (try
+                        ;;Every range parses with the header row so column names,
+                        ;;parser-fn and column selection options apply identically.
+                        (load-fn (if (and header (not (== 0 (long cidx))))
+                                   (let [iter (coerce/->iterator s)
+                                         first? (volatile! true)]
+                                     (reify Iterator
+                                       (hasNext [this] (or @first? (.hasNext iter)))
+                                       (next [this]
+                                         (if @first?
+                                           (do (vreset! first? false) header)
+                                           (.next iter)))))
+                                   s))
+                        (finally
+                          (when (instance? AutoCloseable s)
+                            (.close ^AutoCloseable s)))))))
+                 (vec))]
+        (if (empty? datasets)
+          (load-fn [])
+          (if-let [datasets (reconcile-column-datatypes datasets)]
+            (apply ds-base/concat-copying datasets)
+            (csv->dataset input options)))))))
+
+
+(defn- local-csv-file?
+  [data options]
+  (and (not (:gzipped? options))
+       (or (instance? File data)
+           (and (string? data)
+                (not (re-find #"^\w+://" data))
+                (.isFile (File. ^String data))))))
+
+
 (defn- load-csv
   [data options]
-  (ds-io/wrap-stream-fn
-   data (:gzipped? options)
-   #(csv->dataset %1 options)))
+  (if (and (get options :csv-parallel?)
+           (not (get options :n-initial-skip-rows))
+           (not (get options :n-records (get options :num-rows)))
+           (local-csv-file? data options))
+    (csv->dataset-parallel data options)
+    (ds-io/wrap-stream-fn
+     data (:gzipped? options)
+     #(csv->dataset %1 options))))
 
 
 (defmethod ds-io/data->dataset :csv
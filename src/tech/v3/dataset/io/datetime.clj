@@ -3,8 +3,9 @@
   (:require [clojure.string :as s]
             [tech.v3.datatype.datetime :as dtype-dt])
   (:import [java.time LocalDate LocalDateTime LocalTime
-            ZonedDateTime OffsetDateTime Instant Duration]
-           [java.time.format DateTimeFormatter DateTimeFormatterBuilder]))
+            ZonedDateTime OffsetDateTime Instant Duration ZoneOffset]
+           [java.time.format DateTimeFormatter DateTimeFormatterBuilder]
+           [tech.v3.dataset FastDateTimeParser]))
 
 
 (set! *warn-on-reflection* true)
@@ -42,9 +43,15 @@ parse a wide variety of local date formats."
 
 
 (defn parse-local-date
-  "Convert a string into a local date attempting a wide variety of format types."
+  "Convert a string into a local date attempting a wide variety of format types.
+  yyyy-MM-dd, yyyyMMdd and M/d/yyyy shapes are parsed directly - see
+  `tech.v3.dataset.FastDateTimeParser` - everything else goes through
+  [[local-date-formatter]]."
   ^LocalDate [^String str-data]
-  (LocalDate/parse (date-preparse str-data) local-date-formatter))
+  (let [epoch-day (FastDateTimeParser/parseLocalDate str-data)]
+    (if (== epoch-day FastDateTimeParser/MISS)
+      (LocalDate/parse (date-preparse str-data) local-date-formatter)
+      (LocalDate/ofEpochDay epoch-day))))
 
 
 (def ^{:doc "Parser patterns to parse a wide variety of time strings"}
@@ -81,15 +88,25 @@ parse a wide variety of local date formats."
   "Convert a string into a local time attempting a wide variety of
   possible parser patterns."
   ^LocalTime [^String str-data]
-  (LocalTime/parse (local-time-preparse str-data) local-time-formatter))
+  (let [nanos (FastDateTimeParser/parseLocalTime str-data)]
+    (if (== nanos FastDateTimeParser/MISS)
+      (LocalTime/parse (local-time-preparse str-data) local-time-formatter)
+      (LocalTime/ofNanoOfDay nanos))))
 
 
 (defn parse-local-date-time
   "Parse a local-date-time by first splitting the string and then separately
-  parsing the local-date portion and the local-time portions."
+  parsing the local-date portion and the local-time portions.  A date and an
+  H:mm[:ss[.S]] time separated by T or a space are parsed directly."
   ^LocalDateTime [^String str-data]
-  (let [split-data (s/split str-data #"[ T]+")]
+  (let [nanos (FastDateTimeParser/parseLocalDateTimeNanos str-data)
+        split-data (when (== nanos FastDateTimeParser/MISS)
+                     (s/split str-data #"[ T]+"))]
     (cond
+      (nil? split-data)
+      (LocalDateTime/ofEpochSecond (Math/floorDiv nanos 1000000000)
+                                   (int (Math/floorMod nanos 1000000000))
+                                   ZoneOffset/UTC)
       (== 2 (count split-data))
       (let [local-date (parse-local-date (first split-data))
             local-time (parse-local-time (second split-data))]
@@ -1,21 +1,380 @@
 (ns tech.v3.dataset.io.nippy
+  "Nippy support for datasets and columns.  Datasets are frozen in a columnar binary
+  format - a header describing the columns followed by each column's missing bitmap
+  (roaring portable format) and storage as raw little-endian blocks.  See
+  `freeze-columnar` and `thaw-columnar`."
   (:require [tech.v3.dataset.io :as ds-io]
             [tech.v3.dataset.base :as ds-base]
+            [tech.v3.dataset.protocols :as ds-proto]
+            [tech.v3.dataset.impl.dataset :as ds-impl]
+            [tech.v3.dataset.impl.column :as col-impl]
+            [tech.v3.dataset.string-table :as str-table]
+            [tech.v3.datatype :as dtype]
             [tech.v3.datatype.errors :as errors]
+            [tech.v3.datatype.casting :as casting]
+            [tech.v3.datatype.packing :as packing]
+            [tech.v3.datatype.bitmap :as bitmap]
             ;;Support for tensor/array buffers in nippy
             [tech.v3.datatype.nippy]
             [tech.v3.io :as io]
+            [ham-fisted.api :as hamf]
             [taoensso.nippy :as nippy])
   (:import [tech.v3.dataset.impl.dataset Dataset]
-           [tech.v3.dataset.impl.column Column]))
+           [tech.v3.dataset.impl.column Column]
+           [tech.v3.dataset.string_table StringTable]
+           [tech.v3.dataset ByteStringDict]
+           [tech.v3.datatype Buffer LongReader DoubleReader]
+           [ham_fisted ArrayLists]
+           [java.io DataOutput DataOutputStream ByteArrayOutputStream]
+           [java.nio ByteBuffer ByteOrder]
+           [java.nio.charset StandardCharsets]
+           [java.util List]
+           [org.roaringbitmap RoaringBitmap]))
+
+
+(set! *warn-on-reflection* true)
+(set! *unchecked-math* :warn-on-boxed)
+
+
+(def ^:private columnar-version 1)
+(def ^:private ^{:tag 'long} chunk-size 65536)
+
+
+(def ^:private primitive-widths
+  {:boolean 1 :int8 1 :uint8 1 :int16 2 :uint16 2 :int32 4 :uint32 4
+   :int64 8 :uint64 8 :float32 4 :float64 8})
+
+
+(defn- le-chunk
+  ^ByteBuffer []
+  (-> (ByteBuffer/allocate chunk-size)
+      (.order ByteOrder/LITTLE_ENDIAN)))
+
+
+(defn- flush-chunk!
+  [^DataOutput out ^ByteBuffer chunk]
+  (.write out (.array chunk) 0 (.position chunk))
+  (.clear chunk))
+
+
+(defmacro ^:private put-all!
+  "Stream n-elems values from a reader through the little-endian chunk buffer."
+  [out chunk n-elems width put-expr]
+  `(dotimes [~'idx ~n-elems]
+     (when (< (.remaining ~chunk) ~width)
+       (flush-chunk! ~out ~chunk))
+     ~put-expr))
+
+
+(defn- write-primitive!
+  [out ^ByteBuffer chunk datatype ^Buffer rdr]
+  (let [n-elems (.lsize rdr)]
+    (case (casting/un-alias-datatype datatype)
+      :boolean (put-all! out chunk n-elems 1
+                         (.put chunk (if (.readBoolean rdr idx) (byte 1) (byte 0))))
+      (:int8 :uint8) (put-all! out chunk n-elems 1
+                               (.put chunk (unchecked-byte (.readLong rdr idx))))
+      (:int16 :uint16) (put-all! out chunk n-elems 2
+                                 (.putShort chunk (unchecked-short (.readLong rdr idx))))
+      (:int32 :uint32) (put-all! out chunk n-elems 4
+                                 (.putInt chunk (unchecked-int (.readLong rdr idx))))
+      (:int64 :uint64) (put-all! out chunk n-elems 8
+                                 (.putLong chunk (.readLong rdr idx)))
+      :float32 (put-all! out chunk n-elems 4
+                         (.putFloat chunk (unchecked-float (.readDouble rdr idx))))
+      :float64 (put-all! out chunk n-elems 8
+                         (.putDouble chunk (.readDouble rdr idx))))))
+
+
+(defn- utf8-bytes
+  ^bytes [^List int->str ^long idx]
+  (if (instance? ByteStringDict int->str)
+    (.getBytes ^ByteStringDict int->str (unchecked-int idx))
+    (.getBytes (str-table/fast-str (.get int->str idx)) StandardCharsets/UTF_8)))
+
+
+(defn- column-block
+  "Describe how a column will be written along with the exact number of bytes of its
+  missing and data blocks.  String dictionaries are encoded here as their size is not
+  known up front."
+  [col]
+  (let [metadata (meta col)
+        coldata (packing/pack (ds-proto/column-buffer col))
+        dtype (dtype/elemwise-datatype coldata)
+        n-rows (dtype/ecount coldata)
+        ^RoaringBitmap missing (bitmap/->bitmap (ds-proto/missing col))
+        _ (.runOptimize missing)
+        base {:metadata (assoc metadata :datatype dtype)
+              :missing missing
+              :missing-bytes (.serializedSizeInBytes missing)}]
+    (cond
+      (primitive-widths (casting/un-alias-datatype dtype))
+      (assoc base
+             :encoding :primitive
+             :data coldata
+             :data-bytes (* n-rows (long (primitive-widths (casting/un-alias-datatype dtype)))))
+      (= :string dtype)
+      (let [str-t (ds-base/ensure-column-string-table col)
+            ^List int->str (.int->str str-t)
+            n-entries (.size int->str)
+            entries (hamf/pmap #(utf8-bytes int->str %) (range n-entries))
+            entries (vec entries)
+            n-str-bytes (long (reduce (fn [^long acc ^bytes b] (+ acc (alength b))) 0 entries))]
+        (assoc base
+               :encoding :string
+               :data (str-table/indices str-t)
+               :entries entries
+               :data-bytes (+ 4 (* 4 (inc n-entries)) n-str-bytes (* 4 n-rows))))
+      :else
+      (let [^bytes frozen (nippy/freeze (ds-base/column->data col))]
+        (assoc base
+               :encoding :nippy
+               :data frozen
+               :data-bytes (alength frozen))))))
+
+
+(defn- write-column-block!
+  [^DataOutput out ^ByteBuffer chunk {:keys [^RoaringBitmap missing encoding data entries
+                                             metadata]}]
+  (let [missing-data (-> (ByteBuffer/allocate (.serializedSizeInBytes missing))
+                         (.order ByteOrder/LITTLE_ENDIAN))]
+    (.serialize missing missing-data)
+    (.write out (.array missing-data)))
+  (case encoding
+    :primitive (write-primitive! out chunk (:datatype metadata) (dtype/->reader data))
+    :string
+    (let [^List entries entries
+          n-entries (.size entries)]
+      (.putInt chunk n-entries)
+      (loop [idx 0
+             offset 0]
+        (when (< (.remaining chunk) 4)
+          (flush-chunk! out chunk))
+        (.putInt chunk (unchecked-int offset))
+        (when (< idx n-entries)
+          (recur (inc idx) (+ offset (alength ^bytes (.get entries idx))))))
+      (flush-chunk! out chunk)
+      (dotimes [idx n-entries]
+        (.write out ^bytes (.get entries idx)))
+      (let [^Buffer indexes (dtype/->reader data)]
+        (put-all! out chunk (.lsize indexes) 4
+                  (.putInt chunk (unchecked-int (.readLong indexes idx))))))
+    :nippy (.write out ^bytes data))
+  (flush-chunk! out chunk))
+
+
+(defn- columnar-blocks
+  [ds]
+  (let [blocks (vec (hamf/pmap column-block (ds-base/columns ds)))
+        ^bytes header (nippy/freeze
+                       {:version columnar-version
+                        :metadata (meta ds)
+                        :row-count (ds-base/row-count ds)
+                        :columns (mapv #(select-keys % [:metadata :encoding
+                                                        :missing-bytes :data-bytes])
+                                       blocks)})]
+    {:header header
+     :blocks blocks
+     :n-bytes (reduce (fn [^long acc {:keys [missing-bytes data-bytes]}]
+                        (+ acc (long missing-bytes) (long data-bytes)))
+                      (+ 4 (alength header))
+                      blocks)}))
+
+
+(defn- write-columnar-blocks!
+  [^DataOutput out {:keys [^bytes header blocks]}]
+  (let [chunk (le-chunk)]
+    (.putInt chunk (alength header))
+    (flush-chunk! out chunk)
+    (.write out header)
+    (doseq [block blocks]
+      (write-column-block! out chunk block))))
+
+
+(defn write-columnar!
+  "Write a dataset in the columnar binary format to a java.io.DataOutput.  Column
+  storage is streamed from the column readers through a small little-endian buffer so
+  no intermediate copy of the data is made."
+  [ds ^DataOutput out]
+  (write-columnar-blocks! out (columnar-blocks ds)))
+
+
+(defn freeze-columnar
+  "Freeze a dataset into a byte array in the columnar binary format.  The format is a
+  4 byte header length, a nippy encoded header describing each column and then for each
+  column its missing set in the roaring portable format followed by its data.  Data is
+  written as:
+
+  * numeric, boolean and packed datetime columns - raw little-endian values.
+  * string columns - the string table dictionary as utf-8 offsets and bytes followed by
+    the int32 index of each row.
+  * all other columns - a nippy encoded column."
+  ^bytes [ds]
+  (let [blocks (columnar-blocks ds)
+        baos (ByteArrayOutputStream. (int (:n-bytes blocks)))]
+    (write-columnar-blocks! (DataOutputStream. baos) blocks)
+    (.toByteArray baos)))
+
+
+(defn- slice-at
+  ^ByteBuffer [^ByteBuffer bb ^long pos ^long len]
+  (let [rv (.duplicate bb)]
+    (.limit rv (unchecked-int (+ pos len)))
+    (.position rv (unchecked-int pos))
+    (-> (.slice rv)
+        (.order ByteOrder/LITTLE_ENDIAN))))
+
+
+(defn- read-utf8
+  ^String [^ByteBuffer bb ^long pos ^long len]
+  (if (.hasArray bb)
+    (String. (.array bb) (unchecked-int (+ (.arrayOffset bb) pos)) (unchecked-int len)
+             StandardCharsets/UTF_8)
+    (let [data (byte-array len)]
+      (.get (slice-at bb pos len) data)
+      (String. data StandardCharsets/UTF_8))))
+
+
+(defn- primitive-reader
+  "Typed reader view over little-endian data starting at off - no data is copied."
+  ^Buffer [^ByteBuffer bb ^long off ^long n-elems datatype]
+  (case (casting/un-alias-datatype datatype)
+    :boolean (dtype/make-reader :boolean n-elems
+                                (not (== 0 (.get bb (unchecked-int (+ off idx))))))
+    :int8 (reify LongReader
+            (elemwiseDatatype [_] datatype)
+            (lsize [_] n-elems)
+            (readLong [_ idx] (.get bb (unchecked-int (+ off idx)))))
+    :uint8 (reify LongReader
+             (elemwiseDatatype [_] datatype)
+             (lsize [_] n-elems)
+             (readLong [_ idx] (Byte/toUnsignedLong (.get bb (unchecked-int (+ off idx))))))
+    :int16 (reify LongReader
+             (elemwiseDatatype [_] datatype)
+             (lsize [_] n-elems)
+             (readLong [_ idx] (.getShort bb (unchecked-int (+ off (* 2 idx))))))
+    :uint16 (reify LongReader
+              (elemwiseDatatype [_] datatype)
+              (lsize [_] n-elems)
+              (readLong [_ idx] (Short/toUnsignedLong
+                                 (.getShort bb (unchecked-int (+ off (* 2 idx)))))))
+    :int32 (reify LongReader
+             (elemwiseDatatype [_] datatype)
+             (lsize [_] n-elems)
+             (readLong [_ idx] (.getInt bb (unchecked-int (+ off (* 4 idx))))))
+    :uint32 (reify LongReader
+              (elemwiseDatatype [_] datatype)
+              (lsize [_] n-elems)
+              (readLong [_ idx] (Integer/toUnsignedLong
+                                 (.getInt bb (unchecked-int (+ off (* 4 idx)))))))
+    (:int64 :uint64) (reify LongReader
+                       (elemwiseDatatype [_] datatype)
+                       (lsize [_] n-elems)
+                       (readLong [_ idx] (.getLong bb (unchecked-int (+ off (* 8 idx))))))
+    :float32 (reify DoubleReader
+               (elemwiseDatatype [_] datatype)
+               (lsize [_] n-elems)
+               (readDouble [_ idx] (.getFloat bb (unchecked-int (+ off (* 4 idx))))))
+    :float64 (reify DoubleReader
+               (elemwiseDatatype [_] datatype)
+               (lsize [_] n-elems)
+               (readDouble [_ idx] (.getDouble bb (unchecked-int (+ off (* 8 idx))))))))
+
+
+(defn- string-table-view
+  [^ByteBuffer bb ^long off ^long n-rows]
+  (let [n-entries (.getInt bb (unchecked-int off))
+        offsets-off (+ off 4)
+        str-off (+ offsets-off (* 4 (inc n-entries)))
+        offset (fn ^long [^long idx] (.getInt bb (unchecked-int (+ offsets-off (* 4 idx)))))
+        idx-off (+ str-off (offset n-entries))
+        str-ary (hamf/object-array n-entries)]
+    (dorun (hamf/pgroups n-entries
+                         (fn [^long sidx ^long eidx]
+                           (loop [idx sidx]
+                             (when (< idx eidx)
+                               (let [soff (offset idx)]
+                                 (aset str-ary idx (read-utf8 bb (+ str-off soff)
+                                                              (- (offset (inc idx)) soff))))
+                               (recur (inc idx)))))))
+    (StringTable. (ArrayLists/toList str-ary) nil
+                  (str-table/compress-indexes (primitive-reader bb idx-off n-rows :int32)
+                                              n-entries))))
+
+
+(defn- ->le-buffer
+  ^ByteBuffer [data]
+  (-> (cond
+        (instance? ByteBuffer data) (.slice ^ByteBuffer data)
+        (bytes? data) (ByteBuffer/wrap ^bytes data)
+        :else (errors/throwf "Unable to thaw columnar data from %s" (type data)))
+      (.order ByteOrder/LITTLE_ENDIAN)))
+
+
+(defn thaw-columnar
+  "Thaw a dataset frozen with `freeze-columnar` from a byte array or a
+  java.nio.ByteBuffer (heap, direct or memory mapped).  The data is not copied - numeric
+  columns are reader views of the buffer so the buffer must not be modified while the
+  dataset is in use.  String dictionaries are decoded and string indexes are stored in
+  the narrowest integer array that holds them."
+  [data]
+  (let [bb (->le-buffer data)
+        header-len (.getInt bb 0)
+        header-bytes (byte-array header-len)
+        _ (.get (slice-at bb 4 header-len) header-bytes)
+        {:keys [version metadata row-count columns]} (nippy/thaw header-bytes)
+        row-count (long row-count)]
+    (errors/when-not-errorf
+     (== (long columnar-version) (long version))
+     "Unsupported columnar format version: %s" version)
+    (->> (reduce
+          (fn [[cols pos] {:keys [encoding missing-bytes data-bytes] :as col-def}]
+            (let [pos (long pos)
+                  missing-bytes (long missing-bytes)
+                  data-bytes (long data-bytes)
+                  data-off (+ pos missing-bytes)
+                  col-meta (:metadata col-def)
+                  missing (doto (RoaringBitmap.)
+                            (.deserialize (slice-at bb pos missing-bytes)))
+                  col (case encoding
+                        :nippy
+                        (let [frozen (byte-array data-bytes)]
+                          (.get (slice-at bb data-off data-bytes) frozen)
+                          (ds-base/data->column (nippy/thaw frozen)))
+                        (col-impl/new-column
+                         #:tech.v3.dataset
+                         {:name (:name col-meta)
+                          :missing missing
+                          :force-datatype? true
+                          :metadata col-meta
+                          :data (if (= encoding :string)
+                                  (string-table-view bb data-off row-count)
+                                  (primitive-reader bb data-off row-count
+                                                    (:datatype col-meta)))}))]
+              [(conj cols col) (+ data-off data-bytes)]))
+          [[] (+ 4 header-len)]
+          columns)
+         (first)
+         (ds-impl/new-dataset {:dataset-name (:name metadata)} metadata))))
 
 
 (nippy/extend-freeze
- Dataset :tech.ml/dataset
+ Dataset :tech.v3.dataset/columnar
  [ds out]
- (nippy/-freeze-without-meta! (ds-base/dataset->data ds) out))
+ (let [blocks (columnar-blocks ds)]
+   (.writeLong ^DataOutput out (long (:n-bytes blocks)))
+   (write-columnar-blocks! out blocks)))
+
+
+(nippy/extend-thaw
+ :tech.v3.dataset/columnar
+ [in]
+ (let [data (byte-array (.readLong ^java.io.DataInput in))]
+   (.readFully ^java.io.DataInput in data)
+   (thaw-columnar data)))
 
 
+;;Datasets frozen before the columnar format was introduced.
 (nippy/extend-thaw
  :tech.ml/dataset
  [in]
@@ -9,6 +9,8 @@
             [tech.v3.datatype.protocols :as dtype-proto]
             [tech.v3.parallel.for :as parallel-for]
             [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.protocols :as ds-proto]
+            [tech.v3.dataset.string-table :as str-table]
             [tech.v3.dataset.base :as ds-base]
             [tech.v3.dataset.readers :as ds-readers]
             [tech.v3.dataset.impl.dataset :as ds-impl]
@@ -17,11 +19,16 @@
             [ham-fisted.function :as hamf-fn]
             [clj-commons.primitive-math :as pmath]
             [clojure.set :as set])
-  (:import [tech.v3.datatype ObjectReader Buffer
+  (:import [tech.v3.datatype ObjectReader Buffer LongReader
             BinaryPredicate BinaryOperator
             BinaryOperators$DoubleBinaryOperator]
+           [tech.v3.dataset LongGroupTable]
+           [tech.v3.dataset.string_table StringTable]
            [ham_fisted IMutList]
-           [java.util List HashSet Map Set]))
+           [org.roaringbitmap RoaringBitmap]
+           [it.unimi.dsi.fastutil.longs LongComparator]
+           [java.util.concurrent ForkJoinPool]
+           [java.util List HashMap HashSet Map Set]))
 
 
 (set! *warn-on-reflection* true)
@@ -267,6 +274,400 @@
 
 
 
+(defn- remap-reader
+  ^Buffer [^Buffer codes ^ints remap]
+  (reify LongReader
+    (lsize [rdr] (.lsize codes))
+    (readLong [rdr idx] (aget remap (.readLong codes idx)))))
+
+
+(defn- primitive-join-keys
+  "Return a tuple of [lhs-keys rhs-keys] long readers that share one key space or nil if
+  the join has to happen in object space.  Integer and packed datetime columns use their
+  data directly.  String table columns use their dictionary codes with the rhs codes
+  remapped into the lhs dictionary - rhs strings that do not appear in the lhs map to -1."
+  [lhs-col rhs-col]
+  (when (and (ds-col/is-column? lhs-col) (ds-col/is-column? rhs-col))
+    (let [lhs-data (ds-proto/column-buffer lhs-col)
+          rhs-data (ds-proto/column-buffer rhs-col)
+          lhs-dt (dtype/elemwise-datatype lhs-data)
+          rhs-dt (dtype/elemwise-datatype rhs-data)]
+      (cond
+        (and (instance? StringTable lhs-data) (instance? StringTable rhs-data))
+        (let [^List lhs-strs (str-table/int->string lhs-data)
+              ^List rhs-strs (str-table/int->string rhs-data)
+              str->code (HashMap.)
+              ;;Canonicalize lhs codes in case the dictionary has duplicate entries.
+              lhs-remap (int-array (.size lhs-strs))
+              rhs-remap (int-array (.size rhs-strs))]
+          (dotimes [idx (.size lhs-strs)]
+            (let [code (.putIfAbsent str->code (.get lhs-strs idx) idx)]
+              (aset lhs-remap idx (unchecked-int (if code (long code) idx)))))
+          (dotimes [idx (.size rhs-strs)]
+            (aset rhs-remap idx (unchecked-int (long (.getOrDefault str->code
+                                                                   (.get rhs-strs idx)
+                                                                   -1)))))
+          [(remap-reader (dtype/->buffer (str-table/indices lhs-data)) lhs-remap)
+           (remap-reader (dtype/->buffer (str-table/indices rhs-data)) rhs-remap)])
+        (or (and (casting/integer-type? lhs-dt) (casting/integer-type? rhs-dt))
+            (and (packing/packed-datatype? lhs-dt) (identical? lhs-dt rhs-dt)))
+        [(dtype/->buffer lhs-data) (dtype/->buffer rhs-data)]))))
+
+
+(defn- key-partition
+  ^long [^long k ^long part-bits]
+  (if (== 0 part-bits)
+    0
+    ;;LongGroupTable addresses slots with the low bits of the hash so partition on the
+    ;;high bits.
+    (unsigned-bit-shift-right (Integer/toUnsignedLong (LongGroupTable/hash k))
+                              (- 32 part-bits))))
+
+
+(defn- join-partition-bits
+  ^long [^long n-rows]
+  (if (< n-rows 100000)
+    0
+    ;;About 4 partitions per thread.
+    (let [n-parts (* 4 (ForkJoinPool/getCommonPoolParallelism))]
+      (min 12 (- 64 (Long/numberOfLeadingZeros (dec n-parts)))))))
+
+
+(deftype ^:private JoinPartition [^LongGroupTable table
+                                  ^ints group-offsets
+                                  ^ints group-rows
+                                  ^bytes found])
+
+
+(defn- build-join-partitions
+  "Radix partition the lhs rows by key hash and build one primitive hash table per
+  partition in parallel.  Each partition stores its rows grouped by key in ascending
+  row order.  Rows with missing keys go into partition 0 under the table's missing id.
+  Returns [partitions row-parts row-gids]."
+  [^Buffer lhs-keys ^RoaringBitmap lhs-miss ^long part-bits]
+  (let [n-lhs (.lsize lhs-keys)
+        n-parts (bit-shift-left 1 part-bits)
+        any-missing? (not (.isEmpty lhs-miss))
+        row-parts (int-array n-lhs)
+        row-gids (int-array n-lhs)
+        ;;Pass 1 - partition histogram per chunk
+        chunks (vec (hamf/pgroups
+                     n-lhs
+                     (fn [^long sidx ^long eidx]
+                       (let [counts (long-array n-parts)]
+                         (loop [idx sidx]
+                           (when (< idx eidx)
+                             (let [p (if (and any-missing?
+                                              (.contains lhs-miss (unchecked-int idx)))
+                                       0
+                                       (key-partition (.readLong lhs-keys idx) part-bits))]
+                               (aset row-parts idx (unchecked-int p))
+                               (aset counts p (unchecked-inc (aget counts p))))
+                             (recur (unchecked-inc idx))))
+                         [sidx eidx counts]))))
+        part-starts (long-array (inc n-parts))
+        _ (doseq [[_ _ ^longs counts] chunks]
+            (dotimes [p n-parts]
+              (aset part-starts (inc p) (+ (aget part-starts (inc p)) (aget counts p)))))
+        _ (dotimes [p n-parts]
+            (aset part-starts (inc p) (+ (aget part-starts (inc p)) (aget part-starts p))))
+        chunk-offsets (->> chunks
+                           (reduce (fn [[offsets ^longs cur] [_ _ ^longs counts]]
+                                     (let [next-cur (aclone cur)]
+                                       (dotimes [p n-parts]
+                                         (aset next-cur p (+ (aget cur p) (aget counts p))))
+                                       [(conj offsets cur) next-cur]))
+                                   [[] (java.util.Arrays/copyOf part-starts n-parts)])
+                           (first))
+        part-rows (int-array n-lhs)
+        ;;Pass 2 - scatter row indexes so each partition's rows are contiguous and
+        ;;ascending.
+        _ (dorun (hamf/pmap (fn [[[sidx eidx _] ^longs offsets]]
+                              (let [eidx (long eidx)]
+                                (loop [idx (long sidx)]
+                                  (when (< idx eidx)
+                                    (let [p (aget row-parts idx)
+                                          o (aget offsets p)]
+                                      (aset part-rows o (unchecked-int idx))
+                                      (aset offsets p (unchecked-inc o)))
+                                    (recur (unchecked-inc idx))))))
+                            (map vector chunks chunk-offsets)))
+        ;;Pass 3 - build each partition's table and grouped row lists.
+        partitions
+        (->> (range n-parts)
+             (hamf/pmap
+              (fn [^long p]
+                (let [sidx (aget part-starts p)
+                      n (- (aget part-starts (inc p)) sidx)
+                      table (LongGroupTable. (unchecked-int (min n 1024)))
+                      local-gids (int-array n)
+                      group-counts (int-array (inc n))]
+                  (dotimes [i n]
+                    (let [row (aget part-rows (+ sidx i))
+                          gid (if (and any-missing? (.contains lhs-miss row))
+                                (.idOfMissing table)
+                                (.idOf table (.readLong lhs-keys row)))]
+                      (aset local-gids i gid)
+                      (aset row-gids row gid)
+                      (aset group-counts (inc gid) (unchecked-inc-int
+                                                    (aget group-counts (inc gid))))))
+                  (let [n-groups (.size table)
+                        group-offsets (int-array (inc n-groups))
+                        _ (dotimes [g n-groups]
+                            (aset group-offsets (inc g) (+ (aget group-offsets g)
+                                                           (aget group-counts (inc g)))))
+                        fill (java.util.Arrays/copyOf group-offsets n-groups)
+                        group-rows (int-array n)]
+                    (dotimes [i n]
+                      (let [g (aget local-gids i)
+                            o (aget fill g)]
+                        (aset group-rows o (aget part-rows (+ sidx i)))
+                        (aset fill g (unchecked-inc-int o))))
+                    (JoinPartition. table group-offsets group-rows (byte-array n-groups))))))
+             (hamf/object-array))]
+    [partitions row-parts row-gids]))
+
+
+(defn- radix-hash-join-algo
+  "Primitive hash join.  The lhs is radix partitioned and each partition's hash table is
+  built in parallel.  The rhs is probed in parallel in row order so the result is
+  identical to [[hash-join-algo]] - lhs indexes for each rhs row are ascending and
+  unmatched lhs rows are grouped by key in order of each key's first appearance.
+  Missing values are found via the missing bitmaps and match each other as they do in
+  the object pathway."
+  [lhs-col rhs-col ^Buffer lhs-keys ^Buffer rhs-keys lhs-missing? rhs-missing?
+   operation-space]
+  (let [n-lhs (.lsize lhs-keys)
+        n-rhs (.lsize rhs-keys)
+        part-bits (join-partition-bits n-lhs)
+        [^objects partitions ^ints row-parts ^ints row-gids]
+        (build-join-partitions lhs-keys (ds-col/missing lhs-col) part-bits)
+        ^RoaringBitmap rhs-miss (ds-col/missing rhs-col)
+        rhs-any-missing? (not (.isEmpty rhs-miss))
+        [lhs-indexes rhs-indexes rhs-missing]
+        (->> (hamf/pgroups
+              n-rhs
+              (fn [^long sidx ^long eidx]
+                (let [^IMutList lhs-indexes (dtype/make-list operation-space)
+                      ^IMutList rhs-indexes (dtype/make-list operation-space)
+                      ^IMutList rhs-missing (dtype/make-list operation-space)]
+                  (loop [idx sidx]
+                    (when (< idx eidx)
+                      (let [missing? (and rhs-any-missing?
+                                          (.contains rhs-miss (unchecked-int idx)))
+                            k (if missing? 0 (.readLong rhs-keys idx))
+                            ^JoinPartition part (aget partitions
+                                                      (if missing?
+                                                        0
+                                                        (key-partition k part-bits)))
+                            ^LongGroupTable table (.-table part)
+                            gid (if missing? (.findMissing table) (.find table k))]
+                        (if (>= gid 0)
+                          (let [^ints offsets (.-group-offsets part)
+                                ^ints rows (.-group-rows part)
+                                end (aget offsets (inc gid))]
+                            (when lhs-missing? (aset ^bytes (.-found part) gid (byte 1)))
+                            (loop [o (aget offsets gid)]
+                              (when (< o end)
+                                (.addLong lhs-indexes (aget rows o))
+                                (.addLong rhs-indexes idx)
+                                (recur (unchecked-inc o)))))
+                          (when rhs-missing? (.addLong rhs-missing idx))))
+                      (recur (unchecked-inc idx))))
+                  [lhs-indexes rhs-indexes rhs-missing])))
+             (reduce (fn [[l r m] [cl cr cm]]
+                       [(add-all! l cl) (add-all! r cr) (add-all! m cm)])
+                     [(dtype/make-list operation-space)
+                      (dtype/make-list operation-space)
+                      (dtype/make-list operation-space)]))
+        lhs-missing
+        (when lhs-missing?
+          (let [^IMutList rv (dtype/make-list operation-space)]
+            (dotimes [row n-lhs]
+              (let [^JoinPartition part (aget partitions (aget row-parts row))
+                    gid (aget row-gids row)
+                    ^ints offsets (.-group-offsets part)
+                    ^ints rows (.-group-rows part)
+                    start (aget offsets gid)]
+                ;;Emit each unmatched group once, at its first row.
+                (when (and (== 0 (aget ^bytes (.-found part) gid))
+                           (== row (aget rows start)))
+                  (loop [o start]
+                    (when (< o (aget offsets (inc gid)))
+                      (.addLong rv (aget rows o))
+                      (recur (unchecked-inc o)))))))
+            rv))]
+    {:lhs-indexes lhs-indexes
+     :rhs-indexes rhs-indexes
+     :lhs-missing lhs-missing
+     :rhs-missing rhs-missing}))
+
+
+(deftype JoinKey [^long kind ^Buffer data ^RoaringBitmap missing])
+
+
+(defn- join-key
+  "Build the lhs and rhs JoinKey for one pair of key columns.  Integer, packed datetime
+  and string table keys compare as longs (see [[primitive-join-keys]]), other numeric
+  keys compare as doubles and everything else compares in object space with `compare`."
+  [lhs-col rhs-col]
+  (let [col-missing (fn [col]
+                      (when (ds-col/is-column? col)
+                        (let [^RoaringBitmap bmp (ds-proto/missing col)]
+                          (when-not (.isEmpty bmp) bmp))))
+        lhs-missing (col-missing lhs-col)
+        rhs-missing (col-missing rhs-col)
+        col-dtype #(packing/unpack-datatype (dtype/elemwise-datatype %))]
+    (if-let [[lhs-keys rhs-keys] (primitive-join-keys lhs-col rhs-col)]
+      [(JoinKey. 0 lhs-keys lhs-missing) (JoinKey. 0 rhs-keys rhs-missing)]
+      (if (and (casting/numeric-type? (col-dtype lhs-col))
+               (casting/numeric-type? (col-dtype rhs-col)))
+        [(JoinKey. 1 (dtype/->reader lhs-col :float64) lhs-missing)
+         (JoinKey. 1 (dtype/->reader rhs-col :float64) rhs-missing)]
+        [(JoinKey. 2 (dtype/->reader lhs-col) lhs-missing)
+         (JoinKey. 2 (dtype/->reader rhs-col) rhs-missing)]))))
+
+
+(defn- compare-join-key
+  ^long [^JoinKey lhs ^long lidx ^JoinKey rhs ^long ridx]
+  (let [lhs-missing (.-missing lhs)
+        rhs-missing (.-missing rhs)
+        l-miss? (boolean (and lhs-missing (.contains lhs-missing (unchecked-int lidx))))
+        r-miss? (boolean (and rhs-missing (.contains rhs-missing (unchecked-int ridx))))]
+    ;;Missing values sort first and match each other as they do in the hash join.
+    (cond
+      (and l-miss? r-miss?) 0
+      l-miss? -1
+      r-miss? 1
+      :else
+      (case (.-kind lhs)
+        0 (Long/compare (.readLong (.-data lhs) lidx) (.readLong (.-data rhs) ridx))
+        1 (Double/compare (.readDouble (.-data lhs) lidx) (.readDouble (.-data rhs) ridx))
+        (long (compare (.readObject (.-data lhs) lidx) (.readObject (.-data rhs) ridx)))))))
+
+
+(defn- compare-join-keys
+  ^long [^objects lhs-keys ^long lidx ^objects rhs-keys ^long ridx]
+  (let [n-keys (alength lhs-keys)]
+    (loop [kidx 0]
+      (if (< kidx n-keys)
+        (let [c (compare-join-key (aget lhs-keys kidx) lidx (aget rhs-keys kidx) ridx)]
+          (if (== 0 c)
+            (recur (unchecked-inc kidx))
+            c))
+        0))))
+
+
+(defn- join-key-order
+  "Row indexes of one side of the join in key order.  When the side is already sorted
+  (either asserted via `:sorted?` or found by a linear scan) this is the identity,
+  else the rows are sorted with argsort - ties are broken by row index so the order
+  is deterministic."
+  ^Buffer [^objects join-keys ^long n-rows options]
+  (if (or (get options :sorted?)
+          (loop [idx 1]
+            (if (< idx n-rows)
+              (if (<= (compare-join-keys join-keys (dec idx) join-keys idx) 0)
+                (recur (unchecked-inc idx))
+                false)
+              true)))
+    (dtype/->reader (hamf/range n-rows))
+    (dtype/->reader
+     (argops/argsort (reify LongComparator
+                       (^int compare [this ^long lhs ^long rhs]
+                        (let [c (compare-join-keys join-keys lhs join-keys rhs)]
+                          (unchecked-int (if (== 0 c) (Long/compare lhs rhs) c)))))
+                     {:parallel? (get options :parallel? true)}
+                     (hamf/range n-rows)))))
+
+
+(defn- sort-merge-join-algo
+  "Join by sorting both sides by key and then merging them in a single pass.  lhs-cols
+  and rhs-cols are sequences of key columns of equal length.  Results are in key order
+  and contain the same pairs as [[hash-join-algo]]."
+  [lhs-cols rhs-cols lhs-missing? rhs-missing? options]
+  (let [operation-space (get options :operation-space :int32)
+        key-pairs (mapv join-key lhs-cols rhs-cols)
+        lhs-keys (object-array (map first key-pairs))
+        rhs-keys (object-array (map second key-pairs))
+        n-lhs (dtype/ecount (first lhs-cols))
+        n-rhs (dtype/ecount (first rhs-cols))
+        [^Buffer lhs-order ^Buffer rhs-order]
+        (if (get options :parallel? true)
+          (hamf/pmap #(apply join-key-order %)
+                     [[lhs-keys n-lhs options] [rhs-keys n-rhs options]])
+          [(join-key-order lhs-keys n-lhs options)
+           (join-key-order rhs-keys n-rhs options)])
+        ^IMutList lhs-indexes (dtype/make-list operation-space)
+        ^IMutList rhs-indexes (dtype/make-list operation-space)
+        ^IMutList lhs-missing (dtype/make-list operation-space)
+        ^IMutList rhs-missing (dtype/make-list operation-space)]
+    (loop [lpos 0
+           rpos 0]
+      (if (and (< lpos n-lhs) (< rpos n-rhs))
+        (let [lidx (.readLong lhs-order lpos)
+              ridx (.readLong rhs-order rpos)
+              c (compare-join-keys lhs-keys lidx rhs-keys ridx)]
+          (cond
+            (< c 0) (do (.addLong lhs-missing lidx) (recur (unchecked-inc lpos) rpos))
+            (> c 0) (do (.addLong rhs-missing ridx) (recur lpos (unchecked-inc rpos)))
+            :else
+            (let [lend (loop [lend (unchecked-inc lpos)]
+                         (if (and (< lend n-lhs)
+                                  (== 0 (compare-join-keys lhs-keys lidx lhs-keys
+                                                           (.readLong lhs-order lend))))
+                           (recur (unchecked-inc lend))
+                           lend))
+                  rend (loop [rend (unchecked-inc rpos)]
+                         (if (and (< rend n-rhs)
+                                  (== 0 (compare-join-keys rhs-keys ridx rhs-keys
+                                                           (.readLong rhs-order rend))))
+                           (recur (unchecked-inc rend))
+                           rend))
+                  lhs-run (dtype/sub-buffer lhs-order lpos (- lend lpos))
+                  n-run (- lend lpos)]
+              (loop [rp rpos]
+                (when (< rp rend)
+                  (.addAll lhs-indexes lhs-run)
+                  (.addAllReducible rhs-indexes (hamf/repeat n-run (.readLong rhs-order rp)))
+                  (recur (unchecked-inc rp))))
+              (recur lend rend))))
+        (do
+          (loop [lpos lpos]
+            (when (< lpos n-lhs)
+              (.addLong lhs-missing (.readLong lhs-order lpos))
+              (recur (unchecked-inc lpos))))
+          (loop [rpos rpos]
+            (when (< rpos n-rhs)
+              (.addLong rhs-missing (.readLong rhs-order rpos))
+              (recur (unchecked-inc rpos)))))))
+    {:lhs-indexes lhs-indexes
+     :rhs-indexes rhs-indexes
+     :lhs-missing (when lhs-missing? lhs-missing)
+     :rhs-missing rhs-missing}))
+
+
+(defn- join-algo
+  "Dispatch to the join implementation selected by `:join-algorithm`.  For :sort-merge
+  lhs-col and rhs-col may also be vectors of key columns."
+  [lhs-col rhs-col lhs-missing? rhs-missing? options]
+  (let [operation-space (get options :operation-space :int32)]
+    (case (get options :join-algorithm :hash)
+      :hash
+      (hash-join-algo lhs-col rhs-col lhs-missing? rhs-missing? operation-space)
+      :sort-merge
+      (let [->key-cols #(if (and (vector? %) (seq %) (every? ds-col/is-column? %)) % [%])]
+        (sort-merge-join-algo (->key-cols lhs-col) (->key-cols rhs-col)
+                              lhs-missing? rhs-missing? options))
+      :radix-hash
+      (if-let [[lhs-keys rhs-keys] (when (< (max (dtype/ecount lhs-col) (dtype/ecount rhs-col))
+                                             Integer/MAX_VALUE)
+                                     (primitive-join-keys lhs-col rhs-col))]
+        (radix-hash-join-algo lhs-col rhs-col lhs-keys rhs-keys
+                              lhs-missing? rhs-missing? operation-space)
+        (hash-join-algo lhs-col rhs-col lhs-missing? rhs-missing? operation-space)))))
+
+
 (defn hash-join
   "Join by column.  For efficiency, lhs should be smaller than rhs.
   colname - may be a single item or a tuple in which is destructures as:
@@ -275,6 +676,14 @@
   :lhs-missing? Calculate the missing lhs indexes and left outer join table.
   :rhs-missing? Calculate the missing rhs indexes and right outer join table.
   :operation-space - either :int32 or :int64.  Defaults to :int32.
+  :join-algorithm - Either :hash (default) or :radix-hash.  :radix-hash joins integer,
+     packed datetime and string table key columns in primitive space - the lhs is radix
+     partitioned by key hash and each partition's table is built in parallel while the
+     rhs is probed in parallel.  Results are identical to :hash.  Other key columns use
+     :hash.  :sort-merge sorts both sides by key (in parallel when `:parallel?` is not
+     false) and merges them in one pass.  Sides that are already sorted by key are
+     detected and not re-sorted; pass `:sorted? true` to skip the check.  Results contain
+     the same rows as :hash but in key order.
   Returns
   {:join-table - joined-table
    :lhs-indexes - matched lhs indexes
@@ -298,7 +707,8 @@
          lhs-missing? (:lhs-missing? options)
          rhs-missing? (:rhs-missing? options)
          {:keys [lhs-indexes rhs-indexes lhs-missing rhs-missing]}
-         (hash-join-algo lhs-col rhs-col lhs-missing? rhs-missing? operation-space)]
+         (join-algo lhs-col rhs-col lhs-missing? rhs-missing?
+                    (assoc options :operation-space operation-space))]
      (finalize-join-result lhs-colname rhs-colname lhs rhs
                            lhs-indexes rhs-indexes
                            lhs-missing
@@ -311,6 +721,7 @@
      (let [[lhs-colname rhs-colname]] colname] ...)
   An options map can be passed in with optional arguments:
   :operation-space - either :int32 or :int64.  Defaults to :int32.
+  :join-algorithm - See [[hash-join]].
   Returns the joined table"
   ([colname lhs rhs]
    (inner-join colname lhs rhs {}))
@@ -325,6 +736,7 @@
      (let [[lhs-colname rhs-colname]] colname] ...)
   An options map can be passed in with optional arguments:
   :operation-space - either :int32 or :int64.  Defaults to :int32.
+  :join-algorithm - See [[hash-join]].
   Returns the joined table"
   ([colname lhs rhs]
    (right-join colname lhs rhs {}))
@@ -339,6 +751,7 @@
      (let [[lhs-colname rhs-colname]] colname] ...)
   An options map can be passed in with optional arguments:
   :operation-space - either :int32 or :int64.  Defaults to :int32.
+  :join-algorithm - See [[hash-join]].
   Returns the joined table"
   ([colname lhs rhs]
    (left-join colname lhs rhs {}))
@@ -385,6 +798,8 @@
   * `:right-on` - Column name or list of column names
   * `:how` - left, right inner, outer, cross.  If cross, then no on, left-on, right-on can
      be provided.
+  * `:join-algorithm` - See [[hash-join]].  Only single-column joins can use
+     `:radix-hash`; `:sort-merge` compares multi-column keys column by column.
 
   Examples:
 
@@ -484,13 +899,19 @@ outer-join [8 4]:
                 (count left-on) (count right-on))
              left-on (filter-columns left-ds left-on outer?)
              right-on (filter-columns right-ds right-on outer?)
-             left-join-data (col-or-data->reader left-on left-ds outer?)
-             right-join-data (col-or-data->reader right-on right-ds outer?)
+             sort-merge-multi? (and (identical? :sort-merge (get options :join-algorithm))
+                                    (> (count left-on) 1)
+                                    (== (count left-on) (count right-on)))
+             left-join-data (if sort-merge-multi?
+                              (mapv #(ds-base/column left-ds %) left-on)
+                              (col-or-data->reader left-on left-ds outer?))
+             right-join-data (if sort-merge-multi?
+                               (mapv #(ds-base/column right-ds %) right-on)
+                               (col-or-data->reader right-on right-ds outer?))
 
 
              {:keys [lhs-indexes rhs-indexes lhs-missing rhs-missing]}
-             (hash-join-algo left-join-data right-join-data true true
-                             (get options :operation-space :int32))
+             (join-algo left-join-data right-join-data true true options)
              ;;Ensure a reasonable column order
 
              left-cols (->> (concat left-on (ds-base/column-names left-ds)) distinct vec)
@@ -797,3 +1218,25 @@ outer-join [8 4]:
          (update-join-metadata lhs-table-name rhs-table-name))))
   ([colname lhs rhs]
    (left-join-asof colname lhs rhs {})))
+
+
+(comment
+  (require '[tech.v3.dataset :as ds])
+  (require '[criterium.core :as crit])
+
+  (def n-rows 10000000)
+  (def lhs (ds/->dataset {:a (hamf/shuffle (hamf/range n-rows))
+                          :b (hamf/range n-rows)}))
+  (def rhs (ds/->dataset {:a (repeatedly n-rows #(rand-int n-rows))
+                          :c (hamf/range n-rows)}))
+  (def str-lhs (ds/->dataset {:a (map str (hamf/range 1000000))
+                              :b (hamf/range 1000000)}))
+  (def str-rhs (ds/->dataset {:a (repeatedly n-rows #(str (rand-int 1000000)))
+                              :c (hamf/range n-rows)}))
+
+  (crit/quick-bench (hash-join :a lhs rhs {:lhs-missing? true :rhs-missing? true}))
+  (crit/quick-bench (hash-join :a lhs rhs {:lhs-missing? true :rhs-missing? true
+                                           :join-algorithm :radix-hash}))
+  (crit/quick-bench (left-join :a str-lhs str-rhs))
+  (crit/quick-bench (left-join :a str-lhs str-rhs {:join-algorithm :radix-hash}))
+  )
@@ -1,7 +1,7 @@
 (ns tech.v3.dataset.math
-  "Various mathematic transformations of datasets such as (inefficiently)
-  building simple tables, pca, and normalizing columns to have mean of 0 and variance of 1.
-  More in-depth transformations are found at `tech.v3.dataset.neanderthal`."
+  "Various mathematic transformations of datasets such as building simple tables, pure
+  JVM pca, and normalizing columns to have mean of 0 and variance of 1.  More in-depth
+  transformations are found at `tech.v3.dataset.neanderthal`."
   (:require [tech.v3.datatype :as dtype]
             [tech.v3.datatype.protocols :as dtype-proto]
             [tech.v3.datatype.functional :as dfn]
@@ -18,6 +18,7 @@
             [tech.v3.dataset.utils :as ds-utils]
             [tech.v3.dataset.protocols :as ds-proto]
             [tech.v3.dataset.missing :as ds-missing]
+            [tech.v3.tensor :as dtt]
             [ham-fisted.set :as set]
             [ham-fisted.api :as hamf]
             [ham-fisted.function :as hamf-fn]
@@ -26,7 +27,9 @@
             [clojure.tools.logging :as log]
             [clojure.set :as c-set])
   (:import [org.apache.commons.math3.analysis.interpolation LoessInterpolator]
+           [org.apache.commons.math3.linear Array2DRowRealMatrix EigenDecomposition]
            [tech.v3.datatype DoubleReader]
+           [java.util Arrays]
            [org.roaringbitmap RoaringBitmap])
   (:refer-clojure :exclude [extend-type]))
 
@@ -86,14 +89,25 @@
                                         (hamf/double-array (dtype/->reader col :float64))])))
         correlation-type (or correlation-type :pearson)
         corr-fn (case correlation-type
-                  :pearson #(statistics/pearsons-correlation %1 %2 {:nan-strategy :keep})
-                  :spearman #(statistics/spearmans-correlation %1 %2 {:nan-strategy :keep})
-                  :kendall #(statistics/kendalls-correlation %1 %2 {:nan-strategy :keep}))]
+                  ;;All pairs at once from the covariance matrix.
+                  :pearson (let [^doubles cov (ds-tens/columns-covariance (map second rhs-colseq))
+                                 n-cols (count rhs-colseq)
+                                 name->idx (zipmap (map first rhs-colseq) (range))]
+                             (fn [lname _ldata rname _rdata]
+                               (let [lidx (long (name->idx lname))
+                                     ridx (long (name->idx rname))
+                                     corr (/ (aget cov (+ (* lidx n-cols) ridx))
+                                             (Math/sqrt (* (aget cov (+ (* lidx n-cols) lidx))
+                                                           (aget cov (+ (* ridx n-cols) ridx)))))]
+                                 ;;Clamp rounding error, NaN passes through.
+                                 (cond (> corr 1.0) 1.0 (< corr -1.0) -1.0 :else corr))))
+                  :spearman #(statistics/spearmans-correlation %2 %4 {:nan-strategy :keep})
+                  :kendall #(statistics/kendalls-correlation %2 %4 {:nan-strategy :keep}))]
     (->> (for [[lname ldata] lhs-colseq]
            [lname
             (->> rhs-colseq
                  (map (fn [[rname rdata]]
-                        (let [corr (corr-fn ldata rdata)]
+                        (let [corr (double (corr-fn lname ldata rname rdata))]
                           (if (Double/isFinite corr)
                             [rname corr]
                             (do
@@ -342,3 +356,98 @@
   ds-proto/PDatasetTransform
   (transform [t dataset]
     (transform-minmax dataset t)))
+
+
+(defrecord PCATransform [means eigenvalues eigenvectors n-components result-datatype])
+
+
+(defn fit-pca
+  "Pure JVM PCA for when neanderthal is not available - see
+  `tech.v3.dataset.neanderthal/fit-pca` for the accelerated version.  Dataset must not
+  have missing values or non-numeric columns.
+
+  The covariance matrix is computed with a cache blocked, multithreaded kernel and then
+  decomposed with apache commons-math.  Returns a transform with the same keys as the
+  neanderthal version:
+
+  * `:means` - vec of means
+  * `:eigenvalues` - eigenvalues sorted from greatest to least.  These are the variance
+    of the columns of the projected dataset.
+  * `:eigenvectors` - [n-cols n-cols] tensor of eigenvectors as columns.
+
+  Options:
+
+  * `:variance-amount` - fractional amount of variance to keep.  Defaults to 0.95.
+  * `:n-components` - If provided overrides variance amount and sets the number of
+    components to keep.
+  * `:covariance-bias?` - divide by n-rows if true and (dec n-rows) if false. defaults
+    to false."
+  (^PCATransform [dataset {:keys [n-components variance-amount covariance-bias?]
+                           :or {variance-amount 0.95}}]
+   (errors/when-not-error
+    (== 0 (dtype/ecount (ds-base/missing dataset)))
+    "Cannot pca a dataset with missing entries.  See replace-missing.")
+   (let [columns (mapv #(dtype/->double-array (dtype/elemwise-cast % :float64))
+                       (ds-base/columns dataset))
+         n-cols (count columns)
+         means (double-array (map #(statistics/mean %) columns))
+         ^doubles cov (ds-tens/columns-covariance columns {:bias? covariance-bias?
+                                                          :means means})
+         decomp (EigenDecomposition.
+                 (Array2DRowRealMatrix.
+                  ^"[[D" (into-array (Class/forName "[D")
+                                     (map #(Arrays/copyOfRange cov
+                                                               (int (* (long %) n-cols))
+                                                               (int (* (inc (long %)) n-cols)))
+                                          (range n-cols)))
+                  false))
+         ^doubles eigvals (.getRealEigenvalues decomp)
+         order (vec (sort-by #(- (aget eigvals (long %))) (range n-cols)))
+         eigenvalues (double-array (map #(aget eigvals (long %)) order))
+         eigenvectors (double-array (* n-cols n-cols))
+         _ (dotimes [cidx n-cols]
+             (let [evec (.getEigenvector decomp (int (order cidx)))]
+               (dotimes [ridx n-cols]
+                 (aset eigenvectors (+ (* ridx n-cols) cidx) (.getEntry evec ridx)))))
+         variance-amount (double variance-amount)
+         used-variance? (nil? n-components)
+         n-components (long
+                       (or n-components
+                           (let [target-variance-sum (* variance-amount
+                                                        (double (dfn/reduce-+ eigenvalues)))]
+                             (loop [idx 0
+                                    tot-var 0.0]
+                               (if (and (< idx n-cols)
+                                        (< tot-var target-variance-sum))
+                                 (recur (unchecked-inc idx)
+                                        (+ tot-var (aget eigenvalues idx)))
+                                 idx)))))]
+     (map->PCATransform (merge {:means (vec means)
+                                :eigenvalues (vec eigenvalues)
+                                :eigenvectors (dtt/reshape eigenvectors [n-cols n-cols])
+                                :method :cov
+                                :n-components n-components
+                                :result-datatype :float64}
+                               (when used-variance?
+                                 {:variance-amount variance-amount})))))
+  (^PCATransform [dataset]
+   (fit-pca dataset nil)))
+
+
+(defn transform-pca
+  "Project the dataset onto the first n-components eigenvectors of a transform from
+  `fit-pca` returning a new dataset with one column per component."
+  [dataset {:keys [means eigenvectors n-components]}]
+  (let [{:keys [tensor]} (ds-tens/mean-center-columns!
+                          (ds-tens/dataset->tensor dataset :float64)
+                          {:means (double-array means)})]
+    (-> (ds-tens/jvm-matrix-multiply tensor
+                                     (dtt/select eigenvectors :all (range n-components)))
+        (ds-tens/tensor->dataset :pca-result)
+        (vary-meta assoc :pca-method :cov))))
+
+
+(extend-type PCATransform
+  ds-proto/PDatasetTransform
+  (transform [t dataset]
+    (transform-pca dataset t)))
@@ -225,7 +225,9 @@
       components to keep. This controls the number of result columns directly as an
       integer.
     - covariance-bias? - When using :cov, divide by n-rows if true and (dec n-rows)
-      if false. defaults to false."
+      if false. defaults to false.
+
+  See `tech.v3.dataset.math/fit-pca` for a pure JVM version."
   (^PCATransform [dataset {:keys [n-components variance-amount]
                            :or {variance-amount 0.95} :as options}]
    (errors/when-not-error
@@ -0,0 +1,216 @@
+(ns tech.v3.dataset.predicate
+  "Row predicates evaluated a column at a time into RoaringBitmaps of matching rows.
+
+  Predicates are the vectors used by `tech.v3.libs.parquet/parquet->ds-seq` and
+  `tech.v3.dataset.scan`:
+
+  * `[:= col v]`, `[:not= col v]`, `[:< col v]`, `[:<= col v]`, `[:> col v]`,
+    `[:>= col v]`
+  * `[:between col lo hi]` - inclusive on both ends.
+  * `[:in col values]`
+  * `[:missing col]`, `[:not-missing col]`
+  * `[:and & preds]`, `[:or & preds]`, `[:not pred]`
+
+  Comparisons never match missing values.  `:not` is the complement over all rows so
+  `[:not [:= col v]]` includes the rows where col is missing while `[:not= col v]` does
+  not.
+
+  Numeric columns are scanned with primitive loops in parallel chunks, dictionary,
+  constant and run length encoded columns along with string tables evaluate the
+  predicate once per distinct value and everything else - strings, dates, etc. -
+  compares values with `compare`.  The bitmaps of each term are combined with bitmap
+  and/or operations.
+
+```clojure
+(ds/filter stocks [:and [:> :price 100] [:in :symbol #{\"AAPL\" \"GOOG\"}]])
+(ds/select-rows stocks (predicate/predicate->bitmap stocks [:> :price 100]))
+```"
+  (:require [tech.v3.datatype :as dtype]
+            [tech.v3.datatype.casting :as casting]
+            [tech.v3.datatype.packing :as packing]
+            [tech.v3.datatype.errors :as errors]
+            [tech.v3.datatype.bitmap :as bitmap]
+            [tech.v3.dataset.protocols :as ds-proto]
+            [tech.v3.dataset.compress :as compress]
+            [ham-fisted.api :as hamf])
+  (:import [tech.v3.dataset PredicateKernels Text]
+           [tech.v3.dataset.string_table StringTable]
+           [tech.v3.datatype Buffer]
+           [org.roaringbitmap RoaringBitmap]
+           [java.util List Arrays]
+           [java.util.function Predicate]))
+
+
+(set! *warn-on-reflection* true)
+
+
+(def ^:private comparison-ops
+  {:= PredicateKernels/EQ
+   :not= PredicateKernels/NE
+   :< PredicateKernels/LT
+   :<= PredicateKernels/LE
+   :> PredicateKernels/GT
+   :>= PredicateKernels/GE})
+
+
+(def ^:private chunk-size 65536)
+
+
+(defn- chunked
+  "Run kernel over [sidx eidx) chunks in parallel and union the results."
+  ^RoaringBitmap [^long n-rows kernel]
+  (if (<= n-rows chunk-size)
+    (kernel 0 n-rows)
+    (RoaringBitmap/or (.iterator ^Iterable (hamf/pgroups n-rows kernel)))))
+
+
+(defn- object-value
+  [v]
+  (if (instance? Text v) (str v) v))
+
+
+(defn- compare-values
+  ^long [a b]
+  (let [a (object-value a)
+        b (object-value b)]
+    (if (and (number? a) (number? b))
+      (compare (double a) (double b))
+      (compare a b))))
+
+
+(defn- value-predicate
+  "Function of a column value for a leaf operation.  Missing values are nil and never
+  match."
+  [op args]
+  (let [[v hi] args]
+    (case op
+      := #(and (some? %) (== 0 (compare-values % v)))
+      :not= #(and (some? %) (not (== 0 (compare-values % v))))
+      :< #(and (some? %) (neg? (compare-values % v)))
+      :<= #(and (some? %) (not (pos? (compare-values % v))))
+      :> #(and (some? %) (pos? (compare-values % v)))
+      :>= #(and (some? %) (not (neg? (compare-values % v))))
+      :between #(and (some? %)
+                     (not (neg? (compare-values % v)))
+                     (not (pos? (compare-values % hi))))
+      :in (if (some number? v)
+            (fn [x] (boolean (and (some? x) (some #(== 0 (compare-values x %)) v))))
+            (let [vs (set (map object-value v))]
+              #(and (some? %) (contains? vs (object-value %))))))))
+
+
+(defn- string-table-bitmap
+  "Evaluate the predicate once per string table entry and select rows by their codes."
+  [col pred ^long n-rows]
+  (let [b (ds-proto/column-buffer col)]
+    (when (instance? StringTable b)
+      (let [^List int->str (.-int->str ^StringTable b)
+            pass (boolean-array (.size int->str))
+            codes (dtype/->buffer (.-data ^StringTable b))]
+        (dotimes [idx (alength pass)]
+          (aset pass idx (boolean (pred (.get int->str idx)))))
+        (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/codes codes sidx eidx pass)))))))
+
+
+(defn- numeric-bitmap
+  "Primitive scan of non-packed numeric columns when the predicate values are numbers."
+  [col op args ^long n-rows]
+  (let [dtype (casting/un-alias-datatype (dtype/elemwise-datatype col))
+        vs (if (identical? op :in) (vec (first args)) (vec args))]
+    (when (and (casting/numeric-type? dtype)
+               (not (packing/packed-datatype? dtype))
+               (seq vs)
+               (every? number? vs))
+      (let [long-space? (and (identical? :int64 (casting/simple-operation-space dtype))
+                             (every? integer? vs))
+            ^Buffer data (dtype/->buffer (ds-proto/column-buffer col))
+            [v hi] args]
+        (if long-space?
+          (case op
+            :between (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/betweenLong data sidx eidx (long v) (long hi))))
+            :in (let [vs (long-array (map long vs))]
+                  (Arrays/sort vs)
+                  (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/inLong data sidx eidx vs))))
+            (let [cop (int (comparison-ops op))]
+              (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/compareLong data sidx eidx cop (long v))))))
+          (case op
+            :between (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/betweenDouble data sidx eidx (double v) (double hi))))
+            :in (let [vs (double-array (map double vs))]
+                  (Arrays/sort vs)
+                  (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/inDouble data sidx eidx vs))))
+            (let [cop (int (comparison-ops op))]
+              (chunked n-rows (fn [^long sidx ^long eidx] (PredicateKernels/compareDouble data sidx eidx cop (double v)))))))))))
+
+
+(defn- leaf-bitmap
+  ^RoaringBitmap [ds op cname args]
+  (errors/when-not-errorf
+   (contains? ds cname)
+   "Predicate column %s not found in dataset" cname)
+  (let [col (ds-proto/column ds cname)
+        n-rows (long (dtype/ecount col))
+        ^RoaringBitmap missing (ds-proto/missing col)]
+    (case op
+      :missing (.clone missing)
+      :not-missing (RoaringBitmap/andNot (bitmap/->bitmap 0 n-rows) missing)
+      (let [_ (errors/when-not-errorf
+               (or (contains? comparison-ops op) (#{:between :in} op))
+               "Unrecognized predicate operation: %s" op)
+            pred (value-predicate op args)]
+        ;;compressed columns handle their missing values.
+        (or (compress/filter-indexes col pred)
+            (let [^RoaringBitmap rv
+                  (or (string-table-bitmap col pred n-rows)
+                      (numeric-bitmap col op args n-rows)
+                      (let [data (dtype/->buffer col)
+                            jpred (reify Predicate (test [_ x] (boolean (pred x))))]
+                        (chunked n-rows (fn [^long sidx ^long eidx]
+                                          (PredicateKernels/objects data sidx eidx jpred)))))]
+              (.andNot rv missing)
+              rv))))))
+
+
+(defn- eval-predicate
+  ^RoaringBitmap [ds ^long n-rows pred]
+  (errors/when-not-errorf
+   (and (sequential? pred) (keyword? (first pred)))
+   "Predicates are vectors of [op & args] - got %s" pred)
+  (let [[op & args] pred]
+    (case op
+      :and (reduce (fn [^RoaringBitmap acc p]
+                     (if (.isEmpty acc)
+                       (reduced acc)
+                       (RoaringBitmap/and acc (eval-predicate ds n-rows p))))
+                   (eval-predicate ds n-rows (first args))
+                   (rest args))
+      :or (RoaringBitmap/or (.iterator ^Iterable (mapv #(eval-predicate ds n-rows %) args)))
+      :not (RoaringBitmap/andNot (bitmap/->bitmap 0 n-rows)
+                                 (eval-predicate ds n-rows (first args)))
+      (leaf-bitmap ds op (first args) (rest args)))))
+
+
+(defn predicate->bitmap
+  "Return a RoaringBitmap of the rows of the dataset that match the predicate.  See the
+  namespace documentation for the predicate language.  The result can be passed directly
+  to `select-rows`."
+  ^RoaringBitmap [ds pred]
+  (eval-predicate ds (ds-proto/row-count ds) pred))
+
+
+(defn bind-column
+  "Convert a predicate over a single column where the column is left out -
+  `[:> 100]`, `[:and [:>= 0] [:not= 10]]` - into a dataset predicate over colname."
+  [colname pred]
+  (let [[op & args] pred]
+    (case op
+      (:and :or :not) (into [op] (map #(bind-column colname %)) args)
+      (into [op colname] args))))
+
+
+(defn index-filter
+  "Return a function from dataset to java.util.function.LongPredicate suitable for the
+  `:index-filter` option of `tech.v3.dataset.reductions/group-by-column-agg`."
+  [pred]
+  (fn [ds]
+    (let [bm (predicate->bitmap ds pred)]
+      (hamf/long-predicate idx (.contains bm (unchecked-int idx))))))
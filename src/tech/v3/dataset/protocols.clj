@@ -143,3 +143,14 @@
 (extend-protocol PReducerCombiner
   Object
   (reducer-combiner-key [reducer] nil))
+
+
+(defprotocol PReducerColumns
+  "Names of the dataset columns a reducer reads.  nil means unknown - the reducer may
+  read any column."
+  (reducer-columns [reducer]))
+
+
+(extend-protocol PReducerColumns
+  Object
+  (reducer-columns [reducer] nil))
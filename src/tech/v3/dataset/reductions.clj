@@ -47,14 +47,20 @@ user> (ds-reduce/group-by-column-agg
             [tech.v3.datatype.sampling :as dt-sample]
             [tech.v3.datatype.statistics :as dt-stats]
             [tech.v3.datatype.argtypes :as argtypes]
+            [tech.v3.datatype.packing :as packing]
             [tech.v3.datatype.export-symbols :refer [export-symbols]]
             [tech.v3.dataset.protocols :as ds-proto]
             [tech.v3.dataset.base :as ds-base]
             [tech.v3.dataset.readers :as ds-readers]
             [tech.v3.dataset.io :as ds-io]
+            ;;Dataset freeze/thaw support for spilled partitions
+            [tech.v3.dataset.io.nippy]
             [tech.v3.dataset.impl.column :as col-impl]
             [tech.v3.dataset.impl.dataset :as ds-impl]
             [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.string-table :as str-table]
+            [tech.v3.dataset.compress :as compress]
+            [tech.v3.dataset.predicate :as ds-pred]
             [tech.v3.dataset.io.mapseq-colmap :as io-mapseq]
             [tech.v3.dataset.reductions.impl :as impl]
             [tech.v3.dataset.reductions.apache-data-sketch :as sketch]
@@ -63,16 +69,25 @@ user> (ds-reduce/group-by-column-agg
             [ham-fisted.reduce :as hamf-rf]
             [ham-fisted.function :as hamf-fn]
             [ham-fisted.protocols :as hamf-proto]
-            [ham-fisted.lazy-noncaching :as lznc])
+            [ham-fisted.lazy-noncaching :as lznc]
+            [taoensso.nippy :as nippy]
+            [clojure.java.io :as io])
   (:import [tech.v3.datatype Buffer]
+           [tech.v3.dataset LongGroupTable]
+           [tech.v3.dataset.string_table StringTable]
            [java.util List HashSet ArrayList LinkedHashMap Map]
+           [java.io File DataOutputStream DataInputStream BufferedOutputStream
+            BufferedInputStream FileOutputStream FileInputStream]
+           [java.nio.file Files]
+           [java.nio.file.attribute FileAttribute]
            [java.util.concurrent ConcurrentHashMap]
+           [java.util.concurrent.atomic LongAdder]
            [java.util.concurrent.locks ReentrantLock]
-           [java.util.function LongConsumer Consumer LongPredicate]
+           [java.util.function LongConsumer Consumer LongPredicate BiFunction]
            [org.roaringbitmap RoaringBitmap]
            [tech.v3.datatype LongReader BooleanReader ObjectReader DoubleReader
             FastStruct]
-           [ham_fisted Sum Reducible Transformables Consumers$IncConsumer]
+           [ham_fisted Sum Reducible Transformables Consumers$IncConsumer IMutList]
            [clojure.lang IDeref IFn$OLO IFn$ODO])
   (:refer-clojure :exclude [distinct]))
 
@@ -101,7 +116,9 @@ user> (ds-reduce/group-by-column-agg
           (->merge-fn [r] (fn [l r] l)))))
     (merge [this l r] l)
     hamf-proto/Finalize
-    (finalize [this v] (if v (.-val ^clojure.lang.Box v) v))))
+    (finalize [this v] (if v (.-val ^clojure.lang.Box v) v))
+    ds-proto/PReducerColumns
+    (reducer-columns [this] [colname])))
 
 
 (defn sum
@@ -132,7 +149,9 @@ user> (ds-reduce/group-by-column-agg
       (hamf-rf/consumer-reducer #(Consumers$IncConsumer.)))
     (merge [this l r] (hamf-rf/reducible-merge l r))
     hamf-proto/Finalize
-    (finalize [this v] (deref v))))
+    (finalize [this v] (deref v))
+    ds-proto/PReducerColumns
+    (reducer-columns [this] [])))
 
 (defn maximum-rf
   ([]
@@ -275,7 +294,9 @@ user> (ds-reduce/group-by-column-agg
        (finalize [this ctx]
          ((dt-stats/descriptive-statistics @ctx [stat-name] options) stat-name))
        ds-proto/PReducerCombiner
-       (reducer-combiner-key [reducer] [colname :reservoir-stats reservoir-size options]))))
+       (reducer-combiner-key [reducer] [colname :reservoir-stats reservoir-size options])
+       ds-proto/PReducerColumns
+       (reducer-columns [reducer] [colname]))))
   ([colname reservoir-size stat-name]
    (reservoir-desc-stat colname reservoir-size stat-name nil)))
 
@@ -336,7 +357,9 @@ user> (ds-reduce/group-by-column-agg
              (->merge-fn [r] merge-fn))))
        (merge [this lhs rhs] (merge-fn lhs rhs))
        hamf-proto/Finalize
-       (finalize [this ctx] (finalize-fn ctx)))))
+       (finalize [this ctx] (finalize-fn ctx))
+       ds-proto/PReducerColumns
+       (reducer-columns [this] column-names))))
   ([column-name rfn]
    (reducer column-name rfn rfn
             rfn rfn)))
@@ -374,6 +397,170 @@ user> (ds-reduce/group-by-column-agg
        (FastStruct. cnames)))
 
 
+(defn- primitive-group-keys
+  "Return a buffer whose readLong values uniquely identify the group key of each row or
+  nil if the column has to be grouped in object space.  Integer, packed datetime, string
+  table and dictionary encoded columns are supported - string tables and dictionaries are
+  grouped by their indexes."
+  ^Buffer [col]
+  (let [data (ds-proto/column-buffer col)
+        dt (dtype/elemwise-datatype data)]
+    (cond
+      (instance? StringTable data)
+      (dtype/->buffer (str-table/indices data))
+      (compress/compressed-buffer? data)
+      (or (compress/group-codes col)
+          (when (or (casting/integer-type? dt)
+                    (packing/packed-datatype? dt))
+            (dtype/->buffer data)))
+      (or (casting/integer-type? dt)
+          (packing/packed-datatype? dt))
+      (dtype/->buffer data))))
+
+
+(defn- merge-states-fn
+  "Bifunction that merges two composed reducer states using each reducer's merge."
+  ^BiFunction [combined-reducers]
+  (let [n-reducers (count combined-reducers)]
+    (hamf-fn/bi-function
+     l r
+     (let [^objects l l
+           ^objects r r]
+       (dotimes [idx n-reducers]
+         (aset l idx (ds-proto/merge (combined-reducers idx)
+                                     (aget l idx)
+                                     (aget r idx))))
+       l))))
+
+
+(defn- partition-agg!
+  "Aggregate rows [sidx, eidx) into a partition-local primitive table then merge each
+  resulting group into agg-map.  Returns the number of local groups."
+  ^long [^Map agg-map ^BiFunction merge-bifn ^Buffer group-col ^Buffer group-keys
+         ^RoaringBitmap missing ^LongPredicate idx-filter agg-init ^IFn$OLO agg-rfn
+         ^long sidx ^long eidx]
+  (let [table (LongGroupTable. (min 1024 (- eidx sidx)))
+        states (ArrayList.)
+        ^IMutList first-rows (hamf/long-array-list)
+        any-missing? (not (.isEmpty missing))]
+    (loop [idx sidx]
+      (when (< idx eidx)
+        (when (or (nil? idx-filter) (.test idx-filter idx))
+          (let [gid (if (and any-missing? (.contains missing (unchecked-int idx)))
+                      (.idOfMissing table)
+                      (.idOf table (.readLong group-keys idx)))]
+            (if (== gid (.size states))
+              (do
+                (.add states (.invokePrim agg-rfn (agg-init) idx))
+                (.addLong first-rows idx))
+              (.set states gid (.invokePrim agg-rfn (.get states gid) idx)))))
+        (recur (unchecked-inc idx))))
+    ;;One map operation per group instead of one per row.  The first row of each group
+    ;;provides the object-space key.
+    (dotimes [gid (.size states)]
+      (.merge agg-map (.readObject group-col (.getLong first-rows gid))
+              (.get states gid) merge-bifn))
+    (.size states)))
+
+
+(defn- spill-route-rows
+  "Split the rows of a dataset that pass idx-filter into a bitmap of rows whose group key
+  is already in agg-map and, for all other rows, per-partition lists of row indexes.
+  Rows are assigned to partitions by the hash of their group key."
+  [^Map agg-map ^Buffer group-col ^LongPredicate idx-filter ^long n-parts ^long n-rows]
+  (let [new-parts #(object-array (repeatedly n-parts hamf/long-array-list))]
+    (->> (hamf/pgroups
+          n-rows
+          (fn [^long sidx ^long eidx]
+            (let [in-memory (RoaringBitmap.)
+                  ^objects parts (new-parts)]
+              (loop [idx sidx]
+                (when (< idx eidx)
+                  (when (or (nil? idx-filter) (.test idx-filter idx))
+                    (let [k (.readObject group-col idx)]
+                      (if (.containsKey agg-map k)
+                        (.add in-memory (unchecked-int idx))
+                        (.addLong ^IMutList (aget parts (Math/floorMod (long (hash k)) n-parts))
+                                  idx))))
+                  (recur (unchecked-inc idx))))
+              [in-memory parts])))
+         (reduce (fn [[^RoaringBitmap in-memory ^objects parts] [r-in-memory ^objects r-parts]]
+                   (.or in-memory r-in-memory)
+                   (dotimes [pidx n-parts]
+                     (.addAll ^IMutList (aget parts pidx) ^IMutList (aget r-parts pidx)))
+                   [in-memory parts])
+                 [(RoaringBitmap.) (new-parts)]))))
+
+
+(deftype GroupBySpill [^File dir files outputs ^longs counts]
+  AutoCloseable
+  ;;Idempotent - closes any open streams and removes the spill files and directory.
+  (close [_]
+    (doseq [^DataOutputStream os outputs]
+      (try (.close os) (catch Throwable _ nil)))
+    (run! #(.delete ^File %) files)
+    (.delete dir)))
+
+
+(defn- open-spill
+  "Create a temp directory with one nippy stream per spill partition."
+  ^GroupBySpill [options ^long n-parts]
+  (let [dir (.toFile (if-let [parent (get options :spill-directory)]
+                       (Files/createTempDirectory (.toPath (io/file parent)) "tmd-group-by"
+                                                  (make-array FileAttribute 0))
+                       (Files/createTempDirectory "tmd-group-by"
+                                                  (make-array FileAttribute 0))))
+        _ (.deleteOnExit dir)
+        files (mapv #(doto (File. dir (str "partition-" % ".nippy")) (.deleteOnExit))
+                    (range n-parts))
+        outputs (ArrayList.)]
+    (try
+      (doseq [^File f files]
+        (.add outputs (DataOutputStream. (BufferedOutputStream. (FileOutputStream. f)))))
+      (GroupBySpill. dir files (vec outputs) (long-array n-parts))
+      (catch Throwable e
+        (.close (GroupBySpill. dir files (vec outputs) (long-array 0)))
+        (throw e)))))
+
+
+(defn- spill-columns
+  "Columns a spilled dataset needs - the key columns and the columns read by the
+  reducers - or nil when a reducer does not declare its columns and every column has to
+  be spilled."
+  [key-colnames reducers]
+  (let [reducer-cols (map ds-proto/reducer-columns reducers)]
+    (when (every? some? reducer-cols)
+      (vec (clojure.core/distinct (apply concat key-colnames reducer-cols))))))
+
+
+(defn- spill-rows!
+  "Append the rows of each non-empty partition of ds to that partition's stream.  Only
+  the columns in spill-cols are written when it is not nil."
+  [^GroupBySpill spill ds spill-cols ^objects parts]
+  (let [ds (if spill-cols (ds-base/select-columns ds spill-cols) ds)]
+    (dotimes [pidx (alength parts)]
+      (let [^IMutList rows (aget parts pidx)]
+        (when-not (.isEmpty rows)
+          (nippy/freeze-to-out! ((.-outputs spill) pidx) (ds-base/select-rows ds rows))
+          (aset (.-counts spill) pidx (unchecked-inc (aget (.-counts spill) pidx))))))))
+
+
+(defn- reduce-spill!
+  "Close the spill streams and call (partition-fn ds-seq) with the datasets of each
+  partition in turn, deleting each partition's file once it has been processed."
+  [^GroupBySpill spill partition-fn]
+  (try
+    (run! #(.close ^DataOutputStream %) (.-outputs spill))
+    (dotimes [pidx (count (.-files spill))]
+      (let [^File f ((.-files spill) pidx)]
+        (with-open [in (DataInputStream. (BufferedInputStream. (FileInputStream. f)))]
+          (partition-fn (repeatedly (aget (.-counts spill) pidx)
+                                    #(nippy/thaw-from-in! in))))
+        (.delete f)))
+    (finally
+      (.close spill))))
+
+
 (defn group-by-column-agg-rf
   "Produce a transduce-compatible rf that will perform the group-by-column-agg pathway.
   See documentation for [[group-by-column-agg]].
@@ -425,6 +612,7 @@ _unnamed [4 5]:
          ;;convert reducers to something with lightning fast reduction.
          reducers (hamf/object-array-list (hamf/vals agg-map))
          [combined-reducers rev-indexes] (combine-reducers reducers)
+         spill-cols (spill-columns (if (sequential? colname) colname [colname]) reducers)
          [colname ds-map-fn]
          (if (sequential? colname)
            (let [tmp-colname ::_temp_col]
@@ -440,78 +628,152 @@ _unnamed [4 5]:
                                          :missing (bitmap/->bitmap)
                                          :force-datatype? true}))])
            [colname identity])
-         finalize-fn #(finalize-combined-reducers reducers rev-indexes cnames %)]
-     (fn
-       ([] (ConcurrentHashMap. (int (get options :map-initial-capacity 10000))))
-       ([agg-map next-ds]
-        (let [next-ds (ds-map-fn next-ds)
-              group-col (dtype/->buffer (ds-base/column next-ds colname))
-              n-rows (ds-base/row-count next-ds)
-              ^LongPredicate idx-filter (when-let [filter-fn (get options :index-filter)]
-                                          (let [idx-filter (filter-fn next-ds)]
-                                            (if (instance? LongPredicate idx-filter)
-                                              idx-filter
-                                              (reify LongPredicate
-                                                (test [this v] (boolean (idx-filter v)))))))
-              agg-reducer (->> combined-reducers
-                               (hamf/mapv #(ds-proto/ds->reducer % next-ds))
-                               (hamf-rf/compose-reducers {:rfn-datatype :int64}))
-              group-col (-> (ds-base/column next-ds colname)
-                            (dtype/->reader))
-              agg-init (hamf-proto/->init-val-fn agg-reducer)
-              agg-rfn (hamf-proto/->rfn agg-reducer)]
-          (dorun (hamf/pgroups
-                  n-rows
-                  (fn [^long sidx ^long eidx]
-                    (if idx-filter
-                      (loop [sidx sidx]
-                        (when (< sidx eidx)
-                          (when (.test idx-filter sidx)
-                            (.compute ^Map agg-map (.readObject group-col sidx)
-                                      (hamf-fn/bi-function
+         finalize-fn #(finalize-combined-reducers reducers rev-indexes cnames %)
+         engine (get options :engine :concurrent-map)
+         _ (when-not (#{:concurrent-map :partitioned} engine)
+             (throw (RuntimeException. (str "Unrecognized group-by engine: " engine))))
+         merge-bifn (merge-states-fn combined-reducers)
+         metric-names [:n-datasets :n-rows :n-primitive-datasets :n-partition-groups
+                       :n-spilled-rows]
+         metrics (into {} (map #(vector % (LongAdder.))) metric-names)
+         inc-metric! (fn [k ^long v] (.add ^LongAdder (metrics k) v))
+         max-groups (get options :max-groups-in-memory)
+         n-spill-parts (long (get options :spill-partitions 64))
+         ;;Set once the number of in-memory groups passes max-groups.
+         spill (volatile! nil)
+         ;;Spill files are removed whenever the reduction fails partway through.
+         discard-spill! (fn []
+                          (when-let [^GroupBySpill s @spill]
+                            (vreset! spill nil)
+                            (.close s)))
+         aggregate-ds!
+         (fn [^Map agg-map next-ds ^LongPredicate idx-filter]
+           (let [n-rows (ds-base/row-count next-ds)
+                 agg-reducer (->> combined-reducers
+                                  (hamf/mapv #(ds-proto/ds->reducer % next-ds))
+                                  (hamf-rf/compose-reducers {:rfn-datatype :int64}))
+                 src-col (ds-base/column next-ds colname)
+                 group-col (dtype/->reader src-col)
+                 ;;Dictionary encoded key columns always group on their integer codes
+                 group-keys (when (or (identical? engine :partitioned)
+                                      (compress/group-codes src-col))
+                              (primitive-group-keys src-col))
+                 agg-init (hamf-proto/->init-val-fn agg-reducer)
+                 agg-rfn (hamf-proto/->rfn agg-reducer)]
+             (if group-keys
+               (let [missing (ds-proto/missing src-col)
+                     agg-rfn (Transformables/toLongReductionFn agg-rfn)]
+                 (inc-metric! :n-primitive-datasets 1)
+                 (inc-metric! :n-partition-groups
+                              (->> (hamf/pgroups
+                                    n-rows
+                                    (fn [^long sidx ^long eidx]
+                                      (partition-agg! agg-map merge-bifn group-col group-keys
+                                                      missing idx-filter agg-init agg-rfn
+                                                      sidx eidx)))
+                                   (reduce + 0)
+                                   (long))))
+               (dorun (hamf/pgroups
+                       n-rows
+                       (fn [^long sidx ^long eidx]
+                         (if idx-filter
+                           (loop [sidx sidx]
+                             (when (< sidx eidx)
+                               (when (.test idx-filter sidx)
+                                 (.compute agg-map (.readObject group-col sidx)
+                                           (hamf-fn/bi-function
+                                            k v
+                                            (agg-rfn (or v (agg-init)) sidx))))
+                               (recur (unchecked-inc sidx))))
+                           (loop [sidx sidx]
+                             (when (< sidx eidx)
+                               (.compute agg-map (.readObject group-col sidx)
+                                         (hamf-fn/bi-function
+                                          k v
+                                          (agg-rfn (or v (agg-init)) sidx)))
+                               (recur (unchecked-inc sidx)))))))))
+             agg-map))
+         ;;Each spill partition only contains keys that are in neither the in-memory map
+         ;;nor any other partition so partitions are aggregated independently.
+         aggregate-partition (fn [ds-seq]
+                               (reduce #(aggregate-ds! %1 (ds-map-fn %2) nil)
+                                       (ConcurrentHashMap.)
+                                       ds-seq))
+         finalize-into! (fn [c ^ConcurrentHashMap agg-map]
+                          (let [ll (ReentrantLock.)]
+                            ;;Also possible to parse N datasets in parallel and do a
+                            ;;concat-copying operation but in my experience this steps
+                            ;;takes up nearly no time.
+                            (.forEach agg-map 32
+                                      (hamf-fn/bi-consumer
                                        k v
-                                       (agg-rfn (or v (agg-init)) sidx))))
-                          (recur (unchecked-inc sidx))))
-                      (loop [sidx sidx]
-                        (when (< sidx eidx)
-                          (.compute ^Map agg-map (.readObject group-col sidx)
-                                    (hamf-fn/bi-function
-                                     k v
-                                     (agg-rfn (or v (agg-init)) sidx)))
-                          (recur (unchecked-inc sidx))))))))
-          agg-map
-          #_(->> (if idx-filter
-                 (lznc/filter idx-filter (hamf/range n-rows))
-                 (hamf/range n-rows))
-               (hamf-rf/preduce (constantly nil)
-                                (fn [acc ^long idx]
-
-                                  )
-                                )
-               (hamf/group-by-reducer
-                (hamf-fn/long->obj idx (.readObject group-col idx))
-                agg-reducer
-                {:map-fn (constantly agg-map)
-                 :ordered? false
-                 :skip-finalize? true
-                 :min-n 1000}))))
+                                       (let [vv (finalize-fn v)]
+                                         (.lock ll)
+                                         (try
+                                           (.accept ^Consumer c vv)
+                                           (finally
+                                             (.unlock ll))))))))]
+     (with-meta
+      (fn
+       ([]
+        (run! #(.reset ^LongAdder %) (vals metrics))
+        (discard-spill!)
+        (ConcurrentHashMap. (int (get options :map-initial-capacity 10000))))
+       ([^Map agg-map next-ds]
+        (try
+         (let [n-rows (ds-base/row-count next-ds)
+               mapped-ds (ds-map-fn next-ds)
+               ^LongPredicate idx-filter (when-let [filter-fn (get options :index-filter)]
+                                           (let [filter-fn (if (vector? filter-fn)
+                                                             (ds-pred/index-filter filter-fn)
+                                                             filter-fn)
+                                                 idx-filter (filter-fn next-ds)]
+                                             (if (instance? LongPredicate idx-filter)
+                                               idx-filter
+                                               (reify LongPredicate
+                                                 (test [this v] (boolean (idx-filter v)))))))]
+           (inc-metric! :n-datasets 1)
+           (inc-metric! :n-rows n-rows)
+           (when (and max-groups (nil? @spill) (> (.size agg-map) (long max-groups)))
+             (vreset! spill (open-spill options n-spill-parts)))
+           (if-let [spill @spill]
+             (let [[^RoaringBitmap in-memory parts]
+                   (spill-route-rows agg-map (dtype/->reader (ds-base/column mapped-ds colname))
+                                     idx-filter n-spill-parts n-rows)]
+               (inc-metric! :n-spilled-rows (long (reduce + 0 (map count parts))))
+               (spill-rows! spill next-ds spill-cols parts)
+               (aggregate-ds! agg-map mapped-ds (hamf/long-predicate
+                                                 idx (.contains in-memory (unchecked-int idx)))))
+             (aggregate-ds! agg-map mapped-ds idx-filter)))
+         (catch Throwable e
+           (discard-spill!)
+           (throw e))))
        ([agg-map]
-        (if (get options :skip-finalize?)
-          agg-map
-          (let [c ((hamf-proto/->init-val-fn (io-mapseq/mapseq-reducer options)))
-                ll (ReentrantLock.)]
-            ;;Also possible to parse N datasets in parallel and do a concat-copying
-            ;;operation but in my experience this steps takes up nearly no time.
-            (.forEach ^ConcurrentHashMap agg-map 32
-                      (hamf-fn/bi-consumer
-                       k v
-                       (let [vv (finalize-fn v)]
-                         (.lock ll)
-                         (try
-                           (.accept ^Consumer c vv)
-                           (finally
-                             (.unlock ll))))))
-            @c)))))))
+        (try
+         (let [spill @spill]
+           (if (get options :skip-finalize?)
+             (do
+               (when spill
+                 (reduce-spill! spill #(.putAll ^Map agg-map ^Map (aggregate-partition %))))
+               agg-map)
+             (let [c ((hamf-proto/->init-val-fn (io-mapseq/mapseq-reducer options)))
+                   n-groups (LongAdder.)]
+               (.add n-groups (.size ^Map agg-map))
+               (finalize-into! c agg-map)
+               (when spill
+                 (reduce-spill! spill (fn [ds-seq]
+                                        (let [^Map part-map (aggregate-partition ds-seq)]
+                                          (.add n-groups (.size part-map))
+                                          (finalize-into! c part-map)))))
+               (vary-meta @c assoc ::metrics
+                          (reduce (fn [m k] (assoc m k (.sum ^LongAdder (metrics k))))
+                                  {:engine engine
+                                   :n-groups (.sum n-groups)
+                                   :spilled? (boolean spill)}
+                                  metric-names)))))
+         (finally
+           (discard-spill!)))))
+      {::discard-spill! discard-spill!}))))
 
 
 (defn group-by-column-agg
@@ -534,7 +796,30 @@ _unnamed [4 5]:
   * `:index-filter` - A function that given a dataset produces a function from long index
     to boolean, ideally either nil or a java.util.function.LongPredicate.  Only indexes for
     which the index-filter returns true will be added to the aggregation.  For very large
-    datasets, this is a bit faster than using filter before the aggregation.
+    datasets, this is a bit faster than using filter before the aggregation.  The
+    index-filter may also be a predicate vector - `[:> :price 100.0]` - see
+    `tech.v3.dataset.predicate`.
+  * `:engine` - One of `:concurrent-map` (default) or `:partitioned`.  The partitioned
+    engine groups integer, packed datetime and string table key columns using
+    partition-local primitive hash tables and merges each partition's groups into the
+    result map once per group as opposed to once per row.  Key columns it cannot handle
+    (object columns or multiple key columns) fall back to the concurrent map pathway.
+    The engine along with row and group counts is reported in the result's metadata under
+    `:tech.v3.dataset.reductions/metrics`.
+  * `:max-groups-in-memory` - When provided, enables out-of-core aggregation.  Once the
+    number of in-memory groups passes this budget (checked before each dataset), rows of
+    subsequent datasets whose key is already in memory are aggregated as usual while all
+    other rows are hash-partitioned by key and appended to temporary nippy files.  Each
+    partition is then aggregated independently during finalization so only one
+    partition's groups beyond the budget are on heap at a time.  The result contains the
+    same rows as the in-memory pathway.  When `:skip-finalize?` is true the partitions
+    are aggregated back into the returned map.  Only the key columns and the columns
+    the reducers read are spilled - see `tech.v3.dataset.protocols/PReducerColumns`.
+    Reducers that do not implement it cause every column to be spilled.
+  * `:spill-partitions` - Number of spill partitions.  Defaults to 64.
+  * `:spill-directory` - Parent directory of the spill files.  Defaults to the system temp
+    directory.  Files are removed once they have been aggregated or when the reduction
+    fails.
 
   Example:
 
@@ -582,10 +867,16 @@ _unnamed [7 3]:
 |  a | 22 |  2 |
 ```"
   ([colname agg-map options ds-seq]
-   (hamf-rf/reduce-reducer (group-by-column-agg-rf colname agg-map options)
-                        (if (ds-impl/dataset? ds-seq)
-                          [ds-seq]
-                          ds-seq)))
+   (let [rf (group-by-column-agg-rf colname agg-map options)]
+     ;;The rf only sees failures of its own steps - failures realizing ds-seq must
+     ;;also remove the spill files.
+     (try
+       (hamf-rf/reduce-reducer rf (if (ds-impl/dataset? ds-seq)
+                                    [ds-seq]
+                                    ds-seq))
+       (catch Throwable e
+         ((::discard-spill! (meta rf)))
+         (throw e)))))
   ([colname agg-map ds-seq]
    (group-by-column-agg colname agg-map nil ds-seq)))
 
@@ -191,7 +191,9 @@ user> (ds-reduce/group-by-column-agg
       hamf-proto/Finalize
       (finalize [this v] (finalize-fn v))
       ds-proto/PReducerCombiner
-      (reducer-combiner-key [this] [colname :doubles-sketch k]))))
+      (reducer-combiner-key [this] [colname :doubles-sketch k])
+      ds-proto/PReducerColumns
+      (reducer-columns [this] [colname]))))
 
 
 (def ^:private default-doubles-k 128)
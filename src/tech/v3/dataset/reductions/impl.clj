@@ -60,4 +60,6 @@
                (->merge-fn [r] merge-fn)))))
        (merge [this lhs rhs] (merge-fn lhs rhs))
        hamf-proto/Finalize
-       (finalize [this v] (hamf-proto/finalize reducer v))))))
+       (finalize [this v] (hamf-proto/finalize reducer v))
+       ds-proto/PReducerColumns
+       (reducer-columns [this] [cname])))))
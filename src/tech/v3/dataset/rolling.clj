@@ -9,8 +9,14 @@
             [tech.v3.datatype.statistics :as stats]
             [tech.v3.datatype.packing :as packing]
             [tech.v3.datatype.binary-op :as binary-op]
-            [tech.v3.dataset.base :as ds-base])
-  (:import [tech.v3.datatype Buffer])
+            [tech.v3.datatype.casting :as casting]
+            [tech.v3.datatype.argops :as argops]
+            [ham-fisted.api :as hamf]
+            [tech.v3.dataset.base :as ds-base]
+            [tech.v3.dataset.column :as ds-col])
+  (:import [tech.v3.datatype Buffer]
+           [tech.v3.dataset RollingKernels]
+           [java.util List])
   (:refer-clojure :exclude [min max nth first last]))
 
 
@@ -18,6 +24,7 @@
   [column-name]
   {:column-name column-name
    :reducer stats/mean
+   :kernel :mean
    :datatype :float64})
 
 
@@ -25,25 +32,29 @@
   [column-name]
   {:column-name column-name
    :reducer stats/sum
+   :kernel :sum
    :datatype :float64})
 
 
 (defn min
   [column-name]
   {:column-name column-name
-   :reducer stats/min})
+   :reducer stats/min
+   :kernel :min})
 
 
 (defn max
   [column-name]
   {:column-name column-name
-   :reducer stats/max})
+   :reducer stats/max
+   :kernel :max})
 
 
 (defn variance
   [column-name]
   {:column-name column-name
    :reducer stats/variance
+   :kernel :variance
    :datatype :float64})
 
 
@@ -51,9 +62,26 @@
   [column-name]
   {:column-name column-name
    :reducer stats/standard-deviation
+   :kernel :standard-deviation
    :datatype :float64})
 
 
+(defn quantile
+  "Quantile q (0-1) of each window using the default estimation of
+  tech.v3.datatype.statistics/percentiles."
+  [column-name q]
+  {:column-name column-name
+   :reducer (fn [rdr] (double (clojure.core/first (stats/percentiles rdr [(* 100.0 (double q))]))))
+   :kernel :quantile
+   :quantile q
+   :datatype :float64})
+
+
+(defn median
+  [column-name]
+  (quantile column-name 0.5))
+
+
 (defn nth
   "Get the nth window value"
   [column-name nth-val]
@@ -73,44 +101,212 @@
    :reducer (fn [rdr] (rdr -1))})
 
 
+(defn- reducer-kernel
+  "Incremental kernel for a reducer or nil if the reducer is not a known built-in."
+  [reducer]
+  (or (:kernel reducer)
+      (let [red (:reducer reducer)]
+        (condp identical? red
+          stats/sum :sum
+          stats/mean :mean
+          stats/min :min
+          stats/max :max
+          stats/variance :variance
+          stats/standard-deviation :standard-deviation
+          nil))))
+
+
+(defn- kernel-source
+  "Double array of the column's data if the incremental kernels produce the same answer
+  as the generic path - numeric, no missing values and no NaN - else nil."
+  ^doubles [col]
+  (when (and (casting/numeric-type? (packing/unpack-datatype (dtype/elemwise-datatype col)))
+             (.isEmpty (ds-col/missing col)))
+    (let [data (dtype/->double-array col)
+          n-elems (alength data)]
+      (loop [idx 0]
+        (cond
+          (== idx n-elems) data
+          (Double/isNaN (aget data idx)) nil
+          :else (recur (unchecked-inc idx)))))))
+
+
+(defn- window-bounds
+  "Start and (exclusive) end of each window or nil if the windows are not ordered such that
+  the incremental kernels apply."
+  [windows]
+  (let [windows (dtype/->reader windows)
+        n-win (.lsize windows)
+        starts (long-array n-win)
+        ends (long-array n-win)]
+    (loop [idx 0
+           prev-end 0]
+      (when (< idx n-win)
+        (let [^List win (.readObject windows idx)
+              n-elems (.size win)
+              start (if (== 0 n-elems) prev-end (long (.get win 0)))]
+          (aset starts idx start)
+          (aset ends idx (+ start n-elems))
+          (recur (unchecked-inc idx) (+ start n-elems)))))
+    (when (RollingKernels/monotonic starts ends)
+      [starts ends])))
+
+
+(defn- run-kernel
+  ^doubles [kernel reducer ^doubles data ^longs starts ^longs ends edge-mode]
+  (let [em (if (identical? edge-mode :zero)
+             RollingKernels/EDGE_ZERO
+             RollingKernels/EDGE_CLAMP)]
+    (case kernel
+      :sum (RollingKernels/sum data starts ends em false)
+      :mean (RollingKernels/sum data starts ends em true)
+      :variance (RollingKernels/variance data starts ends em false)
+      :standard-deviation (RollingKernels/variance data starts ends em true)
+      :min (RollingKernels/minmax data starts ends em false)
+      :max (RollingKernels/minmax data starts ends em true)
+      :quantile (RollingKernels/quantile data starts ends em (double (:quantile reducer))))))
+
+
+(defn- window-columns
+  "Sequence of result column maps, one per reducer."
+  [ds windows reducer-map edge-mode options]
+  (let [incremental? (and (get options :incremental? true)
+                          (#{:clamp :zero} edge-mode))
+        bounds (delay (window-bounds windows))]
+    (->> reducer-map
+         (map-indexed
+          (fn [_idx [k red]]
+            (assoc red :dest-column-name k)))
+         (group-by :column-name)
+         (mapv (fn [[colname reducers]]
+                 (let [colname (if (= :scalar (argtypes/arg-type colname))
+                                 [colname]
+                                 (vec colname))]
+                   {:columns (mapv (partial ds-base/column ds) colname)
+                    :reducers (vec reducers)})))
+         (mapv
+          (fn [{:keys [columns reducers]}]
+            ;;common case is 1 column
+            (if (== 1 (count columns))
+              (let [win-data (delay (dt-rolling/window-ranges->window-reader
+                                     (columns 0) windows edge-mode))
+                    src-data (delay (when incremental? (kernel-source (columns 0))))]
+                (mapv (fn [reducer]
+                        {:tech.v3.dataset/name (:dest-column-name reducer)
+                         :tech.v3.dataset/data
+                         ;;Known reducers over clean numeric data run as single pass
+                         ;;incremental kernels
+                         (let [kernel (when incremental? (reducer-kernel reducer))
+                               [starts ends] (when (and kernel @src-data) @bounds)]
+                           (if starts
+                             (run-kernel kernel reducer @src-data starts ends edge-mode)
+                             (-> (dtype/emap (:reducer reducer) (:datatype reducer :object)
+                                             @win-data)
+                                 (dtype/clone))))})
+                      reducers))
+              (let [win-data (mapv #(dt-rolling/window-ranges->window-reader
+                                     % windows edge-mode)
+                                   columns)]
+                (mapv (fn [reducer]
+                        {:tech.v3.dataset/name (:dest-column-name reducer)
+                         :tech.v3.dataset/data
+                         (-> (apply dtype/emap (:reducer reducer) (:datatype reducer :object)
+                                    win-data)
+                             (dtype/clone))})
+                      reducers)))))
+         (apply concat))))
+
+
 (defn ^:no-doc apply-window-ranges
-  [ds windows reducer-map edge-mode]
-  (->> reducer-map
-       (map-indexed
-        (fn [_idx [k red]]
-          (assoc red :dest-column-name k)))
-       (group-by :column-name)
-       (mapv (fn [[colname reducers]]
-               (let [colname (if (= :scalar (argtypes/arg-type colname))
-                               [colname]
-                               (vec colname))]
-                 {:columns (mapv (partial ds-base/column ds) colname)
-                  :reducers (vec reducers)})))
-       (mapv
-        (fn [{:keys [columns reducers]}]
-          ;;common case is 1 column
-          (if (== 1 (count columns))
-            (let [win-data (dt-rolling/window-ranges->window-reader
-                            (columns 0) windows edge-mode)]
-              (mapv (fn [reducer]
-                      {:tech.v3.dataset/name (:dest-column-name reducer)
-                       :tech.v3.dataset/data
-                       (-> (dtype/emap (:reducer reducer) (:datatype reducer :object)
-                                       win-data)
-                           (dtype/clone))})
-                    reducers))
-            (let [win-data (mapv #(dt-rolling/window-ranges->window-reader
-                                   % windows edge-mode)
-                                 columns)]
-              (mapv (fn [reducer]
-                      {:tech.v3.dataset/name (:dest-column-name reducer)
-                       :tech.v3.dataset/data
-                       (-> (apply dtype/emap (:reducer reducer) (:datatype reducer :object)
-                                  win-data)
-                           (dtype/clone))})
-                    reducers)))))
-       (apply concat)
-       (reduce #(ds-base/add-column %1 %2) ds)))
+  ([ds windows reducer-map edge-mode options]
+   (reduce #(ds-base/add-column %1 %2) ds
+           (window-columns ds windows reducer-map edge-mode options)))
+  ([ds windows reducer-map edge-mode]
+   (apply-window-ranges ds windows reducer-map edge-mode nil)))
+
+
+(defn- window-ranges
+  [ds window-data]
+  (let [n-rows (ds-base/row-count ds)]
+    (case (:window-type window-data :fixed)
+      :fixed
+      (dt-rolling/fixed-rolling-window-ranges
+       n-rows (:window-size window-data)
+       (:relative-window-position window-data :center))
+      :variable
+      (let [_ (when-not (:column-name window-data)
+                (throw (Exception. (format "Variable rolling windows must have :column-name in the window data"))))
+            src-col (ds-base/column ds (:column-name window-data))
+            col-dt (dtype/elemwise-datatype src-col)]
+        (vec (dt-rolling/variable-rolling-window-ranges
+              src-col (:window-size window-data)
+              {:comp-fn
+               (if-let [comp-fn (:comp-fn window-data)]
+                 comp-fn
+                 (when (dtype-dt/datetime-datatype? (packing/unpack-datatype col-dt))
+                   (dtype-dt-ops/between-op
+                    (dtype/elemwise-datatype src-col)
+                    (:units window-data :milliseconds)
+                    true)))
+               :relative-window-position (get window-data :relative-window-position)}))))))
+
+
+(defn- group-row-indexes
+  "Vector of int arrays of row indexes, one per group, each ordered by the order-by column
+  when provided."
+  [ds group-by order-by]
+  (->> (ds-base/group-by-column->indexes ds group-by)
+       (vals)
+       (mapv (fn [idxs]
+               (let [idxs (dtype/->int-array idxs)]
+                 (if order-by
+                   (let [order (argops/argsort (dtype/indexed-buffer
+                                                idxs (ds-base/column ds order-by)))]
+                     (dtype/->int-array (dtype/indexed-buffer order idxs)))
+                   idxs))))))
+
+
+(defn- grouped-rolling
+  "Compute windows independently within each group in parallel.  Each group's results are
+  written into preallocated result columns at the group's original row positions."
+  [ds window-data reducer-map windows-fn]
+  (let [n-rows (ds-base/row-count ds)
+        edge-mode (:edge-mode window-data :clamp)
+        groups (group-row-indexes ds (:group-by window-data) (:order-by window-data))
+        result-dtypes (->> reducer-map
+                           (map (fn [[k red]]
+                                  [k (:datatype red :object)]))
+                           (into {}))
+        results (->> result-dtypes
+                     (map (fn [[k dt]] [k (dtype/make-container :jvm-heap dt n-rows)]))
+                     (into {}))]
+    (dorun
+     (hamf/pgroups
+      (count groups)
+      (fn [^long sidx ^long eidx]
+        (loop [gidx sidx]
+          (when (< gidx eidx)
+            (let [^ints idxs (groups gidx)
+                  n-group (alength idxs)
+                  group-ds (ds-base/select-rows ds idxs)]
+              (doseq [{colname :tech.v3.dataset/name
+                       data :tech.v3.dataset/data}
+                      (window-columns group-ds (windows-fn group-ds) reducer-map
+                                      edge-mode window-data)]
+                (let [^Buffer dst (results colname)
+                      ^Buffer src (dtype/->reader data)]
+                  (if (identical? :float64 (result-dtypes colname))
+                    (dotimes [idx n-group]
+                      (.writeDouble dst (aget idxs idx) (.readDouble src idx)))
+                    (dotimes [idx n-group]
+                      (.writeObject dst (aget idxs idx) (.readObject src idx))))))
+              (recur (unchecked-inc gidx))))))))
+    (reduce (fn [ds [colname data]]
+              (ds-base/add-column ds #:tech.v3.dataset{:name colname
+                                                       :data data}))
+            ds
+            ;;maintain reducer-map column order
+            (map (fn [k] [k (results k)]) (keys reducer-map)))))
 
 
 (defn rolling
@@ -136,6 +332,16 @@
       is a reasonable default.
     - `:units` - for datetime types, describes the units of `:window-size` and will
       dictate the numeric space if `:comp-fn` is not provided.
+    - `:group-by` - column name.  Windows are computed independently within each group
+      of rows sharing a value of this column, in parallel across groups.  Results are
+      returned in the original row order.
+    - `:order-by` - column name used to order rows within each group.  Defaults to the
+      original row order.  For variable windows `:column-name` defaults to this column.
+    - `:incremental?` - defaults to true.  The built in reducers - [[sum]], [[mean]],
+      [[variance]], [[standard-deviation]], [[min]], [[max]], [[quantile]] and
+      [[median]] - applied to numeric columns without missing values run as single pass
+      incremental kernels rather than reducing every window from scratch.  Set to false
+      to always use the generic path.
   * reducer-map - A map of result column name to reducer map.  The reducer map is a
     map which must contain at least `{:column-name :reducer}` where reducer is an ifn
     that is passed each window.  The result column is scanned to ascertain datatype and
@@ -271,47 +477,41 @@ test/data/stocks.csv [5 6]:
 |    AAPL | 2000-02-01 |  28.66 |    57.56583333 |        106.11 |         28.37 |
 ```"
   ([ds window reducer-map options]
-   (let [n-rows (ds-base/row-count ds)
-         window-data (merge (if (integer? window)
+   (let [window-data (merge (if (integer? window)
                               {:window-size window
                                :window-type :fixed}
                               window)
                             options)
-         windows
-         (case (:window-type window-data :fixed)
-           :fixed
-           (dt-rolling/fixed-rolling-window-ranges
-            n-rows (:window-size window-data)
-            (:relative-window-position window-data :center))
-           :variable
-           (let [_ (when-not (:column-name window-data)
-                     (throw (Exception. (format "Variable rolling windows must have :column-name in the window data"))))
-                 src-col (ds-base/column ds (:column-name window-data))
-                 col-dt (dtype/elemwise-datatype src-col)]
-             (vec (dt-rolling/variable-rolling-window-ranges
-                   src-col (:window-size window-data)
-                   {:comp-fn
-                    (if-let [comp-fn (:comp-fn window-data)]
-                      comp-fn
-                      (when (dtype-dt/datetime-datatype? (packing/unpack-datatype col-dt))
-                        (dtype-dt-ops/between-op
-                         (dtype/elemwise-datatype src-col)
-                         (:units window-data :milliseconds)
-                         true)))
-                    :relative-window-position (get window-data :relative-window-position)}))))]
-     (apply-window-ranges ds windows reducer-map (:edge-mode window-data :clamp))))
+         ;;Variable windows within ordered groups default to the order-by column
+         window-data (if (and (:group-by window-data)
+                              (:order-by window-data)
+                              (not (:column-name window-data)))
+                       (assoc window-data :column-name (:order-by window-data))
+                       window-data)]
+     (if (:group-by window-data)
+       (grouped-rolling ds window-data reducer-map #(window-ranges % window-data))
+       (apply-window-ranges ds (window-ranges ds window-data) reducer-map
+                            (:edge-mode window-data :clamp)
+                            window-data))))
   ([ds window reducer-map]
    (rolling ds window reducer-map nil)))
 
 
 (defn expanding
   "Run a set of reducers across a dataset with an expanding set of windows.  These
-  will produce a cumsum-type operation."
-  [ds reducer-map]
-  (apply-window-ranges ds (dt-rolling/expanding-window-ranges
-                           (ds-base/row-count ds))
-                       reducer-map
-                       :clamp))
+  will produce a cumsum-type operation.  Options are the same as [[rolling]] including
+  `:group-by` and `:order-by` which expand within each group."
+  ([ds reducer-map options]
+   (if (:group-by options)
+     (grouped-rolling ds options reducer-map
+                      #(dt-rolling/expanding-window-ranges (ds-base/row-count %)))
+     (apply-window-ranges ds (dt-rolling/expanding-window-ranges
+                              (ds-base/row-count ds))
+                          reducer-map
+                          :clamp
+                          options)))
+  ([ds reducer-map]
+   (expanding ds reducer-map nil)))
 
 (comment
   (require '[tech.v3.dataset :as ds])
@@ -0,0 +1,581 @@
+(ns tech.v3.dataset.scan
+  "Scan directory trees of arrow and parquet files as a single sequence of datasets.
+
+  Directories are expected to be laid out in the Hive style where each directory level
+  below the root is a `key=value` partition - `date=2026-10-01/region=eu/part-0001.parquet`.
+  Partition values are added to each dataset as constant columns and a predicate over
+  partition columns prunes whole directories before any file is opened.  The parts of the
+  predicate that refer to file columns are pushed down to the parquet reader where they
+  skip row groups using their column statistics.
+
+  [[ds-seq->partitioned!]] writes the same layout from a sequence of datasets.
+
+```clojure
+(require '[tech.v3.dataset.scan :as scan])
+(require '[tech.v3.dataset.reductions :as ds-reduce])
+
+(ds-reduce/group-by-column-agg
+ \"region\" {:n (ds-reduce/row-count)}
+ (scan/scan-ds-seq \"data/events\"
+                   {:predicate [:and [:>= \"date\" (java.time.LocalDate/parse \"2026-10-01\")]
+                                     [:> \"price\" 10.0]]}))
+```"
+  (:require [tech.v3.datatype.errors :as errors]
+            [tech.v3.dataset.impl.column :as col-impl]
+            [tech.v3.dataset.impl.column-base :as col-base]
+            [tech.v3.dataset.base :as ds-base]
+            [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.compress :as compress]
+            [tech.v3.datatype.bitmap :as bitmap]
+            [clojure.string :as s])
+  (:import [java.io File]
+           [java.net URLDecoder URLEncoder]
+           [java.time LocalDate]
+           [java.util Iterator LinkedHashMap HashMap Map$Entry ArrayList]
+           [java.util.concurrent ArrayBlockingQueue ConcurrentLinkedQueue TimeUnit]
+           [clojure.lang IReduceInit Seqable SeqIterator]
+           [java.util.concurrent.atomic AtomicBoolean AtomicLong]
+           [org.roaringbitmap RoaringBitmap]))
+
+
+(set! *warn-on-reflection* true)
+
+
+(def ^:private hive-default-partition "__HIVE_DEFAULT_PARTITION__")
+
+
+(defn- file-format
+  [^File f]
+  (let [fname (.getName f)]
+    (when-not (or (s/starts-with? fname ".") (s/starts-with? fname "_"))
+      (cond
+        (s/ends-with? fname ".parquet") :parquet
+        (some #(s/ends-with? fname %) [".arrow" ".arrows" ".feather" ".ipc"]) :arrow))))
+
+
+(defn- decode-partition-value
+  [^String v]
+  (let [v (URLDecoder/decode (.replace v "+" "%2B") "UTF-8")]
+    (when-not (= v hive-default-partition)
+      v)))
+
+
+(defn- partition-segment
+  "Parse a key=value directory name."
+  [^String dirname]
+  (let [eq-idx (.indexOf dirname "=")]
+    (when (pos? eq-idx)
+      [(decode-partition-value (subs dirname 0 eq-idx))
+       (decode-partition-value (subs dirname (inc eq-idx)))])))
+
+
+(defn- io-file
+  ^File [root]
+  (if (instance? File root) root (File. (str root))))
+
+
+(defn- list-files
+  "Depth first listing of the data files below root in sorted order with the raw
+  partition values of each."
+  [^File root]
+  (let [walk (fn walk [^File dir partitions]
+               (->> (sort-by #(.getName ^File %) (.listFiles dir))
+                    (mapcat (fn [^File f]
+                              (if (.isDirectory f)
+                                (if-let [[k v] (partition-segment (.getName f))]
+                                  (walk f (conj partitions [k v]))
+                                  (walk f partitions))
+                                (when-let [fmt (file-format f)]
+                                  [{:file f
+                                    :format fmt
+                                    :partitions partitions}]))))))]
+    (cond
+      (.isDirectory root) (vec (walk root []))
+      (file-format root) [{:file root :format (file-format root) :partitions []}]
+      :else (errors/throwf "No arrow or parquet data found at %s" root))))
+
+
+(defn- parse-long-str [^String v] (try (Long/parseLong v) (catch NumberFormatException _e nil)))
+(defn- parse-double-str [^String v] (try (Double/parseDouble v) (catch NumberFormatException _e nil)))
+(defn- parse-date-str [^String v] (try (LocalDate/parse v) (catch Exception _e nil)))
+
+
+(def ^:private partition-parsers
+  {:int64 parse-long-str
+   :float64 parse-double-str
+   :local-date parse-date-str
+   :string identity})
+
+
+(defn- infer-partition-type
+  "The narrowest of :int64, :float64, :local-date or :string that parses every value."
+  [values]
+  (let [values (remove nil? values)]
+    (or (some (fn [dtype]
+                (when (every? (partition-parsers dtype) values)
+                  dtype))
+              [:int64 :float64 :local-date])
+        :string)))
+
+
+(defn- partition-types
+  [files options]
+  (let [user-types (get options :partition-types {})]
+    (->> (mapcat :partitions files)
+         (group-by first)
+         (map (fn [[k kvs]]
+                [k (get user-types k (infer-partition-type (map second kvs)))]))
+         (into {}))))
+
+
+(defn- parse-partitions
+  "Map of column name to parsed value for each partition of a file."
+  [partitions ptypes key-fn]
+  (->> partitions
+       (map (fn [[k v]]
+              (let [dtype (ptypes k)]
+                [(key-fn k) (when v
+                              (or ((partition-parsers dtype) v)
+                                  (errors/throwf "Partition %s value %s is not a %s"
+                                                 k v dtype)))])))
+       (into {})))
+
+
+(defn- compare-values
+  ^long [a b]
+  (cond
+    (and (number? a) (number? b)) (compare (double a) (double b))
+    (= (type a) (type b)) (compare a b)
+    :else (compare (str a) (str b))))
+
+
+(defn- partial-eval
+  "Evaluate the parts of a predicate that refer to partition columns.  Returns true,
+  false or the residual predicate over the remaining columns."
+  [pred pvals]
+  (let [[op & args] pred
+        pcol? #(contains? pvals %)
+        col-op (fn [cname f]
+                 (if (pcol? cname)
+                   (boolean (f (get pvals cname)))
+                   pred))]
+    (case op
+      (:and :or)
+      (let [and? (identical? op :and)
+            results (map #(partial-eval % pvals) args)]
+        (cond
+          (some #(identical? (not and?) %) results) (not and?)
+          :else (let [residual (remove #(identical? and? %) results)]
+                  (case (count residual)
+                    0 and?
+                    1 (first residual)
+                    (into [op] residual)))))
+      :not (let [r (partial-eval (first args) pvals)]
+             (if (boolean? r) (not r) [:not r]))
+      := (col-op (first args) #(and (some? %) (== 0 (compare-values % (second args)))))
+      :not= (col-op (first args) #(and (some? %) (not (== 0 (compare-values % (second args))))))
+      :< (col-op (first args) #(and (some? %) (neg? (compare-values % (second args)))))
+      :<= (col-op (first args) #(and (some? %) (not (pos? (compare-values % (second args))))))
+      :> (col-op (first args) #(and (some? %) (pos? (compare-values % (second args)))))
+      :>= (col-op (first args) #(and (some? %) (not (neg? (compare-values % (second args))))))
+      :between (let [[cname lo hi] args]
+                 (col-op cname #(and (some? %)
+                                     (not (neg? (compare-values % lo)))
+                                     (not (pos? (compare-values % hi))))))
+      :in (let [[cname vs] args]
+            (col-op cname #(and (some? %) (some (fn [v] (== 0 (compare-values % v))) vs))))
+      :missing (col-op (first args) nil?)
+      :not-missing (col-op (first args) some?)
+      (errors/throwf "Unrecognized predicate operation: %s" op))))
+
+
+(defn- partition-column
+  [cname dtype v ^long n-rows]
+  (col-impl/construct-column
+   (if (nil? v) (bitmap/->bitmap (range n-rows)) (bitmap/->bitmap))
+   (compress/const-buffer n-rows dtype (if (nil? v) (col-base/datatype->missing-value dtype) v))
+   {:name cname}))
+
+
+(defn- add-partition-columns
+  [ds pvals ptypes key-fn]
+  (let [n-rows (ds-base/row-count ds)
+        dtypes (into {} (map (fn [[k t]] [(key-fn k) t])) ptypes)]
+    (reduce (fn [ds [cname v]]
+              (ds-base/add-or-update-column ds (partition-column cname (dtypes cname) v n-rows)))
+            ds
+            pvals)))
+
+
+(defn- read-file
+  "Reducible of the datasets of a file."
+  [{:keys [^File file format]} options]
+  (let [path (.getPath file)]
+    (case format
+      :parquet ((requiring-resolve 'tech.v3.libs.parquet/parquet->ds-seq) path options)
+      :arrow ((requiring-resolve 'tech.v3.libs.arrow/stream->dataset-iterable)
+              path (dissoc options :predicate)))))
+
+
+(defn- scan-files
+  "Plan a scan - the files that survive partition pruning along with their partition
+  values and the residual predicate to push down to each file."
+  [root options]
+  (let [key-fn (get options :key-fn identity)
+        files (list-files (io-file root))
+        ptypes (partition-types files options)
+        pred (get options :predicate)]
+    {:partition-types ptypes
+     :files (->> files
+                 (keep (fn [file]
+                         (let [pvals (parse-partitions (:partitions file) ptypes key-fn)
+                               residual (if pred (partial-eval pred pvals) true)]
+                           (when (and (not (false? residual))
+                                      (if-let [pfilter (get options :partition-filter)]
+                                        (pfilter pvals)
+                                        true))
+                             (assoc file
+                                    :partition-values pvals
+                                    :predicate (when-not (true? residual) residual))))))
+                 (vec))}))
+
+
+(defn scan-files-info
+  "Return the files a scan would read - after partition pruning - in the order they
+  would be started.  Each entry has `:file`, `:format`, `:partition-values` and the
+  residual `:predicate` that is pushed down to the file.  See [[scan-ds-seq]]."
+  ([root options] (:files (scan-files root options)))
+  ([root] (scan-files-info root nil)))
+
+
+(defn- scan-worker
+  "Read files until there are none left putting each dataset onto the queue.  Always
+  finishes by putting ::done (or the exception) onto the queue."
+  [files ^AtomicLong next-file ^ArrayBlockingQueue queue ^AtomicBoolean cancelled
+   ptypes key-fn options]
+  (let [put! (fn [item]
+               (loop []
+                 (when-not (or (.get cancelled)
+                               (.offer queue item 100 TimeUnit/MILLISECONDS))
+                   (recur))))]
+    (fn []
+      (try
+        (loop []
+          (let [fidx (.getAndIncrement next-file)]
+            (when (and (< fidx (count files)) (not (.get cancelled)))
+              (let [{:keys [partition-values predicate] :as file} (files fidx)
+                    file-options (if predicate
+                                   (assoc options :predicate predicate)
+                                   (dissoc options :predicate))]
+                (reduce (fn [_ ds]
+                          (if (.get cancelled)
+                            (reduced nil)
+                            (put! (add-partition-columns ds partition-values ptypes key-fn))))
+                        nil
+                        (read-file file file-options)))
+              (recur))))
+        (put! ::done)
+        (catch Throwable e
+          (put! e))))))
+
+
+(deftype ^:private ScanIterator [^ArrayBlockingQueue queue
+                                 ^AtomicBoolean cancelled
+                                 ^ConcurrentLinkedQueue live-scans
+                                 ^{:unsynchronized-mutable true :tag long} n-live
+                                 ^{:unsynchronized-mutable true} next-item]
+  Iterator
+  (hasNext [this]
+    (loop []
+      (cond
+        (some? next-item) true
+        (or (== 0 n-live) (.get cancelled)) (do (.close this) false)
+        :else (let [item (.poll queue 100 TimeUnit/MILLISECONDS)]
+                (cond
+                  (nil? item) nil
+                  (identical? item ::done) (set! n-live (dec n-live))
+                  (instance? Throwable item) (do (.close this)
+                                                 (throw item))
+                  :else (set! next-item item))
+                (recur)))))
+  (next [this]
+    (when-not (.hasNext this)
+      (throw (java.util.NoSuchElementException.)))
+    (let [rv next-item]
+      (set! next-item nil)
+      rv))
+  AutoCloseable
+  (close [this]
+    (.set cancelled true)
+    (.remove live-scans cancelled)))
+
+
+(defn- start-scan
+  "Start the reading threads of one pass over the files returning its iterator."
+  ^ScanIterator [files partition-types key-fn ^long parallelism ^long prefetch
+                 ^ConcurrentLinkedQueue live-scans options]
+  (let [queue (ArrayBlockingQueue. (int prefetch))
+        cancelled (AtomicBoolean. false)
+        next-file (AtomicLong. 0)
+        worker (scan-worker files next-file queue cancelled partition-types key-fn options)]
+    (.add live-scans cancelled)
+    (dotimes [idx parallelism]
+      (doto (Thread. ^Runnable worker (str "tmd-scan-" idx))
+        (.setDaemon true)
+        (.start)))
+    (ScanIterator. queue cancelled live-scans parallelism nil)))
+
+
+(defn scan-ds-seq
+  "Scan a directory tree of arrow and parquet files returning a reducible sequence of
+  datasets - one per parquet row group or arrow record batch.  Files are read
+  concurrently so datasets are not in file order.  The result is suitable for the
+  functions in `tech.v3.dataset.reductions`.
+
+  Directories named `key=value` are partitions.  Each dataset gets a constant column
+  per partition key named `(key-fn key)`.  Partition values are typed as :int64,
+  :float64, :local-date or :string - the narrowest type that parses every value of
+  the key.  `__HIVE_DEFAULT_PARTITION__` is a missing value.
+
+  Options are passed to the file readers - see `tech.v3.libs.parquet/parquet->ds-seq`
+  and `tech.v3.libs.arrow/stream->dataset-iterable` - along with:
+
+  * `:predicate` - Predicate in the form documented by `parquet->ds-seq`.  Terms on
+     partition columns are evaluated against each file's partition values and files
+     that cannot match are never opened.  What is left of the predicate is pushed down
+     to parquet files where it skips row groups by their statistics.  As with parquet,
+     rows are not filtered.
+  * `:partition-filter` - Function of the map of partition column to value returning
+     true for files to read.
+  * `:partition-types` - Map of partition key (before key-fn) to one of :int64, :float64,
+     :local-date or :string to override type inference.
+  * `:parallelism` - Number of files read at once.  Defaults to half the number of
+     processors.
+  * `:prefetch` - Number of datasets read ahead of the consumer.  Defaults to twice the
+     parallelism.  Together with parallelism this bounds the memory of a scan.
+
+  The result is scanned once for all calls to `seq` and `iterator` - the datasets read
+  are cached in that sequence so it holds on to them for as long as the result is
+  reachable.  Reductions that start before the sequence has been used run a scan of
+  their own which holds no datasets and stops its threads when it finishes, including
+  early via `reduced` - prefer reducing over large scans.  The result is also
+  AutoCloseable - closing it stops the threads of every scan still running so sequences
+  that are abandoned part way should be read within `with-open`:
+
+```clojure
+(with-open [scan (scan/scan-ds-seq \"data/events\")]
+  (doall (take 2 scan)))
+```"
+  ([root options]
+   (let [{:keys [files partition-types]} (scan-files root options)
+         key-fn (get options :key-fn identity)
+         parallelism (-> (get options :parallelism
+                              (quot (.availableProcessors (Runtime/getRuntime)) 2))
+                         (long)
+                         (max 1)
+                         (min (max 1 (count files))))
+         prefetch (max 1 (long (get options :prefetch (* 2 parallelism))))
+         live-scans (ConcurrentLinkedQueue.)
+         file-options (dissoc options :predicate :partition-filter :partition-types
+                              :parallelism :prefetch)
+         start! #(start-scan files partition-types key-fn parallelism prefetch
+                             live-scans file-options)
+         ;;Unchunked so reading the first dataset does not wait on the next 31.  The
+         ;;iterator closes its scan once it is exhausted.
+         scan-seq (delay
+                    (let [^ScanIterator iter (start!)]
+                      ((fn step []
+                         (lazy-seq
+                          (when (.hasNext iter)
+                            (cons (.next iter) (step))))))))]
+     (reify
+       Iterable
+       (iterator [_this] (SeqIterator. @scan-seq))
+       Seqable
+       (seq [_this] (seq @scan-seq))
+       IReduceInit
+       (reduce [_this rfn acc]
+         (if (realized? scan-seq)
+           (reduce rfn acc @scan-seq)
+           (with-open [^ScanIterator iter (start!)]
+             (loop [acc acc]
+               (if (.hasNext iter)
+                 (let [acc (rfn acc (.next iter))]
+                   (if (reduced? acc)
+                     @acc
+                     (recur acc)))
+                 acc)))))
+       AutoCloseable
+       (close [_this]
+         (loop []
+           (when-let [^AtomicBoolean cancelled (.poll live-scans)]
+             (.set cancelled true)
+             (recur)))))))
+  ([root]
+   (scan-ds-seq root nil)))
+
+
+(defn- encode-partition-value
+  ^String [v]
+  (if (nil? v)
+    hive-default-partition
+    ;;The decoder treats + as a literal so spaces are written as %20.
+    (.replace (URLEncoder/encode (str v) "UTF-8") "+" "%20")))
+
+
+(defn- split-partitions
+  "Sequence of [partition-values ds] - one per distinct combination of the values of the
+  partition columns.  Missing values map to nil."
+  [ds partition-columns]
+  (reduce (fn [splits pcol]
+            (mapcat (fn [[pvals ds]]
+                      (let [^RoaringBitmap missing (ds-col/missing (ds-base/column ds pcol))]
+                        (->> (ds-base/group-by-column->indexes ds pcol)
+                             (map (fn [[k idxs]]
+                                    [(conj pvals (if (.contains missing (unchecked-int (first idxs)))
+                                                   nil
+                                                   k))
+                                     (ds-base/select-rows ds idxs)])))))
+                    splits))
+          [[[] ds]]
+          partition-columns))
+
+
+(defn- partition-writer
+  "Write one file on its own thread.  Datasets are handed over through a small queue so
+  the file is encoded and written while the caller splits the next datasets."
+  [write-fn path options]
+  (let [queue (ArrayBlockingQueue. 2)
+        ds-seq (fn ds-seq []
+                 (lazy-seq
+                  (let [item (.take queue)]
+                    (when-not (identical? item ::done)
+                      (cons item (ds-seq))))))
+        result (future (write-fn path options (ds-seq)))
+        put! (fn [item]
+               (loop []
+                 (when-not (.offer queue item 100 TimeUnit/MILLISECONDS)
+                   (when (realized? result)
+                     ;;Rethrows the writer's exception
+                     @result
+                     (errors/throwf "Writer for %s finished early" path))
+                   (recur))))]
+    {:path path
+     :put! put!
+     :close! (fn []
+               (put! ::done)
+               @result)}))
+
+
+(defn- file-writer-fn
+  [options]
+  (case (get options :file-format :parquet)
+    :parquet [(requiring-resolve 'tech.v3.libs.parquet/ds-seq->parquet) "parquet"]
+    :arrow [(requiring-resolve 'tech.v3.libs.arrow/dataset-seq->stream!)
+            (if (= :ipc (get options :format)) "arrows" "arrow")]))
+
+
+(defn ds-seq->partitioned!
+  "Write a sequence of datasets into a directory tree of `key=value` partitions - the
+  layout read by [[scan-ds-seq]].  Each dataset is split by the distinct values of the
+  partition columns and each split is streamed to the current file of its partition.
+  Partition columns are not written into the files.  Files are named
+  `part-00000.parquet`, `part-00001.parquet`, etc. within each partition directory and
+  existing files of the same name are overwritten.
+
+  Each open file is written on its own thread so partitions are encoded and written in
+  parallel.  Splits are buffered per partition and handed to the file's writer as one
+  dataset once enough rows have accumulated so each write is reasonably large even when
+  every input dataset spreads its rows over many partitions.  Returns the paths of the
+  files written in the order they were started.
+
+  Options are passed to the file writers - see `tech.v3.libs.parquet/ds-seq->parquet`
+  and `tech.v3.libs.arrow/dataset-seq->stream!` - along with:
+
+  * `:file-format` - `:parquet` (default) or `:arrow`.
+  * `:max-rows-per-file` - Once a file holds this many rows it is finished and the
+     partition continues in a new file.  Defaults to no limit.
+  * `:max-open-writers` - defaults to 16 - Maximum number of files open at once.  When
+     a new partition needs a file the least recently written file is finished first and
+     that partition starts a new file if it sees more data.
+  * `:rows-per-write` - defaults to 65536 - Number of rows buffered per partition before
+     they are written.  Buffered rows are also written when a file is finished."
+  ([root partition-columns options ds-seq]
+   (let [root (io-file root)
+         [write-fn ext] (file-writer-fn options)
+         write-options (dissoc options :file-format :max-rows-per-file :max-open-writers
+                               :rows-per-write)
+         max-rows (long (get options :max-rows-per-file Long/MAX_VALUE))
+         rows-per-write (max 1 (long (get options :rows-per-write 65536)))
+         max-open (max 1 (long (get options :max-open-writers 16)))
+         ;;Access ordered so the first entry is the least recently written writer.
+         writers (LinkedHashMap. 16 0.75 true)
+         next-file-idx (HashMap.)
+         paths (ArrayList.)
+         flush-writer! (fn [{:keys [put! ^ArrayList pending]}]
+                         (when-not (.isEmpty pending)
+                           (put! (if (== 1 (.size pending))
+                                   (.get pending 0)
+                                   (apply ds-base/concat-copying pending)))
+                           (.clear pending)))
+         close-writer! (fn [pvals]
+                         (let [{:keys [close!] :as writer} (.remove writers pvals)]
+                           (flush-writer! writer)
+                           (close!)))
+         open-writer! (fn [pvals]
+                        (when (>= (.size writers) max-open)
+                          (close-writer! (.getKey ^Map$Entry (first (.entrySet writers)))))
+                        (let [file-idx (long (.getOrDefault next-file-idx pvals 0))
+                              dir (reduce (fn [^File dir [k v]]
+                                            (File. dir (str (encode-partition-value k) "="
+                                                            (encode-partition-value v))))
+                                          root
+                                          (map vector partition-columns pvals))
+                              path (.getPath (File. ^File dir (format "part-%05d.%s" file-idx ext)))
+                              _ (.mkdirs ^File dir)
+                              writer (assoc (partition-writer write-fn path write-options)
+                                            :n-rows 0
+                                            :pending (ArrayList.)
+                                            :n-pending 0)]
+                          (.put next-file-idx pvals (inc file-idx))
+                          (.add paths path)
+                          (.put writers pvals writer)
+                          writer))
+         write-split! (fn [pvals ds]
+                        (let [n-rows (ds-base/row-count ds)]
+                          (loop [sidx 0]
+                            (when (< sidx n-rows)
+                              (let [{:keys [^ArrayList pending] :as writer}
+                                    (or (.get writers pvals) (open-writer! pvals))
+                                    n-file-rows (long (:n-rows writer))
+                                    eidx (min n-rows (+ sidx (- max-rows n-file-rows)))
+                                    n-written (+ n-file-rows (- eidx sidx))
+                                    n-pending (+ (long (:n-pending writer)) (- eidx sidx))]
+                                (.add pending (if (and (== sidx 0) (== eidx n-rows))
+                                                ds
+                                                (ds-base/select-rows ds (range sidx eidx))))
+                                (cond
+                                  (>= n-written max-rows)
+                                  (close-writer! pvals)
+                                  (>= n-pending rows-per-write)
+                                  (do (flush-writer! writer)
+                                      (.put writers pvals (assoc writer
+                                                                 :n-rows n-written
+                                                                 :n-pending 0)))
+                                  :else
+                                  (.put writers pvals (assoc writer
+                                                             :n-rows n-written
+                                                             :n-pending n-pending)))
+                                (recur eidx))))))]
+     (try
+       (doseq [ds ds-seq
+               [pvals split] (split-partitions ds partition-columns)]
+         (write-split! pvals (ds-base/remove-columns split partition-columns)))
+       (run! close-writer! (vec (.keySet writers)))
+       (vec paths)
+       (catch Throwable e
+         (doseq [{:keys [close!]} (vec (.values writers))]
+           (try (close!) (catch Throwable _e nil)))
+         (throw e)))))
+  ([root partition-columns ds-seq]
+   (ds-seq->partitioned! root partition-columns nil ds-seq)))
@@ -12,7 +12,8 @@
   (:import [java.util List HashMap Map ArrayList]
            [java.util.function Function]
            [tech.v3.datatype ObjectBuffer Buffer]
-           [ham_fisted IMutList ChunkedList Casts ArrayHelpers ArrayLists]))
+           [ham_fisted IMutList ChunkedList Casts ArrayHelpers ArrayLists]
+           [tech.v3.dataset ByteStringDict]))
 
 
 (set! *warn-on-reflection* true)
@@ -135,13 +136,22 @@
   (^Buffer []
    (make-string-table 0 "" (hamf/object-array-list) (HashMap.))))
 
+(defn- index-datatype
+  "Narrowest integer datatype able to hold indexes up to max-idx."
+  [^long max-idx]
+  (cond
+    (<= max-idx Byte/MAX_VALUE) :int8
+    (<= max-idx Short/MAX_VALUE) :int16
+    (<= max-idx Integer/MAX_VALUE) :int32
+    :else :int64))
+
 (defn compress-indexes
   ^IMutList [^IMutList indexes ^long max-idx]
-  (cond
-    (<= max-idx Byte/MAX_VALUE) (ArrayLists/toList (hamf/byte-array indexes))
-    (<= max-idx Short/MAX_VALUE) (ArrayLists/toList (hamf/short-array indexes))
-    (<= max-idx Integer/MAX_VALUE) (ArrayLists/toList (hamf/int-array indexes))
-    :else (.toLongArray indexes)))
+  (case (index-datatype max-idx)
+    :int8 (ArrayLists/toList (hamf/byte-array indexes))
+    :int16 (ArrayLists/toList (hamf/short-array indexes))
+    :int32 (ArrayLists/toList (hamf/int-array indexes))
+    :int64 (.toLongArray indexes)))
 
 (definterface IDof
   (idOf ^long [s]))
@@ -206,6 +216,48 @@
      (.add int->str "")
      (fast-string-container str->int int->str))))
 
+(deftype OffHeapStringContainer [^IMutList indexes ^ByteStringDict dict]
+  java.util.function.Consumer
+  (accept [this v] (.add this v))
+  IMutList
+  (add [this v]
+    (.addLong indexes (.intern dict (fast-str v)))
+    true)
+  (add [this idx ct v]
+    (.add indexes (.size indexes) ct (.intern dict (fast-str v))))
+  (get [this idx]
+    (.get dict (.getLong indexes idx)))
+  (size [this] (.size indexes))
+  (clear [this]
+    (.clear indexes)
+    (.clear dict)
+    (.intern dict ""))
+  tech.v3.datatype.protocols/PElemwiseDatatype
+  (elemwise-datatype [this] :string)
+  clojure.lang.IDeref
+  (deref [this]
+    (StringTable. dict (.strToInt dict)
+                  (compress-indexes indexes (long (.size dict)))))
+  Object
+  (toString [this] (ham_fisted.Transformables/sequenceToString this)))
+
+(ham-fisted.print/implement-tostring-print OffHeapStringContainer)
+
+(defn off-heap-string-container
+  "String container whose dictionary keeps the utf-8 bytes of each distinct string in
+  off-heap memory - see tech.v3.dataset.ByteStringDict.  Deref returns a string table.
+  Used by the column parsers when `:string-table-storage` is `:off-heap`."
+  []
+  (let [dict (ByteStringDict.)]
+    (.intern dict "")
+    (OffHeapStringContainer. (hamf/long-array-list) dict)))
+
+(defn off-heap-string-table?
+  "True if this string table's dictionary is stored off-heap."
+  [str-t]
+  (and (instance? StringTable str-t)
+       (instance? ByteStringDict (.-int->str ^StringTable str-t))))
+
 (defn string-table-from-strings
   ([str-data] (string-table-from-strings (fast-string-container) str-data))
   ([fast-string-container str-data]
@@ -234,10 +286,72 @@
       (.int->str)))
 
 (defn merge-string-tables
-  "Return new string table with strings from lhs and rhs.  Neither input is changed."
-  [^StringTable lhs ^StringTable rhs]
-  (string-table-from-strings (lznc/concat (.-int->str lhs)
-                                          (.-int->str rhs))))
+  "Return a new string table containing the strings of lhs followed by the strings of rhs
+  (and of any further tables).  Neither input is changed.
 
+  The dictionaries are merged into one global dictionary, producing an index remapping
+  for each input, and then the index data of each input is remapped in parallel.  String
+  tables built independently - for instance one per thread - can thus be combined
+  without re-hashing every string.  Like a table from [[make-string-table]] the result's
+  index data is a dynamic int list so strings may be added to it."
+  ([lhs rhs]
+   (merge-string-tables lhs rhs nil))
+  ([lhs rhs & str-tables]
+   (let [str-tables (mapv ->string-table (concat [lhs rhs] (remove nil? str-tables)))
+         ;;Off-heap inputs produce an off-heap result
+         ^ByteStringDict dict (when (every? off-heap-string-table? str-tables)
+                                (ByteStringDict.))
+         str->int (HashMap.)
+         int->str (ArrayList.)
+         ;;One remap table per input from local index to global index
+         remaps (mapv (fn [^StringTable str-t]
+                        (let [^List local-int->str (.-int->str str-t)
+                              n-local (.size local-int->str)
+                              remap (int-array n-local)]
+                          (dotimes [idx n-local]
+                            (let [s (.get local-int->str idx)]
+                              (if dict
+                                (aset remap idx (.intern dict s))
+                                (let [global-idx (.putIfAbsent str->int s (.size int->str))]
+                                  (if global-idx
+                                    (aset remap idx (unchecked-int (long global-idx)))
+                                    (do
+                                      (aset remap idx (unchecked-int (.size int->str)))
+                                      (.add int->str s)))))))
+                          remap))
+                      str-tables)
+         n-elems (long (reduce + 0 (map #(.size ^StringTable %) str-tables)))
+         n-strs (if dict (.size dict) (.size int->str))
+         ;;Filled in parallel through the array and then wrapped in a dynamic int list
+         ;;so the merged table can grow past the width of the merged dictionary.
+         index-data (dtype/make-container :jvm-heap (index-datatype n-strs) n-elems)
+         ^Buffer index-buf (dtype/->buffer index-data)
+         offsets (vec (reductions + 0 (map #(.size ^StringTable %) str-tables)))]
+     (dorun
+      (hamf/pmap (fn [[^StringTable str-t ^ints remap ^long offset]]
+                   (let [^IMutList src (.-data str-t)
+                         n-src (.size src)]
+                     (dotimes [idx n-src]
+                       (.writeLong index-buf (+ offset idx)
+                                   (aget remap (.getLong src idx))))))
+                 (map vector str-tables remaps offsets)))
+     (let [data (int-list/make-from-container index-data)]
+       (if dict
+         (StringTable. dict (.strToInt dict) data)
+         (StringTable. int->str str->int data))))))
 
 
+(defn string-table-from-strings-parallel
+  "Build a string table from a reader of strings using multiple threads.  Each thread
+  builds a local string table over a range of the input without synchronization and the
+  local tables are combined with [[merge-string-tables]]."
+  [str-data]
+  (let [^Buffer rdr (dtype/->reader str-data)
+        str-tables (vec (hamf/pgroups (.lsize rdr)
+                                      (fn [^long sidx ^long eidx]
+                                        (string-table-from-strings
+                                         (.subBuffer rdr sidx eidx)))))]
+    (case (count str-tables)
+      0 (make-string-table 0)
+      1 (first str-tables)
+      (apply merge-string-tables str-tables))))
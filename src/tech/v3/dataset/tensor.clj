@@ -13,9 +13,11 @@
             [tech.v3.datatype.protocols :as dtype-proto]
             [tech.v3.datatype.pprint :as dtype-pp]
             [tech.v3.parallel.for :as pfor]
+            [ham-fisted.api :as hamf]
             [clj-commons.primitive-math :as pmath])
 
   (:import  [tech.v3.datatype DoubleReader Buffer]
+            [tech.v3.dataset MatrixKernels]
             [java.util List]
             [java.nio DoubleBuffer]))
 
@@ -67,38 +69,69 @@
    (externally-safe tens :float64)))
 
 
-(defn- jvm-matrix-multiply
-  "**SLOW** fallback for when openblas/mkl aren't available."
+(defn jvm-matrix-multiply
+  "Multiply two 2 dimensional tensors returning a new [n-rows n-cols] :float64 tensor.
+  Pure JVM fallback for when openblas/mkl aren't available - the operands are copied into
+  row-major double arrays and the product is computed with a cache blocked kernel in
+  parallel blocks of rows."
   [lhs rhs]
-  (let [;;Slice is lazy, so we make it concrete and perform all the
-        ;;translations necessary up front for rapid reading
-        lhs-rows ^List (mapv dtype/->buffer (dtt/slice lhs 1))
-        rhs-trans (dtt/transpose rhs [1 0])
-        n-rows (long (.size lhs-rows))
-        rhs-columns ^List (mapv dtype/->buffer (dtt/slice rhs-trans 1))
-        n-cols (long (.size rhs-columns))
-        n-elems (* n-rows n-cols)
-        n-inner (long (count (first lhs-rows)))]
-    (-> (reify DoubleReader
-          (lsize [rdr] n-elems)
-          (readDouble [rdr idx]
-            (let [row-idx (quot idx n-cols)
-                  col-idx (rem idx n-cols)
-                  ^Buffer lhs (.get lhs-rows row-idx)
-                  ^Buffer rhs (.get rhs-columns col-idx)]
-              ;;Hardcode operation to avoid dispatch costs.  In this case we know
-              ;;we are dealing with readers and we know the result is a double summation.
-              (loop [idx 0
-                     sum 0.0]
-                (if (< idx n-inner)
-                  (recur (unchecked-inc idx)
-                         (pmath/+ sum (pmath/* (.readDouble lhs idx)
-                                               (.readDouble rhs idx))))
-                  sum)))))
-        ;;Make buffer concrete
-        (dtype/clone)
-        ;;Reshape into result shape
-        (dtt/reshape [n-rows n-cols]))))
+  (let [[n-rows n-inner] (dtype/shape lhs)
+        [rhs-rows n-cols] (dtype/shape rhs)
+        n-rows (long n-rows)
+        n-inner (long n-inner)
+        n-cols (long n-cols)
+        _ (errors/when-not-errorf
+           (== n-inner (long rhs-rows))
+           "Inner dimensions do not match: %s * %s" (dtype/shape lhs) (dtype/shape rhs))
+        ^doubles lhs-data (dtype/->double-array lhs)
+        ^doubles rhs-data (dtype/->double-array rhs)
+        result (double-array (* n-rows n-cols))]
+    (dorun (hamf/pgroups
+            n-rows
+            (fn [^long sidx ^long eidx]
+              (MatrixKernels/gemm lhs-data rhs-data result n-inner n-cols sidx eidx))))
+    (dtt/reshape result [n-rows n-cols])))
+
+
+(def ^:private syrk-tile-size 64)
+
+
+(defn columns-covariance
+  "Covariance matrix of a sequence of equal length double arrays as a row major n x n
+  double array.  The gram matrix of the mean centered columns is computed in parallel
+  tiles so each column is streamed through cache once per tile instead of once per pair
+  of columns.
+
+  Options:
+
+  * `:bias?` - divide by n-rows if true and (dec n-rows) if false.  Defaults to false.
+  * `:means` - precomputed double array of column means."
+  (^doubles [columns {:keys [bias? means]}]
+   (let [^"[[D" cols (into-array (Class/forName "[D") columns)
+         n-cols (alength cols)
+         n-rows (if (== 0 n-cols) 0 (alength ^doubles (aget cols 0)))
+         ^doubles means (or means (MatrixKernels/columnMeans cols))
+         result (double-array (* n-cols n-cols))
+         tile-starts (vec (range 0 n-cols syrk-tile-size))
+         tiles (vec (for [i tile-starts
+                          j tile-starts
+                          :when (<= (long i) (long j))]
+                      [i j]))
+         inv-bias (/ 1.0 (double (if bias? n-rows (dec n-rows))))]
+     (dorun (hamf/pgroups
+             (count tiles)
+             (fn [^long sidx ^long eidx]
+               (doseq [[i j] (subvec tiles sidx eidx)]
+                 (let [i (long i)
+                       j (long j)]
+                   (MatrixKernels/syrkTile cols means result
+                                           i (min n-cols (+ i syrk-tile-size))
+                                           j (min n-cols (+ j syrk-tile-size))))))))
+     (dotimes [idx (alength result)]
+       (aset result idx (* inv-bias (aget result idx))))
+     result))
+  (^doubles [columns]
+   (columns-covariance columns nil)))
 
 
 (defn mean-center-columns!
@@ -165,3 +198,20 @@
                   [-0.2505 0.6609  0.7075]
                   [ 0.9583 0.2731 0.08416]]}
   )
+
+
+(comment
+  (require '[criterium.core :as crit])
+  (def lhs (dtt/compute-tensor [2000 300] (fn [r c] (Math/sin (double (+ r c)))) :float64))
+  (def rhs (dtt/transpose lhs [1 0]))
+  (defn naive-matrix-multiply
+    [lhs rhs]
+    (let [rows (mapv dtype/->buffer (dtt/rows lhs))
+          cols (mapv dtype/->buffer (dtt/columns rhs))]
+      (dtt/->tensor (for [row rows] (for [col cols] (dfn/dot-product row col))))))
+  (crit/quick-bench (jvm-matrix-multiply rhs lhs))
+  (crit/quick-bench (naive-matrix-multiply rhs lhs))
+  (def cols (mapv dtype/->double-array (dtt/columns lhs)))
+  (crit/quick-bench (columns-covariance cols))
+  (crit/quick-bench (vec (for [l cols r cols] (stats/pearsons-correlation l r))))
+  )
@@ -15,6 +15,7 @@
             [tech.v3.dataset.column :as ds-col]
             [tech.v3.dataset.protocols :as ds-proto]
             [tech.v3.dataset.string-table :as str-table]
+            [tech.v3.dataset.compress :as compress]
             [tech.v3.dataset.impl.column :as col-impl]
             [tech.v3.dataset.impl.column-base :as col-base]
             [tech.v3.dataset.io.column-parsers :as column-parsers]
@@ -1356,9 +1357,18 @@ user> (-> (ds/->dataset [{:a 1 :b [2 3]}
                                    ds-col)
                                   (and (not (:categorical? (meta ds-col)))
                                        (casting/numeric-type? col-dtype))
-                                  (dfn/descriptive-statistics ds-col numeric-stats)
+                                  ;;min, max and mean of constant/offset encoded columns
+                                  ;;are computed without decoding the column
+                                  (if-let [summary (when (every? #{:min :max :mean}
+                                                                 numeric-stats)
+                                                     (compress/numeric-summary ds-col))]
+                                    (-> (assoc summary :mean (/ (double (:sum summary))
+                                                                (double (:n-values summary))))
+                                        (select-keys numeric-stats))
+                                    (dfn/descriptive-statistics ds-col numeric-stats))
                                   :else
-                                  (let [histogram (->> (frequencies ds-col)
+                                  (let [histogram (->> (or (compress/value-frequencies ds-col)
+                                                           (frequencies ds-col))
                                                        (clojure.core/sort-by second >))
                                         max-categorical-values (or (:n-categorical-values
                                                                     options) 21)]
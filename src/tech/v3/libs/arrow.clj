@@ -131,22 +131,26 @@
            [tech.v3.dataset.impl.column Column]
            [tech.v3.dataset Text]
            [tech.v3.datatype.native_buffer NativeBuffer]
-           [tech.v3.datatype ObjectReader ArrayHelpers ByteConversions BooleanBuffer]
+           [tech.v3.datatype ObjectReader LongReader DoubleReader BooleanReader ArrayHelpers
+            ByteConversions BooleanBuffer]
            [tech.v3.datatype.array_buffer ArrayBuffer]
            [java.io OutputStream InputStream ByteArrayOutputStream ByteArrayInputStream]
            [java.nio ByteBuffer ByteOrder ShortBuffer IntBuffer LongBuffer DoubleBuffer
             FloatBuffer]
-           [java.util List ArrayList Map HashMap Map$Entry Iterator Set UUID Arrays]
+           [java.util List ArrayList ArrayDeque Map HashMap LinkedHashMap Map$Entry Iterator Set UUID
+            Arrays]
            [java.util.concurrent ForkJoinTask]
+           [java.lang.ref WeakReference]
            [java.time ZoneId]
-           [java.nio.channels WritableByteChannel]
+           [java.nio.channels WritableByteChannel FileChannel]
+           [java.nio.file StandardOpenOption]
            ;;Compression codecs
            [com.github.luben.zstd Zstd]
            [org.apache.commons.compress.compressors.lz4 FramedLZ4CompressorInputStream
             FramedLZ4CompressorOutputStream]
            ;;feather support
            [java.io RandomAccessFile BufferedInputStream ByteArrayInputStream
-            ByteArrayOutputStream]
+            ByteArrayOutputStream File]
            [uk.ac.bristol.star.feather FeatherTable BufUtils
             FeatherType]
            [uk.ac.bristol.star.fbs.feather Type]
@@ -199,6 +203,69 @@
               written)))
         (WriteChannel.))))
 
+(def ^:private ^{:tag 'long} gather-flush-bytes (* 64 1024 1024))
+
+
+(defn- arrow-file-channel-writer
+  "Writer over a file channel.  Written buffers are queued without copying and flushed
+  to the channel with gathering writes so a record batch is a handful of syscalls.
+  Buffers handed to the writer must not be reused until after `:flush!` - this is the
+  case for the header buffers arrow creates and the pooled body buffers are only
+  released after a flush.  Returns a map of `:writer`, `:flush!` and `:close!`."
+  [^FileChannel channel]
+  (let [pending (ArrayList.)
+        pending-bytes (long-array 1)
+        flush! (fn []
+                 (when-not (.isEmpty pending)
+                   (let [^"[Ljava.nio.ByteBuffer;" bufs (.toArray pending ^"[Ljava.nio.ByteBuffer;" (make-array ByteBuffer 0))
+                         ^ByteBuffer last-buf (aget bufs (dec (alength bufs)))]
+                     (while (.hasRemaining last-buf)
+                       (.write channel bufs))
+                     (.clear pending)
+                     (aset pending-bytes 0 0))))]
+    {:writer (-> (reify WritableByteChannel
+                   (isOpen [this] (.isOpen channel))
+                   (close [this]
+                     (flush!)
+                     (.close channel))
+                   (write [this bb]
+                     (let [written (.remaining bb)]
+                       (.add pending (.duplicate bb))
+                       (.position bb (.limit bb))
+                       (aset pending-bytes 0 (+ (aget pending-bytes 0) written))
+                       (when (>= (aget pending-bytes 0) gather-flush-bytes)
+                         (flush!))
+                       written)))
+                 (WriteChannel.))
+     :flush! flush!
+     :close! (fn [] (flush!) (.close channel))}))
+
+
+(defn- local-file
+  "Paths we can open a file channel on - everything else goes through io/output-stream!"
+  ^File [path]
+  (cond
+    (instance? File path) path
+    (and (string? path)
+         (not (.contains ^String path "://"))
+         (not (.endsWith ^String path ".gz")))
+    (File. ^String path)))
+
+
+(defn- open-arrow-writer
+  [path]
+  (if-let [file (local-file path)]
+    (arrow-file-channel-writer
+     (FileChannel/open (.toPath file)
+                       (into-array StandardOpenOption
+                                   [StandardOpenOption/CREATE StandardOpenOption/WRITE
+                                    StandardOpenOption/TRUNCATE_EXISTING])))
+    (let [ostream (io/output-stream! path)]
+      {:writer (arrow-output-stream-writer ostream)
+       :flush! (fn [])
+       :close! (fn [] (.close ^OutputStream ostream))})))
+
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; Compression -
 ;; Compression happens in jvm-heap land.
@@ -324,6 +391,57 @@
     (throw (Exception. (format "Unrecognized compressor map %s" comp-map)))))
 
 
+(defn- buffer-pool
+  "Pool of direct byte buffers reused across record batches while writing."
+  []
+  (ArrayList.))
+
+
+(defn- take-buffer
+  "Little endian buffer with n-bytes remaining.  Taken from the pool when possible,
+  with no pool a heap buffer is returned."
+  ^ByteBuffer [pool ^long n-bytes]
+  (let [^ByteBuffer bb
+        (if pool
+          (or (locking pool
+                (let [^ArrayList pool pool
+                      n-pooled (.size pool)]
+                  (loop [idx 0]
+                    (when (< idx n-pooled)
+                      (if (>= (.capacity ^ByteBuffer (.get pool idx)) n-bytes)
+                        (.remove pool (unchecked-int idx))
+                        (recur (inc idx)))))))
+              (ByteBuffer/allocateDirect
+               (unchecked-int
+                (min (long Integer/MAX_VALUE)
+                     (max 65536 (bit-shift-left 1 (- 64 (Long/numberOfLeadingZeros
+                                                          (max 0 (dec n-bytes))))))))))
+          (ByteBuffer/allocate n-bytes))]
+    (.clear bb)
+    (.limit bb (unchecked-int n-bytes))
+    (.order bb ByteOrder/LITTLE_ENDIAN)))
+
+
+(defn- release-buffers!
+  [pool buffers]
+  (when pool
+    (locking pool
+      (doseq [^ByteBuffer bb buffers]
+        (when (.isDirect bb)
+          (.add ^ArrayList pool bb))))))
+
+
+(defn- thread-compressors
+  "Compressors are not thread safe but are expensive to create so each thread writing a
+  file keeps its own along with its scratch buffer."
+  ^ThreadLocal [comp-map]
+  (ThreadLocal/withInitial
+   (reify java.util.function.Supplier
+     (get [this]
+       {:comp-fn (create-compressor comp-map)
+        :writer-cache (volatile! nil)}))))
+
+
 (def ^:private file-type->compression-kwd
   (->> compression-info
        (map (fn [[k data]]
@@ -839,47 +957,53 @@
 
 
 (defn- decompress-buffers
-  [^BodyCompression compression buffers]
-  (if-not compression
-    buffers
-    (do 
-      (when-not (== 0 (.method compression))
-        (throw (Exception. (format "Only buffer batch compression supported - got %d"
-                                   (.method compression)))))
-      (let [decompressor (create-decompressor (.codec compression))
-            buf-type (if (instance? NativeBuffer (hamf/first buffers))
-                       :native-heap
-                       :jvm-heap)
-            buffers (mapv (fn [buffer]
-                            (if (> (dtype/ecount buffer) 8)
-                              (let [orig-len (read-long buffer)]
-                                {:orig-len orig-len
-                                 :buffer (dtype/sub-buffer buffer 8)})
-                              {:orig-len (dtype/ecount buffer)
-                               :buffer buffer}))
-                          buffers)
-            ;;All results get decompressed into one final buffer
-            decomp-buf-len (->> (lznc/map :orig-len buffers)
-                                (lznc/remove #(== -1 (long %)))
-                                (reduce + 0)
-                                (long))
-            decomp-buf (dtype/make-container buf-type :int8 decomp-buf-len)]
-        (->> buffers
-             (reduce (fn [[res decomp-buf] {:keys [orig-len buffer]}]
-                       ;;-1 indicates the buffer isn't actually compressed.
-                       ;;And some buffers are just empty with size of 0
-                       #_(println orig-len (dtype/ecount buffer)
-                                  (when (> (dtype/ecount buffer) 32)
-                                    (-> (native-buffer/set-native-datatype buffer :int32)
-                                        (dtype/sub-buffer 0 8)
-                                        (vec))))
-                       (if (<= (long orig-len) 0)
-                         [(conj res buffer) decomp-buf]
-                         [(conj res (decompressor
-                                     buffer (dtype/sub-buffer decomp-buf 0 orig-len)))
-                          (dtype/sub-buffer decomp-buf orig-len)]))
-                     [[] decomp-buf])
-             (first))))))
+  "Decompress buffers into one freshly allocated buffer.  container-options are passed
+  to make-container when the result is native memory - data that outlives the current
+  resource context must be allocated with `{:resource-type :gc}`."
+  ([^BodyCompression compression buffers]
+   (decompress-buffers compression buffers nil))
+  ([^BodyCompression compression buffers container-options]
+   (if-not compression
+     buffers
+     (do
+       (when-not (== 0 (.method compression))
+         (throw (Exception. (format "Only buffer batch compression supported - got %d"
+                                    (.method compression)))))
+       (let [decompressor (create-decompressor (.codec compression))
+             buf-type (if (instance? NativeBuffer (hamf/first buffers))
+                        :native-heap
+                        :jvm-heap)
+             buffers (mapv (fn [buffer]
+                             (if (> (dtype/ecount buffer) 8)
+                               (let [orig-len (read-long buffer)]
+                                 {:orig-len orig-len
+                                  :buffer (dtype/sub-buffer buffer 8)})
+                               {:orig-len (dtype/ecount buffer)
+                                :buffer buffer}))
+                           buffers)
+             ;;All results get decompressed into one final buffer
+             decomp-buf-len (->> (lznc/map :orig-len buffers)
+                                 (lznc/remove #(== -1 (long %)))
+                                 (reduce + 0)
+                                 (long))
+             decomp-buf (dtype/make-container buf-type :int8 (or container-options {})
+                                              decomp-buf-len)]
+         (->> buffers
+              (reduce (fn [[res decomp-buf] {:keys [orig-len buffer]}]
+                        ;;-1 indicates the buffer isn't actually compressed.
+                        ;;And some buffers are just empty with size of 0
+                        #_(println orig-len (dtype/ecount buffer)
+                                   (when (> (dtype/ecount buffer) 32)
+                                     (-> (native-buffer/set-native-datatype buffer :int32)
+                                         (dtype/sub-buffer 0 8)
+                                         (vec))))
+                        (if (<= (long orig-len) 0)
+                          [(conj res buffer) decomp-buf]
+                          [(conj res (decompressor
+                                      buffer (dtype/sub-buffer decomp-buf 0 orig-len)))
+                           (dtype/sub-buffer decomp-buf orig-len)]))
+                      [[] decomp-buf])
+              (first)))))))
 
 
 (defn- read-record-batch
@@ -1016,14 +1140,11 @@
                                (dtype/elemwise-datatype container))))
 
 
-(defn- serialize-to-bytes
-  "Serialize a numeric buffer to a byte buffer."
-  ^java.nio.Buffer [num-data]
+(defn- serialize-into!
+  "Serialize a numeric buffer into a little-endian byte buffer starting at its current
+  position.  Leaves the position of bbuf unspecified."
+  [num-data ^ByteBuffer bbuf]
   (let [data-dt (casting/un-alias-datatype (dtype/elemwise-datatype num-data))
-        n-bytes (byte-length num-data)
-        backing-buf (byte-array n-bytes)
-        bbuf (-> (java.nio.ByteBuffer/wrap backing-buf)
-                 (.order java.nio.ByteOrder/LITTLE_ENDIAN))
         ary-data (dtype/->array (if (= data-dt :boolean)
                                   :int8
                                   data-dt)
@@ -1053,9 +1174,28 @@
                      (.put ^floats ary-data))
         :float64 (-> (.asDoubleBuffer bbuf)
                      (.put ^doubles ary-data))))
+    bbuf))
+
+
+(defn- serialize-to-bytes
+  "Serialize a numeric buffer to a byte array."
+  ^bytes [num-data]
+  (let [backing-buf (byte-array (byte-length num-data))]
+    (serialize-into! num-data (-> (java.nio.ByteBuffer/wrap backing-buf)
+                                  (.order java.nio.ByteOrder/LITTLE_ENDIAN)))
     backing-buf))
 
 
+(defn- serialize-to-buffer
+  "Serialize a numeric buffer into a buffer taken from the pool."
+  ^ByteBuffer [pool num-data]
+  (let [n-bytes (byte-length num-data)
+        bbuf (take-buffer pool n-bytes)]
+    (serialize-into! num-data (-> (.duplicate bbuf)
+                                  (.order ByteOrder/LITTLE_ENDIAN)))
+    bbuf))
+
+
 (defn- finish-builder
   "Finish the flatbuffer builder returning a ByteBuffer"
   ^java.nio.ByteBuffer [^FlatBufferBuilder builder message-type header-off body-len]
@@ -1071,52 +1211,46 @@
 
 
 (defn- compress-record-batch-buffers
+  "Compress (or just serialize) each buffer in parallel.  Returns the compression type
+  and a vector of little-endian byte buffers taken from `::buffer-pool` in the options
+  when present.  Compressors are reused per thread via `::compressors`."
   [options buffers]
-  (if-let [comp-map (get options :compression)]
-    (let [buffers (vec buffers)
-          n-buffers (count buffers)]
-      {:compression-type (compression-kwd->file-type (comp-map :compression-type))
-       ;;parallelize buffer compression
-       :buffers 
-       (->> buffers
-            (hamf/pmap
-             (fn [buffer]
-               (let [buffers [buffer]
-                     comp-fn (create-compressor comp-map)
-                     os (ByteArrayOutputStream.)
-                     data-len (byte-array 8)
-                     ^ByteBuffer nio-buf (nio-buffer/as-nio-buffer data-len)
-                     data-len-buf (dtype/->buffer data-len)]
-                 (-> (reduce (fn [[res writer-cache] buffer]
-                               (let [buffer (serialize-to-bytes buffer)
-                                     uncomp-len (dtype/ecount buffer)
-                                     _ (ByteConversions/longToWriterLE uncomp-len data-len-buf 0)
-                                     {:keys [writer-cache dst-buffer]} (comp-fn buffer writer-cache)
-                                     dst-bytes (dtype/as-array-buffer dst-buffer)
-                                     _ (.write os data-len)
-                                     _ (.write os ^bytes (.ary-data dst-bytes)
-                                               (unchecked-int (.offset dst-bytes))
-                                               (unchecked-int (.n-elems dst-bytes)))
-                                     dst-buffer (.toByteArray os)]
-                                 (.reset os)
-                                 [(conj res (nio-buffer/as-nio-buffer dst-buffer))
-                                  writer-cache]))
-                             [[] nil]
-                             buffers)
-                     (first)))))
-            (lznc/apply-concat)
-            (vec))})
-    {:buffers (vec (hamf/pmap #(-> (serialize-to-bytes %)
-                                   (nio-buffer/as-nio-buffer))
-                              buffers))}))
+  (let [pool (get options ::buffer-pool)]
+    (if-let [comp-map (get options :compression)]
+      (let [^ThreadLocal compressors (or (get options ::compressors)
+                                         (thread-compressors comp-map))]
+        {:compression-type (compression-kwd->file-type (comp-map :compression-type))
+         ;;parallelize buffer compression
+         :buffers
+         (->> buffers
+              (hamf/pmap
+               (fn [buffer]
+                 (let [{:keys [comp-fn writer-cache]} (.get compressors)
+                       src (serialize-to-bytes buffer)
+                       {cache :writer-cache
+                        dst-buffer :dst-buffer} (comp-fn src @writer-cache)
+                       _ (vreset! writer-cache cache)
+                       dst-bytes (dtype/as-array-buffer dst-buffer)
+                       n-comp (.n-elems dst-bytes)
+                       bbuf (take-buffer pool (+ 8 n-comp))]
+                   (-> (.duplicate bbuf)
+                       (.order ByteOrder/LITTLE_ENDIAN)
+                       (.putLong (alength src))
+                       (.put ^bytes (.ary-data dst-bytes)
+                             (unchecked-int (.offset dst-bytes))
+                             (unchecked-int n-comp)))
+                   bbuf)))
+              (vec))})
+      {:buffers (vec (hamf/pmap #(serialize-to-buffer pool %) buffers))})))
 
 (defn- buffers->buf-entries
   [buffers]
   (->
    (reduce (fn [[res offset] buffer]
-             [(conj res {:offset offset
-                         :length (dtype/ecount buffer)})
-              (pad (+ (long offset) (dtype/ecount buffer)))])
+             (let [n-bytes (.remaining ^ByteBuffer buffer)]
+               [(conj res {:offset offset
+                           :length n-bytes})
+                (pad (+ (long offset) n-bytes))]))
            [[] 0]
            buffers)
    (first)))
@@ -1136,18 +1270,23 @@
                      (long (block-data :data-len))))
 
 
-(defn- write-dictionary
-  "Write a dictionary to a dictionary batch.  Returns enough information to construct
-  a Block entry in the footer."
-  [^WriteChannel writer {:keys [byte-data offsets encoding is-delta?]} options]
-  (let [n-elems (dec (count offsets))
-        missing (no-missing n-elems)
-        {:keys [compression-type buffers]}
-        (->> [missing offsets byte-data] (compress-record-batch-buffers options))
+(defn- prepare-dictionary
+  "Serialize and compress a dictionary's buffers."
+  [{:keys [byte-data offsets] :as dict} options]
+  (let [n-elems (dec (count offsets))]
+    (assoc (->> [(no-missing n-elems) offsets byte-data]
+                (compress-record-batch-buffers options))
+           :n-elems n-elems
+           :dictionary dict)))
+
+
+(defn- write-prepared-dictionary
+  "Write a prepared dictionary to a dictionary batch.  Returns enough information to
+  construct a Block entry in the footer."
+  [^WriteChannel writer {:keys [n-elems compression-type buffers dictionary]}]
+  (let [{:keys [encoding is-delta?]} dictionary
         buffer-entries (buffers->buf-entries buffers)
         enc-id (.getId ^DictionaryEncoding encoding)
-        offset-len (pad (byte-length offsets))
-        data-len (pad (count byte-data))
         builder (FlatBufferBuilder.)
         rbatch-off (write-record-batch-header
                     builder
@@ -1290,9 +1429,10 @@
            (nio-buffer/as-nio-buffer byte-data)])))))
 
 
-(defn- write-dataset
-  "Write a dataset-batch to a channel."
-  [^WriteChannel writer dataset options]
+(defn- prepare-record-batch
+  "Build and compress the buffers of a record batch.  Independent of the writer so
+  batches can be prepared ahead of it."
+  [dataset options]
   (let [n-rows (ds-base/row-count dataset)
         ;;Length of the byte valid buffer
         valid-len (len->bitwise-len n-rows)
@@ -1311,14 +1451,18 @@
                                     :n-null-entries n-missing}
                              :buffers buffers
                              :length col-len})))
-             (vec))
-        nodes (lznc/map :node nodes-buffs-lens)
-        {:keys [compression-type buffers]}
-        (->> (lznc/map :buffers nodes-buffs-lens)
-             (lznc/apply-concat)
-             (compress-record-batch-buffers options))
-
-        buf-entries (buffers->buf-entries buffers)
+             (vec))]
+    (assoc (->> (lznc/map :buffers nodes-buffs-lens)
+                (lznc/apply-concat)
+                (compress-record-batch-buffers options))
+           :n-rows n-rows
+           :nodes (mapv :node nodes-buffs-lens))))
+
+
+(defn- write-record-batch!
+  "Write a prepared record batch to a channel."
+  [^WriteChannel writer {:keys [n-rows nodes compression-type buffers]}]
+  (let [buf-entries (buffers->buf-entries buffers)
         last-entry (last buf-entries)
         body-len (if last-entry
                    (pad (+ (long (last-entry :offset)) (long (last-entry :length))))
@@ -1546,6 +1690,108 @@
                                  (col-data-fn rc data-buffers)
                                  metadata))))
 
+(defn- decompression-cache
+  "Cache of decompressed column data shared by the lazily decompressed columns of an
+  mmapped file.  With a byte budget the least recently used column data is evicted
+  and decompressed again on its next access; with no budget each column keeps its data
+  once it has been decompressed."
+  [max-bytes]
+  {:max-bytes max-bytes
+   :entries (LinkedHashMap. 16 0.75 true)
+   :n-bytes (long-array 1)})
+
+
+(defn- cached-loader
+  "Returns a function returning the result of load-fn.  load-fn returns a tuple of
+  [data n-bytes]."
+  [{:keys [max-bytes ^LinkedHashMap entries ^longs n-bytes]} load-fn]
+  (if-not max-bytes
+    (let [data (delay (first (load-fn)))]
+      #(deref data))
+    (let [max-bytes (long max-bytes)
+          k (Object.)]
+      (fn []
+        (if-let [entry (locking entries (.get entries k))]
+          (first entry)
+          (let [[_ entry-bytes :as entry] (load-fn)]
+            (locking entries
+              (when-not (.containsKey entries k)
+                (.put entries k entry)
+                (aset n-bytes 0 (+ (aget n-bytes 0) (long entry-bytes)))
+                (let [iter (.iterator (.entrySet entries))]
+                  (loop []
+                    (when (and (> (aget n-bytes 0) max-bytes) (.hasNext iter))
+                      (let [^Map$Entry e (.next iter)]
+                        (when-not (identical? k (.getKey e))
+                          (aset n-bytes 0 (- (aget n-bytes 0) (long (second (.getValue e)))))
+                          (.remove iter))
+                        (recur)))))))
+            (first entry)))))))
+
+
+(defn- lazy-reader
+  "Reader of a known datatype and length whose data is only loaded on first access.
+  load-data returns a reader.  The loaded reader is held weakly so reads do not go
+  through the cache; once the cache evicts it and it has been collected it is loaded
+  again."
+  ^tech.v3.datatype.Buffer [datatype ^long n-elems load-data]
+  (let [loaded (volatile! (WeakReference. nil))
+        data (fn []
+               (or (.get ^WeakReference @loaded)
+                   (let [rdr (load-data)]
+                     (vreset! loaded (WeakReference. rdr))
+                     rdr)))]
+    (case (casting/simple-operation-space (casting/un-alias-datatype datatype))
+      :int64 (reify LongReader
+               (elemwiseDatatype [_] datatype)
+               (lsize [_] n-elems)
+               (readLong [_ idx] (.readLong ^tech.v3.datatype.Buffer (data) idx))
+               (subBuffer [_ sidx eidx] (dtype/sub-buffer (data) sidx (- eidx sidx))))
+      :float64 (reify DoubleReader
+                 (elemwiseDatatype [_] datatype)
+                 (lsize [_] n-elems)
+                 (readDouble [_ idx] (.readDouble ^tech.v3.datatype.Buffer (data) idx))
+                 (subBuffer [_ sidx eidx] (dtype/sub-buffer (data) sidx (- eidx sidx))))
+      :boolean (reify BooleanReader
+                 (elemwiseDatatype [_] datatype)
+                 (lsize [_] n-elems)
+                 (readBoolean [_ idx] (.readBoolean ^tech.v3.datatype.Buffer (data) idx))
+                 (subBuffer [_ sidx eidx] (dtype/sub-buffer (data) sidx (- eidx sidx))))
+      (reify ObjectReader
+        (elemwiseDatatype [_] datatype)
+        (lsize [_] n-elems)
+        (readObject [_ idx] (.readObject ^tech.v3.datatype.Buffer (data) idx))
+        (subBuffer [_ sidx eidx] (dtype/sub-buffer (data) sidx (- eidx sidx)))))))
+
+
+(defn- construct-decompressed-column
+  "Construct a column from possibly compressed buffers.  When the decompressor is lazy
+  and the datatype of the column is known without looking at its data only the validity
+  buffer is decompressed up front and the data buffers are decompressed on first
+  access."
+  [sparse? node field decompressor buffers col-data-fn lazy-datatype]
+  (if-let [{:keys [compression cache]} (when (and lazy-datatype (not sparse?))
+                                         (::lazy-decompression (meta decompressor)))]
+    (let [rc (long (:n-elems node))
+          n-missing (long (:n-null-entries node))
+          data-buffers (subvec buffers 1)
+          load-data (cached-loader
+                     cache
+                     ;;Column data is cached past the reader's resource context so
+                     ;;it has to be gc-managed
+                     #(let [data-buffers (decompress-buffers compression data-buffers
+                                                             {:resource-type :gc})]
+                        [(dtype/->reader (col-data-fn rc data-buffers))
+                         (reduce + 0 (lznc/map dtype/ecount data-buffers))]))]
+      (col-impl/construct-column (if (== 0 n-missing)
+                                   (bitmap/->bitmap)
+                                   (-> (decompress-buffers compression [(nth buffers 0)])
+                                       (first)
+                                       (validity->missing rc)))
+                                 (lazy-reader lazy-datatype rc load-data)
+                                 (field-metadata field)))
+    (construct-column sparse? node field (decompressor buffers) col-data-fn)))
+
 (defmethod ^:private preparse-field :string
   [field sparse? ^Iterator node-iter ^Iterator buf-iter dict-map options]
   (assert (= 0 (count (:children field)))
@@ -1564,7 +1810,13 @@
                        options))]
     (fn parse-string-field
       [decompressor]
-      (construct-column sparse? node field (decompressor buffers) col-data-fn))))
+      ;;Dictionary encoded columns are decompressed eagerly so their data remains a
+      ;;StringTable.
+      (construct-decompressed-column sparse? node field decompressor buffers col-data-fn
+                                     (cond
+                                       encoding nil
+                                       (:text-as-strings? options) :string
+                                       :else :text)))))
 
 (defmethod ^:private preparse-field :boolean
   [field sparse? ^Iterator node-iter ^Iterator buf-iter dict-map options]
@@ -1588,7 +1840,8 @@
            (dtype/const-reader false n-elems)
            (field-metadata field)
            (bitmap/->bitmap (range n-elems))))
-        (construct-column sparse? node field (decompressor buffers) col-data-fn)))))
+        (construct-decompressed-column sparse? node field decompressor buffers col-data-fn
+                                       :boolean)))))
 
 
 (defn- clone-downcast-text
@@ -1741,7 +1994,8 @@
                 (dtype/sub-buffer 0 n-elems))))]
     (fn parse-default-field
       [decompressor]
-      (construct-column sparse? node field (decompressor buffers) col-data-fn))))
+      (construct-decompressed-column sparse? node field decompressor buffers col-data-fn
+                                     field-dtype))))
 
 (defn- iter ^Iterator [^Iterable i] (when i (.iterator i)))
 
@@ -1760,7 +2014,11 @@
                    (set/difference keep-set (set blist))
                    keep-set)
         decompressor (if-let [compression (get record-batch :compression)]
-                       #(decompress-buffers compression %)
+                       (cond-> #(decompress-buffers compression %)
+                         (::decompression-cache options)
+                         (with-meta {::lazy-decompression
+                                     {:compression compression
+                                      :cache (::decompression-cache options)}}))
                        identity)]
     (->> (:fields schema)
          (lznc/map-indexed #(let [col-idx (long %1)
@@ -2087,14 +2345,30 @@
   * `:text-as-strings?` - Return strings instead of Text objects.  This breaks automatic round-tripping
   as it changes datatypes *but* can be useful when used with `:strings-as-text?` when writing data out.
   When used like this uncompressed mmap pathways typically have the highest performance - roughly 100x
-  any other method."
+  any other method.
+
+  * `:lazy-decompression?` - defaults to true - When using `:mmap` with compressed files the
+  data of numeric, boolean and non-dictionary string columns is decompressed on first access so reading a
+  few columns of a wide file only pays for those columns.  Only the validity buffers are
+  decompressed up front.
+
+  * `:decompression-cache-bytes` - When using lazy decompression, bound the memory used by
+  decompressed column data to roughly this many bytes.  Least recently used column data
+  is evicted and decompressed again when it is next accessed.  Defaults to nil - each
+  column keeps its data once it has been decompressed."
   ^Iterable [fname & [options]]
   (reify Iterable
     (iterator [this]
-      (let [input (case (get options :open-type :input-stream)
+      (let [open-type (get options :open-type :input-stream)
+            input (case open-type
                     :mmap (mmap/mmap-file fname options)
                     :input-stream (apply io/input-stream fname (apply concat (seq options))))
-            {:keys [file-type input]} (file-type input)]
+            {:keys [file-type input]} (file-type input)
+            options (if (and (identical? :mmap open-type)
+                             (get options :lazy-decompression? true))
+                      (assoc options ::decompression-cache
+                             (decompression-cache (get options :decompression-cache-bytes)))
+                      options)]
         (case file-type
           :arrow-file
           (next-dataset-iter (discard input 8) fname options)
@@ -2366,13 +2640,22 @@ Please use stream->dataset-seq.")))
   * `:compression` - Either `:zstd` or `:lz4`,  defaults to no compression (nil).
   Per-column compression of the data can result in some significant size savings
   (2x+) and thus some significant time savings when loading over the network.
-  Using compression makes loading via mmap non-lazy - If you are going to use
-  compression mmap probably doesn't make sense and most likely will result in
-  slower loading times.
+  Loading compressed files via mmap decompresses each column when it is first
+  accessed - see `:lazy-decompression?` in [[stream->dataset-iterable]] - so reading
+  a subset of the columns only pays for those columns.
      - `:lz4` - Decent and very fast compression.
      - `:zstd` - Good compression, somewhat slower than `:lz4`.  Can also have a
        level parameter that ranges from 1-12 in which case compression is specified
-       in map form: `{:compression-type :zstd :level 5}`."
+       in map form: `{:compression-type :zstd :level 5}`.
+
+  * `:max-in-flight` - defaults to 2 - Number of record batches that are serialized and
+     compressed ahead of the writer.  Batch N is compressed (in parallel across its
+     columns) while batch N+1 is being prepared and the writer only ever holds this many
+     batches of buffers which bounds the memory used when writing very large sequences.
+
+  Compression reuses a compressor per thread and compressed buffers are drawn from a
+  pool of direct buffers.  Local files are written with gathering writes on a
+  FileChannel; other outputs go through `tech.v3.io/output-stream!`."
   ([path options ds-seq]
    ;;We use the first dataset to setup schema information the rest of the datasets
    ;;must follow.  So the serialization of the first dataset differs from the serialization
@@ -2399,30 +2682,62 @@ Please use stream->dataset-seq.")))
                              (filter #(sparse-col/is-sparse? (colvec %)))
                              (reduce conj sparse-columns))
          options (assoc options :sparse-columns sparse-columns)]
-     ;;Any native mem allocated in this context will be released
-     (with-open [ostream (io/output-stream! path)]
-       (let [writer (arrow-output-stream-writer ostream)
-             _ (when file-tag?
-                 (.write writer (ByteBuffer/wrap arrow-file-begin-tag)))
-             {:keys [schema dictionaries]} (ds->schema ds options)]
-         (write-schema writer schema)
-         (.addAll dict-blocks (lznc/map #(write-dictionary writer % options) dictionaries))
-         (.add record-blocks (resource/stack-resource-context
-                              (write-dataset writer ds options)))
-         (loop [continue? (.hasNext ds-seq-iter)
-                options (assoc options :dictionaries dictionaries)]
-           (when continue?
-             (let [ds (.next ds-seq-iter)
-                   ;;Passing in previous dictionaries so we can chain them for differential
-                   ;;dictionary encoding
-                   {:keys [dictionaries]} (ds->schema ds (assoc options :dictionaries dictionaries))]
-               (.addAll dict-blocks (lznc/map #(write-dictionary writer % options) dictionaries))
-               (.add record-blocks (resource/stack-resource-context (write-dataset writer ds options)))
-               (recur (.hasNext ds-seq-iter) (assoc options :dictionaries dictionaries)))))
-
-         (when file-tag?
-           (write-footer writer schema dict-blocks record-blocks))
-         (.getCurrentPosition writer)))))
+     (let [{:keys [^WriteChannel writer flush! close!]} (open-arrow-writer path)
+           pool (buffer-pool)
+           options (cond-> (assoc options ::buffer-pool pool)
+                     (:compression options)
+                     (assoc ::compressors (thread-compressors (:compression options))))
+           max-in-flight (max 1 (long (get options :max-in-flight 2)))
+           ;;Batches whose buffers are being prepared on other threads along with the
+           ;;dictionaries that have to be written before them.
+           pending (ArrayDeque.)
+           write-next! (fn []
+                         (let [{:keys [dictionaries batch]} (.pollFirst pending)
+                               batch @batch]
+                           (doseq [dict dictionaries]
+                             (.add dict-blocks (write-prepared-dictionary writer dict)))
+                           (.add record-blocks (write-record-batch! writer batch))
+                           (flush!)
+                           (doseq [dict dictionaries]
+                             (release-buffers! pool (:buffers dict)))
+                           (release-buffers! pool (:buffers batch))))
+           enqueue! (fn [ds dictionaries options]
+                      (.addLast pending
+                                {:dictionaries (mapv #(prepare-dictionary % options)
+                                                     dictionaries)
+                                 :batch (future
+                                          ;;Any native mem allocated in this context
+                                          ;;will be released
+                                          (resource/stack-resource-context
+                                           (prepare-record-batch ds options)))})
+                      (while (> (.size pending) max-in-flight)
+                        (write-next!)))]
+       (try
+         (let [_ (when file-tag?
+                   (.write writer (ByteBuffer/wrap arrow-file-begin-tag)))
+               {:keys [schema dictionaries]} (ds->schema ds options)]
+           (write-schema writer schema)
+           (enqueue! ds dictionaries options)
+           (loop [continue? (.hasNext ds-seq-iter)
+                  options (assoc options :dictionaries dictionaries)]
+             (when continue?
+               (let [ds (.next ds-seq-iter)
+                     ;;Passing in previous dictionaries so we can chain them for differential
+                     ;;dictionary encoding
+                     {:keys [dictionaries]} (ds->schema ds (assoc options :dictionaries dictionaries))]
+                 (enqueue! ds dictionaries options)
+                 (recur (.hasNext ds-seq-iter) (assoc options :dictionaries dictionaries)))))
+           (while (not (.isEmpty pending))
+             (write-next!))
+           (when file-tag?
+             (write-footer writer schema dict-blocks record-blocks))
+           (flush!)
+           (.getCurrentPosition writer))
+         (finally
+           ;;Let outstanding batches finish before closing the channel
+           (doseq [{:keys [batch]} pending]
+             (try @batch (catch Throwable _e nil)))
+           (close!))))))
   ([path ds-seq]
    (dataset-seq->stream! path nil ds-seq)))
 
@@ -0,0 +1,313 @@
+(ns tech.v3.libs.guava.dataset-cache
+  "Memoize dataset producing functions with a guava cache whose budget is bytes rather
+  than entries.  Each dataset is weighed by an estimate of the heap and native memory of
+  its column buffers, string tables and missing bitmaps so one large dataset counts for
+  as much as many small ones.
+
+  Evicted datasets may optionally be spilled to arrow files in a local directory.  The
+  next call with the same arguments memory maps the spilled file instead of calling the
+  function again.
+
+```clojure
+(def cached-query (ds-cache/memoize run-query
+                                   :max-bytes (* 4 1024 1024 1024)
+                                   :access-ttl-ms (* 10 60 1000)
+                                   :spill-dir \"/tmp/query-cache\"))
+(ds-cache/memo-stats cached-query)
+```"
+  (:require [tech.v3.datatype :as dtype]
+            [tech.v3.datatype.casting :as casting]
+            [tech.v3.dataset.protocols :as ds-proto]
+            [tech.v3.libs.guava.cache :as cache]
+            [clojure.tools.logging :as log])
+  (:import [com.google.common.cache CacheBuilder CacheLoader LoadingCache
+            Weigher RemovalListener RemovalNotification RemovalCause]
+           [tech.v3.dataset.string_table StringTable]
+           [tech.v3.dataset ByteStringDict]
+           [org.roaringbitmap RoaringBitmap]
+           [java.io File]
+           [java.time Duration]
+           [java.util List Map]
+           [java.util.concurrent ConcurrentHashMap Executor]
+           [java.util.concurrent.atomic AtomicLong])
+  (:refer-clojure :exclude [memoize]))
+
+
+(set! *warn-on-reflection* true)
+
+
+(def ^:private object-bytes
+  "Estimate of a reference plus a small object such as a boxed number or short string."
+  64)
+
+
+(defn- string-bytes
+  ^long [^String s]
+  ;;Object header and fields plus the compact backing byte array.
+  (+ 40 (.length s)))
+
+
+(defn- buffer-bytes
+  ^long [buf]
+  (let [dt (casting/host-flatten (dtype/elemwise-datatype buf))]
+    (* (dtype/ecount buf)
+       (cond
+         (casting/numeric-type? dt) (casting/numeric-byte-width dt)
+         (identical? :boolean dt) 1
+         :else object-bytes))))
+
+
+(defn- column-bytes
+  ^long [col]
+  (let [data (ds-proto/column-buffer col)
+        ^RoaringBitmap missing (ds-proto/missing col)]
+    (+ (.getSizeInBytes missing)
+       (if (instance? StringTable data)
+         (let [^List int->str (.-int->str ^StringTable data)]
+           (+ (if (instance? ByteStringDict int->str)
+                ;;Reserved native string bytes and the offsets, hashes and lookup
+                ;;slots held on heap per unique string.
+                (+ (.offHeapCapacity ^ByteStringDict int->str)
+                   (* 20 (.size int->str)))
+                ;;Unique strings and the hash map from string to index.
+                (reduce (fn [^long acc s] (+ acc 48 (string-bytes s))) 0 int->str))
+              (buffer-bytes (.-data ^StringTable data))))
+         (buffer-bytes col)))))
+
+
+(defn estimate-bytes
+  "Estimate of the heap and native bytes held by the columns of a dataset.  Primitive
+  and packed columns count their element width, string tables count their unique
+  strings - or the native memory of off-heap dictionaries - and indexes and other
+  object columns count a fixed amount per element."
+  ^long [ds]
+  (reduce (fn [^long acc col] (+ acc (column-bytes col))) 0 (vals ds)))
+
+
+(defn- owned-value
+  "Value recorded for args when it was recorded for the dataset ds, otherwise nil.
+  Entries are [ds value] object arrays so they compare by identity."
+  [^Map m args ds]
+  (when-let [^objects entry (.get m args)]
+    (when (identical? ds (aget entry 0))
+      (aget entry 1))))
+
+
+(defn- remove-owned!
+  "Remove the value recorded for args if it was recorded for the dataset ds returning
+  the value.  Entries recorded for a newer dataset of the same args are kept."
+  [^Map m args ds]
+  (when-let [^objects entry (.get m args)]
+    (when (and (identical? ds (aget entry 0))
+               (.remove m args entry))
+      (aget entry 1))))
+
+
+(defn- delete-spill!
+  [^Map spilled ^AtomicLong spill-bytes args]
+  (when-let [{:keys [path n-bytes]} (.remove spilled args)]
+    (.addAndGet spill-bytes (- (long n-bytes)))
+    (.delete (File. ^String path))))
+
+
+(defn memoize
+  "Create a threadsafe memoized function that caches the datasets returned by f in a
+  guava cache bounded by the estimated bytes of the cached datasets.  f must not return
+  nil.  Exceptions propagate to the caller.
+
+  Options:
+
+  * `:max-bytes` - byte budget of the cache.  Defaults to 1/4 of the max heap.
+  * `:write-ttl-ms`, `:access-ttl-ms` - expire entries this long after they are created
+     or last read.
+  * `:concurrency-level` - defaults to 1 - number of independently locked shards of
+     the cache.  Guava splits `:max-bytes` evenly between the shards so a dataset
+     larger than `(/ max-bytes concurrency-level)` is evicted as soon as it is loaded.
+  * `:weigh-fn` - function from dataset to bytes.  Defaults to [[estimate-bytes]].
+  * `:spill-dir` - when provided datasets evicted to stay under the byte budget are
+     written as arrow files to this directory and memory mapped on the next call with
+     the same arguments.  Spilled datasets honor `:write-ttl-ms` from when they were
+     first created and `:access-ttl-ms` from when they were spilled.  Expired and
+     invalidated entries are not spilled.  The memory mapped datasets are released by
+     the garbage collector.  Expired spill files are deleted whenever a dataset is
+     spilled or loaded and the remaining files are deleted when the jvm exits.
+  * `:max-spill-bytes` - bound the total size of the spill files.  The oldest spill
+     files are deleted once a spill goes over the budget.  Defaults to no limit.
+  * `:spill-options` - options passed to `tech.v3.libs.arrow/dataset->stream!`.
+  * `:spill-executor` - java.util.concurrent.Executor used to write spill files.
+     Guava evicts entries on the thread of the call that pushed the cache over its
+     budget so by default that call also writes the evicted datasets to disk before it
+     returns.  With an executor the call returns immediately and a call for a dataset
+     whose spill is still being written calls f again."
+  [f & {:keys [max-bytes write-ttl-ms access-ttl-ms concurrency-level weigh-fn
+               spill-dir spill-options spill-executor max-spill-bytes]}]
+  (let [max-bytes (long (or max-bytes (quot (.maxMemory (Runtime/getRuntime)) 4)))
+        weigh-fn (or weigh-fn estimate-bytes)
+        ;;args->{:path :created-ms :spilled-ms :n-bytes}
+        spilled (ConcurrentHashMap.)
+        spill-bytes (AtomicLong.)
+        ;;args->[ds creation time] of cached entries so spilled entries keep their
+        ;;write ttl
+        created (ConcurrentHashMap.)
+        ;;args->[ds bytes] of cached entries.  The removal listener runs outside of
+        ;;guava's lock so both maps record the dataset they belong to and the listener
+        ;;leaves entries of a dataset reloaded in the meantime alone.
+        weights (ConcurrentHashMap.)
+        total-bytes (AtomicLong.)
+        spill-count (AtomicLong.)
+        spill-hit-count (AtomicLong.)
+        spill-failure-count (AtomicLong.)
+        spill-dir (when spill-dir
+                    (doto (File. (str spill-dir)) (.mkdirs)))
+        expired? (fn [created-ms]
+                   (and write-ttl-ms
+                        (> (- (System/currentTimeMillis) (long created-ms))
+                           (long write-ttl-ms))))
+        spill-expired? (fn [{:keys [created-ms spilled-ms]}]
+                         (or (expired? created-ms)
+                             (and access-ttl-ms
+                                  (> (- (System/currentTimeMillis) (long spilled-ms))
+                                     (long access-ttl-ms)))))
+        sweep-spills! (fn []
+                        (doseq [[args entry] (vec spilled)]
+                          (when (spill-expired? entry)
+                            (delete-spill! spilled spill-bytes args)))
+                        (when max-spill-bytes
+                          (loop [oldest (sort-by (comp :spilled-ms val) (vec spilled))]
+                            (when (and (seq oldest)
+                                       (> (.get spill-bytes) (long max-spill-bytes)))
+                              (delete-spill! spilled spill-bytes (key (first oldest)))
+                              (recur (rest oldest))))))
+        spill! (fn [args ds]
+                 (if (.containsKey spilled args)
+                   ;;Loaded from a spill file that is still valid.
+                   nil
+                   (try
+                     (let [file (doto (File/createTempFile "spill-" ".arrow" spill-dir)
+                                  (.deleteOnExit))
+                           path (.getPath file)]
+                       ((requiring-resolve 'tech.v3.libs.arrow/dataset->stream!)
+                        ds path (or spill-options {}))
+                       (.addAndGet spill-bytes (.length file))
+                       (.put spilled args {:path path
+                                           :created-ms (or (owned-value created args ds)
+                                                           (System/currentTimeMillis))
+                                           :spilled-ms (System/currentTimeMillis)
+                                           :n-bytes (.length file)})
+                       (.incrementAndGet spill-count)
+                       (sweep-spills!))
+                     (catch Throwable e
+                       (.incrementAndGet spill-failure-count)
+                       (log/warnf e "Failed to spill dataset for %s" args)))))
+        ^CacheBuilder builder
+        (cond-> (-> (CacheBuilder/newBuilder)
+                    (.recordStats)
+                    (.maximumWeight (quot max-bytes 1024))
+                    (.weigher (reify Weigher
+                                (weigh [_ args ds]
+                                  (let [nbytes (long (weigh-fn ds))]
+                                    (when-let [^objects old (.put weights args
+                                                                  (object-array [ds nbytes]))]
+                                      (.addAndGet total-bytes (- (long (aget old 1)))))
+                                    (.addAndGet total-bytes nbytes)
+                                    ;;Guava weights are ints so weigh kilobytes.
+                                    (int (min Integer/MAX_VALUE
+                                              (max 1 (quot nbytes 1024)))))))))
+          access-ttl-ms (.expireAfterAccess (Duration/ofMillis access-ttl-ms))
+          write-ttl-ms (.expireAfterWrite (Duration/ofMillis write-ttl-ms))
+          true (.concurrencyLevel (int (or concurrency-level 1))))
+        ^CacheBuilder builder
+        (.removalListener
+         ^CacheBuilder builder
+         (reify RemovalListener
+           (onRemoval [_ notification]
+             (let [^RemovalNotification notification notification
+                   args (.getKey notification)
+                   ds (.getValue notification)]
+               ;;Replaced entries are removed with the new value and weight present.
+               (when-not (identical? RemovalCause/REPLACED (.getCause notification))
+                 (when-let [nbytes (remove-owned! weights args ds)]
+                   (.addAndGet total-bytes (- (long nbytes))))
+                 (if (and spill-dir ds (identical? RemovalCause/SIZE (.getCause notification)))
+                   (if spill-executor
+                     (.execute ^Executor spill-executor
+                               #(try (spill! args ds)
+                                     (finally (remove-owned! created args ds))))
+                     (do (spill! args ds)
+                         (remove-owned! created args ds)))
+                   (do (delete-spill! spilled spill-bytes args)
+                       (remove-owned! created args ds))))))))
+        ^LoadingCache cache
+        (.build builder
+                (proxy [CacheLoader] []
+                  (load [args]
+                    (when spill-dir
+                      (sweep-spills!))
+                    (let [{:keys [path created-ms] :as entry} (.get spilled args)
+                          unspilled (when (and path (not (spill-expired? entry)))
+                                      (try
+                                        ((requiring-resolve 'tech.v3.libs.arrow/stream->dataset)
+                                         path {:open-type :mmap :resource-type :gc})
+                                        (catch Throwable e
+                                          (log/warnf e "Failed to load spilled dataset %s" path)
+                                          nil)))]
+                      (if unspilled
+                        (do
+                          (.incrementAndGet spill-hit-count)
+                          (.replace spilled args entry
+                                    (assoc entry :spilled-ms (System/currentTimeMillis)))
+                          (.put created args (object-array [unspilled created-ms]))
+                          unspilled)
+                        (do
+                          (when path
+                            (delete-spill! spilled spill-bytes args))
+                          (if-let [retval (apply f args)]
+                            (do
+                              (.put created args (object-array [retval (System/currentTimeMillis)]))
+                              retval)
+                            (throw (ex-info
+                                    (format "Nil values not allowed in cache: %s" args)
+                                    {})))))))))]
+    (-> (fn [& args]
+          (.get cache args))
+        (with-meta {:cache cache
+                    :spilled spilled
+                    :spill-bytes spill-bytes
+                    :total-bytes total-bytes
+                    :spill-count spill-count
+                    :spill-hit-count spill-hit-count
+                    :spill-failure-count spill-failure-count}))))
+
+
+(defn memo-stats
+  "Cache stats of a memoized function in the shape of
+  `tech.v3.libs.guava.cache/memo-stats` with the addition of:
+
+  * `:estimated-bytes` - estimated bytes of the datasets currently in the cache.
+  * `:spill-count` - number of evicted datasets written to the spill directory.
+  * `:spill-hit-count` - number of loads served from a spill file.
+  * `:spill-failure-count` - number of evicted datasets that failed to spill.
+  * `:spilled-count` - number of datasets currently in the spill directory.
+  * `:spilled-bytes` - total bytes of the files in the spill directory."
+  [memoized]
+  (let [{:keys [^Map spilled ^AtomicLong spill-bytes ^AtomicLong total-bytes
+                ^AtomicLong spill-count
+                ^AtomicLong spill-hit-count ^AtomicLong spill-failure-count]}
+        (meta memoized)]
+    (assoc (cache/memo-stats memoized)
+           :estimated-bytes (.get total-bytes)
+           :spill-count (.get spill-count)
+           :spill-hit-count (.get spill-hit-count)
+           :spill-failure-count (.get spill-failure-count)
+           :spilled-count (.size spilled)
+           :spilled-bytes (.get spill-bytes))))
+
+
+(defn clear!
+  "Invalidate every cached entry and delete all spill files of a memoized function."
+  [memoized]
+  (let [{:keys [^LoadingCache cache ^Map spilled spill-bytes]} (meta memoized)]
+    (.invalidateAll cache)
+    (.cleanUp cache)
+    (doseq [args (vec (.keySet spilled))]
+      (delete-spill! spilled spill-bytes args))))
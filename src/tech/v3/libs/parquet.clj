@@ -118,6 +118,8 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
             [tech.v3.dataset.impl.column :as col-impl]
             [tech.v3.dataset.base :as ds-base]
             [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.protocols :as ds-proto]
+            [tech.v3.dataset.string-table :as str-table]
             [tech.v3.dataset.io.context :as io-context]
             [tech.v3.dataset.io.column-parsers :as col-parsers]
             [tech.v3.dataset.io :as ds-io]
@@ -143,30 +145,43 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
   ;; Behold my Kindom of Nouns...And Tremble!!!!
   (:import [tech.v3.datatype Buffer]
            [tech.v3.dataset Text ParquetRowWriter ParquetRowWriter$WriterBuilder
-            LocalInputFile]
+            LocalInputFile MMapInputFile ParquetColumnChunkWriter]
+           [tech.v3.dataset.string_table StringTable]
            [tech.v3.dataset.io.column_parsers PParser]
            [org.apache.hadoop.conf Configuration]
            [java.time LocalTime]
            [java.time.temporal TemporalAccessor ChronoField]
-           [org.apache.parquet.hadoop ParquetFileReader]
+           [org.apache.parquet ParquetReadOptions]
+           [org.apache.parquet.filter2.compat FilterCompat]
+           [org.apache.parquet.filter2.predicate FilterApi FilterPredicate]
+           [org.apache.parquet.hadoop.util HadoopInputFile]
+           [org.apache.parquet.hadoop ParquetFileReader ParquetFileWriter
+            ParquetFileWriter$Mode ParquetWriter CodecFactory ColumnChunkPageWriteStore]
+           [org.apache.parquet.bytes HeapByteBufferAllocator]
            [org.apache.parquet.hadoop.metadata BlockMetaData ColumnChunkMetaData
-            CompressionCodecName]
-           [org.apache.parquet.column ColumnDescriptor ColumnReader Encoding]
+            CompressionCodecName ParquetMetadata]
+           [org.apache.parquet.column ColumnDescriptor ColumnReader Encoding
+            ColumnWriter ColumnWriteStore ParquetProperties]
            [org.apache.parquet.column.page PageReadStore]
            [org.apache.parquet.column.impl ColumnReadStoreImpl]
-           [org.apache.parquet.io OutputFile PositionOutputStream InputFile]
+           [org.apache.parquet.io OutputFile PositionOutputStream InputFile
+            SeekableInputStream]
            [org.apache.parquet.io.api GroupConverter PrimitiveConverter Binary
             RecordConsumer]
            [org.apache.parquet.schema OriginalType MessageType
-            PrimitiveType$PrimitiveTypeName Type$Repetition Type PrimitiveType]
+            PrimitiveType$PrimitiveTypeName Type$Repetition Type PrimitiveType
+            LogicalTypeAnnotation$TimestampLogicalTypeAnnotation
+            LogicalTypeAnnotation$TimeUnit]
            [org.roaringbitmap RoaringBitmap]
            [java.nio ByteBuffer ByteOrder]
            [java.nio.channels FileChannel]
            [java.io OutputStream]
            [java.nio.file Paths StandardOpenOption OpenOption]
            [java.util.concurrent.atomic AtomicLong]
+           [java.lang.reflect Constructor]
+           [java.math BigDecimal RoundingMode]
            [java.time Instant LocalDate]
-           [java.util Iterator List]))
+           [java.util Iterator List HashMap ArrayList]))
 
 
 
@@ -642,8 +657,19 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
      (vec))))
 
 
-(defn- row-group->ds
-  [^PageReadStore page ^ParquetFileReader reader options block-metadata]
+(defn- allow-block-lists
+  "Tuple of [allowlist blocklist] sets from the column selection options."
+  [options]
+  [(when (seq (or (:column-allowlist options) (:column-whitelist options)))
+     (set (or (:column-allowlist options) (:column-whitelist options))))
+   (when (seq (or (:column-blocklist options) (:column-blacklist options)))
+     (set (or (:column-blocklist options) (:column-blacklist options))))])
+
+
+(defn- row-group->columns
+  "Parse the columns at col-indexes of the row group in page.  The page store only
+  needs to contain those columns."
+  [^PageReadStore page ^ParquetFileReader reader options block-metadata col-indexes]
   (let [file-metadata (.getFileMetaData reader)
         schema (.getSchema file-metadata)
         col-read-store (ColumnReadStoreImpl. page (group-converter) schema
@@ -651,18 +677,21 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
         n-rows (.getRowCount page)
         parse-context (io-context/options->parser-fn options nil)
         key-fn (or (:key-fn options) identity)
-        column-allowlist (when (seq (or (:column-allowlist options) (:column-whitelist options)))
-                           (set (or (:column-allowlist options) (:column-whitelist options))))
-        column-blocklist (when (seq (or (:column-blocklist options) (:column-blacklist options)))
-                           (set (or (:column-blocklist options) (:column-blacklist options))))
+        [column-allowlist column-blocklist] (allow-block-lists options)
         col-parser (partial parse-parquet-column column-allowlist  column-blocklist
                             col-read-store n-rows parse-context key-fn)
-        initial-columns (->> (lznc/map col-parser
-                                       (.getColumns schema)
-                                       (:columns block-metadata))
-                             (lznc/remove nil?)
-                             (vec))
-        rep-counts (->> (lznc/map (comp :row-rep-counts meta) initial-columns)
+        col-defs (.getColumns schema)
+        col-metadata (:columns block-metadata)]
+    (->> col-indexes
+         (lznc/map (fn [^long col-idx]
+                     (col-parser (.get col-defs col-idx) (col-metadata col-idx))))
+         (lznc/remove nil?)
+         (vec))))
+
+
+(defn- columns->row-group-ds
+  [initial-columns options block-metadata]
+  (let [rep-counts (->> (lznc/map (comp :row-rep-counts meta) initial-columns)
                         (lznc/remove nil?)
                         (vec))
         columns (if (seq rep-counts)
@@ -673,6 +702,13 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
     (vary-meta retval assoc :parquet-metadata (dissoc block-metadata :columns))))
 
 
+(defn- row-group->ds
+  [^PageReadStore page ^ParquetFileReader reader options block-metadata]
+  (-> (row-group->columns page reader options block-metadata
+                          (range (count (:columns block-metadata))))
+      (columns->row-group-ds options block-metadata)))
+
+
 (def ^:private comp-code-map
   {CompressionCodecName/BROTLI :brotli
    CompressionCodecName/GZIP :gzip
@@ -763,11 +799,9 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
                                                set)}))))}))))
 
 
-(defn ^:no-doc ->file-reader
-  ^ParquetFileReader [data]
+(defn- ->input-file
+  ^InputFile [data]
   (cond
-    (instance? ParquetFileReader data)
-    data
     (string? data)
     ;;unwrap url if exists
     (-> (io/file data)
@@ -776,28 +810,294 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
         ;;make a path out of it
         (Paths/get (into-array String []))
         ;;from a path we get a local input file
-        (LocalInputFile.)
-        ;;from that we get a parquet reader
-        (ParquetFileReader/open))
+        (LocalInputFile.))
     (instance? org.apache.hadoop.fs.Path data)
-    (ParquetFileReader/open ^org.apache.hadoop.fs.Path data)
+    (HadoopInputFile/fromPath ^org.apache.hadoop.fs.Path data (Configuration.))
     (instance? InputFile data)
-    (ParquetFileReader/open ^InputFile data)
+    data
     :else
     (errors/throwf "Unrecognized parquet input type: %s" (type data))))
 
 
+(defn- predicate-column
+  "Find the column descriptor a predicate refers to.  Columns may be named by their
+  dotted parquet path or by the result of key-fn applied to that path."
+  ^ColumnDescriptor [^MessageType schema key-fn cname]
+  (or (->> (.getColumns schema)
+           (filter (fn [^ColumnDescriptor cd]
+                     (let [path (dot-notation (.getPath cd))]
+                       (or (= cname path) (= cname (key-fn path))))))
+           (first))
+      (errors/throwf "Predicate column %s not found in parquet schema" cname)))
+
+
+(defn- timestamp-unit-nanos
+  "Nanoseconds per unit of an int64 timestamp column."
+  ^long [^PrimitiveType ptype]
+  (let [annotation (.getLogicalTypeAnnotation ptype)]
+    (if (instance? LogicalTypeAnnotation$TimestampLogicalTypeAnnotation annotation)
+      (condp identical? (.getUnit ^LogicalTypeAnnotation$TimestampLogicalTypeAnnotation
+                                  annotation)
+        LogicalTypeAnnotation$TimeUnit/MILLIS 1000000
+        LogicalTypeAnnotation$TimeUnit/MICROS 1000
+        LogicalTypeAnnotation$TimeUnit/NANOS 1)
+      (if (identical? (.getOriginalType ptype) OriginalType/TIMESTAMP_MILLIS)
+        1000000
+        1000))))
+
+
+(defn- floor-ceil
+  "Exact [floor ceil] of a number as bigints, infinite doubles for infinities or nil for
+  NaN."
+  [v]
+  (cond
+    (integer? v) (let [v (bigint v)] [v v])
+    (ratio? v) (let [trunc (bigint (.bigIntegerValue ^clojure.lang.Ratio v))
+                     fl (if (neg? v) (dec trunc) trunc)]
+                 ;;Ratios are never integral.
+                 [fl (inc fl)])
+    (decimal? v) [(bigint (.setScale ^BigDecimal v 0 RoundingMode/FLOOR))
+                  (bigint (.setScale ^BigDecimal v 0 RoundingMode/CEILING))]
+    :else (let [d (double v)]
+            (cond
+              (Double/isNaN d) nil
+              (Double/isInfinite d) [d d]
+              :else [(bigint (Math/floor d)) (bigint (Math/ceil d))]))))
+
+
+(defn- integer-bounds
+  "Largest column value <= v and smallest column value >= v of an integer column.
+  Bounds outside of the range of the column are :below or :above."
+  [v ^long min-val ^long max-val ->value]
+  (when-let [bounds (floor-ceil v)]
+    (mapv #(cond
+             (> % max-val) :above
+             (< % min-val) :below
+             :else (->value (long %)))
+          bounds)))
+
+
+(defn- predicate-bounds
+  "[lo hi] - the largest value <= v and the smallest value >= v representable in the
+  physical type of a numeric or timestamp column - or nil when v is NaN.  Returns
+  ::not-numeric for other columns and values."
+  [^ColumnDescriptor cd v]
+  (let [ptype (.getPrimitiveType cd)]
+    (condp identical? (.getPrimitiveTypeName ptype)
+      PrimitiveType$PrimitiveTypeName/INT32
+      (cond
+        (instance? LocalDate v) (let [v (Integer/valueOf (int (.toEpochDay ^LocalDate v)))]
+                                  [v v])
+        (number? v) (integer-bounds v Integer/MIN_VALUE Integer/MAX_VALUE
+                                    #(Integer/valueOf (int %)))
+        :else ::not-numeric)
+      PrimitiveType$PrimitiveTypeName/INT64
+      (cond
+        (instance? Instant v)
+        (let [^Instant v v]
+          (integer-bounds (/ (+ (* (bigint (.getEpochSecond v)) 1000000000)
+                                (.getNano v))
+                             (timestamp-unit-nanos ptype))
+                          Long/MIN_VALUE Long/MAX_VALUE #(Long/valueOf (long %))))
+        (number? v) (integer-bounds v Long/MIN_VALUE Long/MAX_VALUE #(Long/valueOf (long %)))
+        :else ::not-numeric)
+      PrimitiveType$PrimitiveTypeName/FLOAT
+      (if (number? v)
+        (let [d (double v)
+              fv (float d)]
+          (cond
+            (Double/isNaN d) nil
+            (== (double fv) d) [(Float/valueOf fv) (Float/valueOf fv)]
+            (< (double fv) d) [(Float/valueOf fv) (Float/valueOf (Math/nextUp fv))]
+            :else [(Float/valueOf (Math/nextDown fv)) (Float/valueOf fv)]))
+        ::not-numeric)
+      PrimitiveType$PrimitiveTypeName/DOUBLE
+      (if (number? v)
+        (let [d (double v)]
+          (when-not (Double/isNaN d)
+            [(Double/valueOf d) (Double/valueOf d)]))
+        ::not-numeric)
+      ::not-numeric)))
+
+
+(defn- predicate-value
+  "Convert a clojure value into the parquet physical representation of a column."
+  [^ColumnDescriptor cd v]
+  (when-not (nil? v)
+    (condp identical? (.. cd getPrimitiveType getPrimitiveTypeName)
+      PrimitiveType$PrimitiveTypeName/BOOLEAN (Boolean/valueOf (boolean v))
+      (Binary/fromString (str v)))))
+
+
+(defn- predicate-filter-column
+  [^ColumnDescriptor cd]
+  (let [path (s/join "." (.getPath cd))]
+    (condp identical? (.. cd getPrimitiveType getPrimitiveTypeName)
+      PrimitiveType$PrimitiveTypeName/INT32 (FilterApi/intColumn path)
+      PrimitiveType$PrimitiveTypeName/INT64 (FilterApi/longColumn path)
+      PrimitiveType$PrimitiveTypeName/FLOAT (FilterApi/floatColumn path)
+      PrimitiveType$PrimitiveTypeName/DOUBLE (FilterApi/doubleColumn path)
+      PrimitiveType$PrimitiveTypeName/BOOLEAN (FilterApi/booleanColumn path)
+      (FilterApi/binaryColumn path))))
+
+
+(defn- comparison-filter
+  "Filter comparing a column against a value.  Values that are not representable in the
+  physical type of the column are rounded to the column value that keeps the comparison
+  exact - `x < 10.5` on an integer column is `x < 11` and `x = 10.5` matches nothing -
+  and instants are compared in the time unit of the column."
+  ^FilterPredicate [op ^ColumnDescriptor cd v]
+  (let [col (predicate-filter-column cd)
+        bounds (when-not (nil? v) (predicate-bounds cd v))
+        ;;parquet's notEq keeps missing values.
+        none #(FilterApi/and (FilterApi/eq col nil) (FilterApi/notEq col nil))
+        all-present #(FilterApi/notEq col nil)
+        all #(FilterApi/or (FilterApi/eq col nil) (FilterApi/notEq col nil))]
+    (cond
+      (or (nil? v) (identical? ::not-numeric bounds))
+      (let [pv (predicate-value cd v)]
+        (case op
+          := (FilterApi/eq col pv)
+          :not= (FilterApi/notEq col pv)
+          :< (FilterApi/lt col pv)
+          :<= (FilterApi/ltEq col pv)
+          :> (FilterApi/gt col pv)
+          :>= (FilterApi/gtEq col pv)))
+      ;;NaN
+      (nil? bounds)
+      (if (identical? op :not=) (all) (none))
+      :else
+      (let [[lo hi] bounds
+            exact? (= lo hi)
+            bound (case op (:< :>=) hi (:<= :> := :not=) lo)]
+        (cond
+          (identical? op :=)
+          (if (and exact? (not (keyword? bound))) (FilterApi/eq col bound) (none))
+          (identical? op :not=)
+          (if (and exact? (not (keyword? bound))) (FilterApi/notEq col bound) (all))
+          (identical? bound :above)
+          (if (#{:< :<=} op) (all-present) (none))
+          (identical? bound :below)
+          (if (#{:< :<=} op) (none) (all-present))
+          :else
+          (case op
+            :< (FilterApi/lt col bound)
+            :<= (FilterApi/ltEq col bound)
+            :> (FilterApi/gt col bound)
+            :>= (FilterApi/gtEq col bound)))))))
+
+
+(defn- predicate->filter
+  "Translate a predicate vector into a parquet FilterPredicate."
+  ^FilterPredicate [pred ^MessageType schema key-fn]
+  (let [[op & args] pred
+        ->filter #(predicate->filter % schema key-fn)
+        column-op (fn [op-fn cname v]
+                    (let [cd (predicate-column schema key-fn cname)]
+                      (op-fn (predicate-filter-column cd) (predicate-value cd v))))
+        compare-op (fn [op cname v]
+                     (comparison-filter op (predicate-column schema key-fn cname) v))]
+    (case op
+      :and (reduce #(FilterApi/and %1 %2) (map ->filter args))
+      :or (reduce #(FilterApi/or %1 %2) (map ->filter args))
+      :not (FilterApi/not (->filter (first args)))
+      := (compare-op := (first args) (second args))
+      :not= (compare-op :not= (first args) (second args))
+      :< (compare-op :< (first args) (second args))
+      :<= (compare-op :<= (first args) (second args))
+      :> (compare-op :> (first args) (second args))
+      :>= (compare-op :>= (first args) (second args))
+      :between (let [[cname lo hi] args]
+                 (FilterApi/and ^FilterPredicate (->filter [:>= cname lo])
+                                ^FilterPredicate (->filter [:<= cname hi])))
+      :in (let [[cname vs] args]
+            (errors/when-not-errorf (seq vs) "Predicate :in requires at least one value")
+            (reduce #(FilterApi/or %1 %2) (map #(->filter [:= cname %]) vs)))
+      :missing (column-op #(FilterApi/eq %1 %2) (first args) nil)
+      :not-missing (column-op #(FilterApi/notEq %1 %2) (first args) nil)
+      (errors/throwf "Unrecognized predicate operation: %s" op))))
+
+
+(defn- read-options
+  "Reader options for the pushdown options of [[parquet->ds-seq]].  Row groups are
+  skipped by the reader using column statistics and dictionary pages."
+  ^ParquetReadOptions [^ParquetMetadata footer options]
+  (if-let [pred (get options :predicate)]
+    (-> (ParquetReadOptions/builder)
+        (.withRecordFilter
+         (FilterCompat/get
+          (predicate->filter pred (.. footer getFileMetaData getSchema)
+                             (or (:key-fn options) identity))))
+        (.useStatsFilter true)
+        (.useDictionaryFilter true)
+        (.useColumnIndexFilter (boolean (get options :page-filter?)))
+        (.build))
+    (.build (ParquetReadOptions/builder))))
+
+
+(defn- read-footer
+  ^ParquetMetadata [^InputFile input-file]
+  (with-open [rdr (ParquetFileReader/open input-file)]
+    (.getFooter rdr)))
+
+
+(def ^:private footer-reader-ctor
+  ;;Added in parquet-hadoop 1.14.
+  (delay (try (.getConstructor ParquetFileReader
+                               (into-array Class [InputFile ParquetMetadata
+                                                  ParquetReadOptions SeekableInputStream]))
+              (catch NoSuchMethodException _e nil))))
+
+
+(defn- footer->file-reader
+  "Open a reader that reuses a footer that was already read and parsed.  Older
+  parquet-hadoop versions have no such constructor and read the footer again."
+  ^ParquetFileReader [^InputFile input-file ^ParquetMetadata footer
+                      ^ParquetReadOptions read-options]
+  (if-let [^Constructor ctor @footer-reader-ctor]
+    (let [stream (.newStream input-file)]
+      (try
+        (.newInstance ctor (object-array [input-file footer read-options stream]))
+        (catch Throwable e
+          (.close stream)
+          (throw e))))
+    (ParquetFileReader/open input-file read-options)))
+
+
+(defn ^:no-doc ->file-reader
+  (^ParquetFileReader [data options]
+   (if (instance? ParquetFileReader data)
+     data
+     (let [input-file (->input-file data)]
+       (if (get options :predicate)
+         (let [footer (read-footer input-file)]
+           (footer->file-reader input-file footer (read-options footer options)))
+         (ParquetFileReader/open input-file)))))
+  (^ParquetFileReader [data]
+   (->file-reader data nil)))
+
+
 (deftype ParquetRowGroupSupplier [^{:unsynchronized-mutable true
                                     :tag ParquetFileReader} rdr
                                   ^{:unsynchronized-mutable true
                                     :tag long} idx
-                                  metadata]
+                                  metadata
+                                  row-group-filter
+                                  page-filter?]
   clojure.lang.IMeta
   (meta [this] {:row-groups metadata})
   java.util.function.Supplier
   (get [this]
-    (when rdr 
-      (let [rv (.readNextRowGroup rdr)
+    (when rdr
+      ;;Skip row groups rejected by the row group filter without reading them.
+      (when row-group-filter
+        (while (and (< idx (count metadata))
+                    (not (row-group-filter (metadata idx))))
+          (.skipNextRowGroup rdr)
+          (set! idx (inc idx))))
+      (let [rv (if page-filter?
+                 (.readNextFilteredRowGroup rdr)
+                 (.readNextRowGroup rdr))
             lidx idx
             rrdr rdr]
         (if-not rv
@@ -834,11 +1134,88 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
   "Recommended way of low-level reading the file.  The metadata of the supplier contains a 
   `:row-group` member that contains a vector of row group metadata.
   The supplier implements java.util.Supplier java.util.Iterable and clojure.lang.IReduce.  
-  Each time it is called it returns a tuple of [ParquetFileReader, PageReadStore, row-group-metadata]."
-  ^java.lang.AutoCloseable [path]
-  (let [fr (->file-reader path)
-        md (parquet-reader->metadata fr)]
-    (ParquetRowGroupSupplier. fr 0 md)))
+  Each time it is called it returns a tuple of [ParquetFileReader, PageReadStore, row-group-metadata].
+
+  Options are the pushdown options of [[parquet->ds-seq]] - `:predicate`,
+  `:row-group-filter` and `:page-filter?`.  The metadata contains only the row groups that
+  pass the predicate."
+  (^java.lang.AutoCloseable [path options]
+   (let [fr (->file-reader path options)
+         md (parquet-reader->metadata fr)]
+     (ParquetRowGroupSupplier. fr 0 md (get options :row-group-filter)
+                               (boolean (and (get options :predicate)
+                                             (get options :page-filter?))))))
+  (^java.lang.AutoCloseable [path]
+   (->row-group-supplier path nil)))
+
+
+(defn- mmap-ds-seq
+  "Decode a memory mapped local file in parallel.  Tasks are row groups or, when there
+  are fewer row groups than threads, groups of top level fields within a row group.  Each
+  task uses its own reader - and thus its own decompressors - over the shared mapping and
+  reads only the column chunks it decodes.  The footer is read and parsed once and shared
+  by the readers.  Results are in file order."
+  [path options]
+  (let [input-file (MMapInputFile. (.toPath ^java.io.File (io/file path)))
+        footer (read-footer input-file)
+        ;;Every reader is opened with the same options so row group indexes agree.
+        read-opts (read-options footer (dissoc options :page-filter?))
+        open-reader #(footer->file-reader input-file footer read-opts)
+        [row-groups ^MessageType schema]
+        (with-open [rdr ^ParquetFileReader (open-reader)]
+          [(parquet-reader->metadata rdr) (.. rdr getFileMetaData getSchema)])
+        rg-indexes (if-let [row-group-filter (get options :row-group-filter)]
+                     (filterv #(row-group-filter (row-groups %)) (range (count row-groups)))
+                     (vec (range (count row-groups))))
+        key-fn (or (:key-fn options) identity)
+        [allowlist blocklist] (allow-block-lists options)
+        allowed? #(and (or (nil? allowlist) (allowlist %))
+                       (not (and blocklist (blocklist %))))
+        col-defs (vec (.getColumns schema))
+        ;;Top level fields along with the indexes of their leaf columns.  Fields with
+        ;;no selected columns are never read.
+        fields (->> (.getFields schema)
+                    (keep (fn [^Type field]
+                            (let [col-idxs (filterv
+                                            (fn [^long idx]
+                                              (= (.getName field)
+                                                 (aget (.getPath ^ColumnDescriptor (col-defs idx))
+                                                       0)))
+                                            (range (count col-defs)))]
+                              (when (some #(allowed? (key-fn (.. ^ColumnDescriptor (col-defs %)
+                                                                 getPrimitiveType getName)))
+                                          col-idxs)
+                                [field col-idxs]))))
+                    (vec))
+        n-row-groups (count rg-indexes)
+        n-fields (count fields)
+        n-field-groups (-> (quot (+ (* 2 (.availableProcessors (Runtime/getRuntime)))
+                                    (dec n-row-groups))
+                                 (max 1 n-row-groups))
+                           (min n-fields)
+                           (max 1))
+        field-groups (if (== 0 n-fields)
+                       [[[] []]]
+                       (->> (partition-all (quot (+ n-fields (dec n-field-groups))
+                                                 n-field-groups)
+                                           fields)
+                            (mapv (fn [fs] [(mapv first fs) (vec (mapcat second fs))]))))
+        decode (fn [[rg-idx [fields col-idxs]]]
+                 (if (empty? col-idxs)
+                   []
+                   (with-open [rdr ^ParquetFileReader (open-reader)]
+                     (.setRequestedSchema rdr (MessageType. (.getName schema) ^List fields))
+                     (row-group->columns (.readRowGroup rdr (int rg-idx)) rdr options
+                                         (row-groups rg-idx) col-idxs))))]
+    (->> (for [rg-idx rg-indexes
+               field-group field-groups]
+           [rg-idx field-group])
+         (hamf/pmap decode)
+         (partition-all (count field-groups))
+         (map (fn [rg-idx col-seqs]
+                (columns->row-group-ds (vec (apply concat col-seqs))
+                                       options (row-groups rg-idx)))
+              rg-indexes))))
 
 
 (defn parquet->ds-seq
@@ -846,12 +1223,46 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
   Column will have parquet metadata merged into their normal metadata.
   Reader will be closed upon termination of the sequence.
   The return value can be efficiently reduced over and iterated without leaking memory.  
-  See ham-fisted's lazy noncaching namespace for help."
+  See ham-fisted's lazy noncaching namespace for help.
+
+  Options:
+
+  * `:open-type` - When `:mmap`, path must be a local file.  The file is memory mapped
+    and row groups - and column chunks within row groups - are decoded in parallel.
+    Datasets are still returned in file order.
+  * `:predicate` - A predicate used to skip row groups that cannot contain matching rows
+    based on column chunk statistics and, for dictionary encoded chunks, dictionary
+    pages.  Row groups that are read are returned in full so rows still need to be
+    filtered.  Predicates are vectors of:
+     - `[:= col v]`, `[:not= col v]`, `[:< col v]`, `[:<= col v]`, `[:> col v]`,
+       `[:>= col v]`
+     - `[:between col lo hi]` - inclusive on both ends.
+     - `[:in col values]`
+     - `[:missing col]`, `[:not-missing col]`
+     - `[:and & preds]`, `[:or & preds]`, `[:not pred]`
+
+     Columns are named by their parquet path or by the result of `:key-fn` applied
+     to the path.  LocalDate and Instant values are converted to the physical type of
+     date and timestamp columns.
+  * `:page-filter?` - When true along with a predicate, pages are also filtered using the
+    column index of each row group so only rows in pages that may match are returned.
+    Ignored for `:open-type :mmap`.
+  * `:row-group-filter` - Function from row group metadata (see
+    [[parquet->metadata-seq]]) to boolean.  Row groups for which it returns false are not
+    read.  Statistics are under the `:statistics` key of each entry of `:columns`.
+
+```clojure
+(parquet->ds-seq \"events.parquet\"
+                 {:predicate [:and [:between \"ts\" start end]
+                                   [:in \"user\" #{\"a\" \"b\"}]]})
+```"
   ([path options]
-   (let [s (->row-group-supplier path)]
-     (lznc/map (fn [[fr rg m]]
-                 (row-group->ds rg fr options m))
-               s)))
+   (if (identical? :mmap (get options :open-type))
+     (mmap-ds-seq path options)
+     (let [s (->row-group-supplier path options)]
+       (lznc/map (fn [[fr rg m]]
+                   (row-group->ds rg fr options m))
+                 s))))
   ([^String path]
    (parquet->ds-seq path nil)))
 
@@ -863,7 +1274,8 @@ org.xerial.snappy/snappy-java {:mvn/version \"1.1.8.4\"}
   specifically `:column-allowlist` and `:column-blocklist` can be
   useful here.  The parquet metadata ends up as metadata on the
   datasets. `:column-whitelist` and `:column-blacklist` are available
-  but not preferred."
+  but not preferred.  `:open-type :mmap` decodes the file in parallel from a memory
+  mapping - see [[parquet->ds-seq]]."
   ([input options]
    (let [data-file (io/file input)
          _ (errors/when-not-errorf
@@ -1123,6 +1535,256 @@ To disable this warning use `:disable-parquet-warn-on-multiple-datasets`"
 
 
 
+(defn- parquet-properties
+  ^ParquetProperties [options]
+  (let [builder (ParquetProperties/builder)]
+    (when-let [v (:page-size options)] (.withPageSize builder (int v)))
+    (when-let [v (:dictionary-page-size options)] (.withDictionaryPageSize builder (int v)))
+    (when (contains? options :dictionary-enabled?)
+      (.withDictionaryEncoding builder (boolean (:dictionary-enabled? options))))
+    (when-let [v (:writer-version options)] (.withWriterVersion builder v))
+    (.build builder)))
+
+
+(defn- col->parquet-datatype
+  [col]
+  (-> (dtype/elemwise-datatype col)
+      (packing/unpack-datatype)
+      (casting/un-alias-datatype)))
+
+
+(defn- estimate-row-bytes
+  "Rough uncompressed size of one row used to split datasets into row groups."
+  ^long [ds]
+  (->> (ds-base/columns ds)
+       (map (fn [col]
+              (let [datatype (col->parquet-datatype col)]
+                (cond
+                  (identical? :boolean datatype) 1
+                  (int32-set datatype) 4
+                  (int64-set datatype) 8
+                  (identical? :float32 datatype) 4
+                  (identical? :float64 datatype) 8
+                  (str-set datatype)
+                  (let [n-sample (min 1000 (dtype/ecount col))
+                        rdr (dtype/->reader col)]
+                    (+ 4 (quot (long (reduce (fn [^long acc idx]
+                                               (+ acc (count (str (rdr idx)))))
+                                             0
+                                             (range n-sample)))
+                               (max 1 n-sample))))
+                  :else 8))))
+       (reduce + 1)
+       (long)))
+
+
+(defn- write-column-chunk!
+  "Write rows [sidx, eidx) of col into the column writer."
+  [col ^ColumnWriter writer ^ColumnWriteStore store ^long max-def ^long sidx ^long eidx]
+  (let [^RoaringBitmap missing (ds-col/missing col)
+        max-def (int max-def)
+        datatype (col->parquet-datatype col)
+        col-data (ds-proto/column-buffer col)]
+    (ParquetColumnChunkWriter/checkMissing (ds-col/column-name col) missing max-def)
+    (cond
+      (identical? :boolean datatype)
+      (ParquetColumnChunkWriter/writeBoolean writer store (dtype/->reader col)
+                                             missing max-def sidx eidx)
+      (identical? :local-date datatype)
+      (ParquetColumnChunkWriter/writeInt32 writer store
+                                           (dtype/->reader (dtype-dt/datetime->epoch
+                                                            :epoch-days col))
+                                           missing max-def sidx eidx)
+      (int32-set datatype)
+      (ParquetColumnChunkWriter/writeInt32 writer store (dtype/->reader col)
+                                           missing max-def sidx eidx)
+      (identical? :instant datatype)
+      (ParquetColumnChunkWriter/writeInt64 writer store
+                                           (dtype/->reader (dtype-dt/datetime->epoch
+                                                            :epoch-microseconds col))
+                                           missing max-def sidx eidx)
+      (identical? :local-time datatype)
+      (ParquetColumnChunkWriter/writeInt64
+       writer store
+       (let [rdr (dtype/->reader col)]
+         (dtype/make-reader :int64 (dtype/ecount col)
+                            (if-let [^LocalTime v (rdr idx)]
+                              (quot (.toNanoOfDay v)
+                                    datetime-constants/nanoseconds-in-microsecond)
+                              0)))
+       missing max-def sidx eidx)
+      (int64-set datatype)
+      (ParquetColumnChunkWriter/writeInt64 writer store (dtype/->reader col)
+                                           missing max-def sidx eidx)
+      (identical? :float32 datatype)
+      (ParquetColumnChunkWriter/writeFloat writer store (dtype/->reader col)
+                                           missing max-def sidx eidx)
+      (identical? :float64 datatype)
+      (ParquetColumnChunkWriter/writeDouble writer store (dtype/->reader col)
+                                            missing max-def sidx eidx)
+      (instance? StringTable col-data)
+      (let [^"[Lorg.apache.parquet.io.api.Binary;" dict
+            (into-array Binary (map #(Binary/fromString (str %))
+                                    (str-table/int->string col-data)))]
+        (ParquetColumnChunkWriter/writeStringTable
+         writer store (dtype/->buffer (str-table/indices col-data)) dict
+         missing max-def sidx eidx))
+      (str-set datatype)
+      (ParquetColumnChunkWriter/writeString writer store (dtype/->reader col)
+                                            missing max-def sidx eidx)
+      :else
+      (errors/throwf "Unsupported datatype for parquet writing: %s" datatype))))
+
+
+(defn- reduce-row-groups!
+  "Call write-group! with datasets of roughly block-size estimated bytes.  Rows of
+  consecutive datasets are coalesced so a sequence of small datasets does not produce
+  tiny row groups and datasets larger than block-size are split."
+  [write-group! ^long block-size ds-seq]
+  (let [pending (ArrayList.)
+        pending-bytes (long-array 1)
+        flush! (fn []
+                 (when-not (.isEmpty pending)
+                   (write-group! (if (== 1 (.size pending))
+                                   (.get pending 0)
+                                   (apply ds-base/concat-copying pending)))
+                   (.clear pending)
+                   (aset pending-bytes 0 0)))]
+    (doseq [ds ds-seq]
+      (let [n-rows (long (ds-base/row-count ds))
+            row-bytes (estimate-row-bytes ds)]
+        (loop [sidx 0]
+          (when (< sidx n-rows)
+            (let [avail (max 1 (quot (- block-size (aget pending-bytes 0)) row-bytes))
+                  eidx (min n-rows (+ sidx avail))]
+              (.add pending (if (and (== 0 sidx) (== eidx n-rows))
+                              ds
+                              (ds-base/select-rows ds (hamf/range sidx eidx))))
+              (aset pending-bytes 0 (+ (aget pending-bytes 0)
+                                       (* row-bytes (- eidx sidx))))
+              (when (>= (aget pending-bytes 0) block-size)
+                (flush!))
+              (recur eidx))))))
+    (flush!)))
+
+
+(defn- tracking-output-file
+  "Wrap an output file recording the stream it creates so the stream can be closed
+  when writing fails before ParquetFileWriter.end closes it."
+  ^OutputFile [^OutputFile output-file stream*]
+  (reify OutputFile
+    (create [f block-size-hint]
+      (vreset! stream* (.create output-file block-size-hint)))
+    (createOrOverwrite [f block-size-hint]
+      (vreset! stream* (.createOrOverwrite output-file block-size-hint)))
+    (supportsBlockSize [f] (.supportsBlockSize output-file))
+    (defaultBlockSize [f] (.defaultBlockSize output-file))))
+
+
+(defn- columnar-write-ds-seq!
+  "Write the datasets as row groups of roughly `:block-size` estimated bytes.  The
+  columns of a row group are encoded and compressed in parallel, each into its own page
+  store, and then flushed to the file in schema order."
+  [^OutputFile output-file ^MessageType schema options ds-seq]
+  (let [props (parquet-properties options)
+        ^Configuration conf (or (:hadoop-configuration options) (Configuration.))
+        codec (compression-codec (:compression-codec options))
+        block-size (long (get options :block-size ParquetWriter/DEFAULT_BLOCK_SIZE))
+        col-schemas (mapv #(MessageType. (.getName schema) ^List (vector %))
+                          (.getFields schema))
+        ;;Compressors are not threadsafe so each column gets its own.
+        codec-factories (mapv (fn [_] (CodecFactory. conf (.getPageSizeThreshold props)))
+                              col-schemas)
+        stream* (volatile! nil)
+        file-writer (ParquetFileWriter. (tracking-output-file output-file stream*)
+                                        schema ParquetFileWriter$Mode/CREATE
+                                        block-size ParquetWriter/MAX_PADDING_SIZE_DEFAULT)]
+    (try
+      (.start file-writer)
+      (reduce-row-groups!
+       (fn [ds]
+         (let [n-rows (ds-base/row-count ds)
+               columns (vec (ds-base/columns ds))]
+           (errors/when-not-errorf
+            (== (count columns) (count col-schemas))
+            "Dataset column count (%d) does not match parquet schema column count (%d)"
+            (count columns) (count col-schemas))
+           (let [stores (->> (range (count columns))
+                             (hamf/pmap
+                              (fn [col-idx]
+                                (let [^MessageType col-schema (col-schemas col-idx)
+                                      ^ColumnDescriptor desc (first (.getColumns col-schema))
+                                      page-store (ColumnChunkPageWriteStore.
+                                                  (.getCompressor ^CodecFactory
+                                                                  (codec-factories col-idx)
+                                                                  codec)
+                                                  col-schema
+                                                  (HeapByteBufferAllocator.)
+                                                  ParquetProperties/DEFAULT_COLUMN_INDEX_TRUNCATE_LENGTH)
+                                      col-store (.newColumnWriteStore props col-schema
+                                                                      page-store)]
+                                  (write-column-chunk! (columns col-idx)
+                                                       (.getColumnWriter col-store desc)
+                                                       col-store
+                                                       (.getMaxDefinitionLevel desc)
+                                                       0 n-rows)
+                                  (.flush col-store)
+                                  [page-store col-store])))
+                             (vec))]
+             (.startBlock file-writer n-rows)
+             (doseq [[^ColumnChunkPageWriteStore page-store
+                      ^ColumnWriteStore col-store] stores]
+               (.flushToFileWriter page-store file-writer)
+               (.close col-store))
+             (.endBlock file-writer))))
+       block-size ds-seq)
+      (.end file-writer (HashMap.))
+      (catch Throwable e
+        ;;end closes the stream - on failure it has to be closed here.
+        (when-let [^OutputStream os @stream*]
+          (try (.close os) (catch Throwable _e nil)))
+        (throw e))
+      (finally
+        (run! #(.release ^CodecFactory %) codec-factories)))))
+
+
+(defn- row-write-ds-seq!
+  [output-file ^MessageType schema options ds-seq]
+  (let [row-writer (ParquetRowWriter. ds-row->parquet schema {})
+        builder (ParquetRowWriter$WriterBuilder. output-file row-writer)]
+    (doseq [[k v] (select-keys options
+                               [:hadoop-configuration
+                                :compression-codec
+                                :block-size
+                                :page-size
+                                :dictionary-page-size
+                                :dictionary-enabled?
+                                :validating?
+                                :writer-version])]
+      (case k
+        :hadoop-configuration (.withConf builder ^Configuration v)
+        :compression-codec (.withCompressionCodec builder (compression-codec v))
+        :block-size (.withRowGroupSize builder (int v))
+        :page-size (.withPageSize builder (int v))
+        :dictionary-page-size (.withDictionaryPageSize builder (int v))
+        :dictionary-enabled? (.withDictionaryEncoding builder (boolean v))
+        :validating? (.withValidation builder (boolean v))
+        ;; :page-write-checksum? (.withPageWriteChecksumEnabled builder (boolean v))
+        :writer-version (.withWriterVersion builder v)))
+    (with-open [writer (.build builder)]
+      (doseq [ds ds-seq]
+        (set! (.dataset row-writer) (mapv (fn [col]
+                                            ;;Deconstruct the column
+                                            [(colname->fieldname col)
+                                             (-> (col->parquet-datatype col)
+                                                 (make-record-writer))
+                                             (ds-col/missing col)
+                                             (dtype-base/->reader col)])
+                                          (ds-base/columns ds)))
+        (dotimes [idx (ds-base/row-count ds)]
+          (.write writer idx))))))
+
+
 (defn ds-seq->parquet
   "Write a sequence of datasets to a parquet file.  Parquet will break the data
   stream up according to parquet file properties.  Path may be a string path or
@@ -1142,48 +1804,21 @@ To disable this warning use `:disable-parquet-warn-on-multiple-datasets`"
      `ParquetWriter/DEFAULT_IS_DICTIONARY_ENABLED`.
   * `:validating?` - Defaults to `ParquetWriter/DEFAULT_IS_VALIDATING_ENABLED`.
      parquet file.
-  * `:writer-version` - Defaults to `ParquetWriter/DEFAULT_WRITER_VERSION`."
+  * `:writer-version` - Defaults to `ParquetWriter/DEFAULT_WRITER_VERSION`.
+  * `:parquet-writer` - Either `:columnar` (default) or `:row`.  The columnar writer
+     pushes each column's data and missing bitmap directly into parquet column writers and
+     encodes the columns of a row group in parallel.  Row groups are sized by estimating
+     the uncompressed row width against `:block-size`.  The row writer goes through the
+     per-row `RecordConsumer` pathway and is the only one that respects `:validating?`."
   ([path options ds-seq]
    (let [ds-seq (map prepare-for-parquet ds-seq)
          first-ds (first ds-seq)
          ;;message type
          schema (ds->schema first-ds)
-         row-writer (ParquetRowWriter. ds-row->parquet schema {})
-         builder (ParquetRowWriter$WriterBuilder. (output-stream-output-file path options)
-                                                  row-writer)]
-     (doseq [[k v] (select-keys options
-                                [:hadoop-configuration
-                                 :compression-codec
-                                 :block-size
-                                 :page-size
-                                 :dictionary-page-size
-                                 :dictionary-enabled?
-                                 :validating?
-                                 :writer-version])]
-       (case k
-         :hadoop-configuration (.withConf builder ^Configuration v)
-         :compression-codec (.withCompressionCodec builder (compression-codec v))
-         :block-size (.withRowGroupSize builder (int v))
-         :page-size (.withPageSize builder (int v))
-         :dictionary-page-size (.withDictionaryPageSize builder (int v))
-         :dictionary-enabled? (.withDictionaryEncoding builder (boolean v))
-         :validating? (.withValidation builder (boolean v))
-        ;; :page-write-checksum? (.withPageWriteChecksumEnabled builder (boolean v))
-         :writer-version (.withWriterVersion builder v)))
-     (with-open [writer (.build builder)]
-       (doseq [ds ds-seq]
-         (set! (.dataset row-writer) (mapv (fn [col]
-                                             ;;Deconstruct the column
-                                             [(colname->fieldname col)
-                                              (-> (dtype/elemwise-datatype col)
-                                                  (packing/unpack-datatype)
-                                                  (casting/un-alias-datatype)
-                                                  (make-record-writer))
-                                              (ds-col/missing col)
-                                              (dtype-base/->reader col)])
-                                           (ds-base/columns ds)))
-         (dotimes [idx (ds-base/row-count ds)]
-           (.write writer idx))))
+         output-file (output-stream-output-file path options)]
+     (case (get options :parquet-writer :columnar)
+       :columnar (columnar-write-ds-seq! output-file schema options ds-seq)
+       :row (row-write-ds-seq! output-file schema options ds-seq))
      :ok))
   ([path ds-seq]
    (ds-seq->parquet path nil ds-seq)))
@@ -187,3 +187,36 @@
   (is-roundtrip-ok (float-array [0 1.9 2.9]))
   (is-roundtrip-ok (double-array [0 1.5 2.2])))
 
+
+
+(deftest one-hot-dense-and-sparse
+  (let [data (ds/->dataset {:s ["a" "b" nil "a" "c"]
+                            :n [1 2 3 1 nil]
+                            :d [1.5 2.5 1.5 nil 3.5]})
+        one-hot (ds/categorical->one-hot data [:s :n :d])]
+    (is (= [1 0 0 1 0] (vec (one-hot :s-a))))
+    (is (= [0 0 0 0 1] (vec (one-hot :s-c))))
+    (is (= [1 0 0 1 0] (vec (one-hot :n-1))))
+    (is (= [0 1 0 0 0] (vec (one-hot :d-2.5))))
+    (is (= :int8 (dtype/elemwise-datatype (one-hot :s-b))))
+    (is (= (vec (data :s))
+           (vec ((ds-cat/reverse-map-categorical-xforms one-hot) :s))))
+    (let [fit-data (ds-cat/fit-one-hot data :s)
+          sparse (ds-cat/transform-one-hot data fit-data {:sparse? true})]
+      (is (= [0 3] (vec (tech.v3.dataset.protocols/valid-rows (sparse :s-a)))))
+      (is (= [1 nil nil 1 nil] (vec (sparse :s-a))))
+      (is (= (vec (data :s))
+             (vec ((ds-cat/invert-one-hot-map sparse fit-data) :s)))))))
+
+
+(deftest categorical-map-numeric-columns
+  (let [data (ds/->dataset {:n [10 20 10 nil 30]
+                            :d [0.5 0.25 0.5 0.25 nil]})
+        mapped (ds/categorical->number data [:n :d] nil :float64)]
+    (is (= :float64 (dtype/elemwise-datatype (mapped :n))))
+    (is (= [3 4] (vec (ds/missing mapped))))
+    (is (= (vec (data :n))
+           (vec ((ds-cat/reverse-map-categorical-xforms mapped) :n))))
+    (is (thrown? Exception
+                 (ds-cat/transform-categorical-map
+                  data (ds-cat/fit-categorical-map (ds/head data 2) :n))))))
@@ -4,6 +4,7 @@
             [tech.v3.datatype.datetime.operations :as dt-dt-ops]
             [tech.v3.dataset :as ds]
             [tech.v3.dataset.compress :as compress]
+            [tech.v3.dataset.reductions :as ds-reduce]
             [tech.v3.dataset.protocols :as ds-proto]))
 
 
@@ -20,3 +21,80 @@
         cds (compress/compress-ds ds)]
     (is (every? compress/compressed-buffer? (map ds-proto/column-buffer (vals cds))))
     (is (= ds cds))))
+
+
+(deftest long-encodings
+  (let [n-rows 100000
+        rng (java.util.Random. 11)
+        ds (ds/->dataset {:ts (dt/make-container :int64 (map #(+ 1600000000000 (* 1000 (long %)))
+                                                             (range n-rows)))
+                          :accel (dt/make-container :int64 (map #(* (long %) (long %)) (range n-rows)))
+                          :ids (dt/make-container :int64 (reductions + (map (fn [_] (.nextInt rng 5))
+                                                                            (range n-rows))))
+                          :status (dt/make-container :int64 (map #(quot (long %) 5000) (range n-rows)))
+                          :codes (dt/make-container :int64 (map (fn [_] (+ 1000000000000 (.nextInt rng 1000)))
+                                                                (range n-rows)))
+                          :labels (map #(nth ["ok" "warn" "error"] (quot (long %) 40000))
+                                       (range n-rows))})
+        cds (compress/compress-ds ds)
+        cbuf #(ds-proto/column-buffer (cds %))]
+    (is (#{:delta :delta-of-delta} (:encoding (compress/compressed-buffer->map (cbuf :ts)))))
+    (is (= :delta-of-delta (:encoding (compress/compressed-buffer->map (cbuf :accel)))))
+    (is (= :delta (:encoding (compress/compressed-buffer->map (cbuf :ids)))))
+    (is (compress/rle-buffer? (cbuf :status)))
+    (is (compress/packed-buffer? (cbuf :codes)))
+    (is (compress/rle-buffer? (cbuf :labels)))
+    (is (= ds cds))
+    (doseq [colname (keys ds)]
+      (let [b (cbuf colname)]
+        (is (= (vec (ds colname))
+               (vec (dt/->reader (compress/map->compressed-buffer
+                                  (compress/compressed-buffer->map b))))))))
+    (is (= (vec (dt/sub-buffer (ds :ts) 1000 300))
+           (vec (dt/sub-buffer (cbuf :ts) 1000 300))))))
+
+
+(deftest compressed-domain-execution
+  (let [n-rows 1000
+        ds (ds/->dataset {:status (-> (mapv #(nth [:ok :warn :error :ok] (rem (long %) 7))
+                                            (range n-rows))
+                                      (assoc 3 nil 500 nil))
+                          :region (repeat n-rows "eu")
+                          :small (map #(+ 1000 (rem (long %) 100)) (range n-rows))
+                          :v (range n-rows)})
+        cds (compress/compress-ds ds)]
+    (is (compress/dict-buffer? (ds-proto/column-buffer (cds :status))))
+    (is (compress/const-buffer? (ds-proto/column-buffer (cds :region))))
+    (is (= (ds/filter-column ds :status #{:warn :error})
+           (ds/filter-column cds :status #{:warn :error})))
+    (is (= (ds/filter-column ds :status nil?)
+           (ds/filter-column cds :status nil?)))
+    (is (= (ds/filter-column ds :region "eu")
+           (ds/filter-column cds :region "eu")))
+    ;;Missing numeric rows never pass and typed predicates are never handed nil
+    (let [ds (ds/->dataset {:small (-> (mapv #(+ 1000 (rem (long %) 100)) (range n-rows))
+                                       (assoc 7 nil))})
+          cds (compress/compress-ds ds)
+          pred (fn [^long v] (< v 1010))]
+      (is (= (vec ((ds/filter-column ds :small pred) :small))
+             (vec ((ds/filter-column cds :small pred) :small)))))
+    (let [expected (ds/group-by-column->indexes ds :status)
+          result (ds/group-by-column->indexes cds :status)]
+      (is (= (set (keys expected)) (set (keys result))))
+      (doseq [k (keys expected)]
+        (is (= (vec (get expected k)) (vec (get result k))))))
+    (is (= (into {} (ds/group-by-column ds :status))
+           (into {} (ds/group-by-column cds :status))))
+    (is (= (ds/unique-by-column ds :status)
+           (ds/unique-by-column cds :status)))
+    (is (= (frequencies (ds :status))
+           (compress/value-frequencies (cds :status))))
+    (is (= {:min 1000.0 :max 1099.0 :sum (double (reduce + (ds :small))) :n-values n-rows}
+           (compress/numeric-summary (cds :small))))
+    (let [agg #(-> (ds-reduce/group-by-column-agg :status {:n (ds-reduce/row-count)
+                                                           :v (ds-reduce/sum :v)}
+                                                  [%])
+                   (ds/sort-by-column :v))]
+      (is (= (agg ds) (agg cds))))
+    (is (= (vec ((ds/descriptive-stats ds) :mode))
+           (vec ((ds/descriptive-stats cds) :mode))))))
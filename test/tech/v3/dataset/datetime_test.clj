@@ -2,7 +2,9 @@
   (:require [tech.v3.dataset :as ds]
             [tech.v3.datatype :as dtype]
             [tech.v3.datatype.datetime :as dtype-dt]
-            [clojure.test :refer [deftest is]]))
+            [tech.v3.dataset.io.datetime :as parse-dt]
+            [clojure.test :refer [deftest is]])
+  (:import [java.time LocalDate LocalDateTime LocalTime Instant]))
 
 
 (deftest epoch-millis-second-maps
@@ -60,3 +62,36 @@
            (ds/->dataset {:dt [(java.time.LocalDateTime/of 2020 01 01 11 22 33)
                                (java.time.LocalDateTime/of 2020 10 01 01 01 01)]})
            :dt) 0))))
+
+
+
+(deftest fast-path-date-parsing
+  (doseq [[s expected] [["2020-01-05" (LocalDate/of 2020 1 5)]
+                        ["2020/1/5" (LocalDate/of 2020 1 5)]
+                        ["20200229" (LocalDate/of 2020 2 29)]
+                        ["12/31/1999" (LocalDate/of 1999 12 31)]
+                        ["1-2-2003" (LocalDate/of 2003 1 2)]
+                        ;;formatter fallback
+                        ["Jan 02 2003" (LocalDate/of 2003 1 2)]]]
+    (is (= expected (parse-dt/parse-local-date s))))
+  (is (= (LocalTime/of 9 30 15 123000000) (parse-dt/parse-local-time "9:30:15.123")))
+  (is (= (LocalTime/of 21 30) (parse-dt/parse-local-time "9:30 PM")))
+  (is (= (LocalDateTime/of 2020 1 5 13 45)
+         (parse-dt/parse-local-date-time "1/5/2020 13:45")))
+  (is (= (LocalDateTime/of 1950 6 1 0 0 1)
+         (parse-dt/parse-local-date-time "1950-06-01T00:00:01")))
+  (let [data (ds/->dataset (java.io.ByteArrayInputStream.
+                            (.getBytes (str "d,i\n"
+                                            "2020-01-05,2020-01-05T10:00:00Z\n"
+                                            ",2020-01-05T10:00:00.5+05:30\n"
+                                            "2020/1/7,\n"
+                                            "Jan 08 2020,1960-01-05T10:00:00Z\n")))
+                           {:file-type :csv
+                            :parser-fn {"i" :packed-instant}})]
+    (is (= :packed-local-date (dtype/elemwise-datatype (data "d"))))
+    (is (= [(LocalDate/of 2020 1 5) nil (LocalDate/of 2020 1 7) (LocalDate/of 2020 1 8)]
+           (vec (data "d"))))
+    (is (= :packed-instant (dtype/elemwise-datatype (data "i"))))
+    (is (= [(Instant/parse "2020-01-05T10:00:00Z") (Instant/parse "2020-01-05T04:30:00.500Z")
+            nil (Instant/parse "1960-01-05T10:00:00Z")]
+           (vec (data "i"))))))
@@ -399,3 +399,72 @@
   (is (ds-join/pd-merge (ds/->dataset {:t [0 1] :x [:a :b]})
                         (ds/empty-dataset)                        
                         {:on :t :how :outer})))
+
+
+(deftest radix-hash-join
+  (let [n-rows 200000
+        ;;Large enough for radix partitioning.
+        lhs (-> (ds/->dataset {:a (map #(rem (long %) 50000) (range n-rows))
+                               :s (map #(str "k" (rem (long %) 7000)) (range n-rows))
+                               :b (range n-rows)})
+                (ds/update-column :a #(ds-col/set-missing % [3 17 1000])))
+        rhs (-> (ds/->dataset {:a (map #(rem (* 7 (long %)) 60000) (range n-rows))
+                               :s (map #(str "k" (rem (* 3 (long %)) 9000)) (range n-rows))
+                               :c (range n-rows)})
+                (ds/update-column :a #(ds-col/set-missing % [5 99])))]
+    (doseq [colname [:a :s]]
+      (let [options {:lhs-missing? true :rhs-missing? true}
+            hash-res (ds-join/hash-join colname lhs rhs options)
+            radix-res (ds-join/hash-join colname lhs rhs
+                                         (assoc options :join-algorithm :radix-hash))]
+        (doseq [k [:lhs-indexes :rhs-indexes :lhs-missing :rhs-missing]]
+          (is (= (vec (hash-res k)) (vec (radix-res k)))
+              (str colname " " k)))))
+    (is (= (vec ((ds-join/left-join :s lhs rhs) :c))
+           (vec ((ds-join/left-join :s lhs rhs {:join-algorithm :radix-hash}) :c))))
+    (is (= (vec ((ds-join/pd-merge lhs rhs {:on :a :how :outer}) :c))
+           (vec ((ds-join/pd-merge lhs rhs {:on :a :how :outer
+                                            :join-algorithm :radix-hash}) :c))))))
+
+
+(defn- sorted-pairs
+  [join-res]
+  (sort (map vector (join-res :lhs-indexes) (join-res :rhs-indexes))))
+
+
+(deftest sort-merge-join
+  (let [n-rows 5000
+        lhs (-> (ds/->dataset {:a (map #(rem (long %) 700) (range n-rows))
+                               :s (map #(str "k" (rem (long %) 300)) (range n-rows))
+                               :d (map #(* 0.5 (rem (long %) 90)) (range n-rows))
+                               :b (range n-rows)})
+                (ds/update-column :a #(ds-col/set-missing % [3 17 1000])))
+        rhs (-> (ds/->dataset {:a (map #(rem (* 7 (long %)) 900) (range n-rows))
+                               :s (map #(str "k" (rem (* 3 (long %)) 500)) (range n-rows))
+                               :d (map #(* 0.5 (rem (long %) 120)) (range n-rows))
+                               :c (range n-rows)})
+                (ds/update-column :a #(ds-col/set-missing % [5 99])))
+        options {:lhs-missing? true :rhs-missing? true}]
+    (doseq [colname [:a :s :d]]
+      (let [hash-res (ds-join/hash-join colname lhs rhs options)
+            sm-res (ds-join/hash-join colname lhs rhs
+                                      (assoc options :join-algorithm :sort-merge))]
+        (is (= (sorted-pairs hash-res) (sorted-pairs sm-res)) (str colname))
+        (doseq [k [:lhs-missing :rhs-missing]]
+          (is (= (sort (hash-res k)) (sort (sm-res k))) (str colname " " k)))))
+    ;;Pre-sorted inputs take the no-sort path and must produce the same rows.
+    (let [lhs-sorted (ds/sort-by-column lhs :b)
+          rhs-sorted (ds/sort-by-column (ds/filter-column rhs :d #(< (double %) 10.0)) :d)
+          hash-res (ds-join/hash-join :d lhs-sorted rhs-sorted options)
+          sm-res (ds-join/hash-join :d lhs-sorted rhs-sorted
+                                    (assoc options :join-algorithm :sort-merge))]
+      (is (= (sorted-pairs hash-res) (sorted-pairs sm-res))))
+    (is (= (sort ((ds-join/left-join :s lhs rhs) :c))
+           (sort ((ds-join/left-join :s lhs rhs {:join-algorithm :sort-merge}) :c))))
+    (doseq [how [:inner :left :right :outer]]
+      (let [merge-opts {:on [:a :s] :how how}]
+        (is (= (frequencies (ds/rows (ds-join/pd-merge lhs rhs merge-opts)))
+               (frequencies (ds/rows (ds-join/pd-merge lhs rhs (assoc merge-opts
+                                                              :join-algorithm
+                                                              :sort-merge)))))
+            (str how))))))
@@ -5,6 +5,7 @@
             [tech.v3.datatype :as dtype]
             [tech.v3.datatype.datetime :as dtype-dt]
             [tech.v3.datatype.functional :as dfn]
+            [tech.v3.datatype.statistics :as stats]
             [tech.v3.tensor :as dtt]
             [clojure.test :refer [deftest is]]))
 
@@ -51,6 +52,45 @@
            (vec (ds :b))))))
 
 
+(deftest jvm-matrix-multiply
+  (let [lhs (dtt/->tensor (partition 7 (map #(Math/sin (double %)) (range 35)))
+                          :datatype :float64)
+        rhs (dtt/transpose (dtt/->tensor (partition 7 (map #(Math/cos (double %)) (range 21)))
+                                         :datatype :float64)
+                           [1 0])
+        result (ds-tens/jvm-matrix-multiply lhs rhs)]
+    (is (= [5 3] (dtype/shape result)))
+    (is (dfn/equals (dtt/->tensor
+                     (for [row (dtt/rows lhs)]
+                       (for [col (dtt/columns rhs)]
+                         (dfn/sum (dfn/* row col)))))
+                    result
+                    1e-10))))
+
+
+(deftest jvm-correlation-and-pca
+  (let [test-ds (ds/->dataset {:a [7 4 6 8 8 7 5 9 7 8]
+                               :b [4 1 3 6 5 2 3 5 4 2]
+                               :c [3 8 5 1 7 9 3 8 5 2]})
+        corr-table (ds-math/correlation-table test-ds)
+        pca (ds-math/fit-pca test-ds {:n-components 3})
+        projected (ds-math/transform-pca test-ds pca)]
+    (is (= [:a 1.0] (first (corr-table :a))))
+    (is (dfn/equals [(stats/pearsons-correlation (test-ds :a) (test-ds :c))]
+                    [(second (first (filter #(= :c (first %)) (corr-table :a))))]
+                    1e-10))
+    (is (= 3 (ds/column-count projected)))
+    ;;The eigenvalues are the variances of the projected columns and their sum is the
+    ;;total variance of the dataset.
+    (is (dfn/equals (:eigenvalues pca)
+                    (mapv dfn/variance (ds/columns projected))
+                    1e-8))
+    (is (dfn/equals [(reduce + (:eigenvalues pca))]
+                    [(reduce + (map dfn/variance (ds/columns test-ds)))]
+                    1e-8))
+    (is (= 1 (:n-components (ds-math/fit-pca test-ds {:variance-amount 0.4}))))))
+
+
 (comment
   (def test-ds (ds/->dataset {:a [7 4 6 8 8 7 5 9 7 8]
                               :b [4 1 3 6 5 2 3 5 4 2]
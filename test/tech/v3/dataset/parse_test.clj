@@ -353,6 +353,23 @@
     (is (= 197 (count (filter #(not= 0.0 % ) (ds "pvalue")))))))
 
 
+(deftest primitive-number-promotion
+  (let [csv (str "a,b,c,d,e\n"
+                 "1,1,1,1,1\n"
+                 "-2,40000,,2.5e3,x\n"
+                 ",-3000000000,3,NaN,2\n"
+                 "+4,4,1.5,1E-400,3\n")
+        ds (ds/->dataset (java.io.ByteArrayInputStream. (.getBytes csv))
+                         {:file-type :csv})]
+    (is (= [:int16 :int64 :float64 :float64 :string]
+           (mapv (comp dtype/elemwise-datatype ds) ["a" "b" "c" "d" "e"])))
+    (is (= [1 -2 nil 4] (vec (ds "a"))))
+    (is (= [1 40000 -3000000000 4] (vec (ds "b"))))
+    (is (= [1.0 nil 3.0 1.5] (vec (ds "c"))))
+    (is (= [1.0 2500.0 nil 0.0] (vec (ds "d"))))
+    (is (= ["1" "x" "2" "3"] (vec (ds "e"))))))
+
+
 (deftest string-separators
   (let [ds (ds/->dataset "test/data/double_parse_test.csv" {:separator ","})]
     (is (= 197 (count (filter #(not= 0.0 % ) (ds "pvalue")))))
@@ -0,0 +1,66 @@
+(ns tech.v3.dataset.predicate-test
+  (:require [tech.v3.dataset :as ds]
+            [tech.v3.dataset.predicate :as ds-pred]
+            [tech.v3.dataset.reductions :as ds-reduce]
+            [tech.v3.dataset.compress :as compress]
+            [clojure.test :refer [deftest is]])
+  (:import [java.time LocalDate]
+           [org.roaringbitmap RoaringBitmap]))
+
+
+(def stocks (ds/->dataset "test/data/stocks.csv" {:key-fn keyword}))
+
+
+(defn- same-rows?
+  [pred row-fn]
+  (= (vec (ds/rowvecs (ds/filter stocks pred)))
+     (vec (ds/rowvecs (ds/filter stocks row-fn)))))
+
+
+(deftest predicate-filter
+  (is (same-rows? [:> :price 100] #(> (:price %) 100)))
+  (is (same-rows? [:between :price 50 100.5] #(<= 50 (:price %) 100.5)))
+  (is (same-rows? [:in :symbol #{"AAPL" "GOOG"}] #(#{"AAPL" "GOOG"} (:symbol %))))
+  (is (same-rows? [:and [:>= :date (LocalDate/parse "2005-01-01")]
+                   [:or [:= :symbol "IBM"] [:< :price 20]]]
+                  #(and (not (.isBefore ^LocalDate (:date %) (LocalDate/parse "2005-01-01")))
+                        (or (= "IBM" (:symbol %)) (< (:price %) 20)))))
+  (is (same-rows? [:not [:in :symbol ["MSFT"]]] #(not= "MSFT" (:symbol %))))
+  (is (= (ds/row-count (ds/filter stocks #(> (:price %) 100)))
+         (ds/row-count (ds/filter-column stocks :price [:> 100]))))
+  (let [bm (ds-pred/predicate->bitmap stocks [:= :symbol "AAPL"])]
+    (is (instance? RoaringBitmap bm))
+    (is (= #{"AAPL"} (set ((ds/select-rows stocks bm) :symbol))))))
+
+
+(deftest predicate-missing
+  (let [data (ds/->dataset {:a [1 nil 3 nil 5]
+                            :b [1.0 2.0 nil 4.0 5.0]})]
+    (is (= [0 2 4] (vec (ds-pred/predicate->bitmap data [:not-missing :a]))))
+    (is (= [1 3] (vec (ds-pred/predicate->bitmap data [:missing :a]))))
+    (is (= [2 4] (vec (ds-pred/predicate->bitmap data [:> :a 1]))))
+    ;;Comparisons exclude missing values while :not is the complement
+    (is (= [0 3 4] (vec (ds-pred/predicate->bitmap data [:not= :b 2.0]))))
+    (is (= [0 2 3 4] (vec (ds-pred/predicate->bitmap data [:not [:= :b 2.0]]))))
+    (is (= [0 1 3 4] (vec (ds-pred/predicate->bitmap data [:or [:missing :a] [:< :b 2.5]
+                                                            [:= :a 5]]))))))
+
+
+(deftest predicate-compressed-columns
+  (let [data (ds/->dataset {:a (mapcat #(repeat 100 %) (range 10))})
+        compressed (compress/compress-ds data)]
+    (is (= (vec (ds-pred/predicate->bitmap data [:between :a 3 5]))
+           (vec (ds-pred/predicate->bitmap compressed [:between :a 3 5]))))))
+
+
+(deftest predicate-index-filter
+  (let [agg-fn #(ds-reduce/group-by-column-agg
+                 :symbol {:n (ds-reduce/row-count)}
+                 {:index-filter %}
+                 [stocks stocks])
+        fn-result (agg-fn (fn [dataset]
+                            (let [rdr (tech.v3.datatype/->reader (dataset :price))]
+                              #(> (.readDouble rdr (long %)) 100.0))))
+        pred-result (agg-fn [:> :price 100.0])]
+    (is (= (zipmap (fn-result :symbol) (fn-result :n))
+           (zipmap (pred-result :symbol) (pred-result :n))))))
@@ -376,6 +376,102 @@
     (is (= (first (:max-x out-ds))
            ev))))
 
+
+(deftest partitioned-engine-test
+  (let [stocks (ds/->dataset "test/data/stocks.csv" {:key-fn keyword})
+        stocks (assoc stocks :year (dtype/emap #(.getYear ^LocalDate %) :int32 (stocks :date)))
+        agg-map {:n-elems (ds-reduce/row-count)
+                 :price-sum (ds-reduce/sum :price)}
+        run-agg (fn [colname options]
+                  (-> (ds-reduce/group-by-column-agg colname agg-map options
+                                                     [stocks stocks stocks])
+                      (ds/sort-by-column colname)))]
+    (doseq [colname [:symbol :date :year]]
+      (let [cmap-ds (run-agg colname nil)
+            part-ds (run-agg colname {:engine :partitioned})
+            metrics (::ds-reduce/metrics (meta part-ds))]
+        (is (= (vec (cmap-ds colname)) (vec (part-ds colname))))
+        (is (= (vec (cmap-ds :n-elems)) (vec (part-ds :n-elems))))
+        (is (dfn/equals (cmap-ds :price-sum) (part-ds :price-sum)))
+        (is (= :partitioned (:engine metrics)))
+        (is (= 3 (:n-primitive-datasets metrics)))
+        (is (= (* 3 (ds/row-count stocks)) (:n-rows metrics)))))))
+
+
+(deftest spill-to-disk-test
+  (let [n-rows 20000
+        ds-seq (->> (range 4)
+                    (map (fn [^long offset]
+                           (ds/->dataset {:a (map #(rem (+ (* offset 3001) (long %)) 9000)
+                                                  (range n-rows))
+                                          :b (map #(str "k" (rem (long %) 7))
+                                                  (range n-rows))
+                                          :c (range n-rows)}))))
+        agg-map {:n-elems (ds-reduce/row-count)
+                 :c-sum (ds-reduce/sum :c)}
+        run-agg (fn [colname options]
+                  (-> (ds-reduce/group-by-column-agg colname agg-map options ds-seq)
+                      (ds/sort-by (fn [row] (mapv row (if (sequential? colname)
+                                                        colname
+                                                        [colname]))))))]
+    (doseq [colname [:a [:a :b]]
+            engine [:concurrent-map :partitioned]]
+      (let [mem-ds (run-agg colname {:engine engine})
+            spill-ds (run-agg colname {:engine engine
+                                       :max-groups-in-memory 1000
+                                       :spill-partitions 8})
+            metrics (::ds-reduce/metrics (meta spill-ds))]
+        (is (:spilled? metrics))
+        (is (pos? (long (:n-spilled-rows metrics))))
+        (is (= (ds/row-count mem-ds) (:n-groups metrics)))
+        (is (= (vec (ds/rows mem-ds)) (vec (ds/rows spill-ds))) (str colname " " engine))))))
+
+
+(deftest spill-columns-test
+  ;;Only the keys and the reducers' inputs are spilled
+  (is (= [:a :b :c]
+         (#'ds-reduce/spill-columns [:a :b] [(ds-reduce/first-value :a)
+                                             (ds-reduce/row-count)
+                                             (ds-reduce/sum :c)
+                                             (ds-reduce/prob-quantile :c 0.5)])))
+  ;;Reducers that may read any column spill every column
+  (is (nil? (#'ds-reduce/spill-columns [:a] [(ds-reduce/reservoir-dataset 10)]))))
+
+
+(deftest spill-cleanup-on-failure-test
+  (let [spill-dir (.toFile (java.nio.file.Files/createTempDirectory
+                            "spill-cleanup" (make-array java.nio.file.attribute.FileAttribute 0)))
+        ds-seq (fn [fail-idx]
+                 (->> (range 4)
+                      (map (fn [^long offset]
+                             (when (== offset (long fail-idx))
+                               (throw (ex-info "source failure" {})))
+                             (ds/->dataset {:a (map #(+ (* offset 5000) (long %)) (range 5000))
+                                            :c (range 5000)})))))
+        options {:max-groups-in-memory 1000
+                 :spill-partitions 4
+                 :spill-directory (.getPath spill-dir)}]
+    (try
+      ;;Failure realizing the dataset sequence after the spill was opened.
+      (is (thrown? Exception
+                   (ds-reduce/group-by-column-agg :a {:n (ds-reduce/row-count)}
+                                                  options (ds-seq 2))))
+      (is (empty? (.listFiles spill-dir)))
+      ;;Failure inside a reduction step after the spill was opened.
+      (is (thrown? Exception
+                   (ds-reduce/group-by-column-agg
+                    :a {:n (ds-reduce/row-count)}
+                    (assoc options :index-filter
+                           (fn [ds]
+                             (when (< 5000 (long (first (ds :a))))
+                               (throw (ex-info "filter failure" {})))
+                             (hamf/long-predicate idx true)))
+                    (ds-seq 4))))
+      (is (empty? (.listFiles spill-dir)))
+      (finally
+        (run! #(.delete ^java.io.File %) (.listFiles spill-dir))
+        (.delete spill-dir)))))
+
 (comment
 
   (do
@@ -0,0 +1,142 @@
+(ns tech.v3.dataset.scan-test
+  (:require [tech.v3.dataset :as ds]
+            [tech.v3.dataset.scan :as scan]
+            [tech.v3.dataset.reductions :as ds-reduce]
+            [tech.v3.libs.parquet :as parquet]
+            [tech.v3.libs.arrow :as arrow]
+            [clojure.test :refer [deftest is]])
+  (:import [java.io File]
+           [java.time LocalDate]))
+
+
+(defn- delete-tree!
+  [^File f]
+  (when (.isDirectory f)
+    (doseq [child (.listFiles f)]
+      (delete-tree! child)))
+  (.delete f))
+
+
+(deftest partitioned-scan
+  (let [root (File. "scan-test-data")]
+    (try
+      (doseq [date ["2026-10-01" "2026-10-02"]
+              region ["eu" "us"]]
+        (let [dir (File. root (str "date=" date "/region=" region))
+              data (ds/->dataset {"price" (range 10)})]
+          (.mkdirs dir)
+          (parquet/ds->parquet data (.getPath (File. dir "part-0001.parquet")))
+          (arrow/dataset->stream! data (.getPath (File. dir "part-0002.arrow")))))
+      (let [all-ds (vec (scan/scan-ds-seq root {:parallelism 2 :prefetch 1}))
+            eu-ds (vec (scan/scan-ds-seq root {:predicate [:and
+                                                           [:= "region" "eu"]
+                                                           [:>= "date" (LocalDate/parse "2026-10-02")]
+                                                           [:> "price" 5]]}))
+            agg (ds-reduce/group-by-column-agg
+                 "region" {:n (ds-reduce/row-count)}
+                 (scan/scan-ds-seq root))]
+        (is (= 8 (count all-ds)))
+        (is (= 80 (reduce + (map ds/row-count all-ds))))
+        (is (every? #(= LocalDate (type (first (% "date")))) all-ds))
+        ;;Only the eu files of the second day are read.
+        (is (= 2 (count (scan/scan-files-info root {:predicate [:and
+                                                                [:= "region" "eu"]
+                                                                [:>= "date" (LocalDate/parse "2026-10-02")]]}))))
+        (is (= 2 (count eu-ds)))
+        (is (every? #(= #{"eu"} (set (% "region"))) eu-ds))
+        (is (= {"eu" 40 "us" 40}
+               (zipmap (agg "region") (agg :n)))))
+      (finally
+        (delete-tree! root)))))
+
+
+(defn- scan-threads
+  []
+  (->> (keys (Thread/getAllStackTraces))
+       (filter #(.startsWith (.getName ^Thread %) "tmd-scan-"))
+       (filter #(.isAlive ^Thread %))))
+
+
+(defn- await-no-scan-threads
+  []
+  (loop [n 0]
+    (when (and (seq (scan-threads)) (< n 50))
+      (Thread/sleep 100)
+      (recur (inc n))))
+  (empty? (scan-threads)))
+
+
+(deftest scan-early-termination
+  (let [root (File. "scan-early-termination-data")]
+    (try
+      (doseq [region (map #(str "r" %) (range 8))]
+        (let [dir (File. root (str "region=" region))]
+          (.mkdirs dir)
+          (parquet/ds->parquet (ds/->dataset {"price" (range 100)})
+                               (.getPath (File. dir "part-0001.parquet")))))
+      (let [options {:parallelism 2 :prefetch 1}]
+        ;;Reductions stop the reading threads when they terminate early
+        (is (= 100 (reduce (fn [_ ds] (reduced (ds/row-count ds)))
+                           0
+                           (scan/scan-ds-seq root options))))
+        (is (await-no-scan-threads))
+        ;;Closing the scan stops the threads of abandoned sequences
+        (with-open [^java.lang.AutoCloseable scan (scan/scan-ds-seq root options)]
+          (is (= 2 (count (take 2 scan)))))
+        (is (await-no-scan-threads))
+        (is (= 8 (count (into [] (scan/scan-ds-seq root options)))))
+        ;;seq and iteration share one scan - a second scan would leave its threads
+        ;;blocked on its full queue
+        (let [scan (scan/scan-ds-seq root options)]
+          (is (not (empty? scan)))
+          (is (some? (first scan)))
+          (is (identical? (seq scan) (seq scan)))
+          (is (= 8 (count (vec scan))))
+          (is (= 8 (count (iterator-seq (.iterator ^Iterable scan)))))
+          (is (= 800 (reduce + 0 (map ds/row-count scan))))
+          (is (await-no-scan-threads))))
+      (finally
+        (delete-tree! root)))))
+
+
+(deftest partitioned-write
+  (let [root (File. "partitioned-write-data")]
+    (try
+      (let [ds-seq (for [day [1 2 3]]
+                     (ds/->dataset {"date" (repeat 100 (LocalDate/of 2026 10 day))
+                                    "region" (take 100 (cycle ["eu" "us" "south america" nil]))
+                                    "price" (range 100)}))
+            paths (scan/ds-seq->partitioned! root ["date" "region"]
+                                             {:max-rows-per-file 10
+                                              :max-open-writers 3}
+                                             ds-seq)
+            scanned (vec (scan/scan-ds-seq root))]
+        (is (every? #(.exists (File. ^String %)) paths))
+        (is (= 300 (reduce + (map ds/row-count scanned))))
+        (is (every? #(<= (ds/row-count %) 10) scanned))
+        (is (= #{"eu" "us" "south america" nil}
+               (set (mapcat #(% "region") scanned))))
+        (is (= 75 (->> (scan/scan-ds-seq root {:predicate [:= "region" "south america"]})
+                       (map ds/row-count)
+                       (reduce +))))
+        (is (= (* 3 (reduce + (range 100)))
+               (reduce + (mapcat #(% "price") scanned)))))
+      (finally
+        (delete-tree! root)))))
+
+
+(deftest partitioned-write-buffers-splits
+  (let [root (File. "partitioned-write-buffered-data")]
+    (try
+      (let [ds-seq (for [idx (range 50)]
+                     (ds/->dataset {"region" (take 10 (cycle ["eu" "us"]))
+                                    "price" (range (* idx 10) (* (inc idx) 10))}))
+            paths (scan/ds-seq->partitioned! root ["region"] {:file-format :arrow} ds-seq)
+            scanned (vec (scan/scan-ds-seq root))]
+        (is (= 2 (count paths)))
+        ;;Each partition's splits are written as a single record batch
+        (is (= 2 (count scanned)))
+        (is (= [250 250] (mapv ds/row-count scanned)))
+        (is (= (set (range 500)) (set (mapcat #(% "price") scanned)))))
+      (finally
+        (delete-tree! root)))))
@@ -20,6 +20,7 @@
             [tech.v3.dataset.column-filters :as cf]
             [tech.v3.dataset.impl.column :as col-impl]
             [tech.v3.dataset.print :as ds-print]
+            [tech.v3.dataset.io.nippy :as ds-nippy]
             ;;Loading multimethods required to load the files
             [tech.v3.libs.poi]
             [tech.v3.libs.fastexcel]
@@ -925,6 +926,32 @@
     (is (= ds thawed-ds))))
 
 
+;;Numeric, boolean, string (with missing) and fallback columns all round trip through
+;;the columnar format and thaw as views of a direct buffer.
+(deftest columnar-nippy-round-trip
+  (let [stocks (ds/->dataset "test/data/stocks.csv" {:key-fn keyword})
+        n (ds/row-count stocks)
+        ds (-> stocks
+               (assoc :flag (dtype/make-reader :boolean n (even? idx))
+                      :small (dtype/make-reader :uint8 n (rem idx 200))
+                      :maybe (ds-col/new-column :maybe (map #(when (odd? %) (str "s" %))
+                                                           (range n)))
+                      :obj (vec (repeat n {:a 1})))
+               (vary-meta assoc :name "stocks-columnar"))
+        data (ds-nippy/freeze-columnar ds)
+        direct (doto (java.nio.ByteBuffer/allocateDirect (alength data))
+                 (.put data)
+                 (.flip))]
+    (doseq [thawed [(nippy/thaw (nippy/freeze ds))
+                    (ds-nippy/thaw-columnar data)
+                    (ds-nippy/thaw-columnar direct)]]
+      (is (= "stocks-columnar" (ds/dataset-name thawed)))
+      (is (= (mapv meta (vals ds)) (mapv meta (vals thawed))))
+      (is (= (vec (ds/missing (ds :maybe))) (vec (ds/missing (thawed :maybe)))))
+      (doseq [k (keys ds)]
+        (is (= (vec (ds k)) (vec (thawed k))) (str k))))))
+
+
 (deftest unique-by-nil-regression
   (-> (ds/->dataset [])
       (ds/add-column (ds-col/new-column :abc [nil nil]))
@@ -1040,6 +1067,51 @@
            data))))
 
 
+(deftest merge-string-tables-test
+  (let [lhs (str-table/string-table-from-strings ["a" "b" "a" "c"])
+        rhs (str-table/string-table-from-strings ["c" "d" "a"])
+        other (str-table/string-table-from-strings ["e" "b"])
+        merged (str-table/merge-string-tables lhs rhs other)]
+    (is (= ["a" "b" "a" "c" "c" "d" "a" "e" "b"] (vec merged)))
+    (is (= ["a" "b" "c" "d" "e"] (vec (str-table/int->string merged))))
+    (is (= ["a" "b" "a" "c"] (vec lhs)))
+    ;;Merged tables grow past the index width of the merged dictionary.
+    (let [extra (mapv #(str "x" %) (range 300))]
+      (doseq [s extra] (.add ^java.util.List merged s))
+      (is (= (concat ["a" "b" "a" "c" "c" "d" "a" "e" "b"] extra) (vec merged))))
+    (let [strs (mapv #(str "s" (rem (long %) 37)) (range 10000))]
+      (is (= strs (vec (str-table/string-table-from-strings-parallel strs)))))
+    (let [ds (ds/->dataset {:a (range 10000)})
+          result (ds/pmap-ds ds (fn [ds]
+                                  (ds/->dataset {:s (map #(str "s" (rem (long %) 37))
+                                                         (ds :a))}))
+                             {:max-batch-size 1000})]
+      (is (ds-base/column->string-table (result :s)))
+      (is (= (mapv #(str "s" (rem (long %) 37)) (range 10000))
+             (vec (result :s)))))))
+
+
+(deftest off-heap-string-table
+  (let [strs (mapv #(str "url-" (rem (long %) 113) "-ü") (range 5000))
+        ds (ds/->dataset {:s strs} {:string-table-storage :off-heap})
+        str-t (ds-base/column->string-table (ds :s))]
+    (is (str-table/off-heap-string-table? str-t))
+    (is (= strs (vec (ds :s))))
+    (is (= 114 (count (str-table/int->string str-t))))
+    (let [merged (str-table/merge-string-tables str-t str-t)]
+      (is (str-table/off-heap-string-table? merged))
+      (is (= (concat strs strs) (vec merged))))
+    (is (= (concat strs strs)
+           (vec ((ds/concat-copying ds ds) :s))))
+    ;;Strings spanning growing and full size chunks
+    (let [dict (tech.v3.dataset.ByteStringDict. 4 64)
+          uniq (distinct strs)]
+      (run! #(.intern dict %) uniq)
+      (is (= uniq (vec dict)))
+      (is (= (reduce + (map #(count (.getBytes ^String % "UTF-8")) uniq))
+             (.offHeapBytes dict))))))
+
+
 (deftest concat-copying-object-fail
   (let [ds1 (ds/->dataset {:a [["A" 1]["B" 1]]})
         ds2 (ds/->dataset {:a [["A" 2]["B" 2]]})
@@ -1488,6 +1560,94 @@
 
 
 
+(deftest rolling-incremental-kernels
+  (let [ds (ds/->dataset {:a (map #(Math/sin (* 0.37 (double %))) (range 500))
+                          :t (range 0 1000 2)})
+        reducers {:sum (ds-roll/sum :a)
+                  :mean (ds-roll/mean :a)
+                  :min (ds-roll/min :a)
+                  :max (ds-roll/max :a)
+                  :median (ds-roll/median :a)
+                  :q90 (ds-roll/quantile :a 0.9)}
+        check (fn [kernel-ds generic-ds colnames]
+                (doseq [colname colnames]
+                  (is (dfn/equals (dtype/->double-array (kernel-ds colname))
+                                  (dtype/->double-array (generic-ds colname))
+                                  1e-8)
+                      (str colname))))]
+    (doseq [pos [:left :center :right]
+            edge-mode [:clamp :zero]]
+      (let [window {:window-type :fixed
+                    :window-size 11
+                    :relative-window-position pos
+                    :edge-mode edge-mode}
+            reducers (assoc reducers
+                            :variance (ds-roll/variance :a)
+                            :stddev (ds-roll/standard-deviation :a))]
+        (check (ds-roll/rolling ds window reducers)
+               (ds-roll/rolling ds window reducers {:incremental? false})
+               (keys reducers))))
+    (doseq [pos [:left :center :right]]
+      (let [window {:window-type :variable
+                    :window-size 15
+                    :column-name :t
+                    :relative-window-position pos}]
+        (check (ds-roll/rolling ds window reducers)
+               (ds-roll/rolling ds window reducers {:incremental? false})
+               (keys reducers))))
+    (check (ds-roll/expanding ds reducers)
+           (ds-roll/expanding ds reducers {:incremental? false})
+           (keys reducers))))
+
+
+(deftest grouped-rolling
+  (let [n-rows 1000
+        rng (java.util.Random. 7)
+        ds (ds/->dataset {:sym (mapv #(nth ["A" "B" "C" "D"] (rem (long %) 4)) (range n-rows))
+                          :time (vec (shuffle (range n-rows)))
+                          :price (mapv (fn [_] (.nextDouble rng)) (range n-rows))})
+        reducers {:mean (ds-roll/mean :price)
+                  :max (ds-roll/max :price)
+                  :last {:column-name :price
+                         :reducer (fn [rdr] (rdr -1))
+                         :datatype :float64}}
+        expected (fn [roll-fn]
+                   ;;group, roll each group ordered by time and map back to row order
+                   (let [row-vals (java.util.HashMap.)]
+                     (doseq [[_ group-ds] (ds/group-by-column (ds/add-column ds :row (range n-rows))
+                                                              :sym)]
+                       (let [result (roll-fn (ds/sort-by-column group-ds :time))]
+                         (doseq [row (ds/mapseq-reader result)]
+                           (.put row-vals (:row row) row))))
+                     (mapv #(.get row-vals %) (range n-rows))))
+        check (fn [result expected]
+                (doseq [k (keys reducers)]
+                  (is (dfn/equals (dtype/->double-array (result k))
+                                  (dtype/->double-array (map k expected))
+                                  1e-8)
+                      (str k))))]
+    (let [result (ds-roll/rolling ds {:window-size 5
+                                      :relative-window-position :left
+                                      :group-by :sym
+                                      :order-by :time}
+                                  reducers)]
+      (is (= (vec (ds :price)) (vec (result :price))))
+      (check result (expected #(ds-roll/rolling % {:window-size 5
+                                                   :relative-window-position :left}
+                                                reducers))))
+    (check (ds-roll/rolling ds {:window-type :variable
+                                :window-size 50
+                                :group-by :sym
+                                :order-by :time}
+                            reducers)
+           (expected #(ds-roll/rolling % {:window-type :variable
+                                          :window-size 50
+                                          :column-name :time}
+                                       reducers)))
+    (check (ds-roll/expanding ds reducers {:group-by :sym :order-by :time})
+           (expected #(ds-roll/expanding % reducers)))))
+
+
 (deftest rolling-multi-column-reducer
   (let [ds (ds/->dataset {:a (range 100)
                           :b (range 100)})
@@ -2,6 +2,7 @@
   (:require [tech.v3.libs.arrow :as arrow]
             [tech.v3.dataset :as ds]
             [tech.v3.dataset.column :as ds-col]
+            [tech.v3.dataset.protocols :as ds-proto]
             [tech.v3.dataset.impl.sparse-column :as sparse-col]
             [tech.v3.datatype.functional :as dfn]
             [tech.v3.datatype :as dtype]
@@ -11,6 +12,7 @@
             [clojure.test :refer [deftest is]])
   (:import [java.time LocalTime]
            [tech.v3.dataset Text]
+           [tech.v3.dataset.string_table StringTable]
            [java.util Map]
            [java.io ByteArrayOutputStream ByteArrayInputStream]))
 
@@ -153,6 +155,61 @@
       (.delete (java.io.File. "alldtypes-seq.arrow")))))
 
 
+;;Many batches through the pipelined writer with pooled compression buffers - more
+;;batches than :max-in-flight so buffers are released and reused.
+(deftest pipelined-compressed-ds-seq-test
+  (try
+    (let [ds (supported-datatype-ds)
+          _ (arrow/dataset-seq->stream! "alldtypes-pipelined.arrow"
+                                        {:compression :zstd
+                                         :strings-as-text? false
+                                         :max-in-flight 1}
+                                        (repeat 5 ds))
+          ds-seq (arrow/stream->dataset-seq "alldtypes-pipelined.arrow" {:key-fn keyword})]
+      (is (= 5 (count ds-seq)))
+      (doseq [read-ds ds-seq
+              col (vals ds)]
+        (let [cname ((meta col) :name)]
+          (is (= (vec col) (vec (read-ds cname))) (str "pipelined failure " cname)))))
+    (finally
+      (.delete (java.io.File. "alldtypes-pipelined.arrow")))))
+
+
+;;Compressed columns read via mmap are decompressed on first access and with a small
+;;cache budget evicted column data is decompressed again.
+(deftest lazy-decompression-mmap-test
+  (try
+    (let [ds (supported-datatype-ds 1000)
+          _ (arrow/dataset->stream! ds "alldtypes-lazy.arrow" {:compression :zstd})]
+      (doseq [options [{:open-type :mmap :key-fn keyword}
+                       {:open-type :mmap :key-fn keyword :decompression-cache-bytes 4096}
+                       {:open-type :mmap :key-fn keyword :lazy-decompression? false}]]
+        (let [mmap-ds (arrow/stream->dataset "alldtypes-lazy.arrow" options)]
+          (dotimes [_ 2]
+            (doseq [col (vals ds)]
+              (let [cname ((meta col) :name)
+                    mcol (mmap-ds cname)]
+                (is (= (dtype/elemwise-datatype col) (dtype/elemwise-datatype mcol))
+                    (str "lazy datatype failure " cname))
+                (is (= (vec col) (vec mcol)) (str "lazy failure " cname))))))
+        ;;Dictionary encoded strings keep their StringTable
+        (is (instance? StringTable
+                       (ds-proto/column-data
+                        ((arrow/stream->dataset "alldtypes-lazy.arrow" options) :strings)))))
+      ;;Data decompressed inside a resource context outlives it
+      (let [mmap-ds (resource/stack-resource-context
+                     (let [mmap-ds (arrow/stream->dataset "alldtypes-lazy.arrow"
+                                                          {:open-type :mmap :key-fn keyword
+                                                           :resource-type :gc})]
+                       (doseq [col (vals mmap-ds)] (vec col))
+                       mmap-ds))]
+        (System/gc)
+        (doseq [col (vals ds)]
+          (is (= (vec col) (vec (mmap-ds ((meta col) :name))))))))
+    (finally
+      (.delete (java.io.File. "alldtypes-lazy.arrow")))))
+
+
 (deftest simple-stocks
     (try
       (let [stocks (ds/->dataset "test/data/stocks.csv")
@@ -26,3 +26,37 @@
       (is (some? (ds/column ds "column::2")))
       (is (some? (ds/column ds "column::4")))
       (is (some? (ds/column ds "column-1::6"))))))
+
+
+(defn- parallel-csv-matches-serial
+  [string-tail?]
+  (let [fname (str (java.io.File/createTempFile "parallel-csv" ".csv"))
+        n-rows 200000
+        _ (spit fname
+                (with-out-str
+                  (println "a,b,c")
+                  (dotimes [idx n-rows]
+                    ;;Quoted newlines, promotion to float in a late range and
+                    ;;optionally promotion to string in the last rows.
+                    (println (str idx ","
+                                  (if (== 0 (rem idx 7)) "\"x,\n\"\"y\"\"\"" "z") ","
+                                  (cond
+                                    (and string-tail? (> idx (- n-rows 3))) "str"
+                                    (> idx (quot n-rows 2)) (* 0.5 idx)
+                                    :else (rem idx 100)))))))
+        serial (csv-parse/csv->dataset fname)
+        parallel (csv-parse/csv->dataset-parallel fname {:csv-n-chunks 8})]
+    (is (= (ds/row-count serial) (ds/row-count parallel)))
+    (is (= (mapv (comp :datatype meta) (ds/columns serial))
+           (mapv (comp :datatype meta) (ds/columns parallel))))
+    (doseq [cname (ds/column-names serial)]
+      (is (= (vec (serial cname)) (vec (parallel cname))) (str cname)))
+    (is (= (ds/row-count serial)
+           (ds/row-count (ds/->dataset fname {:csv-parallel? true}))))
+    (.delete (java.io.File. fname))))
+
+
+(deftest parallel-csv-test
+  (parallel-csv-matches-serial false)
+  ;;Integers stringified as "0.0" by the serial parser once it had widened to float64.
+  (parallel-csv-matches-serial true))
@@ -0,0 +1,146 @@
+(ns tech.v3.libs.dataset-cache-test
+  (:require [tech.v3.libs.guava.dataset-cache :as ds-cache]
+            [tech.v3.dataset :as ds]
+            [clojure.test :refer [deftest is]])
+  (:import [java.io File]
+           [java.nio.file Files]
+           [java.nio.file.attribute FileAttribute]
+           [java.util.concurrent Executors TimeUnit]))
+
+
+(defn- numbers-ds
+  [^long n-rows]
+  (ds/->dataset {:a (long-array (range n-rows))
+                 :b (mapv #(str "s" (rem (long %) 10)) (range n-rows))}))
+
+
+(deftest estimate-bytes-ordering
+  (is (< (ds-cache/estimate-bytes (numbers-ds 100))
+         (ds-cache/estimate-bytes (numbers-ds 10000))))
+  (is (<= (* 8 10000) (ds-cache/estimate-bytes (numbers-ds 10000))))
+  ;;Off-heap dictionaries count their reserved native memory
+  (is (<= 65536 (ds-cache/estimate-bytes
+                 (ds/->dataset {:b (mapv #(str "s" %) (range 100))}
+                               {:string-table-storage :off-heap})))))
+
+
+(deftest byte-weighted-eviction
+  (let [n-calls (atom 0)
+        cached (ds-cache/memoize (fn [n] (swap! n-calls inc) (numbers-ds n))
+                                 :max-bytes (* 150 1024)
+                                 :concurrency-level 1)]
+    (cached 10000)
+    (cached 10000)
+    (is (= 1 @n-calls))
+    (cached 10001)
+    (is (= 2 @n-calls))
+    (cached 10000)
+    (is (= 3 @n-calls))
+    (let [stats (ds-cache/memo-stats cached)]
+      (is (pos? (long (:eviction-count stats))))
+      (is (<= (long (:estimated-bytes stats)) (* 150 1024)))
+      (is (= 0 (:spill-count stats))))))
+
+
+(deftest spill-round-trip
+  (let [spill-dir (.toFile (Files/createTempDirectory "ds-cache"
+                                                     (make-array FileAttribute 0)))
+        n-calls (atom 0)
+        cached (ds-cache/memoize (fn [n] (swap! n-calls inc) (numbers-ds n))
+                                 :max-bytes (* 150 1024)
+                                 :concurrency-level 1
+                                 :spill-dir spill-dir)]
+    (try
+      (let [original (cached 10000)]
+        (cached 10001)
+        (is (= 1 (:spill-count (ds-cache/memo-stats cached))))
+        (let [unspilled (cached 10000)]
+          (is (= 2 @n-calls))
+          (is (= 1 (:spill-hit-count (ds-cache/memo-stats cached))))
+          (is (= (vec (original :a)) (vec (unspilled :a))))
+          (is (= (vec (original :b)) (vec (unspilled :b))))))
+      (ds-cache/clear! cached)
+      (is (= 0 (:spilled-count (ds-cache/memo-stats cached))))
+      (is (empty? (.listFiles ^File spill-dir)))
+      (finally
+        (doseq [^File f (.listFiles ^File spill-dir)]
+          (.delete f))
+        (.delete ^File spill-dir)))))
+
+
+(deftest spill-on-executor
+  (let [spill-dir (.toFile (Files/createTempDirectory "ds-cache"
+                                                     (make-array FileAttribute 0)))
+        executor (Executors/newSingleThreadExecutor)
+        cached (ds-cache/memoize numbers-ds
+                                 :max-bytes (* 150 1024)
+                                 :concurrency-level 1
+                                 :spill-dir spill-dir
+                                 :spill-executor executor)]
+    (try
+      (let [original (cached 10000)]
+        (cached 10001)
+        (.shutdown executor)
+        (is (.awaitTermination executor 10 TimeUnit/SECONDS))
+        (is (= 1 (:spill-count (ds-cache/memo-stats cached))))
+        (is (= (vec (original :a)) (vec ((cached 10000) :a))))
+        (is (= 1 (:spill-hit-count (ds-cache/memo-stats cached)))))
+      (ds-cache/clear! cached)
+      (finally
+        (.shutdownNow executor)
+        (doseq [^File f (.listFiles ^File spill-dir)]
+          (.delete f))
+        (.delete ^File spill-dir)))))
+
+
+(deftest removal-keeps-reloaded-entries
+  (let [m (java.util.concurrent.ConcurrentHashMap.)
+        old-ds (numbers-ds 10)
+        new-ds (numbers-ds 10)]
+    (.put m [1] (object-array [new-ds 42]))
+    ;;A late removal of the dataset previously cached for [1] leaves the new entry
+    (is (nil? (#'ds-cache/remove-owned! m [1] old-ds)))
+    (is (= 42 (#'ds-cache/owned-value m [1] new-ds)))
+    (is (= 42 (#'ds-cache/remove-owned! m [1] new-ds)))
+    (is (.isEmpty m)))
+  (let [cached (ds-cache/memoize numbers-ds :max-bytes (* 1024 1024))]
+    (cached 100)
+    (ds-cache/clear! cached)
+    (cached 100)
+    (is (= (ds-cache/estimate-bytes (numbers-ds 100))
+           (:estimated-bytes (ds-cache/memo-stats cached))))))
+
+
+(deftest spill-budget-and-expiry
+  (let [spill-dir (.toFile (Files/createTempDirectory "ds-cache"
+                                                     (make-array FileAttribute 0)))]
+    (try
+      ;;Spills over the byte budget are deleted
+      (let [cached (ds-cache/memoize numbers-ds
+                                     :max-bytes (* 150 1024)
+                                     :spill-dir spill-dir
+                                     :max-spill-bytes 1)]
+        (cached 10000)
+        (cached 10001)
+        (let [stats (ds-cache/memo-stats cached)]
+          (is (= 1 (:spill-count stats)))
+          (is (= 0 (:spilled-count stats)))
+          (is (= 0 (:spilled-bytes stats))))
+        (is (empty? (.listFiles ^File spill-dir))))
+      ;;Spills past their access ttl are swept on the next load
+      (let [cached (ds-cache/memoize numbers-ds
+                                     :max-bytes (* 150 1024)
+                                     :access-ttl-ms 50
+                                     :spill-dir spill-dir)]
+        (cached 10000)
+        (cached 10001)
+        (is (= 1 (:spilled-count (ds-cache/memo-stats cached))))
+        (is (pos? (long (:spilled-bytes (ds-cache/memo-stats cached)))))
+        (Thread/sleep 100)
+        (cached 10)
+        (is (= 0 (:spilled-count (ds-cache/memo-stats cached))))
+        (is (empty? (.listFiles ^File spill-dir))))
+      (finally
+        (doseq [^File f (.listFiles ^File spill-dir)]
+          (.delete f))
+        (.delete ^File spill-dir)))))
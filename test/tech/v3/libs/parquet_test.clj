@@ -122,3 +122,130 @@
 
 (deftest issue-401-paruet-missing-column
   (is (= 4 (ds/column-count (ds/->dataset "test/data/2024-03-03.parquet")))))
+
+
+(deftest columnar-writer-row-groups
+  (try
+    (let [ames (ds/->dataset "test/data/ames-house-prices/train.csv")
+          ;;Small block size forces many row groups.
+          _ (parquet/ds->parquet ames "ames-columnar.parquet" {:block-size 65536})
+          _ (parquet/ds->parquet ames "ames-row.parquet" {:parquet-writer :row})
+          col-ds (ds/->dataset "ames-columnar.parquet"
+                               {:disable-parquet-warn-on-multiple-datasets true})
+          row-ds (ds/->dataset "ames-row.parquet")]
+      (is (< 1 (count (parquet/parquet->ds-seq "ames-columnar.parquet"))))
+      (is (= (ds/row-count ames) (ds/row-count col-ds)))
+      (is (= (ds/missing (row-ds "LotFrontage"))
+             (ds/missing (col-ds "LotFrontage"))))
+      (is (= (vec (row-ds "CentralAir"))
+             (vec (col-ds "CentralAir"))))
+      (is (dfn/equals (row-ds "SalePrice") (col-ds "SalePrice"))))
+    (finally
+      (.delete (java.io.File. "ames-columnar.parquet"))
+      (.delete (java.io.File. "ames-row.parquet")))))
+
+
+(deftest columnar-writer-coalesces-datasets
+  (try
+    (let [ds-seq (map #(ds/->dataset {:a (range (* 10 %) (* 10 (inc %)))
+                                      :b (repeat 10 (even? %))})
+                      (range 20))
+          _ (parquet/ds-seq->parquet "coalesced.parquet" ds-seq)
+          groups (vec (parquet/parquet->ds-seq "coalesced.parquet"
+                                               {:key-fn keyword}))]
+      (is (= 1 (count groups)))
+      (is (= (vec (range 200)) (vec ((first groups) :a))))
+      (is (= (vec (mapcat #(repeat 10 (even? %)) (range 20)))
+             (vec ((first groups) :b)))))
+    (finally
+      (.delete (java.io.File. "coalesced.parquet")))))
+
+
+(deftest columnar-writer-closes-stream-on-failure
+  (let [closed? (atom false)
+        os (proxy [java.io.ByteArrayOutputStream] []
+             (close [] (reset! closed? true)))]
+    (is (thrown? Exception
+                 (parquet/ds-seq->parquet os (lazy-cat [(ds/->dataset {:a [1 2]})]
+                                                       (throw (Exception. "failed read"))))))
+    (is @closed?)))
+
+
+(deftest mmap-open-type
+  (try
+    (let [ames (ds/->dataset "test/data/ames-house-prices/train.csv")
+          _ (parquet/ds->parquet ames "ames-mmap.parquet" {:block-size 65536})
+          default-seq (vec (parquet/parquet->ds-seq "ames-mmap.parquet"))
+          mmap-seq (vec (parquet/parquet->ds-seq "ames-mmap.parquet" {:open-type :mmap}))]
+      (is (< 1 (count mmap-seq)))
+      (is (= (map ds/row-count default-seq) (map ds/row-count mmap-seq)))
+      (is (= (map ds/column-names default-seq) (map ds/column-names mmap-seq)))
+      (is (= (vec ((apply ds/concat default-seq) "SalePrice"))
+             (vec ((apply ds/concat mmap-seq) "SalePrice"))))
+      (is (= 2 (ds/column-count
+                (ds/->dataset "ames-mmap.parquet"
+                              {:open-type :mmap
+                               :column-allowlist ["SalePrice" "CentralAir"]
+                               :disable-parquet-warn-on-multiple-datasets true})))))
+    (finally
+      (.delete (java.io.File. "ames-mmap.parquet"))))
+  (let [ds (ds/->dataset "test/data/nested.parquet" {:open-type :mmap})]
+    (is (= [1 nil 2 nil 3 nil nil] (vec (ds "id"))))
+    (is (= ["va" "vb" nil nil "vb" nil nil] (vec (ds "val2.key_value.key"))))))
+
+
+(deftest predicate-fractional-literals
+  (try
+    ;;Ten row groups of ten rows each - 0-9, 10-19, ...
+    (parquet/ds->parquet (ds/->dataset {:a (long-array (range 100))})
+                         "fractional-pred.parquet" {:block-size 90})
+    (let [n-groups #(count (parquet/parquet->ds-seq "fractional-pred.parquet"
+                                                    {:key-fn keyword :predicate %}))]
+      (is (= 10 (n-groups nil)))
+      (is (= 2 (n-groups [:< :a 10.5])))
+      (is (= 1 (n-groups [:<= :a 9.5])))
+      (is (= 9 (n-groups [:> :a 9.5])))
+      (is (= 9 (n-groups [:>= :a 10.5])))
+      (is (= 0 (n-groups [:= :a 10.5])))
+      (is (= 1 (n-groups [:= :a 10])))
+      (is (= 10 (n-groups [:< :a 1e30])))
+      (is (= 0 (n-groups [:> :a 1e30]))))
+    (finally
+      (.delete (java.io.File. "fractional-pred.parquet")))))
+
+
+(deftest predicate-pushdown
+  (try
+    (let [stocks (-> (ds/->dataset "test/data/stocks.csv" {:key-fn keyword})
+                     (ds/sort-by-column :date))
+          _ (parquet/ds->parquet stocks "stocks-pred.parquet" {:block-size 4096})
+          n-groups (count (parquet/parquet->ds-seq "stocks-pred.parquet"))
+          start (java.time.LocalDate/parse "2008-01-01")
+          end (java.time.LocalDate/parse "2008-12-31")
+          in-range? #(and (not (.isBefore ^java.time.LocalDate % start))
+                          (not (.isAfter ^java.time.LocalDate % end)))
+          pred-seq (vec (parquet/parquet->ds-seq "stocks-pred.parquet"
+                                                 {:key-fn keyword
+                                                  :predicate [:between :date start end]}))
+          expected (ds/filter-column stocks :date in-range?)
+          filtered (-> (apply ds/concat pred-seq)
+                       (ds/filter-column :date in-range?))]
+      (is (< 1 n-groups))
+      (is (< (count pred-seq) n-groups))
+      (is (= (ds/row-count expected) (ds/row-count filtered)))
+      (is (= (vec (expected :price)) (vec (filtered :price))))
+      (is (= (count pred-seq)
+             (count (parquet/parquet->ds-seq "stocks-pred.parquet"
+                                             {:key-fn keyword
+                                              :open-type :mmap
+                                              :predicate [:between :date start end]}))))
+      (is (== 0 (count (parquet/parquet->ds-seq "stocks-pred.parquet"
+                                                {:predicate [:in "symbol" ["NOPE"]]}))))
+      (is (== 1 (count (parquet/parquet->ds-seq
+                        "stocks-pred.parquet"
+                        {:row-group-filter (let [first? (volatile! true)]
+                                             (fn [_] (let [rv @first?]
+                                                       (vreset! first? false)
+                                                       rv)))})))))
+    (finally
+      (.delete (java.io.File. "stocks-pred.parquet")))))